@@ -18,10 +18,12 @@
 package org.ccnx.ccn;
 
 import java.io.IOException;
+import java.util.List;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 
 import org.ccnx.ccn.config.ConfigurationException;
+import org.ccnx.ccn.config.SystemConfiguration;
 import org.ccnx.ccn.impl.CCNNetworkManager;
 import org.ccnx.ccn.impl.security.keys.BasicKeyManager;
 import org.ccnx.ccn.impl.support.Log;
@@ -58,8 +60,24 @@ public class CCNHandle implements CCNBase {
 	 * A CCNNetworkManager embodies a connection to ccnd.
 	 */
 	protected final CCNNetworkManager _networkManager;
-	protected final Object _openLock = new Object();
-	protected boolean _isOpen = false;
+
+	/*
+	 * Handle lifecycle. Operations don't take a lock; they count themselves in _inFlight
+	 * and then check _state. close() moves the handle to CLOSING, so no new operations
+	 * start, waits for the ones in flight to drain and only then shuts down the network
+	 * manager. Blocking gets aren't counted, as they could hold up close() for their whole
+	 * timeout; shutting down the network manager wakes them instead.
+	 */
+	protected static final int OPEN = 0;
+	protected static final int CLOSING = 1;
+	protected static final int CLOSED = 2;
+	protected final AtomicInteger _state = new AtomicInteger(CLOSED);
+	protected final AtomicInteger _inFlight = new AtomicInteger(0);
+
+	/**
+	 * How long close() waits for operations in flight before shutting down anyway.
+	 */
+	protected static final long CLOSE_DRAIN_TIMEOUT = SystemConfiguration.SHORT_TIMEOUT;
 	
 	/*
 	 * In order to have a handle automaticaly add a scope to every Interest, we provide a way to set
@@ -167,9 +185,7 @@ public class CCNHandle implements CCNBase {
 			throw ex;
 		}
 			
-		synchronized(_openLock) {
-			_isOpen = true;
-		}
+		_state.set(OPEN);
 		
 		if( Log.isLoggable(Log.FAC_NETMANAGER, Level.INFO) )
 			Log.info(Log.FAC_NETMANAGER, formatMessage("Handle is now open"));
@@ -208,14 +224,36 @@ public class CCNHandle implements CCNBase {
 	 * @return the CCN network manager
 	 */
 	public CCNNetworkManager getNetworkManager() { 
-		synchronized(_openLock) {
-			if( !_isOpen )
-				return null;
-		}
+		if (_state.get() != OPEN)
+			return null;
+		return _networkManager;
+	}
 
+	/**
+	 * Start an operation on this handle. Every successful call must be matched by a call
+	 * to endOperation() once the network manager is done with it.
+	 * @return the network manager, or null if the handle is closing or closed
+	 */
+	protected CCNNetworkManager beginOperation() {
+		_inFlight.incrementAndGet();
+		if (_state.get() != OPEN) {
+			endOperation();
+			return null;
+		}
 		return _networkManager;
 	}
 
+	protected void endOperation() {
+		_inFlight.decrementAndGet();
+	}
+
+	/**
+	 * @return true if the handle is open. It may be closed by another thread at any time.
+	 */
+	public boolean isOpen() {
+		return _state.get() == OPEN;
+	}
+
 //	/**
 //	 * Change the KeyManager this CCNHandle is using.
 //	 * @param keyManager the new KeyManager to use
@@ -312,17 +350,16 @@ public class CCNHandle implements CCNBase {
 	 */
 	public ContentObject get(Interest interest, long timeout) throws IOException {		
 		while (true) {
-			synchronized(_openLock) {
-				if( !_isOpen )
-					throw new IOException(formatMessage("Handle is closed"));
-			}
+			CCNNetworkManager networkManager = getNetworkManager();
+			if (null == networkManager)
+				throw new IOException(formatMessage("Handle is closed"));
 			try {
 				if (_scope != disableScope) {
 					if (interest.scope() == null) {
 						interest.scope(_scope);
 					}
 				}
-				return getNetworkManager().get(interest, timeout);
+				return networkManager.get(interest, timeout);
 			} catch (InterruptedException e) {}
 		}
 	}
@@ -341,22 +378,44 @@ public class CCNHandle implements CCNBase {
 	public ContentObject put(ContentObject co) throws IOException {
 		boolean interrupted = false;
 		do {
-			synchronized(_openLock) {
-				if( !_isOpen )
-					throw new IOException(formatMessage("Handle is closed"));
-			}
+			CCNNetworkManager networkManager = beginOperation();
+			if (null == networkManager)
+				throw new IOException(formatMessage("Handle is closed"));
 
 			try {
 				if( Log.isLoggable(Level.FINEST) )
 					Log.finest(Log.FAC_NETMANAGER, formatMessage("Putting content on wire: " + co.name()));
-				return getNetworkManager().put(co);
+				return networkManager.put(co);
 			} catch (InterruptedException e) {
 				interrupted = true;
+			} finally {
+				endOperation();
 			}
 		} while (interrupted);
 		return null;
 	}
 
+	/**
+	 * Put a batch of content objects into the network. The objects are written to ccnd
+	 * together, using as few writes as possible. The same flow balance caveats as for
+	 * put(ContentObject) apply to each object.
+	 * @param cos the content objects to write. These should be complete and well-formed.
+	 * @throws IOException
+	 */
+	public void put(List<ContentObject> cos) throws IOException {
+		CCNNetworkManager networkManager = beginOperation();
+		if (null == networkManager)
+			throw new IOException(formatMessage("Handle is closed"));
+
+		if( Log.isLoggable(Level.FINEST) )
+			Log.finest(Log.FAC_NETMANAGER, formatMessage("Putting " + cos.size() + " content objects on wire"));
+		try {
+			networkManager.put(cos);
+		} finally {
+			endOperation();
+		}
+	}
+
 	/**
 	 * Register a standing interest filter with callback to receive any 
 	 * matching interests seen
@@ -368,12 +427,15 @@ public class CCNHandle implements CCNBase {
 		if( Log.isLoggable(Level.FINE) )
 			Log.fine(Log.FAC_NETMANAGER, formatMessage("registerFilter " + filter.toString()));
 
-		synchronized(_openLock) {
-			if( !_isOpen )
-				throw new IOException(formatMessage("Handle is closed"));
-		}
+		CCNNetworkManager networkManager = beginOperation();
+		if (null == networkManager)
+			throw new IOException(formatMessage("Handle is closed"));
 
-		getNetworkManager().setInterestFilter(filter, callbackHandler);
+		try {
+			networkManager.setInterestFilter(filter, callbackHandler);
+		} finally {
+			endOperation();
+		}
 	}
 	
 	@Deprecated
@@ -382,12 +444,15 @@ public class CCNHandle implements CCNBase {
 		if( Log.isLoggable(Level.FINE) )
 			Log.fine(Log.FAC_NETMANAGER, formatMessage("registerFilter " + filter.toString()));
 
-		synchronized(_openLock) {
-			if( !_isOpen )
-				throw new IOException(formatMessage("Handle is closed"));
-		}
+		CCNNetworkManager networkManager = beginOperation();
+		if (null == networkManager)
+			throw new IOException(formatMessage("Handle is closed"));
 
-		getNetworkManager().setInterestFilter(filter, callbackListener);
+		try {
+			networkManager.setInterestFilter(filter, callbackListener);
+		} finally {
+			endOperation();
+		}
 	}
 	
 	/**
@@ -401,14 +466,17 @@ public class CCNHandle implements CCNBase {
 		if( Log.isLoggable(Level.FINE) )
 			Log.fine(Log.FAC_NETMANAGER, formatMessage("unregisterFilter " + filter.toString()));
 
-		synchronized(_openLock) {
-			if( !_isOpen ) {
-				Log.warning(formatMessage("Called unregisterFilter on a closed handle"));
-				return;
-			}
+		CCNNetworkManager networkManager = beginOperation();
+		if (null == networkManager) {
+			Log.warning(formatMessage("Called unregisterFilter on a closed handle"));
+			return;
 		}
 
-		getNetworkManager().cancelInterestFilter(filter, callbackHandler);		
+		try {
+			networkManager.cancelInterestFilter(filter, callbackHandler);
+		} finally {
+			endOperation();
+		}
 	}
 	
 	@Deprecated
@@ -417,14 +485,17 @@ public class CCNHandle implements CCNBase {
 		if( Log.isLoggable(Level.FINE) )
 			Log.fine(Log.FAC_NETMANAGER, formatMessage("unregisterFilter " + filter.toString()));
 
-		synchronized(_openLock) {
-			if( !_isOpen ) {
-				Log.warning(formatMessage("Called unregisterFilter on a closed handle"));
-				return;
-			}
+		CCNNetworkManager networkManager = beginOperation();
+		if (null == networkManager) {
+			Log.warning(formatMessage("Called unregisterFilter on a closed handle"));
+			return;
 		}
 
-		getNetworkManager().cancelInterestFilter(filter, callbackListener);		
+		try {
+			networkManager.cancelInterestFilter(filter, callbackListener);
+		} finally {
+			endOperation();
+		}
 	}
 	
 	/**
@@ -454,28 +525,58 @@ public class CCNHandle implements CCNBase {
 		if( Log.isLoggable(Level.FINE) )
 			Log.fine(Log.FAC_NETMANAGER, formatMessage("expressInterest " + interest.name().toString()));
 
-		synchronized(_openLock) {
-			if( !_isOpen )
-				throw new IOException(formatMessage("Handle is closed"));
-		}
+		CCNNetworkManager networkManager = beginOperation();
+		if (null == networkManager)
+			throw new IOException(formatMessage("Handle is closed"));
 
-		// Will add the interest to the listener.
-		getNetworkManager().expressInterest(interest, handler);
+		try {
+			// Will add the interest to the listener.
+			networkManager.expressInterest(interest, handler);
+		} finally {
+			endOperation();
+		}
 	}
 	
+	/**
+	 * Express several interests at once, with a common handler. The interests are
+	 * written to ccnd together, using as few writes as possible.
+	 * @see #expressInterest(Interest, CCNContentHandler)
+	 * @param interests
+	 * @param handler
+	 */
+	public void expressInterests(
+			List<Interest> interests,
+			final CCNContentHandler handler) throws IOException {
+		if( Log.isLoggable(Level.FINE) )
+			Log.fine(Log.FAC_NETMANAGER, formatMessage("expressInterests " + interests.size() + " interests"));
+
+		CCNNetworkManager networkManager = beginOperation();
+		if (null == networkManager)
+			throw new IOException(formatMessage("Handle is closed"));
+
+		try {
+			networkManager.expressInterests(interests, handler);
+		} finally {
+			endOperation();
+		}
+	}
+
 	public void registerInterest(
 			Interest interest,
 			final CCNContentHandler handler) throws IOException {
 		if( Log.isLoggable(Level.FINE) )
 			Log.fine(Log.FAC_NETMANAGER, formatMessage("expressInterest " + interest.name().toString()));
 
-		synchronized(_openLock) {
-			if( !_isOpen )
-				throw new IOException(formatMessage("Handle is closed"));
-		}
+		CCNNetworkManager networkManager = beginOperation();
+		if (null == networkManager)
+			throw new IOException(formatMessage("Handle is closed"));
 
-		// Will add the interest to the listener.
-		getNetworkManager().registerInterest(interest, handler);
+		try {
+			// Will add the interest to the listener.
+			networkManager.registerInterest(interest, handler);
+		} finally {
+			endOperation();
+		}
 	}
 	
 	@Deprecated
@@ -485,34 +586,37 @@ public class CCNHandle implements CCNBase {
 		if( Log.isLoggable(Level.FINE) )
 			Log.fine(Log.FAC_NETMANAGER, formatMessage("expressInterest " + interest.name().toString()));
 
-		synchronized(_openLock) {
-			if( !_isOpen )
-				throw new IOException(formatMessage("Handle is closed"));
-		}
+		CCNNetworkManager networkManager = beginOperation();
+		if (null == networkManager)
+			throw new IOException(formatMessage("Handle is closed"));
 
-		if (_scope != disableScope) {
-			if (interest.scope() == null) {
-				interest.scope(_scope);
-			}
-			CCNInterestListener myListener = new CCNInterestListener() {
-				public Interest handleContent(ContentObject data, Interest interest) {
-					Interest i = listener.handleContent(data, interest);
-					if (i != null) {
-						if (_scope != disableScope) {
-							if (i.scope() == null) {
-								i.scope(_scope);
+		try {
+			if (_scope != disableScope) {
+				if (interest.scope() == null) {
+					interest.scope(_scope);
+				}
+				CCNInterestListener myListener = new CCNInterestListener() {
+					public Interest handleContent(ContentObject data, Interest interest) {
+						Interest i = listener.handleContent(data, interest);
+						if (i != null) {
+							if (_scope != disableScope) {
+								if (i.scope() == null) {
+									i.scope(_scope);
+								}
 							}
 						}
+						return i;
 					}
-					return i;
-				}
-			};
-			getNetworkManager().expressInterest(interest, myListener);
+				};
+				networkManager.expressInterest(interest, myListener);
 
-		} else {
+			} else {
 
-			// Will add the interest to the listener.
-			getNetworkManager().expressInterest(interest, listener);
+				// Will add the interest to the listener.
+				networkManager.expressInterest(interest, listener);
+			}
+		} finally {
+			endOperation();
 		}
 	}
 
@@ -526,14 +630,17 @@ public class CCNHandle implements CCNBase {
 		if( Log.isLoggable(Level.FINE) )
 			Log.fine(Log.FAC_NETMANAGER, formatMessage("cancelInterest " + interest.name().toString()));
 
-		synchronized(_openLock) {
-			if( !_isOpen ) {
-				Log.warning(Log.FAC_NETMANAGER, formatMessage("Called cancelInterest on a closed handle"));
-				return;
-			}
+		CCNNetworkManager networkManager = beginOperation();
+		if (null == networkManager) {
+			Log.warning(Log.FAC_NETMANAGER, formatMessage("Called cancelInterest on a closed handle"));
+			return;
 		}
 
-		getNetworkManager().cancelInterest(interest, handler);
+		try {
+			networkManager.cancelInterest(interest, handler);
+		} finally {
+			endOperation();
+		}
 	}
 	
 	@Deprecated
@@ -541,14 +648,17 @@ public class CCNHandle implements CCNBase {
 		if( Log.isLoggable(Level.FINE) )
 			Log.fine(Log.FAC_NETMANAGER, formatMessage("cancelInterest " + interest.name().toString()));
 
-		synchronized(_openLock) {
-			if( !_isOpen ) {
-				Log.warning(Log.FAC_NETMANAGER, formatMessage("Called cancelInterest on a closed handle"));
-				return;
-			}
+		CCNNetworkManager networkManager = beginOperation();
+		if (null == networkManager) {
+			Log.warning(Log.FAC_NETMANAGER, formatMessage("Called cancelInterest on a closed handle"));
+			return;
 		}
 
-		getNetworkManager().cancelInterest(interest, listener);
+		try {
+			networkManager.cancelInterest(interest, listener);
+		} finally {
+			endOperation();
+		}
 	}
 
 	/**
@@ -558,14 +668,26 @@ public class CCNHandle implements CCNBase {
 		if( Log.isLoggable(Level.FINE) )
 			Log.fine(Log.FAC_NETMANAGER, formatMessage("Closing handle"));
 
-		synchronized(_openLock) {
-			if( _isOpen ) {
-				_isOpen = false;
-				_networkManager.shutdown();
-			} else {
-				Log.warning(Log.FAC_NETMANAGER, formatMessage("Handle is already closed.  DIAGNOSTIC STACK DUMP."));
-				Thread.dumpStack();
+		if (_state.compareAndSet(OPEN, CLOSING)) {
+			// No new operations can start now; let the ones in flight finish with the network manager
+			long deadline = System.currentTimeMillis() + CLOSE_DRAIN_TIMEOUT;
+			boolean interrupted = false;
+			while (_inFlight.get() > 0 && System.currentTimeMillis() < deadline) {
+				try {
+					Thread.sleep(1);
+				} catch (InterruptedException e) {
+					interrupted = true;
+				}
 			}
+			if (_inFlight.get() > 0)
+				Log.warning(Log.FAC_NETMANAGER, formatMessage("Closing handle with {0} operations still in progress"), _inFlight.get());
+			_networkManager.shutdown();
+			_state.set(CLOSED);
+			if (interrupted)
+				Thread.currentThread().interrupt();
+		} else {
+			Log.warning(Log.FAC_NETMANAGER, formatMessage("Handle is already closed.  DIAGNOSTIC STACK DUMP."));
+			Thread.dumpStack();
 		}
 
 		synchronized (CCNHandle.class) {
@@ -173,6 +173,24 @@ public class SystemConfiguration {
 	protected static final String PIPELINE_SIZE_ENV_VAR = "JAVA_PIPELINE_SIZE";
 	public static int PIPELINE_SIZE = 4;
 
+	/**
+	 * Pipeline window controller for CCNAbstractInputStream: "aimd", "delay" or "fixed".
+	 * With "fixed" the window stays at PIPELINE_SIZE, otherwise PIPELINE_SIZE is the
+	 * starting window and the window adapts up to PIPELINE_MAX_SIZE.
+	 * Default is aimd
+	 */
+	protected static final String PIPELINE_WINDOW_PROPERTY = "org.ccnx.PipelineWindow";
+	protected static final String PIPELINE_WINDOW_ENV_VAR = "JAVA_PIPELINE_WINDOW";
+	public static String PIPELINE_WINDOW = "aimd";
+
+	/**
+	 * Largest window an adaptive pipeline window may grow to
+	 * Default is 64
+	 */
+	protected static final String PIPELINE_MAX_SIZE_PROPERTY = "org.ccnx.PipelineMaxSize";
+	protected static final String PIPELINE_MAX_SIZE_ENV_VAR = "JAVA_PIPELINE_MAX_SIZE";
+	public static int PIPELINE_MAX_SIZE = 64;
+
 	/**
 	 * Pipeline segment attempts for pipeline in CCNAbstractInputStream
 	 * Default is 5
@@ -259,6 +277,139 @@ public class SystemConfiguration {
 	public static boolean DUMP_NETMANAGER_STATS = false;
 
 
+	/**
+	 * Use the name trie InterestTable implementation for the network manager's
+	 * interest and filter tables. Default is off.
+	 */
+	protected static final String INTEREST_TABLE_TRIE_PROPERTY = "org.ccnx.InterestTableTrie";
+	protected final static String INTEREST_TABLE_TRIE_ENV_VAR = "CCNX_INTEREST_TABLE_TRIE";
+	public static boolean INTEREST_TABLE_TRIE = false;
+
+	/**
+	 * Use the pipelined receive mode in CCNNetworkManager, in which packets are decoded
+	 * by a pool of threads and handlers are called from per-handler queues rather than
+	 * from the network manager's processing thread. Default is off.
+	 */
+	protected static final String PIPELINED_RECEIVE_PROPERTY = "org.ccnx.PipelinedReceive";
+	protected final static String PIPELINED_RECEIVE_ENV_VAR = "CCNX_PIPELINED_RECEIVE";
+	public static boolean PIPELINED_RECEIVE = false;
+
+	/**
+	 * Number of decoder threads used by the pipelined receive mode
+	 * Default is the number of available processors
+	 */
+	protected static final String RECEIVE_DECODE_THREADS_PROPERTY = "org.ccnx.ReceiveDecodeThreads";
+	protected final static String RECEIVE_DECODE_THREADS_ENV_VAR = "CCNX_RECEIVE_DECODE_THREADS";
+	public static int RECEIVE_DECODE_THREADS = Runtime.getRuntime().availableProcessors();
+
+	/**
+	 * Maximum time in milliseconds that CCNNetworkManager will hold an outgoing packet
+	 * so that it can be written to ccnd together with others. Default is 0, which
+	 * writes single packets immediately. Batch writes are always coalesced.
+	 */
+	protected static final String WRITE_BATCH_DELAY_PROPERTY = "org.ccnx.WriteBatchDelay";
+	protected final static String WRITE_BATCH_DELAY_ENV_VAR = "CCNX_WRITE_BATCH_DELAY";
+	public static int WRITE_BATCH_DELAY = 0;
+
+	/**
+	 * Number of bytes of pending outgoing packets at which CCNNetworkManager flushes
+	 * them to ccnd without waiting for the batch delay.
+	 */
+	protected static final String WRITE_BATCH_SIZE_PROPERTY = "org.ccnx.WriteBatchSize";
+	protected final static String WRITE_BATCH_SIZE_ENV_VAR = "CCNX_WRITE_BATCH_SIZE";
+	public static int WRITE_BATCH_SIZE = 65536;
+
+	/**
+	 * Read content from LogStructRepoStore files through memory mappings rather than a shared,
+	 * seek-and-read RandomAccessFile. Reads are then concurrent. Default is off.
+	 */
+	protected static final String REPO_MAPPED_READS_PROPERTY = "org.ccnx.RepoMappedReads";
+	protected final static String REPO_MAPPED_READS_ENV_VAR = "CCNX_REPO_MAPPED_READS";
+	public static boolean REPO_MAPPED_READS = false;
+
+	/**
+	 * Interval in seconds at which LogStructRepoStore checkpoints its index so that startup
+	 * only has to rescan the end of the log. The index is always checkpointed on shutdown.
+	 * 0 disables periodic checkpoints.
+	 */
+	protected static final String REPO_CHECKPOINT_INTERVAL_PROPERTY = "org.ccnx.RepoCheckpointInterval";
+	protected final static String REPO_CHECKPOINT_INTERVAL_ENV_VAR = "CCNX_REPO_CHECKPOINT_INTERVAL";
+	public static int REPO_CHECKPOINT_INTERVAL = 300;
+
+	/**
+	 * How often LogStructRepoStore forces saved content to disk, in milliseconds. 0 forces
+	 * every batch of saved content to disk before it is indexed. A positive value forces a
+	 * batch only if at least that long has passed since the last one was forced. Negative
+	 * values leave it to the operating system. Default is -1.
+	 */
+	protected static final String REPO_FSYNC_INTERVAL_PROPERTY = "org.ccnx.RepoFsyncInterval";
+	protected final static String REPO_FSYNC_INTERVAL_ENV_VAR = "CCNX_REPO_FSYNC_INTERVAL";
+	public static int REPO_FSYNC_INTERVAL = -1;
+
+	/**
+	 * Size in bytes at which LogStructRepoStore starts writing to a new file. 0 means never,
+	 * which is the default, so existing repositories keep writing to a single file unless this
+	 * is set. A repository started with -segmentSize overrides this.
+	 */
+	protected static final String REPO_SEGMENT_SIZE_PROPERTY = "org.ccnx.RepoSegmentSize";
+	protected final static String REPO_SEGMENT_SIZE_ENV_VAR = "CCNX_REPO_SEGMENT_SIZE";
+	public static long REPO_SEGMENT_SIZE = 0;
+
+	/**
+	 * Maximum rate in bytes per second at which the LogStructRepoStore compactor copies live
+	 * content out of files containing garbage. 0, the default, disables compaction. A
+	 * repository started with -compactRate overrides this.
+	 */
+	protected static final String REPO_COMPACT_RATE_PROPERTY = "org.ccnx.RepoCompactRate";
+	protected final static String REPO_COMPACT_RATE_ENV_VAR = "CCNX_REPO_COMPACT_RATE";
+	public static int REPO_COMPACT_RATE = 0;
+
+	/**
+	 * Approximate number of bytes of decoded content objects a repository store keeps in memory,
+	 * so that popular objects aren't read and decoded again for every interest. 0 disables.
+	 */
+	protected static final String REPO_OBJECT_CACHE_BYTES_PROPERTY = "org.ccnx.RepoObjectCacheBytes";
+	protected final static String REPO_OBJECT_CACHE_BYTES_ENV_VAR = "CCNX_REPO_OBJECT_CACHE_BYTES";
+	public static int REPO_OBJECT_CACHE_BYTES = 32 * 1024 * 1024;
+
+	/**
+	 * Index repository content with a ConcurrentContentTree, which looks up content without
+	 * locking, rather than a ContentTree. Default is off.
+	 */
+	protected static final String REPO_CONCURRENT_INDEX_PROPERTY = "org.ccnx.RepoConcurrentIndex";
+	protected final static String REPO_CONCURRENT_INDEX_ENV_VAR = "CCNX_REPO_CONCURRENT_INDEX";
+	public static boolean REPO_CONCURRENT_INDEX = false;
+
+	/**
+	 * Number of content objects whose verified signatures are remembered by each
+	 * PublicKeyCache, so that rereading them skips the public key operation. 0 disables.
+	 */
+	protected static final String VERIFIED_CONTENT_CACHE_SIZE_PROPERTY = "org.ccnx.VerifiedContentCacheSize";
+	protected final static String VERIFIED_CONTENT_CACHE_SIZE_ENV_VAR = "CCNX_VERIFIED_CONTENT_CACHE_SIZE";
+	public static int VERIFIED_CONTENT_CACHE_SIZE = 10000;
+
+	/**
+	 * Number of threads used to digest segments and build Merkle trees when signing
+	 * segmented content. 1 builds each tree on the caller's thread.
+	 */
+	protected static final String SEGMENTER_THREADS_PROPERTY = "org.ccnx.SegmenterThreads";
+	protected final static String SEGMENTER_THREADS_ENV_VAR = "CCNX_SEGMENTER_THREADS";
+	public static int SEGMENTER_THREADS = 1;
+
+	/**
+	 * Number of threads shared by all sync slice comparators in this process.
+	 */
+	protected static final String SYNC_COMPARE_THREADS_PROPERTY = "org.ccnx.SyncCompareThreads";
+	protected final static String SYNC_COMPARE_THREADS_ENV_VAR = "CCNX_SYNC_COMPARE_THREADS";
+	public static int SYNC_COMPARE_THREADS = 4;
+
+	/**
+	 * Approximate number of bytes of decoded sync nodes kept by the process wide sync node cache.
+	 */
+	protected static final String SYNC_NODE_CACHE_BYTES_PROPERTY = "org.ccnx.SyncNodeCacheBytes";
+	protected final static String SYNC_NODE_CACHE_BYTES_ENV_VAR = "CCNX_SYNC_NODE_CACHE_BYTES";
+	public static int SYNC_NODE_CACHE_BYTES = 16 * 1024 * 1024;
+
 	/**
 	 * Settable system default timeout.
 	 */
@@ -402,6 +553,15 @@ public class SystemConfiguration {
 			throw e;
 		}
 
+		// Allow choice of pipeline window controller and its limit for CCNAbstractInputStream
+		PIPELINE_WINDOW = retrievePropertyOrEnvironmentVariable(PIPELINE_WINDOW_PROPERTY, PIPELINE_WINDOW_ENV_VAR, PIPELINE_WINDOW);
+		try {
+			PIPELINE_MAX_SIZE = Integer.parseInt(retrievePropertyOrEnvironmentVariable(PIPELINE_MAX_SIZE_PROPERTY, PIPELINE_MAX_SIZE_ENV_VAR, Integer.toString(PIPELINE_MAX_SIZE)));
+		} catch (NumberFormatException e) {
+			System.err.println("The PipelineMaxSize must be an integer.");
+			throw e;
+		}
+
 		// Allow override of default pipeline size for CCNAbstractInputStream
 		try {
 			PIPELINE_SEGMENTATTEMPTS = Integer.parseInt(retrievePropertyOrEnvironmentVariable(PIPELINE_ATTEMPTS_PROPERTY, PIPELINE_ATTEMPTS_ENV_VAR, "5"));
@@ -502,6 +662,104 @@ public class SystemConfiguration {
 		OLD_HEADER_NAMES = Boolean.parseBoolean(
 				retrievePropertyOrEnvironmentVariable(OLD_HEADER_NAMES_PROPERTY, OLD_HEADER_NAMES_ENV_VAR, STRING_TRUE));
 
+		// Select the InterestTable implementation used by the network manager
+		INTEREST_TABLE_TRIE = Boolean.parseBoolean(
+				retrievePropertyOrEnvironmentVariable(INTEREST_TABLE_TRIE_PROPERTY, INTEREST_TABLE_TRIE_ENV_VAR, STRING_FALSE));
+
+		// Allow pipelined receive in CCNNetworkManager
+		PIPELINED_RECEIVE = Boolean.parseBoolean(
+				retrievePropertyOrEnvironmentVariable(PIPELINED_RECEIVE_PROPERTY, PIPELINED_RECEIVE_ENV_VAR, STRING_FALSE));
+		try {
+			RECEIVE_DECODE_THREADS = Integer.parseInt(retrievePropertyOrEnvironmentVariable(RECEIVE_DECODE_THREADS_PROPERTY, RECEIVE_DECODE_THREADS_ENV_VAR, Integer.toString(RECEIVE_DECODE_THREADS)));
+		} catch (NumberFormatException e) {
+			System.err.println("The ReceiveDecodeThreads must be an integer.");
+			throw e;
+		}
+
+		// Outgoing write coalescing in CCNNetworkManager
+		try {
+			WRITE_BATCH_DELAY = Integer.parseInt(retrievePropertyOrEnvironmentVariable(WRITE_BATCH_DELAY_PROPERTY, WRITE_BATCH_DELAY_ENV_VAR, Integer.toString(WRITE_BATCH_DELAY)));
+		} catch (NumberFormatException e) {
+			System.err.println("The WriteBatchDelay must be an integer.");
+			throw e;
+		}
+		try {
+			WRITE_BATCH_SIZE = Integer.parseInt(retrievePropertyOrEnvironmentVariable(WRITE_BATCH_SIZE_PROPERTY, WRITE_BATCH_SIZE_ENV_VAR, Integer.toString(WRITE_BATCH_SIZE)));
+		} catch (NumberFormatException e) {
+			System.err.println("The WriteBatchSize must be an integer.");
+			throw e;
+		}
+
+		// Allow mapped reads in LogStructRepoStore
+		REPO_MAPPED_READS = Boolean.parseBoolean(
+				retrievePropertyOrEnvironmentVariable(REPO_MAPPED_READS_PROPERTY, REPO_MAPPED_READS_ENV_VAR, STRING_FALSE));
+		try {
+			REPO_CHECKPOINT_INTERVAL = Integer.parseInt(retrievePropertyOrEnvironmentVariable(REPO_CHECKPOINT_INTERVAL_PROPERTY, REPO_CHECKPOINT_INTERVAL_ENV_VAR, Integer.toString(REPO_CHECKPOINT_INTERVAL)));
+		} catch (NumberFormatException e) {
+			System.err.println("The RepoCheckpointInterval must be an integer.");
+			throw e;
+		}
+		try {
+			REPO_FSYNC_INTERVAL = Integer.parseInt(retrievePropertyOrEnvironmentVariable(REPO_FSYNC_INTERVAL_PROPERTY, REPO_FSYNC_INTERVAL_ENV_VAR, Integer.toString(REPO_FSYNC_INTERVAL)));
+		} catch (NumberFormatException e) {
+			System.err.println("The RepoFsyncInterval must be an integer.");
+			throw e;
+		}
+		try {
+			REPO_SEGMENT_SIZE = Long.parseLong(retrievePropertyOrEnvironmentVariable(REPO_SEGMENT_SIZE_PROPERTY, REPO_SEGMENT_SIZE_ENV_VAR, Long.toString(REPO_SEGMENT_SIZE)));
+		} catch (NumberFormatException e) {
+			System.err.println("The RepoSegmentSize must be an integer.");
+			throw e;
+		}
+		try {
+			REPO_COMPACT_RATE = Integer.parseInt(retrievePropertyOrEnvironmentVariable(REPO_COMPACT_RATE_PROPERTY, REPO_COMPACT_RATE_ENV_VAR, Integer.toString(REPO_COMPACT_RATE)));
+		} catch (NumberFormatException e) {
+			System.err.println("The RepoCompactRate must be an integer.");
+			throw e;
+		}
+		try {
+			REPO_OBJECT_CACHE_BYTES = Integer.parseInt(retrievePropertyOrEnvironmentVariable(REPO_OBJECT_CACHE_BYTES_PROPERTY, REPO_OBJECT_CACHE_BYTES_ENV_VAR, Integer.toString(REPO_OBJECT_CACHE_BYTES)));
+		} catch (NumberFormatException e) {
+			System.err.println("The RepoObjectCacheBytes must be an integer.");
+			throw e;
+		}
+
+		// Allow a lock free index in the repository stores
+		REPO_CONCURRENT_INDEX = Boolean.parseBoolean(
+				retrievePropertyOrEnvironmentVariable(REPO_CONCURRENT_INDEX_PROPERTY, REPO_CONCURRENT_INDEX_ENV_VAR, STRING_FALSE));
+
+		// Size of the cache of verified content
+		try {
+			VERIFIED_CONTENT_CACHE_SIZE = Integer.parseInt(retrievePropertyOrEnvironmentVariable(VERIFIED_CONTENT_CACHE_SIZE_PROPERTY, VERIFIED_CONTENT_CACHE_SIZE_ENV_VAR, Integer.toString(VERIFIED_CONTENT_CACHE_SIZE)));
+		} catch (NumberFormatException e) {
+			System.err.println("The VerifiedContentCacheSize must be an integer.");
+			throw e;
+		}
+
+		// Threads used to build Merkle trees for segmented content
+		try {
+			SEGMENTER_THREADS = Integer.parseInt(retrievePropertyOrEnvironmentVariable(SEGMENTER_THREADS_PROPERTY, SEGMENTER_THREADS_ENV_VAR, Integer.toString(SEGMENTER_THREADS)));
+		} catch (NumberFormatException e) {
+			System.err.println("The SegmenterThreads must be an integer.");
+			throw e;
+		}
+
+		// Threads shared by the sync slice comparators
+		try {
+			SYNC_COMPARE_THREADS = Integer.parseInt(retrievePropertyOrEnvironmentVariable(SYNC_COMPARE_THREADS_PROPERTY, SYNC_COMPARE_THREADS_ENV_VAR, Integer.toString(SYNC_COMPARE_THREADS)));
+		} catch (NumberFormatException e) {
+			System.err.println("The SyncCompareThreads must be an integer.");
+			throw e;
+		}
+
+		// Size of the sync node cache
+		try {
+			SYNC_NODE_CACHE_BYTES = Integer.parseInt(retrievePropertyOrEnvironmentVariable(SYNC_NODE_CACHE_BYTES_PROPERTY, SYNC_NODE_CACHE_BYTES_ENV_VAR, Integer.toString(SYNC_NODE_CACHE_BYTES)));
+		} catch (NumberFormatException e) {
+			System.err.println("The SyncNodeCacheBytes must be an integer.");
+			throw e;
+		}
+
 	}
 
 	public static String getLocalHost() {
@@ -33,9 +33,11 @@ import java.util.logging.Level;
 
 import org.ccnx.ccn.config.SystemConfiguration;
 import org.ccnx.ccn.impl.CCNNetworkManager.NetworkProtocol;
+import org.ccnx.ccn.impl.encoding.BinaryXMLCodec;
 import org.ccnx.ccn.impl.encoding.BinaryXMLDecoder;
 import org.ccnx.ccn.impl.encoding.XMLEncodable;
 import org.ccnx.ccn.impl.support.Log;
+import org.ccnx.ccn.io.content.ContentDecodingException;
 
 /**
  *  This guy manages all of the access to the network connection.
@@ -101,7 +103,6 @@ public class CCNNetworkChannel extends InputStream {
 		_ncTapStreamIn = tapStreamIn;
 		_channelId = _channelIdCounter.incrementAndGet();
 		_decoder = new BinaryXMLDecoder();
-		_decoder.setResyncable(true);
 
 		if (Log.isLoggable(Log.FAC_NETMANAGER, Level.INFO))
 			Log.info(Log.FAC_NETMANAGER, "NetworkChannel {0}: Starting up CCNNetworkChannel using {1}.",  _channelId, proto.toString());
@@ -203,6 +204,9 @@ public class CCNNetworkChannel extends InputStream {
 	 * the initial read if there's nothing already in the buffer though because in TCP we could have
 	 * read in some or all of a preceding packet during the last reading.
 	 *
+	 * The packet is framed where it is in the receive buffer and decoded straight from there,
+	 * so nothing is copied except what the decoded packet keeps.
+	 *
 	 * Also it should be noted that we are relying on ccnd to guarantee that all packets sent
 	 * to us are complete ccn packets. This code does not have the ability to recover from
 	 * receiving a partial ccn packet followed by correctly formed ones.
@@ -219,9 +223,49 @@ public class CCNNetworkChannel extends InputStream {
 				if (ret <= 0 || !isConnected())
 					return null;
 			}
-			_decoder.beginDecoding(this);
+			if (framePacket() < 0)
+				return null;
+			_decoder.beginDecoding(_datagram);
 			return _decoder.getPacket();
 		}
+		waitForReconnect();
+		return null;
+	}
+
+	/**
+	 * Get the next packet from the network without decoding it. This is used by the pipelined
+	 * receive mode of CCNNetworkManager, which decodes packets on other threads. The packet is
+	 * framed by following the ccnb element structure, which is much cheaper than decoding it.
+	 *
+	 * As with getPacket we rely on ccnd to only send us complete, well formed packets.
+	 *
+	 * @return the encoded packet or null if there's no data waiting
+	 * @throws IOException
+	 */
+	public byte [] getRawPacket() throws IOException {
+		if (isConnected()) {
+			_mark = -1;
+			_readLimit = 0;
+			if (! _datagram.hasRemaining()) {
+				int ret = doReadIn(0);
+				if (ret <= 0 || !isConnected())
+					return null;
+			}
+			int length = framePacket();
+			if (length < 0)
+				return null;
+			byte [] packet = new byte[length];
+			_datagram.get(packet);
+			return packet;
+		}
+		waitForReconnect();
+		return null;
+	}
+
+	/**
+	 * If ccnd is down, this is where we sleep to avoid a busy wait and try to reconnect.
+	 */
+	private void waitForReconnect() throws IOException {
 		try {
 			if (_retry) {
 				synchronized (_opencloseLock) {
@@ -239,7 +283,102 @@ public class CCNNetworkChannel extends InputStream {
 		} catch (InterruptedException e) {
 			Log.info(Log.FAC_NETMANAGER, "NetworkChannel {0}: interrupted",  _channelId);
 		}
-		return null;
+	}
+
+	/**
+	 * Find the end of the ccnb element at the current position of the receive buffer, reading
+	 * in more data if it isn't all there yet. Only the type and value headers are interpreted,
+	 * BLOB and UDATA contents are skipped over. The element may be moved to the start of
+	 * the buffer to make room for the rest of it.
+	 *
+	 * If the data isn't well formed we move on a byte at a time until we find something that
+	 * is, in case we lost our place in a TCP stream.
+	 *
+	 * @return the length of the element, which is left at the position of the buffer, or
+	 * 	-1 if we ran out of data looking for one
+	 * @throws IOException
+	 */
+	private int framePacket() throws IOException {
+		while (true) {
+			try {
+				return frameElement();
+			} catch (ContentDecodingException cde) {
+				Log.severe(Log.FAC_NETMANAGER, "NetworkChannel {0}: saw error: {1} - attempting resync", _channelId, cde.getMessage());
+				_datagram.position(_datagram.position() + 1);
+				if (! _datagram.hasRemaining())
+					return -1;
+			}
+		}
+	}
+
+	private int frameElement() throws IOException {
+		int length = 0;
+		int opentags = 0;
+		do {
+			int type = -1;
+			long val = 0;
+			boolean more = false;
+			while (true) {
+				fillFrame(length + 1);
+				int next = _datagram.get(_datagram.position() + length++) & 0xff;
+				// detect the CLOSE marker
+				if (!more && (0 == next)) {
+					type = BinaryXMLCodec.XML_CLOSE;
+					break;
+				}
+				more = (0 == (next & BinaryXMLCodec.XML_TT_NO_MORE));
+				if (more) {
+					val = val << BinaryXMLCodec.XML_REG_VAL_BITS;
+					val |= (next & BinaryXMLCodec.XML_REG_VAL_MASK);
+				} else {
+					type = next & BinaryXMLCodec.XML_TT_MASK;
+					val = val << BinaryXMLCodec.XML_TT_VAL_BITS;
+					val |= ((next >>> BinaryXMLCodec.XML_TT_BITS) & BinaryXMLCodec.XML_TT_VAL_MASK);
+					break;
+				}
+			}
+
+			if (type == BinaryXMLCodec.XML_DTAG) {
+				opentags++;
+			} else if (type == BinaryXMLCodec.XML_CLOSE) {
+				opentags--;
+			} else if (type == BinaryXMLCodec.XML_BLOB || type == BinaryXMLCodec.XML_UDATA) {
+				if (val < 0 || val > CCNNetworkManager.MAX_PAYLOAD)
+					throw new ContentDecodingException("Invalid blob size: " + val);
+				length += (int)val;
+				fillFrame(length);
+			} else {
+				throw new ContentDecodingException("Type value invalid: " + type);
+			}
+		} while (opentags > 0);
+		return length;
+	}
+
+	/**
+	 * Make sure there are at least needed bytes from the position of the receive buffer,
+	 * reading more in if necessary. If they won't fit after the position, the data from the
+	 * position on is moved to the start of the buffer first, and the buffer is replaced by
+	 * a bigger one if they won't fit at all.
+	 */
+	private void fillFrame(int needed) throws IOException {
+		while (_datagram.remaining() < needed) {
+			int start = _datagram.position();
+			if (start + needed > _datagram.capacity()) {
+				if (needed > _datagram.capacity()) {
+					ByteBuffer datagram = ByteBuffer.allocateDirect(Math.max(needed, 2 * _datagram.capacity()));
+					datagram.put(_datagram);
+					_datagram = datagram;
+				} else {
+					_datagram.compact();
+				}
+				_datagram.flip();
+				start = 0;
+			}
+			int ret = doReadIn(_datagram.limit());
+			if (ret < 0 || !isConnected())
+				throw new IOException("Unexpected EOF");
+			_datagram.position(start);
+		}
 	}
 
 	/**
@@ -325,6 +464,53 @@ public class CCNNetworkChannel extends InputStream {
 		return -1;
 	}
 
+	/**
+	 * Write several packets to ccnd at once. With TCP this is a single gathering write.
+	 * With UDP each packet must still go out as its own datagram.
+	 * @param srcs - ByteBuffers to write, one per packet
+	 * @return - total number of bytes written
+	 * @throws IOException
+	 */
+	public long write(ByteBuffer [] srcs) throws IOException {
+		if (! isConnected())
+			return -1;
+		if (Log.isLoggable(Log.FAC_NETMANAGER, Level.FINEST))
+			Log.finest(Log.FAC_NETMANAGER,
+					"NetworkChannel {0}: write() of {1} buffers on port {2}", _channelId, srcs.length, _ncLocalPort);
+
+		try {
+			long written = 0;
+			if (_ncDGrmChannel != null) {
+				for (ByteBuffer src : srcs)
+					written += _ncDGrmChannel.write(src);
+				return written;
+			} else {
+				// XXX -this depends on synchronization in caller, as for write(ByteBuffer)
+				int offset = 0;
+				while (true) {
+					while (offset < srcs.length && !srcs[offset].hasRemaining())
+						offset++;
+					if (offset == srcs.length)
+						break;
+					if (! isConnected())
+						return -1;
+					long b = _ncSockChannel.write(srcs, offset, srcs.length - offset);
+					if (b > 0) {
+						written += b;
+					} else {
+						_ncWriteSelector.selectedKeys().clear();
+						_ncWriteSelector.select();
+					}
+				}
+				return written;
+			}
+		} catch (PortUnreachableException pue) {}
+		  catch (ClosedChannelException cce) {}
+		Log.info(Log.FAC_NETMANAGER, "NetworkChannel {0}: closing due to error on write", _channelId);
+		close(true);
+		return -1;
+	}
+
 	/**
 	 * Force wakeup from a select
 	 * @return the selector
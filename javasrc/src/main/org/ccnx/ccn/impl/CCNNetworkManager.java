@@ -24,9 +24,12 @@ import static org.ccnx.ccn.profiles.security.KeyProfile.KEY_NAME;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.nio.ByteBuffer;
 import java.nio.channels.NotYetConnectedException;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
 import java.util.TreeMap;
 import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.Semaphore;
@@ -135,8 +138,10 @@ public class CCNNetworkManager implements Runnable {
 	protected KeyManager _keyManager;
 
 	// Tables of interests/filters
-	protected InterestTable<InterestRegistration> _myInterests = new InterestTable<InterestRegistration>();
-	protected InterestTable<Filter> _myFilters = new InterestTable<Filter>();
+	protected InterestTable<InterestRegistration> _myInterests = SystemConfiguration.INTEREST_TABLE_TRIE ?
+			new NameTrieInterestTable<InterestRegistration>() : new InterestTable<InterestRegistration>();
+	protected InterestTable<Filter> _myFilters = SystemConfiguration.INTEREST_TABLE_TRIE ?
+			new NameTrieInterestTable<Filter>() : new InterestTable<Filter>();
 
 	// Prefix registration handling. Only one registration change (add or remove a registration) with ccnd is
 	// allowed at once. To enforce this, before attempting a registration change, users must acquire
@@ -170,9 +175,18 @@ public class CCNNetworkManager implements Runnable {
 	protected long _currentHandler = 0;
 	protected long _lastHandler = -1;
 
-	// Atomic cancel
-	protected InterestRegistration _beingDelivered = null;
+	// Atomic cancel. In pipelined receive mode more than one registration can be in delivery at once.
+	protected ArrayList<InterestRegistration> _beingDelivered = new ArrayList<InterestRegistration>(1);
 	protected Object _beingDeliveredLock = new Object();
+	// Registrations matched in pipelined mode whose handler hasn't been called yet. Also guarded by
+	// _beingDeliveredLock, and by identity since registrations are equal if their handlers are.
+	protected Set<InterestRegistration> _queuedForDelivery = Collections.newSetFromMap(new IdentityHashMap<InterestRegistration, Boolean>());
+
+	// Pipelined receive mode - null if packets are decoded and delivered on the processing thread
+	protected CCNReceivePipeline _receivePipeline = null;
+
+	// Coalesces outgoing packets into gathering writes to the channel
+	protected CCNWriteQueue _writeQueue = null;
 
 	/**
 	 * Keep track of prefixes that are actually registered with ccnd (as opposed to Filters used
@@ -360,6 +374,9 @@ public class CCNNetworkManager implements Runnable {
 	private void setupTimers() throws IOException {
 		synchronized (_timersSetupLock) {
 			if (!_timersSetup) {
+				if (SystemConfiguration.PIPELINED_RECEIVE)
+					_receivePipeline = new CCNReceivePipeline(this, SystemConfiguration.RECEIVE_DECODE_THREADS);
+
 				// Create main processing thread
 				_thread = new Thread(this, "CCNNetworkManager " + _managerId);
 				_thread.setPriority(Thread.MAX_PRIORITY);
@@ -437,8 +454,36 @@ public class CCNNetworkManager implements Runnable {
 		 */
 		public void deliver(ContentObject co) {
 			synchronized (_beingDeliveredLock) {
-				_beingDelivered = this;
+				_beingDelivered.add(this);
+			}
+			handle(co);
+			synchronized (_beingDeliveredLock) {
+				_beingDelivered.remove(this);
+			}
+		}
+
+		/**
+		 * Deliver content queued by the receive pipeline, unless the interest was cancelled
+		 * while it waited. The check and the move to _beingDelivered are done together so
+		 * that a cancel either stops the callback or is seen by it.
+		 */
+		public void deliverQueued(ContentObject co) {
+			synchronized (_beingDeliveredLock) {
+				_queuedForDelivery.remove(this);
+				if (cancelled) {
+					if( Log.isLoggable(Log.FAC_NETMANAGER, Level.FINER) )
+						Log.finer(Log.FAC_NETMANAGER, "Content callback skipped (cancelled) for: {0}", this.interest.name());
+					return;
+				}
+				_beingDelivered.add(this);
+			}
+			handle(co);
+			synchronized (_beingDeliveredLock) {
+				_beingDelivered.remove(this);
 			}
+		}
+
+		protected void handle(ContentObject co) {
 			try {
 				if (null != this.handler) {
 					if( Log.isLoggable(Log.FAC_NETMANAGER, Level.FINER) )
@@ -485,10 +530,6 @@ public class CCNNetworkManager implements Runnable {
 				Log.warning(Log.FAC_NETMANAGER, "failed to deliver data: {0}", ex);
 				Log.warningStackTrace(ex);
 			}
-
-			synchronized (_beingDeliveredLock) {
-				_beingDelivered = null;
-			}
 		}
 
 	} /* protected class InterestRegistration extends CallbackHandlerRegistration */
@@ -620,6 +661,7 @@ public class CCNNetworkManager implements Runnable {
 
 		_channel = new CCNNetworkChannel(_host, _port, _protocol, _tapStreamIn);
 		_channel.open();
+		_writeQueue = new CCNWriteQueue(this, _channel, SystemConfiguration.WRITE_BATCH_DELAY, SystemConfiguration.WRITE_BATCH_SIZE);
 	}
 
 	/**
@@ -633,6 +675,16 @@ public class CCNNetworkManager implements Runnable {
 			_periodicTimer.shutdownNow();
 		if (_thread != null)
 			_thread.interrupt();
+		if (null != _receivePipeline)
+			_receivePipeline.shutdown();
+		if (null != _writeQueue) {
+			try {
+				_writeQueue.flush();
+			} catch (IOException io) {
+				// Ignore since we're shutting down
+			}
+			_writeQueue.shutdown();
+		}
 		if (null != _channel) {
 			try {
 				setTap(null);
@@ -771,6 +823,29 @@ public class CCNNetworkManager implements Runnable {
 		return co;
 	}
 
+	/**
+	 * Write a batch of content to ccnd. The objects are coalesced into as few
+	 * writes to the channel as possible.
+	 *
+	 * @param cos the content
+	 * @throws ContentEncodingException if any of the objects can't be encoded. None of them are written.
+	 * @throws IOException
+	 */
+	public void put(List<ContentObject> cos) throws IOException {
+		ArrayList<byte []> packets = new ArrayList<byte []>(cos.size());
+		for (ContentObject co : cos) {
+			try {
+				packets.add(co.encode());
+			} catch (ContentEncodingException e) {
+				Log.warning(Log.FAC_NETMANAGER, formatMessage("Exception in lowest-level put for object {0}! {1}"), co.name(), e);
+				throw e;
+			}
+		}
+		_stats.increment(StatsEnum.Puts, packets.size());
+		_stats.increment(StatsEnum.WriteObject, packets.size());
+		writeInner(packets);
+	}
+
 	/**
 	 * get content matching an interest from ccnd. Expresses an interest, waits for ccnd to
 	 * return matching the data, then removes the interest and returns the data to the caller.
@@ -853,6 +928,43 @@ public class CCNNetworkManager implements Runnable {
 		registerInterest(reg);
 	}
 
+	/**
+	 * Express a batch of interests sharing a handler. The interests are all registered
+	 * before any of them are written, and are then coalesced into as few writes to the
+	 * channel as possible.
+	 *
+	 * @param interests the interests
+	 * @param handler	handler to callback on receipt of data
+	 * @throws IOException on incorrect interest
+	 */
+	public void expressInterests(
+			List<Interest> interests,
+			Object handler) throws IOException {
+		if (null == handler) {
+			throw new NullPointerException(formatMessage("expressInterests: callbackHandler cannot be null"));
+		}
+
+		ArrayList<InterestRegistration> regs = new ArrayList<InterestRegistration>(interests.size());
+		ArrayList<byte []> packets = new ArrayList<byte []>(interests.size());
+		try {
+			for (Interest interest : interests) {
+				if( Log.isLoggable(Log.FAC_NETMANAGER, Level.FINE) )
+					Log.fine(Log.FAC_NETMANAGER, formatMessage("expressInterests: {0}"), interest);
+				_stats.increment(StatsEnum.ExpressInterest);
+				_stats.increment(StatsEnum.WriteInterest);
+				InterestRegistration reg = new InterestRegistration(interest, handler);
+				packets.add(interest.encode());
+				registerInterest(reg);
+				regs.add(reg);
+			}
+		} catch (ContentEncodingException e) {
+			for (InterestRegistration reg : regs)
+				unregisterInterest(reg);
+			throw e;
+		}
+		writeInner(packets);
+	}
+
 	private void expressInterest(InterestRegistration reg) throws IOException {
 		_stats.increment(StatsEnum.ExpressInterest);
 		try {
@@ -881,10 +993,17 @@ public class CCNNetworkManager implements Runnable {
 		// Remove interest from repeated presentation to the network.
 		InterestRegistration reg = unregisterInterest(interest, handler);
 
-		// Make sure potential remnants of cancelled interest are also cancelled
+		// Make sure potential remnants of cancelled interest are also cancelled. Deliveries still
+		// queued in pipelined mode won't call the handler at all.
 		synchronized (_beingDeliveredLock) {
-			if (null != _beingDelivered  && _beingDelivered.equals(reg))
-				_beingDelivered.cancelled = true;
+			for (InterestRegistration delivering : _beingDelivered) {
+				if (delivering.equals(reg))
+					delivering.cancelled = true;
+			}
+			for (InterestRegistration queued : _queuedForDelivery) {
+				if (queued.handler == handler && queued.interest.equals(interest))
+					queued.cancelled = true;
+			}
 		}
 	}
 
@@ -928,6 +1047,8 @@ public class CCNNetworkManager implements Runnable {
 		}
 
 		setupTimers();
+		// Filters live as long as the registration and are compared against every incoming interest
+		filter = filter.intern();
 		// set up filters before registering as registration may cause a pending interest
 		// to be delivered immediately.
 		Filter newOne = new Filter(filter, callbackHandler);
@@ -1132,30 +1253,7 @@ public class CCNNetworkManager implements Runnable {
 	// DKS TODO unthrown exception
 	private void writeInner(GenericXMLEncodable packet) throws ContentEncodingException {
 		try {
-			byte[] bytes = packet.encode();
-			ByteBuffer datagram = ByteBuffer.wrap(bytes);
-			synchronized (_channel) {
-				int result = _channel.write(datagram);
-				if( Log.isLoggable(Log.FAC_NETMANAGER, Level.FINEST) )
-					Log.finest(Log.FAC_NETMANAGER, formatMessage("Wrote datagram (" + datagram.position() + " bytes, result " + result + ")"));
-
-				if( result < bytes.length ) {
-					_stats.increment(StatsEnum.WriteUnderflows);
-					if( Log.isLoggable(Log.FAC_NETMANAGER, Level.INFO) )
-						Log.info(Log.FAC_NETMANAGER,
-								formatMessage("Wrote datagram {0} bytes to channel, but packet was {1} bytes"),
-								result,
-								bytes.length);
-				}
-
-				if (null != _tapStreamOut) {
-					try {
-						_tapStreamOut.write(bytes);
-					} catch (IOException io) {
-						Log.warning(Log.FAC_NETMANAGER, formatMessage("Unable to write packet to tap stream for debugging"));
-					}
-				}
-			}
+			_writeQueue.write(packet.encode());
 		} catch (IOException io) {
 			_stats.increment(StatsEnum.WriteErrors);
 
@@ -1165,6 +1263,15 @@ public class CCNNetworkManager implements Runnable {
 		}
 	}
 
+	private void writeInner(List<byte []> packets) {
+		try {
+			_writeQueue.write(packets);
+		} catch (IOException io) {
+			_stats.increment(StatsEnum.WriteErrors);
+			Log.warning(Log.FAC_NETMANAGER, formatMessage("Error sending packets: " + io.toString()));
+		}
+	}
+
 	/**
 	 * Internal registration of interest to callback for matching data relationship.
 	 *
@@ -1210,8 +1317,13 @@ public class CCNNetworkManager implements Runnable {
 		while (_run) {
 			try {
 				boolean wasConnected = _channel.isConnected();
-				XMLEncodable packet = _channel.getPacket();
-				if (null == packet) {
+				XMLEncodable packet = null;
+				byte [] rawPacket = null;
+				if (null != _receivePipeline)
+					rawPacket = _channel.getRawPacket();
+				else
+					packet = _channel.getPacket();
+				if (null == packet && null == rawPacket) {
 					// If ccnd went up and down, we have to reregister all prefixes that used to be
 					// registered to restore normal operation
 					if (_run && !wasConnected && _channel.isConnected())
@@ -1235,6 +1347,11 @@ public class CCNNetworkManager implements Runnable {
 					}
 					continue;
 				}
+				if (null != rawPacket) {
+					// Decoding and delivery are done by the pipeline
+					_receivePipeline.submit(rawPacket);
+					continue;
+				}
 				_currentHandler++;
 				_inHandler = true;	// Do in this order
 
@@ -1281,18 +1398,37 @@ public class CCNNetworkManager implements Runnable {
 		_stats.increment(StatsEnum.DeliverInterest);
 
 		// Call any handlers with matching filters
-		for (Filter filter : _myFilters.getValues(ireg.interest.name())) {
-			if( Log.isLoggable(Log.FAC_NETMANAGER, Level.FINER) )
-				Log.finer(Log.FAC_NETMANAGER, formatMessage("Schedule delivery for interest: {0}"), interest);
-			_stats.increment(StatsEnum.DeliverInterestMatchingFilters);
-			long startTime = System.nanoTime();
-			boolean succeeded = filter.deliver(interest);
-			_stats.addSample(StatsEnum.InterestHandlerTime, System.nanoTime() - startTime);
-			if (succeeded)
+		deliverInterest(_myFilters.getValues(ireg.interest.name()), interest);
+	}
+
+	/**
+	 * Deliver an interest to filter handlers in turn until one of them handles it
+	 * @param filters
+	 * @param interest
+	 */
+	protected void deliverInterest(List<Filter> filters, Interest interest) {
+		for (Filter filter : filters) {
+			if (deliverInterest(filter, interest))
 				break;	// We only run interest handlers until one succeeds
 		}
 	}
 
+	/**
+	 * Deliver an interest to a single filter handler
+	 * @param filter
+	 * @param interest
+	 * @return true if the handler handled the interest
+	 */
+	protected boolean deliverInterest(Filter filter, Interest interest) {
+		if( Log.isLoggable(Log.FAC_NETMANAGER, Level.FINER) )
+			Log.finer(Log.FAC_NETMANAGER, formatMessage("Schedule delivery for interest: {0}"), interest);
+		_stats.increment(StatsEnum.DeliverInterestMatchingFilters);
+		long startTime = System.nanoTime();
+		boolean succeeded = filter.deliver(interest);
+		_stats.addSample(StatsEnum.InterestHandlerTime, System.nanoTime() - startTime);
+		return succeeded;
+	}
+
 	/**
 	 *  Deliver data to all blocked getters and registered interests
 	 * @param co
@@ -1308,6 +1444,60 @@ public class CCNNetworkManager implements Runnable {
 		}
 	}
 
+	/**
+	 * Deliver a packet decoded by the receive pipeline. This is called in the order the packets
+	 * arrived. Matching is done here, but the handlers are run via the pipeline's per-handler queues,
+	 * so a slow handler does not hold up delivery to other handlers.
+	 *
+	 * Matching registrations are removed from the table here rather than by the delivery, since
+	 * otherwise a following packet could be matched to the same registration before its handler
+	 * gets to run.
+	 *
+	 * @param packet decoded packet or null if it couldn't be decoded
+	 */
+	protected void dispatchPacket(XMLEncodable packet) {
+		if (packet instanceof ContentObject) {
+			_stats.increment(StatsEnum.ReceiveObject);
+			final ContentObject co = (ContentObject)packet;
+			if( Log.isLoggable(Log.FAC_NETMANAGER, Level.FINER) )
+				Log.finer(Log.FAC_NETMANAGER, formatMessage("Data from net for port: " + _port + " {0}"), co.name());
+			_stats.increment(StatsEnum.DeliverContent);
+			for (final InterestRegistration ireg : _myInterests.getValues(co)) {
+				_stats.increment(StatsEnum.DeliverContentMatchingInterests);
+				if (null == ireg.handler) {
+					// Blocked getter - all we do is wake it up
+					unregisterInterest(ireg);
+					ireg.deliver(co);
+					continue;
+				}
+				synchronized (_beingDeliveredLock) {
+					// If we can't remove it, it was cancelled since we matched it
+					if (null == _myInterests.remove(ireg.interest, ireg))
+						continue;
+					_queuedForDelivery.add(ireg);
+				}
+				_receivePipeline.dispatch(ireg.handler, new Runnable() {
+					public void run() {
+						long startTime = System.nanoTime();
+						ireg.deliverQueued(co);
+						_stats.addSample(StatsEnum.ContentHandlerTime, System.nanoTime() - startTime);
+					}
+				});
+			}
+		} else if (packet instanceof Interest) {
+			_stats.increment(StatsEnum.ReceiveInterest);
+			final Interest interest = (Interest)packet;
+			if( Log.isLoggable(Log.FAC_NETMANAGER, Level.FINEST) )
+				Log.finest(Log.FAC_NETMANAGER, formatMessage("Interest from net for port: " + _port + " {0}"), interest);
+			_stats.increment(StatsEnum.DeliverInterest);
+			List<Filter> filters = _myFilters.getValues(interest.name());
+			if (!filters.isEmpty())
+				_receivePipeline.dispatchInterest(filters, interest);
+		} else {
+			_stats.increment(StatsEnum.ReceiveUnknown);
+		}
+	}
+
 	/**
 	 * Diagnostic routine to get a handler stack trace in time of suspected problem
 	 */
@@ -1406,6 +1596,8 @@ public class CCNNetworkManager implements Runnable {
 		WriteObject ("calls", "The number of calls to write(ContentObject)"),
 		WriteErrors ("count", "Error count for writeInner()"),
 		WriteUnderflows ("count", "The count of times when the bytes written to the channel < buffer size"),
+		WriteBatches ("calls", "The number of writes to the channel"),
+		WriteBatchPackets ("packets", "The number of packets per write to the channel"),
 
 		ExpressInterest ("calls", "The number of calls to expressInterest"),
 		CancelInterest ("calls", "The number of calls to cancelInterest"),
@@ -1425,6 +1617,12 @@ public class CCNNetworkManager implements Runnable {
 		ReceiveErrors ("errors", "Number of errors from the channel in run() loop"),
 
 		ContentObjectsIgnored ("ContentObjects", "The number of ContentObjects that are never handled"),
+
+		ReceiveQueueDepth ("packets", "Packets submitted to the receive pipeline but not yet dispatched"),
+		ReceiveDecodeQueueTime ("nanos", "The average time a packet waits for a receive pipeline decoder"),
+		ReceiveDecodeTime ("nanos", "The average time spent decoding a packet in the receive pipeline"),
+		ReceiveReorderTime ("nanos", "The average time a decoded packet waits to be dispatched in order"),
+		ReceiveHandlerQueueTime ("nanos", "The average time a callback waits in its handler's queue"),
 		;
 
 		// ====================================
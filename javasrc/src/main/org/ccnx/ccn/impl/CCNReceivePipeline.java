@@ -0,0 +1,351 @@
+/*
+ * Part of the CCNx Java Library.
+ *
+ * Copyright (C) 2013 Palo Alto Research Center, Inc.
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version 2.1
+ * as published by the Free Software Foundation.
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details. You should have received
+ * a copy of the GNU Lesser General Public License along with this library;
+ * if not, write to the Free Software Foundation, Inc., 51 Franklin Street,
+ * Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package org.ccnx.ccn.impl;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.WeakHashMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.ccnx.ccn.config.SystemConfiguration;
+import org.ccnx.ccn.impl.CCNNetworkManager.Filter;
+import org.ccnx.ccn.impl.CCNNetworkManager.StatsEnum;
+import org.ccnx.ccn.impl.CCNStats.CCNEnumStats;
+import org.ccnx.ccn.impl.encoding.BinaryXMLDecoder;
+import org.ccnx.ccn.impl.encoding.XMLEncodable;
+import org.ccnx.ccn.impl.support.Log;
+import org.ccnx.ccn.protocol.Interest;
+
+/**
+ * Pipelined receive path for CCNNetworkManager.
+ *
+ * In the default receive mode the network manager thread decodes each packet and runs all
+ * the handlers for it inline, so a single slow handler or signature verification stalls all
+ * traffic for the handle. In pipelined mode the network manager thread only frames raw ccnb
+ * packets and submits them here. The packets are then:
+ *
+ * - decoded in parallel by a fixed size pool of decoder threads
+ * - put back into arrival order and matched against the interest and filter tables
+ *   by CCNNetworkManager.dispatchPacket (this step is cheap and is done under the reorder lock)
+ * - delivered via a serial queue per handler. Each handler sees its callbacks in the order
+ *   the packets arrived, but a slow handler only delays its own callbacks. An interest is
+ *   offered to its matching filter handlers in turn, each on its own queue, until one of them
+ *   handles it. Its place in each handler's queue is kept from the time it arrived, so a
+ *   handler further down the list waits for the handlers before it to decline the interest.
+ *
+ * Queue depth and the latency of each stage are recorded in the network manager's statistics.
+ */
+public class CCNReceivePipeline {
+
+	public static final int DECODE_QUEUE_SIZE = 1024;
+
+	protected final CCNNetworkManager _manager;
+	protected final CCNEnumStats<StatsEnum> _stats;
+	protected final ThreadPoolExecutor _decodePool;
+	protected final AtomicInteger _pending = new AtomicInteger(0);
+
+	// Only used by the network manager's reader thread
+	protected long _nextSequence = 0;
+
+	// Protected by _reorder
+	protected final TreeMap<Long, DecodedPacket> _reorder = new TreeMap<Long, DecodedPacket>();
+	protected long _nextDispatch = 0;
+
+	// Serial queues per handler. Protected by _handlerQueues
+	protected final Map<Object, HandlerQueue> _handlerQueues = new WeakHashMap<Object, HandlerQueue>();
+
+	protected static final ThreadLocal<BinaryXMLDecoder> _decoders = new ThreadLocal<BinaryXMLDecoder>() {
+		@Override
+		protected BinaryXMLDecoder initialValue() {
+			return new BinaryXMLDecoder();
+		}
+	};
+
+	protected static class DecodedPacket {
+		protected final XMLEncodable _packet;
+		protected final long _decodedTime;
+
+		protected DecodedPacket(XMLEncodable packet) {
+			_packet = packet;
+			_decodedTime = System.nanoTime();
+		}
+	}
+
+	/**
+	 * A callback waiting in a handler queue. A callback which isn't ready holds up the
+	 * callbacks behind it in its queue until it is made ready.
+	 */
+	protected abstract class Callback implements Runnable {
+		protected final HandlerQueue _queue;
+		protected final long _queued = System.nanoTime();
+		protected boolean _ready;	// Protected by _queue
+
+		protected Callback(HandlerQueue queue, boolean ready) {
+			_queue = queue;
+			_ready = ready;
+		}
+
+		public void run() {
+			_stats.addSample(StatsEnum.ReceiveHandlerQueueTime, System.nanoTime() - _queued);
+			process();
+		}
+
+		protected void ready() {
+			synchronized (_queue) {
+				_ready = true;
+				_queue.schedule();
+			}
+		}
+
+		protected abstract void process();
+	}
+
+	/**
+	 * Serial queue of callbacks for a single handler. Callbacks are run one at a time on the
+	 * system thread pool and a thread is only used while there are ready callbacks.
+	 */
+	protected class HandlerQueue implements Runnable {
+		protected final ArrayDeque<Callback> _queue = new ArrayDeque<Callback>();
+		protected boolean _isRunning = false;
+
+		protected synchronized void add(Callback callback) {
+			_queue.add(callback);
+			schedule();
+		}
+
+		/**
+		 * Start running callbacks if we aren't already and the first one is ready. Must be
+		 * called with the queue locked.
+		 */
+		protected void schedule() {
+			if (!_isRunning && !_queue.isEmpty() && _queue.peek()._ready) {
+				_isRunning = true;
+				SystemConfiguration._systemThreadpool.execute(this);
+			}
+		}
+
+		public void run() {
+			while (true) {
+				Callback callback;
+				synchronized (this) {
+					callback = _queue.peek();
+					if (null == callback || !callback._ready) {
+						_isRunning = false;
+						return;
+					}
+					_queue.poll();
+				}
+				try {
+					callback.run();
+				} catch (RuntimeException ex) {
+					_stats.increment(StatsEnum.ReceiveErrors);
+					Log.warning(Log.FAC_NETMANAGER, "Receive pipeline handler failure: {0}", ex);
+					Log.warningStackTrace(ex);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Offers an interest to each of its matching filters in turn until one of them handles it.
+	 * The offer to each filter is queued on that filter's handler queue when the interest arrives
+	 * and is made ready when the filter before it declines the interest.
+	 */
+	protected class InterestDelivery {
+		protected final Interest _interest;
+		protected final List<Filter> _filters;
+		protected final FilterCallback [] _callbacks;
+		protected volatile boolean _handled = false;
+
+		protected class FilterCallback extends Callback {
+			protected final int _index;
+
+			protected FilterCallback(int index) {
+				super(queueFor(_filters.get(index).handler), 0 == index);
+				_index = index;
+			}
+
+			@Override
+			protected void process() {
+				try {
+					if (!_handled && _manager.deliverInterest(_filters.get(_index), _interest))
+						_handled = true;
+				} finally {
+					// Always pass the interest on so the next handler's queue isn't held up
+					if (_index + 1 < _callbacks.length)
+						_callbacks[_index + 1].ready();
+				}
+			}
+		}
+
+		protected InterestDelivery(List<Filter> filters, Interest interest) {
+			_interest = interest;
+			_filters = filters;
+			_callbacks = new FilterCallback[filters.size()];
+			for (int i = 0; i < _callbacks.length; i++)
+				_callbacks[i] = new FilterCallback(i);
+		}
+
+		protected void queue() {
+			for (FilterCallback callback : _callbacks)
+				callback._queue.add(callback);
+		}
+	}
+
+	/**
+	 * Decode a single framed packet
+	 */
+	protected class DecodeTask implements Runnable {
+		protected final byte [] _raw;
+		protected final long _sequence;
+		protected final long _submitTime;
+
+		protected DecodeTask(byte [] raw, long sequence) {
+			_raw = raw;
+			_sequence = sequence;
+			_submitTime = System.nanoTime();
+		}
+
+		public void run() {
+			long start = System.nanoTime();
+			_stats.addSample(StatsEnum.ReceiveDecodeQueueTime, start - _submitTime);
+			XMLEncodable packet = null;
+			try {
+				BinaryXMLDecoder decoder = _decoders.get();
+				decoder.beginDecoding(ByteBuffer.wrap(_raw));
+				packet = decoder.getPacket();
+			} catch (Exception ex) {
+				_stats.increment(StatsEnum.ReceiveErrors);
+				Log.warning(Log.FAC_NETMANAGER, "Receive pipeline failed to decode packet: {0}", ex.getMessage());
+			} finally {
+				// Always complete the sequence number, even with no packet, so later packets aren't held up
+				_stats.addSample(StatsEnum.ReceiveDecodeTime, System.nanoTime() - start);
+				completed(_sequence, new DecodedPacket(packet));
+			}
+		}
+	}
+
+	public CCNReceivePipeline(CCNNetworkManager manager, int decodeThreads) {
+		_manager = manager;
+		_stats = manager._stats;
+		final String name = manager.formatMessage("decoder ");
+		// If the decoders fall too far behind, decode on the reader thread. This pushes back on
+		// the network rather than queuing without limit.
+		final RejectedExecutionHandler callerRuns = new ThreadPoolExecutor.CallerRunsPolicy();
+		_decodePool = new ThreadPoolExecutor(decodeThreads, decodeThreads, 0L, TimeUnit.MILLISECONDS,
+				new ArrayBlockingQueue<Runnable>(DECODE_QUEUE_SIZE), new ThreadFactory() {
+					protected final AtomicInteger _threadCount = new AtomicInteger(0);
+					public Thread newThread(Runnable r) {
+						Thread t = new Thread(r, name + _threadCount.incrementAndGet());
+						t.setDaemon(true);
+						return t;
+					}
+				},
+				new RejectedExecutionHandler() {
+					public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
+						if (executor.isShutdown()) {
+							_pending.decrementAndGet();
+							_stats.increment(StatsEnum.ReceiveErrors);
+							Log.warning(Log.FAC_NETMANAGER, "Receive pipeline shut down, dropping packet {0}", ((DecodeTask)r)._sequence);
+							return;
+						}
+						callerRuns.rejectedExecution(r, executor);
+					}
+				});
+	}
+
+	/**
+	 * Submit a framed packet for decoding. Must only be called from the network manager's reader thread.
+	 * Packets submitted after shutdown are logged and dropped.
+	 * @param raw the packet
+	 */
+	public void submit(byte [] raw) {
+		_stats.addSample(StatsEnum.ReceiveQueueDepth, _pending.incrementAndGet());
+		_decodePool.execute(new DecodeTask(raw, _nextSequence++));
+	}
+
+	/**
+	 * Queue a callback for handler. Callbacks for the same handler are run serially, in
+	 * the order they were dispatched.
+	 * @param handler
+	 * @param callback
+	 */
+	public void dispatch(Object handler, final Runnable callback) {
+		HandlerQueue queue = queueFor(handler);
+		queue.add(new Callback(queue, true) {
+			@Override
+			protected void process() {
+				callback.run();
+			}
+		});
+	}
+
+	/**
+	 * Queue delivery of an interest to the handlers of its matching filters. The handlers are
+	 * called in turn, each from its own queue, until one of them handles the interest.
+	 * @param filters the matching filters in the order they should be tried
+	 * @param interest
+	 */
+	public void dispatchInterest(List<Filter> filters, Interest interest) {
+		new InterestDelivery(filters, interest).queue();
+	}
+
+	protected HandlerQueue queueFor(Object handler) {
+		synchronized (_handlerQueues) {
+			HandlerQueue queue = _handlerQueues.get(handler);
+			if (null == queue) {
+				queue = new HandlerQueue();
+				_handlerQueues.put(handler, queue);
+			}
+			return queue;
+		}
+	}
+
+	public void shutdown() {
+		_decodePool.shutdownNow();
+	}
+
+	/**
+	 * Put decoded packets back in arrival order and hand them to the network manager
+	 */
+	protected void completed(long sequence, DecodedPacket decoded) {
+		synchronized (_reorder) {
+			_reorder.put(sequence, decoded);
+			while (!_reorder.isEmpty() && _reorder.firstKey() == _nextDispatch) {
+				DecodedPacket next = _reorder.remove(_nextDispatch++);
+				_pending.decrementAndGet();
+				_stats.addSample(StatsEnum.ReceiveReorderTime, System.nanoTime() - next._decodedTime);
+				try {
+					_manager.dispatchPacket(next._packet);
+				} catch (Exception ex) {
+					_stats.increment(StatsEnum.ReceiveErrors);
+					Log.severe(Log.FAC_NETMANAGER, "Receive pipeline dispatch failure: {0}", ex.getMessage());
+					Log.severeStackTrace(Log.FAC_NETMANAGER, ex);
+				}
+			}
+		}
+	}
+}
@@ -106,6 +106,10 @@ import org.ccnx.ccn.protocol.SignedInfo.ContentType;
  * ContentObjects returned by the signing operations. On the way, it may need
  * to pass through a block encrypter, which may perform local copies. Higher-level
  * constructs, such as streams, may buffer it above.
+ *
+ * Setting SystemConfiguration.SEGMENTER_THREADS above 1 lets the default Merkle tree signer
+ * digest segments and build each tree level in parallel (see ParallelDigester). The
+ * segments and signatures produced are the same as when building on the caller's thread.
  */
 public class CCNSegmenter {
 
@@ -785,10 +789,11 @@ public class CCNSegmenter {
 				// DKS TODO -- move to streaming version to cut down copies. Here using input
 				// streams, eventually push down with this at the end of an output stream.
 
-				// Make a separate cipher, so this segmenter can be used by multiple callers at once.
+				// The cipher is this thread's instance from CryptoInstances, initialized for this segment,
+				// so callers on other threads don't share it. Use it before asking for another.
 				Cipher thisCipher = keys.getSegmentEncryptionCipher(rootName, signedInfo.getPublisherKeyID(), nextSegmentIndex);
 				if (Log.isLoggable(Level.FINEST))
-					Log.finest("Created new encryption cipher "+thisCipher);
+					Log.finest("Initialized encryption cipher "+thisCipher);
 				// Override content type to mark encryption.
 				// Note: we don't require that writers use our facilities for encryption, so
 				// content previously encrypted may not be marked as type ENCR. So on the decryption
@@ -841,7 +846,8 @@ public class CCNSegmenter {
 		int length = blockLength;
 		if (null != keys) {
 			try {
-				// Make a separate cipher, so this segmenter can be used by multiple callers at once.
+				// The cipher is this thread's instance from CryptoInstances, initialized for this segment,
+				// so callers on other threads don't share it. Use it before asking for another.
 				Cipher thisCipher = keys.getSegmentEncryptionCipher(rootName, signedInfo.getPublisherKeyID(), segmentNumber);
 				// TODO -- incurs an extra copy
 				contentBlock = thisCipher.doFinal(contentBlock, offset, blockLength);
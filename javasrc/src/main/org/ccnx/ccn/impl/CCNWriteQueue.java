@@ -0,0 +1,198 @@
+/*
+ * Part of the CCNx Java Library.
+ *
+ * Copyright (C) 2013 Palo Alto Research Center, Inc.
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version 2.1
+ * as published by the Free Software Foundation.
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details. You should have received
+ * a copy of the GNU Lesser General Public License along with this library;
+ * if not, write to the Free Software Foundation, Inc., 51 Franklin Street,
+ * Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package org.ccnx.ccn.impl;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+
+import org.ccnx.ccn.impl.CCNNetworkManager.StatsEnum;
+import org.ccnx.ccn.impl.support.Log;
+
+/**
+ * Coalesces outgoing packets for CCNNetworkManager so that bursts of writes
+ * go to ccnd in a single gathering write rather than one write (and one trip
+ * through the channel lock) per packet.
+ *
+ * Pending packets are flushed when they add up to more than WRITE_BATCH_SIZE bytes,
+ * when the oldest of them has waited WRITE_BATCH_DELAY milliseconds, or when a batch
+ * write completes. With a delay of 0 single packets are written immediately, as before.
+ *
+ * All access to the channel is synchronized on the channel itself.
+ */
+public class CCNWriteQueue {
+
+	protected final CCNNetworkManager _manager;
+	protected final CCNNetworkChannel _channel;
+	protected final int _delay;
+	protected final int _batchSize;
+
+	// Protected by _channel
+	protected ArrayList<byte []> _pending = new ArrayList<byte []>();
+	protected int _pendingBytes = 0;
+	protected boolean _flushScheduled = false;
+	protected ScheduledThreadPoolExecutor _flushTimer = null;
+
+	protected class FlushTask implements Runnable {
+		public void run() {
+			try {
+				synchronized (_channel) {
+					_flushScheduled = false;
+					flushInner();
+				}
+			} catch (IOException io) {
+				_manager._stats.increment(StatsEnum.WriteErrors);
+				Log.warning(Log.FAC_NETMANAGER, _manager.formatMessage("Error sending packets: " + io.toString()));
+			}
+		}
+	}
+
+	public CCNWriteQueue(CCNNetworkManager manager, CCNNetworkChannel channel, int delay, int batchSize) {
+		_manager = manager;
+		_channel = channel;
+		_delay = delay;
+		_batchSize = batchSize;
+	}
+
+	/**
+	 * Queue a single encoded packet. It is written immediately if batching is off
+	 * or enough data is pending, otherwise within the batch delay.
+	 * @param packet the encoded packet
+	 * @throws IOException
+	 */
+	public void write(byte [] packet) throws IOException {
+		synchronized (_channel) {
+			add(packet);
+			if (_delay <= 0 || _pendingBytes >= _batchSize) {
+				flushInner();
+			} else if (!_flushScheduled) {
+				_flushScheduled = true;
+				getFlushTimer().schedule(new FlushTask(), _delay, TimeUnit.MILLISECONDS);
+			}
+		}
+	}
+
+	/**
+	 * Queue a batch of encoded packets and flush them, along with anything
+	 * already pending, before returning.
+	 * @param packets the encoded packets
+	 * @throws IOException
+	 */
+	public void write(List<byte []> packets) throws IOException {
+		synchronized (_channel) {
+			for (byte [] packet : packets) {
+				add(packet);
+				if (_pendingBytes >= _batchSize)
+					flushInner();
+			}
+			flushInner();
+		}
+	}
+
+	/**
+	 * Write anything pending now
+	 * @throws IOException
+	 */
+	public void flush() throws IOException {
+		synchronized (_channel) {
+			flushInner();
+		}
+	}
+
+	public void shutdown() {
+		synchronized (_channel) {
+			if (null != _flushTimer)
+				_flushTimer.shutdownNow();
+		}
+	}
+
+	/**
+	 * Must be called with _channel locked
+	 */
+	protected void add(byte [] packet) {
+		_pending.add(packet);
+		_pendingBytes += packet.length;
+	}
+
+	/**
+	 * Must be called with _channel locked
+	 */
+	protected void flushInner() throws IOException {
+		int count = _pending.size();
+		if (count == 0)
+			return;
+		ArrayList<byte []> packets = _pending;
+		int bytes = _pendingBytes;
+		_pending = new ArrayList<byte []>();
+		_pendingBytes = 0;
+
+		long result;
+		if (count == 1) {
+			result = _channel.write(ByteBuffer.wrap(packets.get(0)));
+		} else {
+			ByteBuffer [] srcs = new ByteBuffer[count];
+			for (int i = 0; i < count; i++)
+				srcs[i] = ByteBuffer.wrap(packets.get(i));
+			result = _channel.write(srcs);
+		}
+		_manager._stats.increment(StatsEnum.WriteBatches);
+		_manager._stats.addSample(StatsEnum.WriteBatchPackets, count);
+		if( Log.isLoggable(Log.FAC_NETMANAGER, Level.FINEST) )
+			Log.finest(Log.FAC_NETMANAGER, _manager.formatMessage("Wrote {0} packets ({1} bytes, result {2})"), count, bytes, result);
+
+		if( result < bytes ) {
+			_manager._stats.increment(StatsEnum.WriteUnderflows);
+			if( Log.isLoggable(Log.FAC_NETMANAGER, Level.INFO) )
+				Log.info(Log.FAC_NETMANAGER,
+						_manager.formatMessage("Wrote {0} bytes to channel, but packets were {1} bytes"),
+						result,
+						bytes);
+		}
+
+		if (null != _manager._tapStreamOut) {
+			try {
+				for (byte [] packet : packets)
+					_manager._tapStreamOut.write(packet);
+			} catch (IOException io) {
+				Log.warning(Log.FAC_NETMANAGER, _manager.formatMessage("Unable to write packet to tap stream for debugging"));
+			}
+		}
+	}
+
+	/**
+	 * Must be called with _channel locked
+	 */
+	protected ScheduledThreadPoolExecutor getFlushTimer() {
+		if (null == _flushTimer) {
+			final String name = _manager.formatMessage("write flusher");
+			_flushTimer = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, name);
+					t.setDaemon(true);
+					return t;
+				}
+			});
+		}
+		return _flushTimer;
+	}
+}
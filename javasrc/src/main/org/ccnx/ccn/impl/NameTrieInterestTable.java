@@ -0,0 +1,414 @@
+/*
+ * Part of the CCNx Java Library.
+ *
+ * Copyright (C) 2013 Palo Alto Research Center, Inc.
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version 2.1
+ * as published by the Free Software Foundation.
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details. You should have received
+ * a copy of the GNU Lesser General Public License along with this library;
+ * if not, write to the Free Software Foundation, Inc., 51 Franklin Street,
+ * Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package org.ccnx.ccn.impl;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.logging.Level;
+
+import org.ccnx.ccn.impl.support.ByteArrayCompare;
+import org.ccnx.ccn.impl.support.Log;
+import org.ccnx.ccn.protocol.ContentName;
+import org.ccnx.ccn.protocol.ContentObject;
+import org.ccnx.ccn.protocol.Interest;
+
+/**
+ * InterestTable implementation backed by a trie of name components.
+ *
+ * The base InterestTable keeps its entries in a single sorted map and must
+ * visit every registered name to find the matches for a ContentObject. Here a lookup
+ * only visits the nodes along the target name's prefix chain (plus the implicit
+ * digest child of the full name), so the cost of a match is proportional to the
+ * length of the target name rather than to the number of entries in the table.
+ *
+ * Reads never take a lock. Child maps are concurrent skip lists and the entry list
+ * of each node is copy-on-write: modifications build a new list and publish it
+ * through a volatile reference. Writers (add/remove) are serialized on _writeLock
+ * only among themselves, so content delivery never blocks on Interest registration.
+ * A reader racing with a writer sees either the old or the new state of a node.
+ */
+public class NameTrieInterestTable<V> extends InterestTable<V> {
+
+	protected static final ByteArrayCompare _componentComparator = new ByteArrayCompare();
+
+	protected class TrieNode {
+		protected final TrieNode _parent;
+		protected final byte [] _component;
+		protected final ConcurrentSkipListMap<byte [], TrieNode> _children =
+			new ConcurrentSkipListMap<byte [], TrieNode>(_componentComparator);
+
+		/**
+		 * Immutable list of entries registered on exactly this name. Replaced,
+		 * never modified, by writers.
+		 */
+		protected volatile List<Holder<V>> _entries = Collections.emptyList();
+		protected ContentName _name = null;
+
+		protected TrieNode(TrieNode parent, byte [] component) {
+			_parent = parent;
+			_component = component;
+		}
+
+		protected boolean isEmpty() {
+			return _entries.isEmpty() && _children.isEmpty();
+		}
+	}
+
+	protected volatile TrieNode _root = new TrieNode(null, null);
+	protected final Object _writeLock = new Object();
+
+	// Only modified under _writeLock
+	protected volatile int _entryCount = 0;
+	protected volatile int _nameCount = 0;
+
+	public NameTrieInterestTable() {
+		super();
+	}
+
+	@Override
+	public void setCapacity(int capacity) {
+		synchronized (_writeLock) {
+			_capacity = capacity;
+			_contentNamesLRU = new LinkedList<ContentName>();
+		}
+	}
+
+	@Override
+	public Integer getCapacity() {
+		synchronized (_writeLock) {
+			return _capacity;
+		}
+	}
+
+	@Override
+	protected void add(Holder<V> holder) {
+		ContentName name = holder.name();
+		synchronized (_writeLock) {
+			TrieNode node = findNode(name);
+			if (null != node && !node._entries.isEmpty()) {
+				setEntries(node, append(node._entries, holder));
+				if (null != _capacity) {
+					// Have to update our LRUness
+					_contentNamesLRU.remove(name);
+					_contentNamesLRU.add(name);
+				}
+			} else {
+				if (null != _capacity) {
+					if (_nameCount >= _capacity && !_contentNamesLRU.isEmpty()) {
+						// The LRU is the first key in the LRU list. So remove the contents
+						// corresponding to that one.
+						ContentName lru = _contentNamesLRU.remove(0);
+						if (Log.isLoggable(Log.FAC_ENCODING, Level.INFO)) {
+							Log.info(Log.FAC_ENCODING, "removing entry associated with name {0}", lru);
+						}
+						TrieNode lruNode = findNode(lru);
+						if (null != lruNode)
+							setEntries(lruNode, Collections.<Holder<V>>emptyList());
+					}
+					_contentNamesLRU.add(name);
+				}
+				node = createNode(name);
+				node._name = name;
+				ArrayList<Holder<V>> list = new ArrayList<Holder<V>>(1);
+				list.add(holder);
+				setEntries(node, list);
+			}
+		}
+	}
+
+	@Override
+	public Entry<V> remove(ContentName name, V value) {
+		Holder<V> result = null;
+		synchronized (_writeLock) {
+			TrieNode node = findNode(name);
+			if (null == node)
+				return null;
+			ArrayList<Holder<V>> kept = new ArrayList<Holder<V>>(node._entries.size());
+			for (Holder<V> holder : node._entries) {
+				if (null == holder.value() ? null == value : holder.value().equals(value)) {
+					result = holder;
+				} else {
+					kept.add(holder);
+				}
+			}
+			if (null != result)
+				setEntries(node, kept);
+		}
+		return result;
+	}
+
+	@Override
+	public Entry<V> remove(Interest interest, V value) {
+		Holder<V> result = null;
+		synchronized (_writeLock) {
+			TrieNode node = findNode(interest.name());
+			if (null == node)
+				return null;
+			ArrayList<Holder<V>> kept = new ArrayList<Holder<V>>(node._entries.size());
+			for (Holder<V> holder : node._entries) {
+				if (interest.equals(holder.interest()) &&
+						(null == holder.value() ? null == value : holder.value().equals(value))) {
+					result = holder;
+				} else {
+					kept.add(holder);
+				}
+			}
+			if (null != result)
+				setEntries(node, kept);
+		}
+		return result;
+	}
+
+	@Override
+	public Entry<V> getMatch(ContentObject target) {
+		if (Log.isLoggable(Log.FAC_ENCODING, Level.FINEST))
+			Log.finest(Log.FAC_ENCODING, "target: {0}", target.name());
+		for (TrieNode node : candidateNodes(target)) {
+			for (Holder<V> holder : node._entries) {
+				if (null != holder.interest() && holder.interest().matches(target))
+					return holder;
+			}
+		}
+		return null;
+	}
+
+	@Override
+	public List<Entry<V>> getMatches(ContentObject target) {
+		if (Log.isLoggable(Log.FAC_ENCODING, Level.FINEST))
+			Log.finest(Log.FAC_ENCODING, "target object name: {0}", target.name());
+
+		List<Entry<V>> matches = new ArrayList<Entry<V>>();
+		if (null != target) {
+			for (TrieNode node : candidateNodes(target)) {
+				for (Holder<V> holder : node._entries) {
+					if (null != holder.interest() && holder.interest().matches(target))
+						matches.add(holder);
+				}
+			}
+		}
+		return matches;
+	}
+
+	@Override
+	public Entry<V> getMatch(ContentName target) {
+		if (Log.isLoggable(Log.FAC_ENCODING, Level.FINEST))
+			Log.finest(Log.FAC_ENCODING, "target: {0}", target);
+		List<TrieNode> chain = prefixChain(target);
+		for (int i = chain.size() - 1; i >= 0; i--) {
+			List<Holder<V>> entries = chain.get(i)._entries;
+			if (!entries.isEmpty())
+				return entries.get(0);
+		}
+		return null;
+	}
+
+	@Override
+	public List<Entry<V>> getMatches(ContentName target) {
+		if (Log.isLoggable(Log.FAC_ENCODING, Level.FINEST))
+			Log.finest(Log.FAC_ENCODING, "target: {0}", target);
+
+		List<Entry<V>> matches = new ArrayList<Entry<V>>();
+		List<TrieNode> chain = prefixChain(target);
+		for (int i = chain.size() - 1; i >= 0; i--) {
+			matches.addAll(chain.get(i)._entries);
+		}
+		return matches;
+	}
+
+	@Override
+	public Collection<Entry<V>> values() {
+		List<Entry<V>> results = new ArrayList<Entry<V>>();
+		LinkedList<TrieNode> pending = new LinkedList<TrieNode>();
+		pending.add(_root);
+		while (!pending.isEmpty()) {
+			TrieNode node = pending.removeFirst();
+			results.addAll(node._entries);
+			pending.addAll(node._children.values());
+		}
+		return results;
+	}
+
+	@Override
+	public Entry<V> removeMatch(ContentObject target) {
+		if (null == target)
+			return null;
+		if (Log.isLoggable(Log.FAC_ENCODING, Level.FINEST))
+			Log.finest(Log.FAC_ENCODING, "removeMatch: looking for match to target {0} among {1} possibilities.", target.name(), _nameCount);
+		synchronized (_writeLock) {
+			for (TrieNode node : candidateNodes(target)) {
+				for (Holder<V> holder : node._entries) {
+					if (null != holder.interest() && holder.interest().matches(target)) {
+						ArrayList<Holder<V>> kept = new ArrayList<Holder<V>>(node._entries);
+						kept.remove(holder);
+						setEntries(node, kept);
+						return holder;
+					}
+				}
+			}
+		}
+		return null;
+	}
+
+	@Override
+	public List<Entry<V>> removeMatches(ContentObject target) {
+		List<Entry<V>> matches = new ArrayList<Entry<V>>();
+		synchronized (_writeLock) {
+			for (TrieNode node : candidateNodes(target)) {
+				ArrayList<Holder<V>> kept = null;
+				for (Holder<V> holder : node._entries) {
+					if (null != holder.interest() && holder.interest().matches(target)) {
+						if (null == kept)
+							kept = new ArrayList<Holder<V>>(node._entries);
+						kept.remove(holder);
+						matches.add(holder);
+					}
+				}
+				if (null != kept)
+					setEntries(node, kept);
+			}
+		}
+		return matches;
+	}
+
+	@Override
+	public int size() {
+		return _entryCount;
+	}
+
+	@Override
+	public int sizeNames() {
+		return _nameCount;
+	}
+
+	@Override
+	public void clear() {
+		synchronized (_writeLock) {
+			_root = new TrieNode(null, null);
+			_entryCount = 0;
+			_nameCount = 0;
+			if (null != _contentNamesLRU)
+				_contentNamesLRU.clear();
+		}
+	}
+
+	/**
+	 * Walk the trie along the components of name.
+	 * @param name
+	 * @return the nodes from the root down to the deepest node on name's path, root first
+	 */
+	protected List<TrieNode> prefixChain(ContentName name) {
+		int count = name.count();
+		ArrayList<TrieNode> chain = new ArrayList<TrieNode>(count + 1);
+		TrieNode node = _root;
+		chain.add(node);
+		for (int i = 0; i < count; i++) {
+			node = node._children.get(name.component(i));
+			if (null == node)
+				break;
+			chain.add(node);
+		}
+		return chain;
+	}
+
+	/**
+	 * Get the nodes which could hold Interests matching target, longest name first.
+	 * These are the nodes on the prefix chain of the target's name, preceded by the node
+	 * for the full name including the implicit digest if any Interest was expressed for it.
+	 * @param target
+	 * @return
+	 */
+	protected List<TrieNode> candidateNodes(ContentObject target) {
+		ContentName name = target.name();
+		List<TrieNode> chain = prefixChain(name);
+		ArrayList<TrieNode> result = new ArrayList<TrieNode>(chain.size() + 1);
+		TrieNode last = chain.get(chain.size() - 1);
+		if (chain.size() == name.count() + 1 && !last._children.isEmpty()) {
+			// Computing the digest is expensive, so only do it if something could be there
+			TrieNode digestNode = last._children.get(target.digest());
+			if (null != digestNode)
+				result.add(digestNode);
+		}
+		for (int i = chain.size() - 1; i >= 0; i--) {
+			result.add(chain.get(i));
+		}
+		return result;
+	}
+
+	/**
+	 * Must be called with _writeLock held
+	 */
+	protected TrieNode findNode(ContentName name) {
+		TrieNode node = _root;
+		for (int i = 0; i < name.count() && null != node; i++) {
+			node = node._children.get(name.component(i));
+		}
+		return node;
+	}
+
+	/**
+	 * Must be called with _writeLock held
+	 */
+	protected TrieNode createNode(ContentName name) {
+		TrieNode node = _root;
+		for (int i = 0; i < name.count(); i++) {
+			byte [] component = name.component(i);
+			TrieNode child = node._children.get(component);
+			if (null == child) {
+				child = new TrieNode(node, component);
+				node._children.put(component, child);
+			}
+			node = child;
+		}
+		return node;
+	}
+
+	/**
+	 * Publish a new entry list for node, maintaining the counts and pruning
+	 * nodes which are no longer needed. Must be called with _writeLock held.
+	 */
+	protected void setEntries(TrieNode node, List<Holder<V>> entries) {
+		int oldSize = node._entries.size();
+		if (entries.isEmpty())
+			entries = Collections.emptyList();
+		node._entries = entries;
+		_entryCount += entries.size() - oldSize;
+		if (oldSize == 0 && entries.size() > 0) {
+			_nameCount++;
+		} else if (oldSize > 0 && entries.size() == 0) {
+			_nameCount--;
+			if (null != _contentNamesLRU)
+				_contentNamesLRU.remove(node._name);
+			node._name = null;
+			while (null != node._parent && node.isEmpty()) {
+				node._parent._children.remove(node._component, node);
+				node = node._parent;
+			}
+		}
+	}
+
+	protected List<Holder<V>> append(List<Holder<V>> entries, Holder<V> holder) {
+		ArrayList<Holder<V>> result = new ArrayList<Holder<V>>(entries.size() + 1);
+		result.addAll(entries);
+		result.add(holder);
+		return result;
+	}
+}
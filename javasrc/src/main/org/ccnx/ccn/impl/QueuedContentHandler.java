@@ -53,8 +53,9 @@ public abstract class QueuedContentHandler<E> implements Runnable {
 	public void run() {
 		while (!checkShutdown()) {
 			E e = null;
-			e = _queue.poll();
+			// Poll under the lock so that an add which finds us running can't be missed
 			synchronized (this) {
+				e = _queue.poll();
 				if (null == e) {
 					_isRunning = false;
 					return;
@@ -19,6 +19,9 @@ package org.ccnx.ccn.impl.encoding;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
 import java.util.TreeMap;
 import java.util.logging.Level;
 
@@ -65,6 +68,14 @@ import org.ccnx.ccn.protocol.Interest;
  *   - It only works up to the "resync limit" which is currently 512 bytes. If we increase
  *     this too much, it potentially means more overhead during readin since we need to
  *     insure that the read buffer can be rewound back to the mark.
+ *
+ * Notes about the element stack:
+ *   - Each element's type, value and (when decoding from a ByteBuffer) data offset are kept
+ *     together in one int array, ELEM_INTS ints per element, which is reused from packet to
+ *     packet. Only BLOB and UDATA data read from an InputStream needs an array of its own.
+ *   - Timestamps, integers and SignedInfo types are parsed where the data is, so when decoding
+ *     from a ByteBuffer the parts of a packet that are converted rather than kept never get
+ *     arrays of their own.
  */
 public final class BinaryXMLDecoder extends GenericXMLDecoder implements XMLDecoder {
 
@@ -84,8 +95,8 @@ public final class BinaryXMLDecoder extends GenericXMLDecoder implements XMLDeco
 		}
 
 		// ensures it's a DTAG
-		if( _elements_type[_parsingElement] == BinaryXMLCodec.XML_DTAG ) {
-			if( _elements_value[_parsingElement] == CCNProtocolDTags.Interest ) {
+		if( type(_parsingElement) == BinaryXMLCodec.XML_DTAG ) {
+			if( value(_parsingElement) == CCNProtocolDTags.Interest ) {
 				Log.fine(Log.FAC_ENCODING, "Decoding INTEREST");
 
 				Interest interest = new Interest();
@@ -93,7 +104,7 @@ public final class BinaryXMLDecoder extends GenericXMLDecoder implements XMLDeco
 				return interest;
 			}
 
-			if( _elements_value[_parsingElement]  == CCNProtocolDTags.ContentObject ) {
+			if( value(_parsingElement)  == CCNProtocolDTags.ContentObject ) {
 				Log.fine(Log.FAC_ENCODING, "Decoding ContentObject");
 
 				ContentObject co = new ContentObject();
@@ -103,7 +114,7 @@ public final class BinaryXMLDecoder extends GenericXMLDecoder implements XMLDeco
 
 			Log.severe(Log.FAC_ENCODING,
 					String.format("Error decoding packet - unknown element 0x%02x 0x%04x position %d",
-							_elements_type[_parsingElement], _elements_value[_parsingElement],
+							type(_parsingElement), value(_parsingElement),
 							_parsingElement));
 
 		}
@@ -123,9 +134,8 @@ public final class BinaryXMLDecoder extends GenericXMLDecoder implements XMLDeco
 		if (_resyncable)
 			istream.mark(_resyncLimit);
 		
-		_elements_type = new byte[_currentElements];
-		_elements_value = new int[_currentElements];
-		_elements_blob = new byte[_currentElements][];
+		allocateElements();
+		_source = null;
 
 		try {
 			setupForDecoding(istream);
@@ -156,6 +166,59 @@ public final class BinaryXMLDecoder extends GenericXMLDecoder implements XMLDeco
 		}
 	}
 
+	/**
+	 * Reset the Decoder's state and start parsing a packet directly from a buffer,
+	 * starting at its current position. On return the buffer is positioned after the packet.
+	 *
+	 * BLOB and UDATA elements are not copied out of the buffer during the initial parse. Each is
+	 * copied, once, straight from the buffer into its final array when it is actually read, and
+	 * elements that are never read are never copied. So the contents of the buffer must not be
+	 * changed until the packet has been decoded. This works equally well with direct buffers.
+	 *
+	 * Resync is not supported in this mode.
+	 *
+	 * @param buffer
+	 */
+	public final void beginDecoding(ByteBuffer buffer) throws ContentDecodingException {
+		allocateElements();
+		_source = buffer.duplicate();
+		initialize();
+
+		int opentags = 0;
+		try {
+			do {
+				int index = readTypeAndValue(buffer);
+				int type = type(index);
+
+				if( type == BinaryXMLCodec.XML_DTAG ) {
+					opentags++;
+				} else if( type == BinaryXMLCodec.XML_CLOSE ) {
+					opentags--;
+				} else {
+					// BLOB or UDATA - just remember where it is
+					int length = value(index);
+					if (length > buffer.remaining())
+						throw new ContentDecodingException("Unexpected EOF");
+					buffer.position(buffer.position() + length);
+				}
+			} while (opentags > 0);
+		} catch (BufferUnderflowException bue) {
+			throw new ContentDecodingException("Unexpected EOF");
+		}
+	}
+
+	/**
+	 * Drop the last packet's source and BLOBs, but keep the element arrays for the next one.
+	 */
+	@Override
+	public void reset() {
+		super.reset();
+		if (null != _elements_blob)
+			Arrays.fill(_elements_blob, 0, _elementCount, null);
+		_source = null;
+		initialize();
+	}
+
 	/**
 	 * This method does the initial parsing into elements
 	 * @param istream
@@ -169,7 +232,7 @@ public final class BinaryXMLDecoder extends GenericXMLDecoder implements XMLDeco
 
 		do {
 			int	index = readTypeAndValue(istream);
-			type = _elements_type[index] ;
+			type = type(index);
 
 			if( type == BinaryXMLCodec.XML_DTAG ) {
 				opentags++;
@@ -182,7 +245,7 @@ public final class BinaryXMLDecoder extends GenericXMLDecoder implements XMLDeco
 			}
 
 			if( type  == BinaryXMLCodec.XML_BLOB || type == BinaryXMLCodec.XML_UDATA ) {
-					readBlob(istream, _elements_blob[index]);
+				readBlob(istream, _elements_blob[index], 0, value(index));
 			}
 		} while(opentags > 0);
 
@@ -197,8 +260,8 @@ public final class BinaryXMLDecoder extends GenericXMLDecoder implements XMLDeco
 		for( int i = 0; i < _elementCount; i++ ) {
 			sb.append(String.format("%3d ", count));
 			sb.append(String.format("Type 0x%02x Value 0x%04x",
-					_elements_type[i],
-					_elements_value[i]));
+					type(i),
+					value(i)));
 			sb.append('\n');
 			count++;
 		}
@@ -220,11 +283,20 @@ public final class BinaryXMLDecoder extends GenericXMLDecoder implements XMLDeco
 	private final static int ELEM_INCR_FRAC = 2;    // increase by 1/2 each time
 	private int _currentElements = ELEM_FIRST;
 
+	// Element i is _elements[ELEM_INTS * i + ELEM_TYPE] and so on
+	private final static int ELEM_TYPE = 0;
+	private final static int ELEM_VALUE = 1;
+	private final static int ELEM_OFFSET = 2;		// of the data in _source, for BLOB and UDATA
+	private final static int ELEM_INTS = 3;
+
 //	private final Element [] _elements = new Element[ELEM_MAX];
-	private byte [] _elements_type;
-	private int [] _elements_value;
+	private int [] _elements;
 	private byte [][] _elements_blob;
 
+	// Our own view of the packet source when decoding directly from a ByteBuffer. BLOB and
+	// UDATA elements are then copied from it on demand, using their offsets.
+	private ByteBuffer _source = null;
+
 	// BLOB and UDATA now go in their own buffers, so don't really need the full BLOCKSIZE
 
 //	private final byte [] _bytes = new byte[_blockSize];
@@ -240,27 +312,56 @@ public final class BinaryXMLDecoder extends GenericXMLDecoder implements XMLDeco
 		_parsingElement = 0;
 	}
 
+	private final int type(int index) {
+		return _elements[ELEM_INTS * index + ELEM_TYPE];
+	}
+
+	private final int value(int index) {
+		return _elements[ELEM_INTS * index + ELEM_VALUE];
+	}
+
+	private final int offset(int index) {
+		return _elements[ELEM_INTS * index + ELEM_OFFSET];
+	}
+
+	/**
+	 * The element arrays only hold state for the packet currently being decoded,
+	 * so they are kept from packet to packet and only grown as needed.
+	 */
+	private void allocateElements() {
+		if (null == _elements_blob || _elements_blob.length < _currentElements) {
+			_elements = new int[ELEM_INTS * _currentElements];
+			_elements_blob = new byte[_currentElements][];
+		}
+		_currentElements = _elements_blob.length;
+	}
+
 	/**
 	 * From the current position of the input stream, read in a blob of @count bytes.
 	 *
 	 * @param istream
+	 * @param buffer
+	 * @param offset where in buffer to put the blob
 	 * @param count
 	 * @throws IOException
 	 */
-	private void readBlob(final InputStream istream, final byte [] buffer) throws IOException {
+	private void readBlob(final InputStream istream, final byte [] buffer, final int offset, final int count) throws IOException {
 		// read in count bytes from the stream directly in to our
 		// backing buffer, then adjust its position.
 
-//		int offset = _buffer.position();
 		int read = 0;
-		do {
-//			read += istream.read(_bytes, offset + read, count-read);
+		while (read < count) {
 			try {
-				read += istream.read(buffer, read, buffer.length -read);
+				int ret = istream.read(buffer, offset + read, count - read);
+				if (ret < 0)
+					throw new IOException("Unexpected EOF");
+				read += ret;
+			} catch (IOException e) {
+				throw e;
 			} catch (Exception e) {
 				throw new IOException(e.getMessage());
 			}
-		} while(read < buffer.length);
+		}
 
 		// now advance the buffers position
 //		_buffer.position(offset + read);
@@ -320,7 +421,61 @@ public final class BinaryXMLDecoder extends GenericXMLDecoder implements XMLDeco
 //		System.out.println(String.format("Decode tag 0x%02x value 0x%02x pos %d", typ, val, pos));
 
 		int index = _elementCount;
-		setElement(index, typ, (int)val, buffer);
+		setElement(index, typ, (int)val, buffer, -1);
+		_elementCount++;
+		return index;
+	}
+
+	/**
+	 * Parse the type and value from a buffer. For BLOB and UDATA this doesn't
+	 * allocate anything but just records the offset of the data in the buffer.
+	 * @param buffer
+	 * @return the index in to the _element_X arrays
+	 * @throws ContentDecodingException If not DTAG or BLOB/UDATA or CLOSE (END)
+	 */
+	private final int readTypeAndValue(final ByteBuffer buffer) throws ContentDecodingException {
+		byte typ = -1;
+		long val = 0;
+
+		boolean more = false;
+		while (true) {
+			int next = buffer.get() & 0xff;
+
+			// detect the CLOSE marker
+			if( !more && (0 == next) ) {
+				typ = 0;
+				val = 0;
+				break;
+			}
+
+			more = (0 == (next & BinaryXMLCodec.XML_TT_NO_MORE));
+
+			if  (more) {
+				val = val << BinaryXMLCodec.XML_REG_VAL_BITS;
+				val |= (next & BinaryXMLCodec.XML_REG_VAL_MASK);
+			} else {
+				// last byte
+				typ = (byte) (next & BinaryXMLCodec.XML_TT_MASK);
+				val = val << BinaryXMLCodec.XML_TT_VAL_BITS;
+				val |= ((next >>> BinaryXMLCodec.XML_TT_BITS) & BinaryXMLCodec.XML_TT_VAL_MASK);
+				break;
+			}
+		}
+
+		// sanity check.  tag needs to be either a DTAG or a BLOB
+		if( typ != BinaryXMLCodec.XML_DTAG && typ != BinaryXMLCodec.XML_BLOB &&
+				typ != BinaryXMLCodec.XML_UDATA && typ != BinaryXMLCodec.XML_CLOSE )
+			throw new ContentDecodingException("Type value invalid: " + typ);
+
+		int offset = -1;
+		if( typ == BinaryXMLCodec.XML_BLOB || typ == BinaryXMLCodec.XML_UDATA ) {
+			if (val < 0 || val > CCNNetworkManager.MAX_PAYLOAD)
+				throw new ContentDecodingException("Invalid blob size: " + val);
+			offset = buffer.position();
+		}
+
+		int index = _elementCount;
+		setElement(index, typ, (int)val, null, offset);
 		_elementCount++;
 		return index;
 	}
@@ -331,28 +486,27 @@ public final class BinaryXMLDecoder extends GenericXMLDecoder implements XMLDeco
 	 * @param typ
 	 * @param val
 	 * @param buffer
+	 * @param offset offset of the data in _source when decoding from a ByteBuffer
 	 */
-	private void setElement(int index, byte typ, int val, byte[] buffer) {
-		try {
-			_elements_type[index]  = typ;
-		} catch (ArrayIndexOutOfBoundsException aiobe) {
-            int prevElements = _currentElements;
+	private void setElement(int index, int typ, int val, byte[] buffer, int offset) {
+		if (index >= _elements_blob.length) {
+            int prevElements = _elements_blob.length;
+            _currentElements = prevElements;
             while (_currentElements <= index)
             	_currentElements += _currentElements / ELEM_INCR_FRAC;
-			byte[] newTypes = new byte[_currentElements];
-			System.arraycopy(_elements_type, 0, newTypes, 0, prevElements);
-			_elements_type = newTypes;
-			int[] newValues = new int[_currentElements];
-			System.arraycopy(_elements_value, 0, newValues, 0, prevElements);
-			_elements_value = newValues;
+			int[] newElements = new int[ELEM_INTS * _currentElements];
+			System.arraycopy(_elements, 0, newElements, 0, ELEM_INTS * prevElements);
+			_elements = newElements;
 			byte[][] newBlobs = new byte[_currentElements][];
 			System.arraycopy(_elements_blob, 0, newBlobs, 0, prevElements);
 			_elements_blob = newBlobs;
-			_elements_type[index] = typ;
 			if (Log.isLoggable(Log.FAC_ENCODING, Level.INFO))
 				Log.info(Log.FAC_ENCODING, "Reset decode array sizes to {0}", _currentElements);
 		}
-		_elements_value[index] = val;
+		int base = ELEM_INTS * index;
+		_elements[base + ELEM_TYPE] = typ;
+		_elements[base + ELEM_VALUE] = val;
+		_elements[base + ELEM_OFFSET] = offset;
 		_elements_blob[index]  = buffer;
 	}
 
@@ -369,13 +523,13 @@ public final class BinaryXMLDecoder extends GenericXMLDecoder implements XMLDeco
 			throw new ContentDecodingException(
 					String.format("Past end of DOM! size %d position %d", _elementCount, _parsingElement));
 
-		if( _elements_type[_parsingElement] == type && _elements_value[_parsingElement] == expected )
+		if( type(_parsingElement) == type && value(_parsingElement) == expected )
 			return;
 
 		throw new ContentDecodingException(
 				String.format("Element type mismatch: expected 0x%02x 0x%04x got type 0x%02x 0x%02x position %d",
-						type, expected, _elements_type[_parsingElement],
-						_elements_value[_parsingElement], _parsingElement));
+						type, expected, type(_parsingElement),
+						value(_parsingElement), _parsingElement));
 	}
 
 	/**
@@ -388,24 +542,23 @@ public final class BinaryXMLDecoder extends GenericXMLDecoder implements XMLDeco
 			throw new ContentDecodingException(
 					String.format("Past end of DOM! size %d position %d", _elementCount, _parsingElement));
 
-		if( _elements_type[_parsingElement] == type )
+		if( type(_parsingElement) == type )
 			return;
 
 		// This seems a little bogus but it emulates what the original code did...
 		if (type == BinaryXMLCodec.XML_BLOB) {
 			for (int i = _elementCount; i > _parsingElement; i--) {
-				setElement(i, _elements_type[i - 1], _elements_value[i - 1], _elements_blob[i - 1]);
+				setElement(i, type(i - 1), value(i - 1), _elements_blob[i - 1], offset(i - 1));
 			}
 			_elementCount++;
-			_elements_blob[_parsingElement] = new byte[0];
-			_elements_type[_parsingElement] = type;
+			setElement(_parsingElement, type, 0, _byte0, -1);
 			return;
 		}
 
 		throw new ContentDecodingException(
 				String.format("Element type mismatch: expected 0x%02x got type 0x%02x 0x%02x position %d",
-						type, _elements_type[_parsingElement],
-						_elements_value[_parsingElement], _parsingElement));
+						type, type(_parsingElement),
+						value(_parsingElement), _parsingElement));
 	}
 
 	// ===================================
@@ -417,7 +570,7 @@ public final class BinaryXMLDecoder extends GenericXMLDecoder implements XMLDeco
 			throw new ContentDecodingException(
 					String.format("Past end of DOM! size %d position %d", _elementCount, _parsingElement));
 
-		if( _elements_type[_parsingElement]  == BinaryXMLCodec.XML_DTAG && _elements_value[_parsingElement]  == startTag)
+		if( type(_parsingElement)  == BinaryXMLCodec.XML_DTAG && value(_parsingElement)  == startTag)
 			return true;
 
 		return false;
@@ -434,15 +587,15 @@ public final class BinaryXMLDecoder extends GenericXMLDecoder implements XMLDeco
 			throw new ContentDecodingException(
 					String.format("Past end of DOM! size %d position %d", _elementCount, _parsingElement));
 
-		if( _elements_type[_parsingElement]  == BinaryXMLCodec.XML_DTAG )
-			return (long) _elements_value[_parsingElement];
+		if( type(_parsingElement)  == BinaryXMLCodec.XML_DTAG )
+			return (long) value(_parsingElement);
 
-		if( _elements_type[_parsingElement]  == BinaryXMLCodec.XML_CLOSE )
+		if( type(_parsingElement)  == BinaryXMLCodec.XML_CLOSE )
 			return null;
 
 		throw new ContentDecodingException(
 				String.format("Element type mismatch: got type 0x%04x 0x%02x position %d",
-						_elements_type[_parsingElement] , _elements_value[_parsingElement] , _parsingElement));
+						type(_parsingElement) , value(_parsingElement) , _parsingElement));
 	}
 
 
@@ -452,6 +605,14 @@ public final class BinaryXMLDecoder extends GenericXMLDecoder implements XMLDeco
 	 * (blobs don't have an end element).
 	 */
 	public final byte[] readBinary(byte type) throws ContentDecodingException {
+		return blob(readBinaryIndex(type));
+	}
+
+	/**
+	 * Like readBinary, but leaves the data where it is.
+	 * @return the index of the BLOB or UDATA in the _element_X arrays
+	 */
+	private final int readBinaryIndex(byte type) throws ContentDecodingException {
 		if( type != BinaryXMLCodec.XML_BLOB && type != BinaryXMLCodec.XML_UDATA )
 			throw new ContentDecodingException("Must be BLOB or UDATA");
 
@@ -463,19 +624,64 @@ public final class BinaryXMLDecoder extends GenericXMLDecoder implements XMLDeco
 
 		// By definition, we need to consume the next END element
 		readEndElement();
+		return index;
+	}
 
-		if( 0 == _elements_value[index] ) {
+	/**
+	 * Get a BLOB or UDATA as an array of its own, copying it out of the ByteBuffer
+	 * the first time it is asked for.
+	 */
+	private final byte[] blob(int index) {
+		if( 0 == value(index) ) {
 			return _byte0;
 		}
 
 //		Log.fine(Log.FAC_ENCODING, "readBinary type {0} start {1} length {2} buffer len {3}",
 //				type, elem.position, elem.value, _bytes.length);
 
-		final byte [] buffer = _elements_blob[index];
+		byte [] buffer = _elements_blob[index];
+		if (null == buffer) {
+			// copy the data out now that somebody wants it
+			buffer = new byte[value(index)];
+			_source.position(offset(index));
+			_source.get(buffer);
+			_elements_blob[index] = buffer;
+		}
 
 		return buffer;
 	}
 
+	/**
+	 * The i'th byte of a BLOB or UDATA, without copying it anywhere
+	 */
+	private final int blobByte(int index, int i) {
+		if (null != _elements_blob[index])
+			return _elements_blob[index][i] & 0xff;
+		return _source.get(offset(index) + i) & 0xff;
+	}
+
+	/**
+	 * Read a BLOB element that is expected to hold one of a few well known values, such as a
+	 * SignedInfo type. Returns the matching known value itself rather than a copy of the BLOB,
+	 * or a copy if it doesn't match any of them.
+	 * Advances the parser by 3 elements (start tag, blob, end tag)
+	 */
+	public final byte[] readBinaryElement(long startTag, Iterable<byte []> knownValues) throws ContentDecodingException {
+		readStartElement(startTag);
+		int index = readBinaryIndex(BinaryXMLCodec.XML_BLOB);
+		int length = value(index);
+		for (byte [] value : knownValues) {
+			if (value.length != length)
+				continue;
+			int i = 0;
+			while (i < length && (value[i] & 0xff) == blobByte(index, i))
+				i++;
+			if (i == length)
+				return value;
+		}
+		return blob(index);
+	}
+
 	/**
 	 * Advances the parser by 3 elements (start tag, blob, end tag)
 	 */
@@ -509,9 +715,43 @@ public final class BinaryXMLDecoder extends GenericXMLDecoder implements XMLDeco
 		// +1
 		readStartElement(startTag);
 		// +2
-		byte [] byteTimestamp = readBlob();
+		int index = readBinaryIndex(BinaryXMLCodec.XML_BLOB);
+		int length = value(index);
+		if (length == 0 || length > 6)
+			return new CCNTime(blob(index)); // let CCNTime complain
 
-		return new CCNTime(byteTimestamp);
+		long binaryTime = 0;
+		for (int i = 0; i < length; i++)
+			binaryTime = (binaryTime << 8) | blobByte(index, i);
+		return CCNTime.fromBinaryTimeAsLong(binaryTime);
+	}
+
+	/**
+	 * Parses short decimal integers in place, and anything else the way GenericXMLDecoder does.
+	 */
+	@Override
+	public int readIntegerElement(long startTag) throws ContentDecodingException {
+		readStartElement(startTag);
+		int index = readBinaryIndex(BinaryXMLCodec.XML_UDATA);
+		int length = value(index);
+		if (length > 0 && length < 10) {
+			int value = 0;
+			int i = 0;
+			for (; i < length; i++) {
+				int digit = blobByte(index, i) - '0';
+				if (digit < 0 || digit > 9)
+					break;
+				value = value * 10 + digit;
+			}
+			if (i == length)
+				return value;
+		}
+		String strVal = DataUtils.getUTF8StringFromBytes(blob(index));
+		try {
+			return Integer.valueOf(strVal);
+		} catch (NumberFormatException e) {
+			throw new ContentDecodingException("Cannot parse " + startTag + ": " + strVal, e);
+		}
 	}
 
 	public void readEndDocument() throws ContentDecodingException {
@@ -562,9 +802,7 @@ public final class BinaryXMLDecoder extends GenericXMLDecoder implements XMLDeco
 	 * Advances parser by 2
 	 */
 	public String readUString() throws ContentDecodingException {
-		byte [] buffer = readBinary(BinaryXMLCodec.XML_UDATA);
-
-		return DataUtils.getUTF8StringFromBytes(buffer);
+		return DataUtils.getUTF8StringFromBytes(readBinary(BinaryXMLCodec.XML_UDATA));
 	}
 
 	// ===================================
@@ -598,7 +836,7 @@ public final class BinaryXMLDecoder extends GenericXMLDecoder implements XMLDeco
 					backup(istream);
 				}
 			}
-			if (_elements_type[index] == BinaryXMLCodec.XML_DTAG) {
+			if (type(index) == BinaryXMLCodec.XML_DTAG) {
 				initialize();
 				istream.reset();
 				break;
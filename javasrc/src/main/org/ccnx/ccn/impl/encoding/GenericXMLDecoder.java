@@ -26,7 +26,7 @@ import org.ccnx.ccn.io.content.ContentDecodingException;
 /**
  * This class contains methods for content encoding/decoding common to all or many codecs.
  */
-public abstract class GenericXMLDecoder extends GenericXMLHandler implements XMLDecoder {
+public abstract class GenericXMLDecoder extends GenericXMLHandler implements XMLDecoder, PooledCodec {
 
 	protected InputStream _istream = null;
 
@@ -56,6 +56,10 @@ public abstract class GenericXMLDecoder extends GenericXMLHandler implements XML
 		readEndDocument();
 	}
 
+	public void reset() {
+		_istream = null;
+	}
+
 	public void readStartElement(String startTag) throws ContentDecodingException {
 		readStartElement(startTag, null);
 	}
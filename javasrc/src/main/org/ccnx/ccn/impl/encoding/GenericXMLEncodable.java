@@ -21,6 +21,8 @@ import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
 
 import org.ccnx.ccn.impl.support.Log;
 import org.ccnx.ccn.io.content.ContentDecodingException;
@@ -61,10 +63,15 @@ public abstract class GenericXMLEncodable implements XMLEncodable {
  	}
  	
 	public void decode(InputStream istream, String codec) throws ContentDecodingException {
-		XMLDecoder decoder = XMLCodecFactory.getDecoder(codec);
-		decoder.beginDecoding(istream);
-		decode(decoder);
-		decoder.endDecoding();
+		XMLDecoder decoder = XMLCodecFactory.acquireDecoder(codec);
+		try {
+			decoder.beginDecoding(istream);
+			decode(decoder);
+			decoder.endDecoding();
+		} finally {
+			if (null != decoder)
+				XMLCodecFactory.releaseDecoder(decoder);
+		}
 	}
  	
 	public void decode(byte [] content) throws ContentDecodingException {
@@ -82,16 +89,63 @@ public abstract class GenericXMLEncodable implements XMLEncodable {
 		decode(decoder);
 		decoder.endDecoding();
  	}
+
+	public void decode(ByteBuffer buf) throws ContentDecodingException {
+		decode(buf, null);
+	}
+
+	/**
+	 * The binary codec decodes straight from the buffer, and leaves it positioned after
+	 * this object. Other codecs read the rest of the buffer.
+	 */
+	public void decode(ByteBuffer buf, String codec) throws ContentDecodingException {
+		XMLDecoder decoder = XMLCodecFactory.acquireDecoder(codec);
+		try {
+			if (decoder instanceof BinaryXMLDecoder) {
+				((BinaryXMLDecoder)decoder).beginDecoding(buf);
+			} else {
+				byte [] content = new byte[buf.remaining()];
+				buf.get(content);
+				decoder.beginDecoding(new ByteArrayInputStream(content));
+			}
+			decode(decoder);
+			decoder.endDecoding();
+		} finally {
+			if (null != decoder)
+				XMLCodecFactory.releaseDecoder(decoder);
+		}
+	}
 	
 	public void encode(OutputStream ostream) throws ContentEncodingException {
 		encode(ostream, null);
 	}
 
 	public void encode(OutputStream ostream, String codec) throws ContentEncodingException {
-		XMLEncoder encoder = XMLCodecFactory.getEncoder(codec);
-		encoder.beginEncoding(ostream);
-		encode(encoder);
-		encoder.endEncoding();	
+		XMLEncoder encoder = XMLCodecFactory.acquireEncoder(codec);
+		try {
+			encoder.beginEncoding(ostream);
+			encode(encoder);
+			encoder.endEncoding();
+		} finally {
+			if (null != encoder)
+				XMLCodecFactory.releaseEncoder(encoder);
+		}
+	}
+
+	public void encode(ByteBuffer buf) throws ContentEncodingException {
+		encode(buf, null);
+	}
+
+	/**
+	 * Encode starting at the buffer's position, leaving it positioned after this object.
+	 * @throws ContentEncodingException if the object doesn't fit in the buffer
+	 */
+	public void encode(ByteBuffer buf, String codec) throws ContentEncodingException {
+		try {
+			encode(new ByteBufferOutputStream(buf), codec);
+		} catch (BufferOverflowException e) {
+			throw new ContentEncodingException("Encoding does not fit in buffer of " + buf.capacity() + " bytes", e);
+		}
 	}
 
 	public byte [] encode() throws ContentEncodingException {
@@ -120,6 +174,28 @@ public abstract class GenericXMLEncodable implements XMLEncodable {
 		return new String(encoded);
 	}
 
+	/**
+	 * Writes into a ByteBuffer, for encode(ByteBuffer). Lets BufferOverflowException
+	 * through when the buffer fills up.
+	 */
+	private static class ByteBufferOutputStream extends OutputStream {
+		private final ByteBuffer _buf;
+
+		private ByteBufferOutputStream(ByteBuffer buf) {
+			_buf = buf;
+		}
+
+		@Override
+		public void write(int b) {
+			_buf.put((byte)b);
+		}
+
+		@Override
+		public void write(byte [] b, int off, int len) {
+			_buf.put(b, off, len);
+		}
+	}
+
 	/*
 	 * These are the methods that a subclass really does need to implement.
 	 */
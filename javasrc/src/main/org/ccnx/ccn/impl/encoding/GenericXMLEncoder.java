@@ -25,7 +25,7 @@ import org.ccnx.ccn.io.content.ContentEncodingException;
 /**
  * This class contains methods for content encoding/decoding common to all or many codecs.
  */
-public abstract class GenericXMLEncoder extends GenericXMLHandler implements XMLEncoder {
+public abstract class GenericXMLEncoder extends GenericXMLHandler implements XMLEncoder, PooledCodec {
 
 	protected OutputStream _ostream = null;
 	
@@ -37,6 +37,10 @@ public abstract class GenericXMLEncoder extends GenericXMLHandler implements XML
 		super(dictionary);
 	}
 
+	public void reset() {
+		_ostream = null;
+	}
+
 	public void writeStartElement(String tag) throws ContentEncodingException {
 		writeStartElement(tag, null);
 	}
@@ -56,6 +56,12 @@ public class TextXMLDecoder extends GenericXMLDecoder implements XMLDecoder {
 		}		
 	}
 
+	@Override
+	public void reset() {
+		super.reset();
+		_reader = null;
+	}
+
 	public void readStartDocument() throws ContentDecodingException {
 		try {
 			int event = _reader.getEventType();
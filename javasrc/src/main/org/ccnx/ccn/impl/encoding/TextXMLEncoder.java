@@ -86,6 +86,12 @@ public class TextXMLEncoder extends GenericXMLEncoder implements XMLEncoder {
 		}
 	}
 	
+	@Override
+	public void reset() {
+		super.reset();
+		_serializer = null;
+	}
+
 	public void writeStartElement(long tag, TreeMap<String, String> attributes) throws ContentEncodingException {
 		String strTag = tagToString(tag);
 		if (null == strTag) {
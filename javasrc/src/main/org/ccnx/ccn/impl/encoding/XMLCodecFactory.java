@@ -54,6 +54,27 @@ public class XMLCodecFactory {
 	protected static HashMap<String,Class<? extends XMLEncoder>> _registeredEncoders;
 	protected static HashMap<String,Class<? extends XMLDecoder>> _registeredDecoders;
 
+	/**
+	 * Each thread keeps a spare instance of each codec class it has used. An instance is
+	 * taken out of the map while it is in use, so a nested encode or decode on the same
+	 * thread gets an instance of its own.
+	 */
+	protected static final ThreadLocal<HashMap<Class<? extends XMLEncoder>, XMLEncoder>> _spareEncoders =
+		new ThreadLocal<HashMap<Class<? extends XMLEncoder>, XMLEncoder>>() {
+			@Override
+			protected HashMap<Class<? extends XMLEncoder>, XMLEncoder> initialValue() {
+				return new HashMap<Class<? extends XMLEncoder>, XMLEncoder>();
+			}
+	};
+
+	protected static final ThreadLocal<HashMap<Class<? extends XMLDecoder>, XMLDecoder>> _spareDecoders =
+		new ThreadLocal<HashMap<Class<? extends XMLDecoder>, XMLDecoder>>() {
+			@Override
+			protected HashMap<Class<? extends XMLDecoder>, XMLDecoder> initialValue() {
+				return new HashMap<Class<? extends XMLDecoder>, XMLDecoder>();
+			}
+	};
+
 	public static void registerEncoder(String name, Class<? extends XMLEncoder> encoderClass) {
 		_registeredEncoders.put(name, encoderClass);
 	}
@@ -146,6 +167,70 @@ public class XMLCodecFactory {
 		return decoder;
 	}
 
+	/**
+	 * Get an encoder for the specified codec for use by this thread, reusing a previous
+	 * one if possible. Hand it back with releaseEncoder() when finished with it, and
+	 * don't use it after that.
+	 * @param codecName the codec, or null for the default
+	 * @return the encoder, or null if the codec is unknown
+	 */
+	public static XMLEncoder acquireEncoder(String codecName) {
+		Class<? extends XMLEncoder> encoderClass = getEncoderClass(codecName);
+		if (null == encoderClass) {
+			return null;
+		}
+		XMLEncoder encoder = _spareEncoders.get().remove(encoderClass);
+		if (null == encoder)
+			encoder = getEncoder(codecName);
+		return encoder;
+	}
+
+	/**
+	 * Return an encoder obtained from acquireEncoder() so this thread can use it again.
+	 * Encoders which can't be reset are just dropped.
+	 * @param encoder
+	 */
+	public static void releaseEncoder(XMLEncoder encoder) {
+		if (!(encoder instanceof PooledCodec))
+			return;
+		((PooledCodec)encoder).reset();
+		HashMap<Class<? extends XMLEncoder>, XMLEncoder> spares = _spareEncoders.get();
+		if (!spares.containsKey(encoder.getClass()))
+			spares.put(encoder.getClass(), encoder);
+	}
+
+	/**
+	 * Get a decoder for the specified codec for use by this thread, reusing a previous
+	 * one if possible. Hand it back with releaseDecoder() when finished with it, and
+	 * don't use it after that.
+	 * @param codecName the codec, or null for the default
+	 * @return the decoder, or null if the codec is unknown
+	 */
+	public static XMLDecoder acquireDecoder(String codecName) {
+		Class<? extends XMLDecoder> decoderClass = getDecoderClass(codecName);
+		if (null == decoderClass) {
+			return null;
+		}
+		XMLDecoder decoder = _spareDecoders.get().remove(decoderClass);
+		if (null == decoder)
+			decoder = getDecoder(codecName);
+		return decoder;
+	}
+
+	/**
+	 * Return a decoder obtained from acquireDecoder() so this thread can use it again.
+	 * Decoders which can't be reset are just dropped.
+	 * @param decoder
+	 */
+	public static void releaseDecoder(XMLDecoder decoder) {
+		if (!(decoder instanceof PooledCodec))
+			return;
+		((PooledCodec)decoder).reset();
+		HashMap<Class<? extends XMLDecoder>, XMLDecoder> spares = _spareDecoders.get();
+		if (!spares.containsKey(decoder.getClass()))
+			spares.put(decoder.getClass(), decoder);
+	}
+
 	public static Class<? extends XMLEncoder> getEncoderClass(String codecName) {
 		if (null == codecName)
 			return getDefaultEncoderClass();
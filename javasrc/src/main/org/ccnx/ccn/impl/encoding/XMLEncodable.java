@@ -19,6 +19,7 @@ package org.ccnx.ccn.impl.encoding;
 
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
 
 import org.ccnx.ccn.config.SystemConfiguration;
 import org.ccnx.ccn.io.content.ContentDecodingException;
@@ -98,21 +99,21 @@ public interface XMLEncodable {
 	 * Decode this object as the top-level item in a new XML document, 
 	 * reading it from a network buffer. Reads document start and end. Assumes
 	 * default encoding.
-	 * @param buf input stream to read from
+	 * @param buf buffer to read from, starting at its position
 	 * @throws ContentDecodingException if there is an error decoding the content
 	 */
-	//public void decode(ByteBuffer buf) throws ContentDecodingException;
+	public void decode(ByteBuffer buf) throws ContentDecodingException;
 	
 	/**
 	 * Decode this object as the top-level item in a new XML document, 
 	 * reading it from a network buffer. Reads document start and end. 
-	 * @param buf input stream to read from
+	 * @param buf buffer to read from, starting at its position
 	 * @param codec the codec to use; must be recognized by XMLCodecFactory
 	 * @throws ContentDecodingException if there is an error decoding the content
 	 * 
 	 * @see XMLCodecFactory
 	 */
-	//public void decode(ByteBuffer buf, String codec) throws ContentDecodingException;
+	public void decode(ByteBuffer buf, String codec) throws ContentDecodingException;
 
 	/**
 	 * Decode this object during an ongoing decoding pass; this is what subclasses
@@ -143,6 +144,29 @@ public interface XMLEncodable {
 	 * @see XMLCodecFactory
 	 */
 	public void encode(OutputStream ostream, String codec) throws ContentEncodingException;
+
+	/**
+	 * Encode this object as the top-level item in a new
+	 * XML document into a buffer, starting at its position. Writes start
+	 * and end document. Assumes default encoding.
+	 * @param buf buffer to encode object to
+	 * @throws ContentEncodingException if there is an error encoding the object,
+	 * 	including running out of room in the buffer
+	 */
+	public void encode(ByteBuffer buf) throws ContentEncodingException;
+
+	/**
+	 * Encode this object as the top-level item in a new
+	 * XML document into a buffer, starting at its position. Writes start
+	 * and end document.
+	 * @param buf buffer to encode object to
+	 * @param codec the codec to use; must be recognized by XMLCodecFactory
+	 * @throws ContentEncodingException if there is an error encoding the object,
+	 * 	including running out of room in the buffer
+	 *
+	 * @see XMLCodecFactory
+	 */
+	public void encode(ByteBuffer buf, String codec) throws ContentEncodingException;
 	
 	/**
 	 * Helper method to encode to a byte array rather than an
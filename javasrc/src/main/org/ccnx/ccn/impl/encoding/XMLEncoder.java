@@ -42,7 +42,7 @@ public interface XMLEncoder {
 	 * @throws ContentEncodingException if there is an error encoding or writing the content
 	 */
 	public void endEncoding() throws ContentEncodingException;
-	
+
 	/**
 	 * Writes a start element tag in the format defined by this codec to the stream.
 	 * @param tag the element start tag
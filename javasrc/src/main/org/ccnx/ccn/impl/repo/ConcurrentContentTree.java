@@ -0,0 +1,83 @@
+/*
+ * Part of the CCNx Java Library.
+ *
+ * Copyright (C) 2013 Palo Alto Research Center, Inc.
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version 2.1
+ * as published by the Free Software Foundation.
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details. You should have received
+ * a copy of the GNU Lesser General Public License along with this library;
+ * if not, write to the Free Software Foundation, Inc., 51 Franklin Street,
+ * Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package org.ccnx.ccn.impl.repo;
+
+import java.util.List;
+import java.util.SortedMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.ccnx.ccn.protocol.ContentName;
+import org.ccnx.ccn.protocol.ContentObject;
+import org.ccnx.ccn.protocol.Interest;
+
+/**
+ * A ContentTree which looks up and searches without taking any locks. Children are held in
+ * concurrent skip lists and content in copy on write lists, so readers can walk them while
+ * they are being added to. Writers lock only the node they are changing, so readers no longer
+ * queue up on the root and the top level prefixes behind each other and the writer.
+ *
+ * A reader may or may not see content inserted while it is looking, as with ContentTree.
+ * Name enumeration still locks the node it enumerates.
+ */
+public class ConcurrentContentTree extends ContentTree {
+
+	@Override
+	protected TreeNode childOf(TreeNode node, byte[] component) {
+		return node.getChild(component);
+	}
+
+	@Override
+	protected SortedMap<TreeNode, TreeNode> childMap(TreeNode node) {
+		// oneChild is cleared after children is set, so read it first
+		return singleChildMap(node.oneChild, node.children);
+	}
+
+	@Override
+	protected ContentObject matchNodeContent(Interest interest, TreeNode node, ContentName nodeName, ContentGetter getter) {
+		ContentRef oneContent = node.oneContent;
+		if (null != oneContent)
+			return matchCandidate(interest, nodeName, oneContent, getter);
+		List<ContentRef> content = node.content;
+		if (null != content) {
+			for (ContentRef ref : content) {
+				ContentObject cand = matchCandidate(interest, nodeName, ref, getter);
+				if (null != cand)
+					return cand;
+			}
+		}
+		return null;
+	}
+
+	@Override
+	protected void addContent(TreeNode node, ContentRef ref) {
+		synchronized(node) {
+			super.addContent(node, ref);
+		}
+	}
+
+	@Override
+	protected SortedMap<TreeNode, TreeNode> newChildMap() {
+		return new ConcurrentSkipListMap<TreeNode, TreeNode>();
+	}
+
+	@Override
+	protected List<ContentRef> newContentList() {
+		return new CopyOnWriteArrayList<ContentRef>();
+	}
+}
@@ -0,0 +1,184 @@
+/*
+ * Part of the CCNx Java Library.
+ *
+ * Copyright (C) 2013 Palo Alto Research Center, Inc.
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version 2.1
+ * as published by the Free Software Foundation.
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details. You should have received
+ * a copy of the GNU Lesser General Public License along with this library;
+ * if not, write to the Free Software Foundation, Inc., 51 Franklin Street,
+ * Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package org.ccnx.ccn.impl.repo;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import org.ccnx.ccn.impl.CCNStats.CCNEnumStats;
+import org.ccnx.ccn.protocol.ContentObject;
+
+/**
+ * A size bounded LRU cache of decoded ContentObjects, keyed by the ContentRef the store
+ * put into the ContentTree. Matching an interest against a candidate in the tree needs the
+ * whole object, so without this every match of a popular object reads and decodes it again.
+ *
+ * References are compared by identity, which is what the tree hands back to the store.
+ * The size of an object is an estimate of the memory it holds, not its encoded length.
+ *
+ * A reader can miss, read the object, and put it after the store has moved or dropped the
+ * reference it looked up, which would leave an entry nobody can find holding memory until it
+ * ages out. So references passed to replace or remove are remembered as retired, until nobody
+ * holds them any more, and puts for them are ignored.
+ */
+public class ContentObjectCache {
+
+	protected static class Entry {
+		final ContentObject _content;
+		final int _size;
+
+		Entry(ContentObject content, int size) {
+			_content = content;
+			_size = size;
+		}
+	}
+
+	protected final LinkedHashMap<ContentRef, Entry> _entries = new LinkedHashMap<ContentRef, Entry>(256, 0.75f, true);
+	protected long _maxBytes;
+	protected long _bytes = 0;
+	protected final WeakHashMap<ContentRef, Boolean> _retired = new WeakHashMap<ContentRef, Boolean>();
+	protected volatile CCNEnumStats<RepositoryServer.StatsEnum> _stats = null;
+
+	/**
+	 * @param maxBytes approximate limit on the memory held by cached objects. 0 disables the cache.
+	 */
+	public ContentObjectCache(long maxBytes) {
+		_maxBytes = maxBytes;
+	}
+
+	/**
+	 * Count hits, misses and evictions in the repository server's statistics
+	 */
+	public void setStats(CCNEnumStats<RepositoryServer.StatsEnum> stats) {
+		_stats = stats;
+	}
+
+	/**
+	 * Change the size of the cache, dropping objects if it shrinks
+	 * @param maxBytes 0 disables the cache
+	 */
+	public synchronized void setMaxBytes(long maxBytes) {
+		_maxBytes = maxBytes;
+		trim();
+	}
+
+	/**
+	 * @return the cached object for this reference, or null
+	 */
+	public ContentObject get(ContentRef ref) {
+		Entry entry;
+		synchronized (this) {
+			if (0 == _maxBytes)
+				return null;
+			entry = _entries.get(ref);
+		}
+		CCNEnumStats<RepositoryServer.StatsEnum> stats = _stats;
+		if (null != stats)
+			stats.increment(null == entry ? RepositoryServer.StatsEnum.ObjectCacheMisses : RepositoryServer.StatsEnum.ObjectCacheHits);
+		return (null == entry) ? null : entry._content;
+	}
+
+	/**
+	 * Get the cached object without counting it as a use. Used for bulk reads, such as compaction,
+	 * which shouldn't push out the objects people are asking for.
+	 */
+	public synchronized ContentObject peek(ContentRef ref) {
+		Entry entry = _entries.get(ref);
+		return (null == entry) ? null : entry._content;
+	}
+
+	public synchronized void put(ContentRef ref, ContentObject content) {
+		if (0 == _maxBytes)
+			return;
+		int size = size(content);
+		if (size > _maxBytes || _retired.containsKey(ref))
+			return;
+		Entry old = _entries.put(ref, new Entry(content, size));
+		if (null != old)
+			_bytes -= old._size;
+		_bytes += size;
+		trim();
+	}
+
+	/**
+	 * Move a cached object to a new reference, when the store moves the object
+	 */
+	public synchronized void replace(ContentRef oldRef, ContentRef newRef) {
+		_retired.put(oldRef, Boolean.TRUE);
+		Entry entry = _entries.remove(oldRef);
+		if (null != entry) {
+			Entry old = _entries.put(newRef, entry);
+			if (null != old)
+				_bytes -= old._size;
+		}
+	}
+
+	/**
+	 * Drop a cached object whose reference the store no longer uses
+	 */
+	public synchronized void remove(ContentRef ref) {
+		_retired.put(ref, Boolean.TRUE);
+		Entry entry = _entries.remove(ref);
+		if (null != entry)
+			_bytes -= entry._size;
+	}
+
+	public synchronized void clear() {
+		_entries.clear();
+		_retired.clear();
+		_bytes = 0;
+	}
+
+	/**
+	 * @return approximate memory held by cached objects
+	 */
+	public synchronized long getBytes() {
+		return _bytes;
+	}
+
+	public synchronized int getCount() {
+		return _entries.size();
+	}
+
+	private void trim() {
+		int evicted = 0;
+		Iterator<Map.Entry<ContentRef, Entry>> it = _entries.entrySet().iterator();
+		while (_bytes > _maxBytes && it.hasNext()) {
+			_bytes -= it.next().getValue()._size;
+			it.remove();
+			evicted++;
+		}
+		CCNEnumStats<RepositoryServer.StatsEnum> stats = _stats;
+		if (evicted > 0 && null != stats)
+			stats.increment(RepositoryServer.StatsEnum.ObjectCacheEvictions, evicted);
+	}
+
+	/**
+	 * A rough idea of the memory a decoded object takes up
+	 */
+	protected static int size(ContentObject content) {
+		int size = 256 + content.contentLength();
+		for (byte [] component : content.name())
+			size += 16 + component.length;
+		if (null != content.signature() && null != content.signature().signature())
+			size += content.signature().signature().length;
+		return size;
+	}
+}
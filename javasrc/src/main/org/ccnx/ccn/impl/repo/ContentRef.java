@@ -17,6 +17,8 @@
 
 package org.ccnx.ccn.impl.repo;
 
+import org.ccnx.ccn.protocol.PublisherPublicKeyDigest;
+
 /**
  * ContentRef is what a ContentTree holds.  Users of ContentTree should extend
  * ContentRef to provide the fields they require
@@ -24,5 +26,9 @@ package org.ccnx.ccn.impl.repo;
  * @see ContentTree
  */
 public abstract class ContentRef {
-	// no fields
+	/**
+	 * The publisher of the content, filled in by the ContentTree so that it can match interests
+	 * without fetching the content. Null until the tree has seen the content.
+	 */
+	volatile PublisherPublicKeyDigest publisher = null;
 }
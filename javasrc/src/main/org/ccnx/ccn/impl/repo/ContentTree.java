@@ -22,8 +22,10 @@ import static org.ccnx.ccn.profiles.CommandMarker.COMMAND_MARKER_BASIC_ENUMERATI
 import java.io.PrintStream;
 import java.util.ArrayList;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.NavigableMap;
 import java.util.SortedMap;
 import java.util.TreeMap;
 import java.util.logging.Level;
@@ -38,6 +40,7 @@ import org.ccnx.ccn.protocol.ContentName;
 import org.ccnx.ccn.protocol.ContentObject;
 import org.ccnx.ccn.protocol.Exclude;
 import org.ccnx.ccn.protocol.Interest;
+import org.ccnx.ccn.protocol.PublisherPublicKeyDigest;
 
 /**
  * Creates a tree structure to track the data stored within a LogStructRepoStore RepositoryStore.
@@ -52,6 +55,10 @@ public class ContentTree {
 		public ContentObject get(ContentRef ref);
 	}
 	
+	public interface ContentVisitor {
+		public void visit(ContentName name, ContentRef ref);
+	}
+	
 	/**
 	 * TreeNode is the data structure representing one
 	 * node of a tree which may have children and/or content.
@@ -66,29 +73,36 @@ public class ContentTree {
 		// oneChild is special case when there is only 
 		// a single child (to save obj overhead).
 		// either oneChild or children should be null
-		TreeNode oneChild;
-		SortedMap<TreeNode, TreeNode> children;
+		// These are volatile so ConcurrentContentTree can read them without the lock. When
+		// switching to a map or list it is filled in first and the single entry cleared last.
+		volatile TreeNode oneChild;
+		volatile SortedMap<TreeNode, TreeNode> children;
 		// oneContent is special case when there is only 
 		// a single content object here (to save obj overhead).
 		// either oneContent or content should be null
-		ContentRef oneContent;
-		List<ContentRef> content;
+		volatile ContentRef oneContent;
+		volatile List<ContentRef> content;
 		long timestamp;
 		boolean interestFlag = false;
 		boolean neSent = false;		// NE response sent since last insert
+		NameEnumerationResponse neResponse = null;	// children as of timestamp, until a child is added
 		
 		public boolean compEquals(byte[] other) {
 			return DataUtils.compare(other, this.component) == 0;
 		}
 		public TreeNode getChild(byte[] component) {
-			if (null != oneChild) {
-				if (oneChild.compEquals(component)) {
-					return oneChild;
+			TreeNode one = oneChild;
+			if (null != one) {
+				if (one.compEquals(component)) {
+					return one;
+				}
+			} else {
+				SortedMap<TreeNode, TreeNode> map = children;
+				if (null != map) {
+					TreeNode child = new TreeNode();
+					child.component = component;
+					return map.get(child);
 				}
-			} else if (null != children) {
-				TreeNode child = new TreeNode();
-				child.component = component;
-				return children.get(child);
 			}
 			return null;
 		}
@@ -207,14 +221,7 @@ public class ContentTree {
 				}
 			}
 		
-			synchronized(node) {
-				if (null != node.oneChild) {
-					_children = new TreeMap<TreeNode, TreeNode>(); // Don't bother with comparator, will only hold one element
-					_children.put(node.oneChild, node.oneChild);
-				} else {
-					_children = node.children;
-				}
-			}
+			_children = childMap(node);
 			if (null != _children) {
 				byte[] interestComp = _interest.name().component(depth);
 				Iterator<TreeNode>it = initIterator(leftSearch, interestComp);
@@ -304,16 +311,25 @@ public class ContentTree {
 	 */
 	protected static class RightIterator implements Iterator<TreeNode> {
 		protected SortedMap<TreeNode, TreeNode> _map;
+		protected Iterator<TreeNode> _descending = null;
 		
 		protected RightIterator(SortedMap<TreeNode, TreeNode> map) {
 			_map = map;
+			// Each subMap is a view of the previous one, so stepping back through many children
+			// that way gets slower with every step. Walk the map backwards if we can.
+			if (map instanceof NavigableMap)
+				_descending = ((NavigableMap<TreeNode, TreeNode>) map).descendingKeySet().iterator();
 		}
 
 		public boolean hasNext() {
+			if (null != _descending)
+				return _descending.hasNext();
 			return _map.size() > 0;
 		}
 
 		public TreeNode next() {
+			if (null != _descending)
+				return _descending.next();
 			TreeNode node = _map.lastKey();
 			_map = _map.subMap(_map.firstKey(), _map.lastKey());
 			return node;
@@ -325,6 +341,10 @@ public class ContentTree {
 	
 	protected TreeNode _root;
 	
+	// Content comes from few publishers, so share their digests between references
+	protected HashMap<PublisherPublicKeyDigest, PublisherPublicKeyDigest> _publishers = 
+		new HashMap<PublisherPublicKeyDigest, PublisherPublicKeyDigest>();
+	
 	public ContentTree() {
 		_root = new TreeNode();
 		_root.component = null; // Only the root has a null value
@@ -351,101 +371,161 @@ public class ContentTree {
 		if (Log.isLoggable(Log.FAC_REPO, Level.FINE)) {
 			Log.fine(Log.FAC_REPO, "inserting content: {0}", name);
 		}
+		TreeNode node = insertNode(name, ts, ner);
+		
+		// Check for duplicate content. A newly added node has no content so there is nothing to check.
+		ContentRef oneContent = node.oneContent;
+		List<ContentRef> refs = node.content;
+		if (null != oneContent) {
+			ContentObject prev = getter.get(oneContent);
+			if (null != prev && content.equals(prev))
+				return false;
+		} else if (null != refs) {
+			for (ContentRef oldRef : refs) {
+				ContentObject prev = getter.get(oldRef);
+				if (null != prev && content.equals(prev))
+					return false;
+			}
+		}
+
+		learnPublisher(ref, content);
+		addContent(node, ref);
+		if (Log.isLoggable(Log.FAC_REPO, Level.FINE)) {
+			Log.fine(Log.FAC_REPO, "Inserted: {0}", content.name());
+		}
+		return true;
+	}
+	
+	/**
+	 * Insert entry for content which is already known not to duplicate anything in the tree,
+	 * such as an entry restored from a checkpoint of the tree. The content itself is not needed.
+	 * 
+	 * @param name the full name of the content including its digest
+	 * @param ref pointer to position of data in the file storage
+	 * @param ts last modification time of the data
+	 */
+	public void insert(ContentName name, ContentRef ref, long ts) {
+		if (Log.isLoggable(Log.FAC_REPO, Level.FINE)) {
+			Log.fine(Log.FAC_REPO, "restoring content: {0}", name);
+		}
+		addContent(insertNode(name, ts, null), ref);
+	}
+	
+	/**
+	 * Find the node for the given name, adding any nodes needed along the way
+	 * 
+	 * @param name the full name of the content
+	 * @param ts last modification time of the data
+	 * @param ner NameEnumerationResponse object to populate if a child is added at a parent
+	 *   with the interest flag set
+	 * @return the node for the last component of name
+	 */
+	protected TreeNode insertNode(ContentName name, long ts, NameEnumerationResponse ner) {
 		TreeNode node = _root; // starting point
 		assert(null != _root);
-		boolean added = false;
 		
 		for (byte[] component : name) {
-			synchronized(node) {
-				//Library.finest("getting node for component: "+new String(component));
-				TreeNode child = node.getChild(component);
-				if (null == child) {
-					if (Log.isLoggable(Log.FAC_REPO, Level.FINEST)) {
-						Log.finest(Log.FAC_REPO, "child was null: adding here");
-					}
-					// add it
-					added = true;
-					child = new TreeNode();
-					child.component = component;
-					if (null == node.oneChild && null == node.children) {
-						// This is first and only child of current node
-						node.oneChild = child;
-					} else if (null == node.oneChild) {
-						// Multiple children already, just add this one to current node
-						node.children.put(child, child);
-					} else {
-						// Second child in current node, need to switch to list
-						node.children = new TreeMap<TreeNode, TreeNode>();
-						node.children.put(node.oneChild, node.oneChild);
-						node.children.put(child, child);
-						node.oneChild = null;
-					}
-					if (node.neSent && (node.timestamp == ts)) {
-						if (Log.isLoggable(Log.FAC_REPO, Level.WARNING)) {
-							Log.warning(Log.FAC_REPO, "WARNING - info inserted at {0} since last NE without timestamp update - could cause NE miss", 
-									name);
-						}
-					}
-					node.neSent = false;
-					node.timestamp = ts;
-					
-					if (node.interestFlag && (ner != null && ner.getPrefix()==null)){
-						//we have added something to this node and someone was interested
-						//we need to get the child names and the prefix to send back
-						if (Log.isLoggable(Log.FAC_REPO, Level.INFO)) {
-							Log.info(Log.FAC_REPO, "we added at least one child, need to send a name enumeration response");
-						}
-						ContentName prefix = name.cut(component);
+			//Library.finest("getting node for component: "+new String(component));
+			TreeNode child = childOf(node, component);
+			if (null == child)
+				child = addChild(node, component, name, ts, ner);
+			
+			//Library.finest("child was not null: moving down the tree");
+			node = child;
+		}
+		// At conclusion of this loop, node must be holding the last node for this name
+		return node;
+	}
 	
-						prefix = new ContentName(prefix, COMMAND_MARKER_BASIC_ENUMERATION);
-						if (Log.isLoggable(Log.FAC_REPO, Level.INFO)) {
-							Log.info(Log.FAC_REPO, "prefix for FastNEResponse: {0}", prefix);
-							Log.info(Log.FAC_REPO, "response name will be: {0}",
-									new ContentName(prefix, COMMAND_MARKER_BASIC_ENUMERATION, new CCNTime(node.timestamp)));
-						}
+	/**
+	 * Add a child to a node unless someone else got there first
+	 * 
+	 * @param node the parent
+	 * @param component the child's component
+	 * @param name the full name of the content being inserted
+	 * @param ts last modification time of the data
+	 * @param ner NameEnumerationResponse object to populate if the parent has the interest flag set
+	 * @return the child
+	 */
+	protected TreeNode addChild(TreeNode node, byte[] component, ContentName name, long ts, NameEnumerationResponse ner) {
+		synchronized(node) {
+			TreeNode child = node.getChild(component);
+			if (null != child)
+				return child;
+			if (Log.isLoggable(Log.FAC_REPO, Level.FINEST)) {
+				Log.finest(Log.FAC_REPO, "child was null: adding here");
+			}
+			// add it
+			child = new TreeNode();
+			child.component = component;
+			if (null == node.oneChild && null == node.children) {
+				// This is first and only child of current node
+				node.oneChild = child;
+			} else if (null == node.oneChild) {
+				// Multiple children already, just add this one to current node
+				node.children.put(child, child);
+			} else {
+				// Second child in current node, need to switch to map
+				SortedMap<TreeNode, TreeNode> children = newChildMap();
+				children.put(node.oneChild, node.oneChild);
+				children.put(child, child);
+				node.children = children;
+				node.oneChild = null;
+			}
+			if (node.neSent && (node.timestamp == ts)) {
+				if (Log.isLoggable(Log.FAC_REPO, Level.WARNING)) {
+					Log.warning(Log.FAC_REPO, "WARNING - info inserted at {0} since last NE without timestamp update - could cause NE miss", 
+							name);
+				}
+			}
+			node.neSent = false;
+			node.neResponse = null;
+			node.timestamp = ts;
+			
+			if (node.interestFlag && (ner != null && ner.getPrefix()==null)){
+				//we have added something to this node and someone was interested
+				//we need to get the child names and the prefix to send back
+				if (Log.isLoggable(Log.FAC_REPO, Level.INFO)) {
+					Log.info(Log.FAC_REPO, "we added at least one child, need to send a name enumeration response");
+				}
+				ContentName prefix = name.cut(component);
 	
-						ArrayList<ContentName> names = new ArrayList<ContentName>();
-						// the parent has children we need to return
-						if (node.oneChild != null) {
-							names.add(new ContentName(node.oneChild.component));
-						} else {
-							if (node.children != null) {
-								for (TreeNode ch : node.children.keySet())
-									names.add(new ContentName(ch.component));
-							}
-						}
-						ner.setPrefix(prefix);
-						ner.setNameList(names);
-						ner.setTimestamp(new CCNTime(node.timestamp));
-						if (Log.isLoggable(Log.FAC_REPO, Level.INFO)) {
-							Log.info(Log.FAC_REPO, "resetting interestFlag to false");
-						}
-						node.interestFlag = false;
+				prefix = new ContentName(prefix, COMMAND_MARKER_BASIC_ENUMERATION);
+				if (Log.isLoggable(Log.FAC_REPO, Level.INFO)) {
+					Log.info(Log.FAC_REPO, "prefix for FastNEResponse: {0}", prefix);
+					Log.info(Log.FAC_REPO, "response name will be: {0}",
+							new ContentName(prefix, COMMAND_MARKER_BASIC_ENUMERATION, new CCNTime(node.timestamp)));
+				}
+	
+				ArrayList<ContentName> names = new ArrayList<ContentName>();
+				// the parent has children we need to return
+				if (node.oneChild != null) {
+					names.add(new ContentName(node.oneChild.component));
+				} else {
+					if (node.children != null) {
+						for (TreeNode ch : node.children.keySet())
+							names.add(new ContentName(ch.component));
 					}
 				}
-				
-				//Library.finest("child was not null: moving down the tree");
-				node = child;
-			}
-		}
-		
-		// Check for duplicate content
-		if (!added) {
-			if (null != node.oneContent) {
-				ContentObject prev = getter.get(node.oneContent);
-				if (null != prev && content.equals(prev))
-					return false;
-			} else if (null != node.content) {
-				for (ContentRef oldRef : node.content) {
-					ContentObject prev = getter.get(oldRef);
-					if (null != prev && content.equals(prev))
-						return false;
+				ner.setPrefix(prefix);
+				ner.setNameList(names);
+				ner.setTimestamp(new CCNTime(node.timestamp));
+				if (Log.isLoggable(Log.FAC_REPO, Level.INFO)) {
+					Log.info(Log.FAC_REPO, "resetting interestFlag to false");
 				}
+				node.interestFlag = false;
 			}
+			return child;
 		}
-
-		// At conclusion of this loop, node must be holding the last node for this name
-		// so we insert the ref there
+	}
+	
+	/**
+	 * Add a reference to content at a node
+	 * 
+	 * @param node the node for the full name of the content
+	 * @param ref pointer to position of data in the file storage
+	 */
+	protected void addContent(TreeNode node, ContentRef ref) {
 		if (null == node.oneContent && null == node.content) {
 			// This is first and only content at this leaf
 			node.oneContent = ref;
@@ -454,15 +534,83 @@ public class ContentTree {
 			node.content.add(ref);
 		} else {
 			// Second content at current node, need to switch to list
-			node.content = new ArrayList<ContentRef>();
-			node.content.add(node.oneContent);
-			node.content.add(ref);
+			List<ContentRef> content = newContentList();
+			content.add(node.oneContent);
+			content.add(ref);
+			node.content = content;
 			node.oneContent = null;
 		}
-		if (Log.isLoggable(Log.FAC_REPO, Level.FINE)) {
-			Log.fine(Log.FAC_REPO, "Inserted: {0}", content.name());
+	}
+
+	/**
+	 * Replace the reference to a piece of content, for example because it has been moved
+	 * 
+	 * @param name the full name of the content including its digest
+	 * @param oldRef the current reference
+	 * @param newRef the reference to replace it with
+	 * @return true if oldRef was found and replaced
+	 */
+	public boolean replace(ContentName name, ContentRef oldRef, ContentRef newRef) {
+		TreeNode node = lookupNode(name, name.count());
+		if (null == node)
+			return false;
+		if (null == newRef.publisher)
+			newRef.publisher = oldRef.publisher;
+		synchronized(node) {
+			if (oldRef == node.oneContent) {
+				node.oneContent = newRef;
+				return true;
+			} else if (null != node.content) {
+				int i = node.content.indexOf(oldRef);
+				if (i >= 0) {
+					node.content.set(i, newRef);
+					return true;
+				}
+			}
 		}
-		return true;
+		return false;
+	}
+	
+	/**
+	 * Remember the publisher of the content a reference points to
+	 */
+	protected void learnPublisher(ContentRef ref, ContentObject content) {
+		if (null == content.signedInfo() || null == content.signedInfo().getPublisherKeyID())
+			return;
+		PublisherPublicKeyDigest publisher = content.signedInfo().getPublisherKeyID();
+		synchronized (_publishers) {
+			PublisherPublicKeyDigest shared = _publishers.get(publisher);
+			if (null == shared)
+				_publishers.put(publisher, publisher);
+			else
+				publisher = shared;
+		}
+		ref.publisher = publisher;
+	}
+	
+	/**
+	 * Get a candidate for an interest if it matches. If we know who published the candidate,
+	 * everything the interest can ask about is known without fetching it, so we only fetch
+	 * content which matches.
+	 * 
+	 * @param interest the interest to match
+	 * @param fullName the full name of the candidate including its digest
+	 * @param ref the candidate
+	 * @param getter to fetch the candidate
+	 * @return the candidate if it matches, null otherwise
+	 */
+	protected ContentObject matchCandidate(Interest interest, ContentName fullName, ContentRef ref, ContentGetter getter) {
+		PublisherPublicKeyDigest publisher = ref.publisher;
+		if (null != publisher) {
+			if (!interest.matchesFullName(fullName, publisher))
+				return null;
+			return getter.get(ref);
+		}
+		ContentObject cand = getter.get(ref);
+		if (null == cand)
+			return null;
+		learnPublisher(ref, cand);
+		return interest.matches(cand) ? cand : null;
 	}
 
 	/**
@@ -481,17 +629,15 @@ public class ContentTree {
 		}
 		
 		for (byte[] component : name) {
-			synchronized(node) {
-				TreeNode child = node.getChild(component);
-				if (null == child) {
-					// Mismatch, no child for the given component so nothing under this name
-					return null;
-				}
-				node = child;
-				count--;
-				if (count < 1) {
-					break;
-				}
+			TreeNode child = childOf(node, component);
+			if (null == child) {
+				// Mismatch, no child for the given component so nothing under this name
+				return null;
+			}
+			node = child;
+			count--;
+			if (count < 1) {
+				break;
 			}
 		}
 		return node;
@@ -506,9 +652,10 @@ public class ContentTree {
 	protected final List<ContentRef> lookup(ContentName name) {
 		TreeNode node = lookupNode(name, name.count());
 		if (null != node) {
-			if (null != node.oneContent) {
+			ContentRef oneContent = node.oneContent;
+			if (null != oneContent) {
 				ArrayList<ContentRef> result = new ArrayList<ContentRef>();
-				result.add(node.oneContent);
+				result.add(oneContent);
 				return result;
 			} else {
 				return node.content;
@@ -518,6 +665,38 @@ public class ContentTree {
 		}
 	}
 	
+	/**
+	 * Call the visitor for every piece of content in the tree, in name order. Content inserted
+	 * while the walk is in progress may or may not be seen.
+	 * 
+	 * @param visitor the visitor
+	 */
+	public void visitContent(ContentVisitor visitor) {
+		assert(null != _root);
+		visitRecurse(visitor, _root, new ContentName());
+	}
+	
+	protected void visitRecurse(ContentVisitor visitor, TreeNode node, ContentName nodeName) {
+		ArrayList<ContentRef> refs = new ArrayList<ContentRef>();
+		ArrayList<TreeNode> children = new ArrayList<TreeNode>();
+		synchronized(node) {
+			if (null != node.oneContent) {
+				refs.add(node.oneContent);
+			} else if (null != node.content) {
+				refs.addAll(node.content);
+			}
+			if (null != node.oneChild) {
+				children.add(node.oneChild);
+			} else if (null != node.children) {
+				children.addAll(node.children.keySet());
+			}
+		}
+		for (ContentRef ref : refs)
+			visitor.visit(nodeName, ref);
+		for (TreeNode child : children)
+			visitRecurse(visitor, child, new ContentName(nodeName, child.component));
+	}
+	
 	/**
 	 * Dump current names to an output file for debugging
 	 * 
@@ -595,27 +774,84 @@ public class ContentTree {
 
 		boolean initialMatch = publisherFreeInterest.matches(digestFreeName, null); 
 
-		if (initialMatch) {
-			synchronized(node) {
-				if (null != node.oneContent) {
-					ContentObject cand = getter.get(node.oneContent);
-					if (interest.matches(cand)) {
+		if (initialMatch)
+			return matchNodeContent(interest, node, nodeName, getter);
+		return null;
+	}
+	
+	/**
+	 * Return the first content at a node which matches the interest
+	 * 
+	 * @param interest the interest to match
+	 * @param node the node
+	 * @param nodeName name of node as a ContentName
+	 * @param getter getter to get actual data for final match and return if matches
+	 * @return matching ContentObject if matches, null otherwise
+	 */
+	protected ContentObject matchNodeContent(Interest interest, TreeNode node, ContentName nodeName, ContentGetter getter) {
+		synchronized(node) {
+			if (null != node.oneContent) {
+				return matchCandidate(interest, nodeName, node.oneContent, getter);
+			} else if (null != node.content) {
+				for (ContentRef ref : node.content) {
+					ContentObject cand = matchCandidate(interest, nodeName, ref, getter);
+					if (null != cand) {
 						return cand;
 					}
-				} else {
-					assert(null != node.content);
-					for (ContentRef ref : node.content) {
-						ContentObject cand = getter.get(ref);
-						if (interest.matches(cand)) {
-							return cand;
-						}
-					}
 				}
 			}
 		}
 		return null;
 	}
 	
+	/**
+	 * Find a child of a node
+	 * 
+	 * @param node the node
+	 * @param component the child's component
+	 * @return the child or null if there isn't one
+	 */
+	protected TreeNode childOf(TreeNode node, byte[] component) {
+		synchronized(node) {
+			return node.getChild(component);
+		}
+	}
+	
+	/**
+	 * Get the children of a node to search through. The map may be searched after the call returns.
+	 * 
+	 * @param node the node
+	 * @return the children in order, or null if there are none
+	 */
+	protected SortedMap<TreeNode, TreeNode> childMap(TreeNode node) {
+		synchronized(node) {
+			return singleChildMap(node.oneChild, node.children);
+		}
+	}
+	
+	protected SortedMap<TreeNode, TreeNode> singleChildMap(TreeNode oneChild, SortedMap<TreeNode, TreeNode> children) {
+		if (null != oneChild) {
+			SortedMap<TreeNode, TreeNode> map = new TreeMap<TreeNode, TreeNode>(); // Don't bother with comparator, will only hold one element
+			map.put(oneChild, oneChild);
+			return map;
+		}
+		return children;
+	}
+	
+	/**
+	 * @return a new map to hold the children of a node
+	 */
+	protected SortedMap<TreeNode, TreeNode> newChildMap() {
+		return new TreeMap<TreeNode, TreeNode>();
+	}
+	
+	/**
+	 * @return a new list to hold the content at a node
+	 */
+	protected List<ContentRef> newContentList() {
+		return new ArrayList<ContentRef>();
+	}
+	
 	/**
 	 * Return all names with a prefix matching the name within the interest for name enumeration.
 	 * 
@@ -626,11 +862,13 @@ public class ContentTree {
 	 * trigger a NameEnumerationResponse when a new child is added to the prefix.  Interests attempting
 	 * to enumerate under a prefix that does not exist on the repo are dropped.
 	 * 
+	 * The response for a prefix is kept until a child is next added under it, and handed out to
+	 * everyone who asks for that version of it in the meantime, so callers must not modify it.
+	 * 
 	 * @param interest the interest to base the enumeration on using the rules of name enumeration
 	 * @return the name enumeration response containing the list of matching names
 	 */
 	public final NameEnumerationResponse getNamesWithPrefix(Interest interest, ContentName responseName) {
-		ArrayList<ContentName> names = new ArrayList<ContentName>();
 		//first chop off NE marker
 		ContentName prefix = interest.name().cut(COMMAND_MARKER_BASIC_ENUMERATION.getBytes());
 
@@ -673,32 +911,57 @@ public class ContentTree {
 				return null;
 			}
 
-			//the parent has children we need to return
+			//the parent has children we need to return. We reuse the response for the
+			//same children if we have one. Otherwise we only copy the child components while
+			//holding the lock, and build the names after letting go of it.
+			NameEnumerationResponse response;
+			byte [][] components = null;
 			synchronized (parent) {		// Make sure especially that nobody changes from oneChild to children behind our back
-				if (parent.oneChild!=null) {
-					names.add(new ContentName(parent.oneChild.component));
-				} else {
-					if (parent.children!=null) {
+				response = parent.neResponse;
+				if (null == response) {
+					if (parent.oneChild!=null) {
+						components = new byte[][]{parent.oneChild.component};
+					} else if (parent.children!=null) {
+						components = new byte[parent.children.size()][];
+						int i = 0;
 						for (TreeNode ch:parent.children.keySet())
-							names.add(new ContentName(ch.component));
-					}
-				}
-				
-				if (names.size()>0) {
-					if (Log.isLoggable(Log.FAC_REPO, Level.FINER)) {
-						Log.finer(Log.FAC_REPO, "sending back {0} names in the enumeration response for prefix {1}", names.size(), prefix);
+							components[i++] = ch.component;
+					} else {
+						components = new byte[0][];
 					}
+					timestamp = new CCNTime(parent.timestamp);
 				}
 				parent.interestFlag = false;
 				parent.neSent = true;
 			}
 			
-			return new NameEnumerationResponse(
-					new ContentName(prefix, COMMAND_MARKER_BASIC_ENUMERATION), names, timestamp);
+			if (null == response) {
+				response = new NameEnumerationResponse(
+						new ContentName(prefix, COMMAND_MARKER_BASIC_ENUMERATION), components, timestamp);
+				synchronized (parent) {
+					// Children are only ever added, so if there are as many as we copied we
+					// have them all
+					if (null == parent.neResponse && components.length == childCount(parent))
+						parent.neResponse = response;
+				}
+			}
+			if (Log.isLoggable(Log.FAC_REPO, Level.FINER)) {
+				Log.finer(Log.FAC_REPO, "sending back {0} names in the enumeration response for prefix {1}", response.getNames().size(), prefix);
+			}
+			return response;
 		}
 		return null;
 	}
 	
+	/**
+	 * Must be called holding the lock on node
+	 */
+	private int childCount(TreeNode node) {
+		if (null != node.oneChild)
+			return 1;
+		return (null == node.children) ? 0 : node.children.size();
+	}
+	
 	/**
 	 * Retrieve the data from the store that best matches the given interest
 	 * 
@@ -714,11 +977,9 @@ public class ContentTree {
 			List<ContentRef> found = lookup(interest.name());
 			if (found!=null) {
 				for (ContentRef ref : found) {
-					ContentObject cand = getter.get(ref);
+					ContentObject cand = matchCandidate(interest, interest.name(), ref, getter);
 					if (null != cand) {
-						if (interest.matches(cand)) {
-							return cand;
-						}
+						return cand;
 					}
 				}
 			}
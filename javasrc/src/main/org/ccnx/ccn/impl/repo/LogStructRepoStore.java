@@ -18,6 +18,9 @@
 package org.ccnx.ccn.impl.repo;
 
 import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
@@ -27,11 +30,29 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.PrintStream;
 import java.io.RandomAccessFile;
+import java.lang.reflect.Array;
+import java.lang.reflect.InvocationTargetException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
 import java.security.InvalidKeyException;
 import java.security.InvalidParameterException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
 
 import org.ccnx.ccn.CCNHandle;
 import org.ccnx.ccn.KeyManager;
@@ -39,6 +60,7 @@ import org.ccnx.ccn.config.ConfigurationException;
 import org.ccnx.ccn.config.SystemConfiguration;
 import org.ccnx.ccn.config.UserConfiguration;
 import org.ccnx.ccn.config.SystemConfiguration.DEBUGGING_FLAGS;
+import org.ccnx.ccn.impl.encoding.BinaryXMLDecoder;
 import org.ccnx.ccn.impl.repo.PolicyXML.PolicyObject;
 import org.ccnx.ccn.impl.security.keys.BasicKeyManager;
 import org.ccnx.ccn.impl.support.Log;
@@ -81,7 +103,9 @@ public class LogStructRepoStore extends RepositoryStoreBase implements Repositor
 		public static final String REPOSITORY_KEYSTORE_ALIAS = REPOSITORY_USER.toLowerCase();
 
 		public static String CONTENT_FILE_PREFIX = "repoFile";
+		public static String COMPACT_FILE_PREFIX = "compactFile";
 		private static String DEBUG_TREEDUMP_FILE = "debugNamesTree";
+		private static String INDEX_CHECKPOINT_FILE = "index";
 
 		private static String DIAG_NAMETREE = "nametree"; // Diagnostic/signal to dump name tree to debug file
 		private static String DIAG_NAMETREEWIDE = "nametreewide"; // Same as DIAG_NAMETREE but with wide names per node
@@ -93,22 +117,92 @@ public class LogStructRepoStore extends RepositoryStoreBase implements Repositor
 	protected boolean _useStoredPolicy = true;
 
 	Map<Integer,RepoFile> _files;
-	RepoFile _activeWriteFile = null;
+	volatile RepoFile _activeWriteFile = null;
 	Integer _currentFileIndex = 0;
+	protected Object _fileIndexLock = new Object();
 	ContentTree _index;
 	
 	protected HashMap<String, String> _bulkImportInProgress = new HashMap<String, String>();
 	
+	/**
+	 * The index is checkpointed to INDEX_CHECKPOINT_FILE in the meta directory periodically and
+	 * on shutdown. The checkpoint records, for each content file, how far into the file the index
+	 * was complete and how much of it is garbage, followed by the name and position of every indexed object and a CRC32 of all
+	 * of that. At startup we load the checkpoint and only need to decode the content written to
+	 * each file since then. If the checkpoint is missing, damaged, or doesn't agree with the
+	 * content files, we fall back to decoding all the files.
+	 */
+	protected static final int CHECKPOINT_MAGIC = 0x43434e49;	// "CCNI"
+	protected static final int CHECKPOINT_VERSION = 2;
+	protected static final int CHECKPOINT_FILE_ENTRY = 28;	// id, end, timestamp and garbage
+	
+	protected Timer _checkpointTimer = null;
+	protected Object _checkpointLock = new Object();
+	protected HashMap<Integer, Long> _lastCheckpoint = null;
+	
+	protected long _lastSync = 0;	// Last time the write file was forced to disk, see SystemConfiguration.REPO_FSYNC_INTERVAL
+	
+	/**
+	 * Once the write file reaches the segment size (see setSegmentSize) we start a new one. Every
+	 * COMPACT_INTERVAL ms the compactor looks for a file, other than the write file, in which more than
+	 * COMPACT_GARBAGE_FRACTION of the space is garbage - duplicate objects which were written but
+	 * never indexed, or the remains of a partial write. It copies the live objects from that file
+	 * to a new file, at no more than the compaction rate (see setCompactRate) bytes per second, forces
+	 * the copy and its directory entry to disk, switches the index over to the copies, and deletes the
+	 * old file on its next run, once no reader can still be using it. Compaction is off unless a rate
+	 * is set.
+	 */
+	public static final long COMPACT_INTERVAL = 60000;
+	public static final double COMPACT_GARBAGE_FRACTION = 0.25;
+	
+	protected volatile long _segmentSize = SystemConfiguration.REPO_SEGMENT_SIZE;
+	protected int _compactRate = SystemConfiguration.REPO_COMPACT_RATE;
+	protected Timer _compactTimer = null;
+	protected Object _compactLock = new Object();
+	protected volatile boolean _compactStop = false;
+	protected ArrayList<Integer> _retiredFiles = new ArrayList<Integer>();
+	
+	/**
+	 * In mapped read mode content files are mapped in regions of MAP_REGION_SIZE bytes. Each
+	 * mapping extends MAP_REGION_OVERLAP bytes into the next region so that any object starting
+	 * in a region, and no larger than that, can be decoded from that region's mapping alone.
+	 * Larger objects are read through the RandomAccessFile as before.
+	 */
+	public static final int MAP_REGION_SIZE = 64 * 1024 * 1024;
+	public static final int MAP_REGION_OVERLAP = 256 * 1024;
+	
+	protected boolean _mappedReads = SystemConfiguration.REPO_MAPPED_READS;
+	
+	protected static final ThreadLocal<BinaryXMLDecoder> _decoders = new ThreadLocal<BinaryXMLDecoder>() {
+		@Override
+		protected BinaryXMLDecoder initialValue() {
+			return new BinaryXMLDecoder();
+		}
+	};
+	
 	public static class RepoFile {
 		File file;
 		RandomAccessFile openFile;
 		long nextWritePos;
+		volatile boolean indexComplete = false;	// All content in the file before it was opened for write is indexed
+		AtomicLong garbage = new AtomicLong(0);	// Bytes of content in the file which is not in the index
+		
+		// For mapped reads. Readers only touch regions, which are replaced rather
+		// than modified when the end of the file is remapped.
+		FileChannel readChannel;
+		ConcurrentHashMap<Long, MappedByteBuffer> regions = new ConcurrentHashMap<Long, MappedByteBuffer>();
 	}
 	
 	protected static class FileRef extends ContentRef {
 		int id;
 		long offset;
 	}
+	
+	protected static class CheckpointedFile {
+		long end;
+		long timestamp;
+		long garbage;
+	}
 
 	/**
 	 * Gets content matching the given interest
@@ -162,27 +256,53 @@ public class LogStructRepoStore extends RepositoryStoreBase implements Repositor
 
 	/**
 	 * Read the current repository file(s) for this repository and create an index for them.
-	 * WARNING: multiple files are not well tested
 	 * 
-	 * @return the number of files making up the repository
+	 * @return the highest index of the files making up the repository
 	 */
 	protected Integer createIndex() {
 		int max = 0;
-		_index = new ContentTree();
+		_index = newContentTree();
 		assert(null != _repositoryFile);
 		assert(_repositoryFile.isDirectory());
 		String[] filenames = _repositoryFile.list();
+		TreeMap<Integer, String> contentFiles = new TreeMap<Integer, String>();
 		for (int i = 0; i < filenames.length; i++) {
-			if (filenames[i].startsWith(LogStructRepoStoreProfile.CONTENT_FILE_PREFIX)) {
+			if (filenames[i].startsWith(LogStructRepoStoreProfile.COMPACT_FILE_PREFIX)) {
+				// Left over from a compaction that didn't finish. Everything in it is still in the original file.
+				Log.info(Log.FAC_REPO, "Removing incomplete compaction file {0}", filenames[i]);
+				new File(_repositoryFile, filenames[i]).delete();
+			} else if (filenames[i].startsWith(LogStructRepoStoreProfile.CONTENT_FILE_PREFIX)) {
 				String indexPart = filenames[i].substring(LogStructRepoStoreProfile.CONTENT_FILE_PREFIX.length());
 				if (null != indexPart && indexPart.length() > 0) {
 					Integer index = Integer.parseInt(indexPart);
 					if (index > max) {
 						max = index.intValue();
 					}
-					try {
-						createIndex(filenames[i], index, false);
-					} catch (RepositoryException e) {}	// This can't happen
+					contentFiles.put(index, filenames[i]);
+				}
+			}
+		}
+		
+		// Content restored from the checkpoint can be in any file, and must be readable to check
+		// newer content against it for duplicates, so make all the files known up front
+		synchronized (_files) {
+			for (Map.Entry<Integer, String> entry : contentFiles.entrySet()) {
+				RepoFile rfile = new RepoFile();
+				rfile.file = new File(_repositoryFile, entry.getValue());
+				_files.put(entry.getKey(), rfile);
+			}
+		}
+		Map<Integer, CheckpointedFile> checkpointed = restoreCheckpoint();
+		
+		// Oldest first, so that if there are duplicates the newer copies are the garbage
+		for (Map.Entry<Integer, String> entry : contentFiles.entrySet()) {
+			CheckpointedFile cf = checkpointed.get(entry.getKey());
+			try {
+				createIndex(entry.getValue(), entry.getKey(), null == cf ? 0 : cf.end, false);
+			} catch (RepositoryException e) {}	// This can't happen
+			if (null != cf) {
+				synchronized (_files) {
+					_files.get(entry.getKey()).garbage.addAndGet(cf.garbage);
 				}
 			}
 		}
@@ -200,18 +320,28 @@ public class LogStructRepoStore extends RepositoryStoreBase implements Repositor
 	 * 
 	 * @param fileName
 	 * @param index
+	 * @param startOffset - offset of the first object not already in the index
 	 * @param fromImport - this is an "import" file.
 	 * @throws RepositoryException 
 	 */
-	private void createIndex(String fileName, Integer index, boolean fromImport) throws RepositoryException {
+	private void createIndex(String fileName, Integer index, long startOffset, boolean fromImport) throws RepositoryException {
 		try {
-			RepoFile rfile = new RepoFile();
-			rfile.file = new File(_repositoryFile,fileName);
-			rfile.openFile = new RandomAccessFile(rfile.file, "r");
+			RepoFile rfile;
+			synchronized (_files) {
+				rfile = _files.get(index);
+				if (null == rfile) {
+					rfile = new RepoFile();
+					rfile.file = new File(_repositoryFile,fileName);
+				}
+			}
+			synchronized (rfile) {
+				if (null == rfile.openFile)
+					rfile.openFile = new RandomAccessFile(rfile.file, "r");
+			}
 			InputStream is = new BufferedInputStream(new RandomAccessInputStream(rfile.openFile),8192);
 			
 			if (Log.isLoggable(Log.FAC_REPO, Level.FINE)) {
-				Log.fine(Log.FAC_REPO, "Creating index for {0}", fileName);
+				Log.fine(Log.FAC_REPO, "Creating index for {0} from offset {1}", fileName, startOffset);
 			}
 			
 			// Must be done before inserting into the index because once objects are inserted into the
@@ -230,7 +360,7 @@ public class LogStructRepoStore extends RepositoryStoreBase implements Repositor
 			// keep track of where our pointer was also synchronized under the RepoFile so we can restore
 			// it to where it was in the case someone was reading one of our previously created nodes
 			// while the index creation is in progress.
-			long nextOffset = 0;
+			long nextOffset = startOffset;
 			while (true) {
 				FileRef ref = new FileRef();
 				ContentObject tmp = new ContentObject();
@@ -257,6 +387,7 @@ public class LogStructRepoStore extends RepositoryStoreBase implements Repositor
 					} catch (ContentDecodingException e) {
 						// Failed to decode, must be end of this one
 						//added check for end of file above
+						rfile.garbage.addAndGet(rfile.openFile.length() - ref.offset);
 						rfile.openFile.close();
 						rfile.openFile = null;
 						if (fromImport)
@@ -266,8 +397,13 @@ public class LogStructRepoStore extends RepositoryStoreBase implements Repositor
 						break;
 					}
 				}
-				_index.insert(tmp, ref, rfile.file.lastModified(), this, null);
+				if (!_index.insert(tmp, ref, rfile.file.lastModified(), this, null)) {
+					try {
+						rfile.garbage.addAndGet(tmp.encode().length);
+					} catch (ContentEncodingException e) {}
+				}
 			}
+			rfile.indexComplete = true;
 		} catch (NumberFormatException e) {
 			// Not valid file
 			Log.warning(Log.FAC_REPO, "Invalid file name " +fileName);
@@ -433,6 +569,26 @@ public class LogStructRepoStore extends RepositoryStoreBase implements Repositor
 		} catch (MalformedContentNameStringException e) {
 			throw new RepositoryException(e.getMessage());
 		}
+		
+		if (SystemConfiguration.REPO_CHECKPOINT_INTERVAL > 0) {
+			long period = SystemConfiguration.REPO_CHECKPOINT_INTERVAL * 1000L;
+			_checkpointTimer = new Timer(true);
+			_checkpointTimer.schedule(new TimerTask() {
+				@Override
+				public void run() {
+					checkpointIndex();
+				}
+			}, period, period);
+		}
+		if (_compactRate > 0) {
+			_compactTimer = new Timer(true);
+			_compactTimer.schedule(new TimerTask() {
+				@Override
+				public void run() {
+					compact();
+				}
+			}, COMPACT_INTERVAL, COMPACT_INTERVAL);
+		}
 	}
 	
 	/**
@@ -472,49 +628,161 @@ public class LogStructRepoStore extends RepositoryStoreBase implements Repositor
 	 * @returns NameEnumerationResponse if this satisfies an outstanding NameEnumeration request
 	 */
 	public NameEnumerationResponse saveContent(ContentObject content) throws RepositoryException {
-		// Make sure content is within allowable nameSpace
+		ArrayList<ContentObject> batch = new ArrayList<ContentObject>(1);
+		batch.add(content);
+		return saveContent(batch).get(0);
+	}
+	
+	/**
+	 * Save a batch of content in the repository store. The objects are encoded before we take the
+	 * write lock and are then appended to the write file with a single gathering write. Depending
+	 * on SystemConfiguration.REPO_FSYNC_INTERVAL the file is then forced to disk, and finally all
+	 * the objects are inserted into the index together.
+	 * 
+	 * @param content the content to save
+	 * @throws RepositoryException it the content can not be written or encoded
+	 * @returns NameEnumerationResponse (or null) for each object in content, in order
+	 */
+	public ArrayList<NameEnumerationResponse> saveContent(List<ContentObject> content) throws RepositoryException {
+		ArrayList<NameEnumerationResponse> ners = new ArrayList<NameEnumerationResponse>(content.size());
 		if (null == _activeWriteFile) {
-			Log.warning(Log.FAC_REPO, "Tried to save: {0}, presumably after repo shutdown", content.name());
-			return null;
+			for (ContentObject co : content) {
+				Log.warning(Log.FAC_REPO, "Tried to save: {0}, presumably after repo shutdown", co.name());
+				ners.add(null);
+			}
+			return ners;
+		}
+		ByteBuffer [] encoded = new ByteBuffer[content.size()];
+		long total = 0;
+		try {
+			for (int i = 0; i < encoded.length; i++) {
+				encoded[i] = ByteBuffer.wrap(content.get(i).encode());
+				total += encoded[i].remaining();
+			}
+		} catch (ContentEncodingException e) {
+			throw new RepositoryException("Failed to encode content: " + e.getMessage());
 		}
 		try {	
-			NameEnumerationResponse ner = new NameEnumerationResponse();
-			synchronized(_activeWriteFile) {
-				assert(null != _activeWriteFile.openFile);
-				FileRef ref = new FileRef();
-				ref.id = Integer.parseInt(_activeWriteFile.file.getName().substring(LogStructRepoStoreProfile.CONTENT_FILE_PREFIX.length()));
-				ref.offset = _activeWriteFile.nextWritePos;
-				_activeWriteFile.openFile.seek(_activeWriteFile.nextWritePos);
-				OutputStream os = new RandomAccessOutputStream(_activeWriteFile.openFile);
-				content.encode(os);
-				_activeWriteFile.nextWritePos = _activeWriteFile.openFile.getFilePointer();
-				_index.insert(content, ref, System.currentTimeMillis(), this, ner);
-				if (ner==null || ner.getPrefix()==null) {
-					if (Log.isLoggable(Log.FAC_REPO, Level.FINE)) {
-						Log.fine(Log.FAC_REPO, "new content did not trigger an interest flag");
-					}
-				} else {
-					if (Log.isLoggable(Log.FAC_REPO, Level.FINE)) {
-						Log.fine(Log.FAC_REPO, "new content was added where there was a name enumeration response interest flag");
+			while (true) {
+				RepoFile wfile = _activeWriteFile;
+				synchronized(wfile) {
+					if (wfile != _activeWriteFile)
+						continue;	// We lost a race with a rollover
+					assert(null != wfile.openFile);
+					if (_segmentSize > 0 && wfile.nextWritePos > 0 && wfile.nextWritePos + total > _segmentSize) {
+						RepoFile next = newWriteFile();
+						synchronized (next) {
+							// Lock the new file before anyone else can see it so our batch goes first
+							if (Log.isLoggable(Log.FAC_REPO, Level.INFO)) {
+								Log.info(Log.FAC_REPO, "Rolling over from {0} at {1} bytes to {2}", wfile.file.getName(),
+										wfile.nextWritePos, next.file.getName());
+							}
+							wfile.indexComplete = true;
+							_activeWriteFile = next;
+							return writeContent(next, content, encoded, total, ners);
+						}
 					}
+					return writeContent(wfile, content, encoded, total, ners);
 				}
-				return ner;
 			}
-		} catch (ContentEncodingException e) {
-			throw new RepositoryException("Failed to encode content: " + e.getMessage());
 		} catch (IOException e) {
 			throw new RepositoryException("Failed to write content: " + e.getMessage());
 		}
 	}
+	
+	/**
+	 * Append a batch of encoded content to the write file and index it. Must be called holding the file lock.
+	 */
+	private ArrayList<NameEnumerationResponse> writeContent(RepoFile wfile, List<ContentObject> content, ByteBuffer [] encoded, 
+				long total, ArrayList<NameEnumerationResponse> ners) throws IOException {
+		int id = Integer.parseInt(wfile.file.getName().substring(LogStructRepoStoreProfile.CONTENT_FILE_PREFIX.length()));
+		long offset = wfile.nextWritePos;
+		FileChannel channel = wfile.openFile.getChannel();
+		channel.position(offset);
+		long remaining = total;
+		while (remaining > 0)
+			remaining -= channel.write(encoded);
+		wfile.nextWritePos = offset + total;
+		long now = System.currentTimeMillis();
+		if (SystemConfiguration.REPO_FSYNC_INTERVAL == 0 || 
+				(SystemConfiguration.REPO_FSYNC_INTERVAL > 0 && now - _lastSync >= SystemConfiguration.REPO_FSYNC_INTERVAL)) {
+			channel.force(false);
+			_lastSync = now;
+		}
+		
+		for (int i = 0; i < encoded.length; i++) {
+			FileRef ref = new FileRef();
+			ref.id = id;
+			ref.offset = offset;
+			offset += encoded[i].limit();
+			NameEnumerationResponse ner = new NameEnumerationResponse();
+			if (!_index.insert(content.get(i), ref, now, this, ner))
+				wfile.garbage.addAndGet(encoded[i].limit());
+			if (ner.getPrefix()==null) {
+				if (Log.isLoggable(Log.FAC_REPO, Level.FINE)) {
+					Log.fine(Log.FAC_REPO, "new content did not trigger an interest flag");
+				}
+			} else {
+				if (Log.isLoggable(Log.FAC_REPO, Level.FINE)) {
+					Log.fine(Log.FAC_REPO, "new content was added where there was a name enumeration response interest flag");
+				}
+			}
+			ners.add(ner);
+		}
+		return ners;
+	}
+	
+	/**
+	 * Create a new, empty repository file to write to
+	 * @return the new file
+	 * @throws IOException
+	 */
+	private RepoFile newWriteFile() throws IOException {
+		RepoFile rfile = new RepoFile();
+		int index = allocateFileIndex();
+		rfile.file = new File(_repositoryFile, LogStructRepoStoreProfile.CONTENT_FILE_PREFIX + index);
+		rfile.openFile = new RandomAccessFile(rfile.file, "rw");
+		rfile.nextWritePos = 0;
+		synchronized (_files) {
+			_files.put(index, rfile);
+		}
+		return rfile;
+	}
+	
+	/**
+	 * @return the index for a new repository file
+	 */
+	private int allocateFileIndex() {
+		synchronized (_fileIndexLock) {
+			_currentFileIndex++;
+			return _currentFileIndex;
+		}
+	}
 
 	/**
-	 * Get content for the given reference from the storage files. Used to retrieve content for 
-	 * comparison operations.
+	 * Get content for the given reference, from the object cache or the storage files. Used to
+	 * retrieve content for comparison operations.
 	 * 
 	 * @param ref the reference
 	 * @return ContentObject at the referenced slot in the storage files
 	 */
 	public ContentObject get(ContentRef ref) {
+		ContentObject content = _objectCache.get(ref);
+		if (null == content) {
+			content = read(ref);
+			if (null != content)
+				_objectCache.put(ref, content);
+		}
+		return content;
+	}
+	
+	/**
+	 * Read content for the given reference from the storage files.
+	 * 
+	 * @param ref the reference
+	 * @return ContentObject at the referenced slot in the storage files
+	 */
+	protected ContentObject read(ContentRef ref) {
 		// This is a call back based on what we put in ContentTree, so it must be
 		// using our subtype of ContentRef
 		FileRef fref = (FileRef)ref;
@@ -525,6 +793,18 @@ public class LogStructRepoStore extends RepositoryStoreBase implements Repositor
 			}
 			if (null == file)
 				return null;
+			if (_mappedReads) {
+				ContentObject content = null;
+				try {
+					content = getMapped(file, fref);
+				} catch (IOException e) {
+					Log.info(Log.FAC_REPO, "Can't map {0}, reading instead: {1}", file.file.getName(), e);
+				}
+				if (null != content)
+					return content;
+				// Otherwise the object is too large for the mapping, or is bad, or the file
+				// couldn't be mapped. Fall back to a normal read which will handle any of these.
+			}
 			synchronized (file) {
 				if (null == file.openFile) {
 					file.openFile = new RandomAccessFile(file.file, "r");
@@ -541,6 +821,563 @@ public class LogStructRepoStore extends RepositoryStoreBase implements Repositor
 		}
 	}
 	
+	/**
+	 * Read content directly from a mapping of the file. This requires no locking beyond
+	 * the initial lookup of the mapping, so any number of reads can run concurrently.
+	 * 
+	 * @param file the file containing the content
+	 * @param fref the reference
+	 * @return the ContentObject or null if it couldn't be decoded from the mapping
+	 * @throws IOException if the file couldn't be mapped
+	 */
+	protected ContentObject getMapped(RepoFile file, FileRef fref) throws IOException {
+		Long regionIndex = fref.offset / MAP_REGION_SIZE;
+		int position = (int)(fref.offset % MAP_REGION_SIZE);
+		MappedByteBuffer region = file.regions.get(regionIndex);
+		if (null == region || position >= region.capacity())
+			region = mapRegion(file, regionIndex, region);
+		ContentObject content = decodeMapped(region, position);
+		if (null == content && null != region && region.capacity() < MAP_REGION_SIZE + MAP_REGION_OVERLAP) {
+			// The object may have been written after the region was last mapped
+			region = mapRegion(file, regionIndex, region);
+			content = decodeMapped(region, position);
+		}
+		return content;
+	}
+	
+	private ContentObject decodeMapped(MappedByteBuffer region, int position) {
+		if (null == region || position >= region.capacity())
+			return null;
+		ByteBuffer buffer = region.duplicate();
+		buffer.position(position);
+		try {
+			BinaryXMLDecoder decoder = _decoders.get();
+			decoder.beginDecoding(buffer);
+			ContentObject content = new ContentObject();
+			content.decode(decoder);
+			return content;
+		} catch (ContentDecodingException e) {
+			return null;
+		} catch (RuntimeException e) {
+			// A region which is truncated or was remapped under us shows up as buffer
+			// exceptions (BufferUnderflowException, IndexOutOfBoundsException) rather
+			// than a decoding error
+			if (Log.isLoggable(Log.FAC_REPO, Level.FINE))
+				Log.fine(Log.FAC_REPO, "Can't decode mapped content at {0}: {1}", position, e);
+			return null;
+		}
+	}
+	
+	/**
+	 * (Re)map a region of a file, up to the current end of the file. The file only grows so an
+	 * existing mapping stays valid for any reader still using it.
+	 * 
+	 * @param file the file
+	 * @param regionIndex the region to map
+	 * @param old the mapping the caller found to be too short, or null if none
+	 * @return the new mapping
+	 * @throws IOException
+	 */
+	private MappedByteBuffer mapRegion(RepoFile file, Long regionIndex, MappedByteBuffer old) throws IOException {
+		synchronized (file.regions) {
+			MappedByteBuffer region = file.regions.get(regionIndex);
+			if (region != old)
+				return region;	// Somebody else already remapped it
+			if (null == file.readChannel)
+				file.readChannel = new RandomAccessFile(file.file, "r").getChannel();
+			long start = regionIndex * (long)MAP_REGION_SIZE;
+			long size = Math.min(file.readChannel.size() - start, (long)MAP_REGION_SIZE + MAP_REGION_OVERLAP);
+			if (size <= 0 || (null != old && size <= old.capacity()))
+				return old;
+			region = file.readChannel.map(MapMode.READ_ONLY, start, size);
+			file.regions.put(regionIndex, region);
+			if (Log.isLoggable(Log.FAC_REPO, Level.FINER)) {
+				Log.finer(Log.FAC_REPO, "Mapped {0} bytes of {1} at {2}", size, file.file.getName(), start);
+			}
+			return region;
+		}
+	}
+	
+	/**
+	 * Switch between reading through memory mappings and reading through a shared RandomAccessFile.
+	 * The default comes from SystemConfiguration.REPO_MAPPED_READS.
+	 * @param mappedReads
+	 */
+	public void setMappedReads(boolean mappedReads) {
+		_mappedReads = mappedReads;
+	}
+	
+	/**
+	 * Set the size at which we stop adding to the write file and start a new one. The default
+	 * comes from SystemConfiguration.REPO_SEGMENT_SIZE.
+	 * @param segmentSize in bytes, 0 to keep writing to one file
+	 */
+	public void setSegmentSize(long segmentSize) {
+		_segmentSize = segmentSize;
+	}
+	
+	/**
+	 * Set the rate at which the background compactor may copy content. Must be called before
+	 * initialize. The default comes from SystemConfiguration.REPO_COMPACT_RATE.
+	 * @param bytesPerSecond 0 to leave files alone except when compact is called directly,
+	 * 		in which case the copy isn't throttled
+	 */
+	public void setCompactRate(int bytesPerSecond) {
+		_compactRate = bytesPerSecond;
+	}
+
+	/**
+	 * Write a checkpoint of the index. Content saved while the checkpoint is being written
+	 * may not be included, in which case it is picked up from the end of the log at startup.
+	 * 
+	 * @return true if the checkpoint was written or was already up to date
+	 */
+	public boolean checkpointIndex() {
+		if (null == _index || null == _files || null == _repositoryMeta)
+			return false;
+		synchronized (_checkpointLock) {
+			// Find how far into each file the index is complete. Content in the write file before
+			// nextWritePos was inserted under the file lock. Other files are complete once createIndex
+			// is done with them - we leave out any that are still being imported.
+			ArrayList<RepoFile> files = new ArrayList<RepoFile>();
+			ArrayList<Integer> ids = new ArrayList<Integer>();
+			synchronized (_files) {
+				for (Map.Entry<Integer, RepoFile> entry : _files.entrySet()) {
+					ids.add(entry.getKey());
+					files.add(entry.getValue());
+				}
+			}
+			final HashMap<Integer, Long> covered = new HashMap<Integer, Long>();
+			HashMap<Integer, Long> timestamps = new HashMap<Integer, Long>();
+			HashMap<Integer, Long> garbage = new HashMap<Integer, Long>();
+			for (int i = 0; i < files.size(); i++) {
+				RepoFile rfile = files.get(i);
+				synchronized (_retiredFiles) {
+					if (_retiredFiles.contains(ids.get(i)))
+						continue;	// Replaced by compaction, about to be deleted
+				}
+				if (rfile == _activeWriteFile) {
+					synchronized (rfile) {
+						covered.put(ids.get(i), rfile.nextWritePos);
+					}
+				} else if (rfile.indexComplete) {
+					covered.put(ids.get(i), rfile.file.length());
+				} else
+					continue;
+				timestamps.put(ids.get(i), rfile.file.lastModified());
+				garbage.put(ids.get(i), rfile.garbage.get());
+			}
+			if (covered.equals(_lastCheckpoint))
+				return true;
+			
+			File checkpointFile = new File(_repositoryMeta, LogStructRepoStoreProfile.INDEX_CHECKPOINT_FILE);
+			File tmpFile = new File(_repositoryMeta, LogStructRepoStoreProfile.INDEX_CHECKPOINT_FILE + ".tmp");
+			CRC32 crc = new CRC32();
+			DataOutputStream dos = null;
+			try {
+				dos = new DataOutputStream(new BufferedOutputStream(new CheckedOutputStream(new FileOutputStream(tmpFile), crc), 65536));
+				dos.writeInt(CHECKPOINT_MAGIC);
+				dos.writeInt(CHECKPOINT_VERSION);
+				dos.writeInt(covered.size());
+				for (Map.Entry<Integer, Long> entry : covered.entrySet()) {
+					dos.writeInt(entry.getKey());
+					dos.writeLong(entry.getValue());
+					dos.writeLong(timestamps.get(entry.getKey()));
+					dos.writeLong(garbage.get(entry.getKey()));
+				}
+				final DataOutputStream out = dos;
+				final IOException [] error = new IOException[1];
+				_index.visitContent(new ContentTree.ContentVisitor() {
+					public void visit(ContentName name, ContentRef ref) {
+						FileRef fref = (FileRef)ref;
+						Long end = covered.get(fref.id);
+						if (null == end || fref.offset >= end || null != error[0])
+							return;
+						try {
+							out.writeInt(fref.id);
+							out.writeLong(fref.offset);
+							out.writeShort(name.count());
+							for (byte [] component : name) {
+								out.writeInt(component.length);
+								out.write(component);
+							}
+						} catch (IOException e) {
+							error[0] = e;
+						}
+					}
+				});
+				if (null != error[0])
+					throw error[0];
+				dos.writeInt(-1);
+				dos.flush();
+				dos.writeLong(crc.getValue());
+				dos.close();
+				dos = null;
+				if (!tmpFile.renameTo(checkpointFile)) {
+					checkpointFile.delete();
+					if (!tmpFile.renameTo(checkpointFile))
+						throw new IOException("Can not rename " + tmpFile + " to " + checkpointFile);
+				}
+			} catch (IOException e) {
+				Log.warning(Log.FAC_REPO, "Unable to write index checkpoint: " + e.getMessage());
+				tmpFile.delete();
+				return false;
+			} finally {
+				if (null != dos)
+					try {
+						dos.close();
+					} catch (IOException e) {}
+			}
+			_lastCheckpoint = covered;
+			if (Log.isLoggable(Log.FAC_REPO, Level.INFO)) {
+				Log.info(Log.FAC_REPO, "Wrote index checkpoint covering {0} files", covered.size());
+			}
+			return true;
+		}
+	}
+	
+	/**
+	 * Load the index checkpoint if there is a good one. Nothing is inserted into the index
+	 * unless the whole checkpoint can be read, its checksum matches, and every content file
+	 * it covers is still at least as long as when the checkpoint was written.
+	 * 
+	 * @return map from file index to what the checkpoint recorded for that file, including
+	 * 		the offset at which to continue indexing; empty if the checkpoint could not be used
+	 */
+	protected Map<Integer, CheckpointedFile> restoreCheckpoint() {
+		HashMap<Integer, CheckpointedFile> covered = new HashMap<Integer, CheckpointedFile>();
+		File checkpointFile = new File(_repositoryMeta, LogStructRepoStoreProfile.INDEX_CHECKPOINT_FILE);
+		if (!checkpointFile.exists())
+			return covered;
+		long limit = checkpointFile.length();
+		ArrayList<ContentName> names = new ArrayList<ContentName>();
+		ArrayList<FileRef> refs = new ArrayList<FileRef>();
+		CRC32 crc = new CRC32();
+		DataInputStream dis = null;
+		try {
+			dis = new DataInputStream(new CheckedInputStream(new BufferedInputStream(new FileInputStream(checkpointFile), 65536), crc));
+			if (dis.readInt() != CHECKPOINT_MAGIC || dis.readInt() != CHECKPOINT_VERSION)
+				throw new IOException("bad header");
+			int nfiles = dis.readInt();
+			if (nfiles < 0 || nfiles > limit / CHECKPOINT_FILE_ENTRY)
+				throw new IOException("bad file count " + nfiles);
+			for (int i = 0; i < nfiles; i++) {
+				Integer id = dis.readInt();
+				CheckpointedFile cf = new CheckpointedFile();
+				cf.end = dis.readLong();
+				cf.timestamp = dis.readLong();
+				cf.garbage = dis.readLong();
+				if (id < 0 || cf.end < 0 || cf.garbage < 0)
+					throw new IOException("bad entry for file " + id);
+				File contentFile = new File(_repositoryFile, LogStructRepoStoreProfile.CONTENT_FILE_PREFIX + id);
+				if (contentFile.length() < cf.end)
+					throw new IOException("content file " + contentFile.getName() + " is shorter than checkpoint");
+				covered.put(id, cf);
+			}
+			while (true) {
+				int id = dis.readInt();
+				if (id < 0)
+					break;
+				FileRef ref = new FileRef();
+				ref.id = id;
+				ref.offset = dis.readLong();
+				CheckpointedFile cf = covered.get(id);
+				if (null == cf || ref.offset < 0 || ref.offset >= cf.end)
+					throw new IOException("bad reference to file " + id + " offset " + ref.offset);
+				int count = dis.readShort();
+				if (count < 0 || count > limit)
+					throw new IOException("bad component count " + count);
+				byte [][] components = new byte[count][];
+				for (int i = 0; i < components.length; i++) {
+					int len = dis.readInt();
+					if (len < 0 || len > limit)
+						throw new IOException("bad component length " + len);
+					components[i] = new byte[len];
+					dis.readFully(components[i]);
+				}
+				names.add(new ContentName(components));
+				refs.add(ref);
+			}
+			long expected = crc.getValue();
+			if (dis.readLong() != expected)
+				throw new IOException("checksum mismatch");
+		} catch (IOException e) {
+			Log.warning(Log.FAC_REPO, "Ignoring index checkpoint {0}: {1}. Rebuilding index from content files.", 
+					checkpointFile.getAbsolutePath(), e.getMessage());
+			return new HashMap<Integer, CheckpointedFile>();
+		} catch (RuntimeException e) {
+			// Anything we didn't check for - a damaged checkpoint must never stop us starting
+			Log.warning(Log.FAC_REPO, "Ignoring index checkpoint {0}: {1}. Rebuilding index from content files.", 
+					checkpointFile.getAbsolutePath(), e.toString());
+			return new HashMap<Integer, CheckpointedFile>();
+		} finally {
+			if (null != dis)
+				try {
+					dis.close();
+				} catch (IOException e) {}
+		}
+		
+		// Insert in log order, as a full scan would, so each node ends up with the same timestamp
+		Integer [] order = new Integer[refs.size()];
+		for (int i = 0; i < order.length; i++)
+			order[i] = i;
+		final ArrayList<FileRef> sortRefs = refs;
+		Arrays.sort(order, new Comparator<Integer>() {
+			public int compare(Integer o1, Integer o2) {
+				FileRef r1 = sortRefs.get(o1);
+				FileRef r2 = sortRefs.get(o2);
+				if (r1.id != r2.id)
+					return r1.id < r2.id ? -1 : 1;
+				return r1.offset < r2.offset ? -1 : (r1.offset == r2.offset ? 0 : 1);
+			}
+		});
+		for (Integer i : order) {
+			FileRef ref = refs.get(i);
+			_index.insert(names.get(i), ref, covered.get(ref.id).timestamp);
+		}
+		if (Log.isLoggable(Log.FAC_REPO, Level.INFO)) {
+			Log.info(Log.FAC_REPO, "Restored {0} index entries from checkpoint", refs.size());
+		}
+		return covered;
+	}
+
+	/**
+	 * Look for a repository file which is worth compacting and compact it. Also delete any files
+	 * which were replaced by the previous compaction.
+	 */
+	public void compact() {
+		synchronized (_compactLock) {
+			if (_compactStop)
+				return;
+			deleteRetiredFiles();
+			synchronized (_bulkImportInProgress) {
+				if (!_bulkImportInProgress.isEmpty())
+					return;
+			}
+			Integer candidate = null;
+			RepoFile candidateFile = null;
+			synchronized (_files) {
+				for (Map.Entry<Integer, RepoFile> entry : _files.entrySet()) {
+					RepoFile rfile = entry.getValue();
+					if (rfile == _activeWriteFile || !rfile.indexComplete)
+						continue;
+					synchronized (_retiredFiles) {
+						if (_retiredFiles.contains(entry.getKey()))
+							continue;
+					}
+					long garbage = rfile.garbage.get();
+					if (garbage > rfile.file.length() * COMPACT_GARBAGE_FRACTION &&
+							(null == candidateFile || garbage > candidateFile.garbage.get())) {
+						candidate = entry.getKey();
+						candidateFile = rfile;
+					}
+				}
+			}
+			if (null != candidate)
+				compact(candidate, candidateFile);
+		}
+	}
+	
+	/**
+	 * Copy the live content of a file to a new file and point the index at the copies. Readers
+	 * continue to use the old file until the index is switched over, so we don't remove it until
+	 * the next time round. The copy is written under a name createIndex will ignore, and given
+	 * its real name only once it is complete.
+	 * 
+	 * @param id the index of the file
+	 * @param rfile the file
+	 * @return true if the file was compacted
+	 */
+	protected boolean compact(final int id, RepoFile rfile) {
+		final ArrayList<ContentName> names = new ArrayList<ContentName>();
+		final ArrayList<FileRef> refs = new ArrayList<FileRef>();
+		_index.visitContent(new ContentTree.ContentVisitor() {
+			public void visit(ContentName name, ContentRef ref) {
+				if (((FileRef)ref).id == id) {
+					names.add(name);
+					refs.add((FileRef)ref);
+				}
+			}
+		});
+		
+		if (refs.isEmpty()) {
+			if (Log.isLoggable(Log.FAC_REPO, Level.INFO)) {
+				Log.info(Log.FAC_REPO, "Compacting {0}: no live objects", rfile.file.getName());
+			}
+			synchronized (_retiredFiles) {
+				_retiredFiles.add(id);
+			}
+			return true;
+		}
+		
+		int index = allocateFileIndex();
+		File compactFile = new File(_repositoryFile, LogStructRepoStoreProfile.COMPACT_FILE_PREFIX + index);
+		File newFile = new File(_repositoryFile, LogStructRepoStoreProfile.CONTENT_FILE_PREFIX + index);
+		if (Log.isLoggable(Log.FAC_REPO, Level.INFO)) {
+			Log.info(Log.FAC_REPO, "Compacting {0}: {1} of {2} bytes are garbage, copying {3} objects to {4}", 
+					rfile.file.getName(), rfile.garbage.get(), rfile.file.length(), refs.size(), newFile.getName());
+		}
+		ArrayList<FileRef> newRefs = new ArrayList<FileRef>(refs.size());
+		FileOutputStream fos = null;
+		long written = 0;
+		try {
+			fos = new FileOutputStream(compactFile);
+			OutputStream os = new BufferedOutputStream(fos, 65536);
+			long start = System.currentTimeMillis();
+			for (FileRef ref : refs) {
+				if (_compactStop)
+					throw new IOException("shutting down");
+				// Don't fill the object cache with everything in the file
+				ContentObject content = _objectCache.peek(ref);
+				if (null == content)
+					content = read(ref);
+				if (null == content)
+					throw new IOException("can't read object at " + ref.offset);
+				byte [] encoded = content.encode();
+				FileRef newRef = new FileRef();
+				newRef.id = index;
+				newRef.offset = written;
+				os.write(encoded);
+				written += encoded.length;
+				newRefs.add(newRef);
+				
+				// Stay under the configured rate so we don't get in the way of foreground reads and writes
+				if (_compactRate > 0) {
+					long due = start + written * 1000 / _compactRate;
+					long now = System.currentTimeMillis();
+					if (due > now)
+						Thread.sleep(due - now);
+				}
+			}
+			os.flush();
+			fos.getChannel().force(true);
+			fos.close();
+			fos = null;
+			if (!compactFile.renameTo(newFile))
+				throw new IOException("can't rename " + compactFile.getName() + " to " + newFile.getName());
+			// The old file goes once the index points here, so the new name has to survive a crash first
+			if (!forceDirectory(_repositoryFile))
+				Log.fine(Log.FAC_REPO, "Can't force {0} to disk on this platform", _repositoryFile);
+		} catch (Exception e) {
+			Log.warning(Log.FAC_REPO, "Compaction of {0} abandoned: {1}", rfile.file.getName(), e.getMessage());
+			if (null != fos)
+				try {
+					fos.close();
+				} catch (IOException ioe) {}
+			compactFile.delete();
+			newFile.delete();
+			return false;
+		}
+		
+		RepoFile nfile = new RepoFile();
+		nfile.file = newFile;
+		nfile.indexComplete = true;
+		synchronized (_files) {
+			_files.put(index, nfile);
+		}
+		for (int i = 0; i < refs.size(); i++) {
+			if (_index.replace(names.get(i), refs.get(i), newRefs.get(i))) {
+				_objectCache.replace(refs.get(i), newRefs.get(i));
+			} else {
+				_objectCache.remove(refs.get(i));
+				long end = i + 1 < newRefs.size() ? newRefs.get(i + 1).offset : written;
+				nfile.garbage.addAndGet(end - newRefs.get(i).offset);
+			}
+		}
+		synchronized (_retiredFiles) {
+			_retiredFiles.add(id);
+		}
+		if (Log.isLoggable(Log.FAC_REPO, Level.INFO)) {
+			Log.info(Log.FAC_REPO, "Compacted {0} to {1} bytes in {2}", rfile.file.getName(), written, newFile.getName());
+		}
+		return true;
+	}
+	
+	/**
+	 * Force the entries of a directory to disk, so that a file just created or renamed there is
+	 * still there after a crash. Java 6 has no way to do this, so we use the Java 7 FileChannel.open
+	 * through reflection when it is there.
+	 * 
+	 * @param dir the directory
+	 * @return false if the platform can't force a directory
+	 * @throws IOException if the directory couldn't be forced
+	 */
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	protected static boolean forceDirectory(File dir) throws IOException {
+		FileChannel channel;
+		try {
+			Class<?> pathClass = Class.forName("java.nio.file.Path");
+			Class<?> optionClass = Class.forName("java.nio.file.OpenOption");
+			Class<? extends Enum> standardClass = (Class<? extends Enum>)Class.forName("java.nio.file.StandardOpenOption");
+			Object options = Array.newInstance(optionClass, 1);
+			Array.set(options, 0, Enum.valueOf(standardClass, "READ"));
+			Object path = File.class.getMethod("toPath").invoke(dir);
+			channel = (FileChannel)FileChannel.class.getMethod("open", pathClass, options.getClass()).invoke(null, path, options);
+		} catch (ClassNotFoundException e) {
+			return false;
+		} catch (NoSuchMethodException e) {
+			return false;
+		} catch (InvocationTargetException e) {
+			// Some platforms (Windows) won't open a directory at all
+			if (e.getCause() instanceof IOException)
+				return false;
+			throw new IOException("can't open " + dir + ": " + e.getCause());
+		} catch (Exception e) {
+			throw new IOException("can't open " + dir + ": " + e);
+		}
+		try {
+			channel.force(true);
+		} finally {
+			channel.close();
+		}
+		return true;
+	}
+	
+	/**
+	 * Remove files which have been replaced by compaction. We write a checkpoint first
+	 * so that the checkpoint on disk never refers to a file which is gone.
+	 */
+	private void deleteRetiredFiles() {
+		ArrayList<Integer> retired;
+		synchronized (_retiredFiles) {
+			if (_retiredFiles.isEmpty())
+				return;
+			retired = new ArrayList<Integer>(_retiredFiles);
+		}
+		if (!checkpointIndex())
+			return;
+		for (Integer id : retired) {
+			RepoFile rfile;
+			synchronized (_files) {
+				rfile = _files.remove(id);
+			}
+			if (null != rfile) {
+				synchronized (rfile) {
+					if (null != rfile.openFile) {
+						try {
+							rfile.openFile.close();
+						} catch (IOException e) {}
+						rfile.openFile = null;
+					}
+				}
+				synchronized (rfile.regions) {
+					if (null != rfile.readChannel) {
+						try {
+							rfile.readChannel.close();
+						} catch (IOException e) {}
+						rfile.readChannel = null;
+					}
+					rfile.regions.clear();
+				}
+				if (!rfile.file.delete())
+					Log.warning(Log.FAC_REPO, "Unable to remove compacted file {0}", rfile.file.getName());
+			}
+			synchronized (_retiredFiles) {
+				_retiredFiles.remove(id);
+			}
+		}
+	}
+
 	/**
 	 * Check/write files that contain meta data for the repo
 	 * @throws RepositoryException
@@ -636,6 +1473,21 @@ public class LogStructRepoStore extends RepositoryStoreBase implements Repositor
 			KeyManager.closeDefaultKeyManager();
 		}
 		
+		if (null != _checkpointTimer) {
+			_checkpointTimer.cancel();
+			_checkpointTimer = null;
+		}
+		if (null != _compactTimer) {
+			_compactTimer.cancel();
+			_compactTimer = null;
+		}
+		_compactStop = true;
+		synchronized (_compactLock) {
+			// Waits for any compaction in progress to give up
+			checkpointIndex();
+			deleteRetiredFiles();
+		}
+		
 		if (null != _activeWriteFile && null != _activeWriteFile.openFile) {
 			try {
 				synchronized (_activeWriteFile) {
@@ -644,6 +1496,21 @@ public class LogStructRepoStore extends RepositoryStoreBase implements Repositor
 				}
 			} catch (IOException e) {}
 		}
+		if (null != _files) {
+			synchronized (_files) {
+				for (RepoFile file : _files.values()) {
+					synchronized (file.regions) {
+						if (null != file.readChannel) {
+							try {
+								file.readChannel.close();
+							} catch (IOException e) {}
+							file.readChannel = null;
+						}
+						file.regions.clear();
+					}
+				}
+			}
+		}
 		if (SystemConfiguration.checkDebugFlag(DEBUGGING_FLAGS.REPO_EXITDUMP)) {
 			Log.warning(Log.FAC_REPO, "Debug flag ({0}) is set: dumping nametree now (on shutdown)", DEBUGGING_FLAGS.REPO_EXITDUMP.toString());
 			dumpNames(-1);
@@ -670,12 +1537,12 @@ public class LogStructRepoStore extends RepositoryStoreBase implements Repositor
 			
 			_bulkImportInProgress.put(name, name);
 		}
-		_currentFileIndex++;
-		File repoFile = new File(_repositoryFile, LogStructRepoStoreProfile.CONTENT_FILE_PREFIX + _currentFileIndex);
+		int index = allocateFileIndex();
+		File repoFile = new File(_repositoryFile, LogStructRepoStoreProfile.CONTENT_FILE_PREFIX + index);
 		if (!file.renameTo(repoFile))
 			throw new RepositoryException("Can not rename file: " + file);
 		try {
-			createIndex(LogStructRepoStoreProfile.CONTENT_FILE_PREFIX + _currentFileIndex, _currentFileIndex, true);
+			createIndex(LogStructRepoStoreProfile.CONTENT_FILE_PREFIX + index, index, 0, true);
 		} catch (RepositoryException re) {
 			// The seemingly logical thing to do would be to verify the data for errors first and then submit it if it
 			// was OK. But that would require 2 passes through the data in the mainline case in which the data is good
@@ -73,7 +73,7 @@ public class MemoryRepoStore extends RepositoryStoreBase implements RepositorySt
 		if (null != _index) {
 			throw new RepositoryException("Attempt to re-initialize " + this.getClass().getName());
 		}
-		_index = new ContentTree();
+		_index = newContentTree();
 		if (null != _namespace) {
 			ArrayList<ContentName> ns = new ArrayList<ContentName>();
 			ns.add(_namespace);
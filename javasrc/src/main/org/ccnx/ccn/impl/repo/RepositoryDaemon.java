@@ -111,6 +111,8 @@ public class RepositoryDaemon extends Daemon {
 	 * <li>-policy <file> use the policy file to set initial policy for the repo
 	 * <li>-local <path> set the local name for this repository
 	 * <li>-global <path> set the global prefix for this repository
+	 * <li>-segmentSize <bytes> start a new content file once the current one reaches this size, 0 for never
+	 * <li>-compactRate <bytes> compact content files in the background at up to this many bytes per second, 0 for never
 	 * </ul>
 	 */
 	public void initialize(String[] args, Daemon daemon) {
@@ -123,6 +125,8 @@ public class RepositoryDaemon extends Daemon {
 			String localName = null;
 			String globalPrefix = null;
 			String nameSpace = null;
+			long segmentSize = -1;
+			int compactRate = -1;
 			for (int i = 0; i < args.length; i++) {
 				if (args[i].equals("-log")) {
 					if (args.length < i + 2) {
@@ -179,6 +183,24 @@ public class RepositoryDaemon extends Daemon {
 					if (!nameSpace.startsWith("/"))
 						nameSpace = "/" + nameSpace;
 					i++;
+				} else if (args[i].equals("-segmentSize")) {
+					if (args.length < i + 2)
+						throw new InvalidParameterException();
+					try {
+						segmentSize = Long.parseLong(args[i + 1]);
+					} catch (NumberFormatException nfe) {
+						throw new InvalidParameterException();
+					}
+					i++;
+				} else if (args[i].equals("-compactRate")) {
+					if (args.length < i + 2)
+						throw new InvalidParameterException();
+					try {
+						compactRate = Integer.parseInt(args[i + 1]);
+					} catch (NumberFormatException nfe) {
+						throw new InvalidParameterException();
+					}
+					i++;
 				} else if (args[i].equals("-bb")) {
 					// Following is for upper half performance testing for writes
 					_repo = new BitBucketRepository();
@@ -191,6 +213,10 @@ public class RepositoryDaemon extends Daemon {
 
 			if (_repo == null)	// default lower half
 				_repo = new LogStructRepoStore();
+			if (segmentSize >= 0 && _repo instanceof LogStructRepoStore)
+				((LogStructRepoStore)_repo).setSegmentSize(segmentSize);
+			if (compactRate >= 0 && _repo instanceof LogStructRepoStore)
+				((LogStructRepoStore)_repo).setCompactRate(compactRate);
 			
 			_repositoryRoot = repositoryRoot;
 			_repo.initialize(repositoryRoot, policyFile, localName, globalPrefix, nameSpace, null);
@@ -213,7 +239,7 @@ public class RepositoryDaemon extends Daemon {
 			// Without parsing args, we don't know which repo impl we will get, so show the default 
 			// impl usage and allow for differences 
 			String msg = "usage: " + this.getClass().getName() + " -start -root <repository_root> | -stop <pid> | -interactive | -signal <signal> <pid>" +
-			" [-log <level>] [-repoLog <level>] [-policy <policy_file>] [-local <local_name>] [-global <global_prefix>] [-bb]";
+			" [-log <level>] [-repoLog <level>] [-policy <policy_file>] [-local <local_name>] [-global <global_prefix>] [-segmentSize <bytes>] [-compactRate <bytes>] [-bb]";
 			System.out.println(msg);
 			Log.severe(Log.FAC_REPO, msg);
 		} catch (Exception e) {
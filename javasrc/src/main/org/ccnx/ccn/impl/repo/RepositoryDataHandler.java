@@ -18,6 +18,8 @@
 package org.ccnx.ccn.impl.repo;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Queue;
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.logging.Level;
@@ -39,6 +41,7 @@ import org.ccnx.ccn.protocol.Interest;
 public class RepositoryDataHandler implements Runnable {
 	public static final int THROTTLE_TOP = 2000;
 	public static final int THROTTLE_BOTTOM = 1800;
+	public static final int MAX_BATCH = 128;	// Most objects handed to the store in one saveContent
 
 	private final RepositoryServer _server;
 	private final Queue<ContentObject> _queue = new ConcurrentLinkedQueue<ContentObject>();
@@ -47,6 +50,13 @@ public class RepositoryDataHandler implements Runnable {
 	private boolean _shutdownComplete = false;
 	protected int _currentQueueSize;
 	protected boolean _throttled = false;
+	
+	// Ingest rate accounting. Rates are sampled over periods of at least RATE_PERIOD ms
+	// of continuous activity, or less if the queue empties first.
+	protected static final long RATE_PERIOD = 1000;
+	protected long _rateStart = 0;
+	protected long _rateObjects = 0;
+	protected long _rateBytes = 0;
 
 	public RepositoryDataHandler(RepositoryServer server) {
 		_server = server;
@@ -58,8 +68,10 @@ public class RepositoryDataHandler implements Runnable {
 			_throttled = true;
 			_server.setThrottle(true);
 		}
-		_queue.add(co);
-		_queue.notify();
+		synchronized (_queue) {
+			_queue.add(co);
+			_queue.notify();
+		}
 	}
 
 	public void addKeyCheck(ContentName target) {
@@ -75,6 +87,7 @@ public class RepositoryDataHandler implements Runnable {
 	 * @see RepositoryStore
 	 */
 	public void run() {
+		ArrayList<ContentObject> batch = new ArrayList<ContentObject>(MAX_BATCH);
 		while (!_shutdownComplete) {
 			ContentObject co = null;
 			do {
@@ -87,59 +100,144 @@ public class RepositoryDataHandler implements Runnable {
 						}
 						return;
 					}
+					sampleIngestRate(System.currentTimeMillis());
+					_rateStart = 0;
 					try {
-						_queue.wait(SystemConfiguration.MEDIUM_TIMEOUT);
+						synchronized (_queue) {
+							if (_queue.isEmpty())
+								_queue.wait(SystemConfiguration.MEDIUM_TIMEOUT);
+						}
 					} catch (InterruptedException e) {}
 				}
 			} while (null == co);
-			_currentQueueSize--;
+			
+			// Take whatever else is waiting so the store can write it all at once
+			batch.clear();
+			batch.add(co);
+			while (batch.size() < MAX_BATCH && null != (co = _queue.poll()))
+				batch.add(co);
+			_currentQueueSize -= batch.size();
 			if (_throttled && _currentQueueSize < THROTTLE_BOTTOM) {
 				_throttled = false;
 				_server.setThrottle(false);
 			}
-			try {
-				if (Log.isLoggable(Log.FAC_REPO, Level.FINER)) {
-					Log.finer(Log.FAC_REPO, "Saving content in: " + co.toString());
-				}
-
-				NameEnumerationResponse ner = _server.getRepository().saveContent(co);
-				if (!_shutdown) {
-					if (ner!=null && ner.hasNames()) {
-						_server.sendEnumerationResponse(ner);
-					}
-				}
-
-				// When a write or some syncs are first requested we don't know what key data
-				// was being used because this is in the ContentObject which of course we didn't
-				// have yet. Bbut we need this data to make sure the key is saved along with the file.
-				// Now we can find the key data and check if we have it already or need to get it
-				// too. Also the key locator that we dont have yet could have been a link. We
-				// didn't know that either. If it was we have to get the data it points to.
-				//
-				// Also we have to check for more locators associated with our new object
-				// and the objects pointed to by the links.
-				Entry<ContentName> entry = _pendingKeyChecks.removeMatch(co);
-				if (null != entry) {
-					ContentName nameToCheck = entry.value();
-					if (Log.isLoggable(Log.FAC_REPO, Level.FINER)) {
-						Log.finer(Log.FAC_REPO, "Processing key check entry: {0}", nameToCheck);
+			if (0 == _rateStart)
+				_rateStart = System.currentTimeMillis();
+			
+			List<NameEnumerationResponse> ners = saveContent(_server.getRepository(), batch);
+			for (int i = 0; i < batch.size(); i++) {
+				co = batch.get(i);
+				try {
+					NameEnumerationResponse ner = ners.get(i);
+					if (!_shutdown) {
+						if (ner!=null && ner.hasNames()) {
+							_server.sendEnumerationResponse(ner);
+						}
 					}
-					ContentName linkCheck = _server.getLinkedKeyTarget(co);
-					if (null != linkCheck) {
+	
+					// When a write or some syncs are first requested we don't know what key data
+					// was being used because this is in the ContentObject which of course we didn't
+					// have yet. Bbut we need this data to make sure the key is saved along with the file.
+					// Now we can find the key data and check if we have it already or need to get it
+					// too. Also the key locator that we dont have yet could have been a link. We
+					// didn't know that either. If it was we have to get the data it points to.
+					//
+					// Also we have to check for more locators associated with our new object
+					// and the objects pointed to by the links.
+					Entry<ContentName> entry = _pendingKeyChecks.removeMatch(co);
+					if (null != entry) {
+						ContentName nameToCheck = entry.value();
 						if (Log.isLoggable(Log.FAC_REPO, Level.FINER)) {
-							Log.finer(Log.FAC_REPO, "Processing key check entry for link: {0}", linkCheck);
+							Log.finer(Log.FAC_REPO, "Processing key check entry: {0}", nameToCheck);
+						}
+						ContentName linkCheck = _server.getLinkedKeyTarget(co);
+						if (null != linkCheck) {
+							if (Log.isLoggable(Log.FAC_REPO, Level.FINER)) {
+								Log.finer(Log.FAC_REPO, "Processing key check entry for link: {0}", linkCheck);
+							}
+							Interest linkInterest = new Interest(linkCheck);
+							_server.doSync(linkInterest, linkInterest);
+							syncKeysForObject(co, linkCheck);
 						}
-						Interest linkInterest = new Interest(linkCheck);
-						_server.doSync(linkInterest, linkInterest);
-						syncKeysForObject(co, linkCheck);
+						syncKeysForObject(co, nameToCheck);
 					}
-					syncKeysForObject(co, nameToCheck);
+				} catch (Exception e) {
+					e.printStackTrace();
+					Log.logStackTrace(Level.WARNING, e);
 				}
+			}
+			updateIngestStats(batch);
+		}
+	}
+	
+	/**
+	 * Save a batch of content in the repository store. If the batch can't be saved as a whole,
+	 * the objects are saved one at a time so that one bad object doesn't lose the rest. A batch
+	 * may fail after some of it has been saved, so objects the store already has are skipped
+	 * rather than written again as duplicates.
+	 *
+	 * @param repository the store
+	 * @param batch the content to save
+	 * @return NameEnumerationResponse (or null) for each object in batch, in order. The response
+	 * 		is null for objects which couldn't be saved or were skipped.
+	 */
+	public static List<NameEnumerationResponse> saveContent(RepositoryStore repository, List<ContentObject> batch) {
+		try {
+			if (Log.isLoggable(Log.FAC_REPO, Level.FINER)) {
+				Log.finer(Log.FAC_REPO, "Saving batch of {0} objects starting with: {1}", batch.size(), batch.get(0));
+			}
+			return repository.saveContent(batch);
+		} catch (Exception e) {
+			// Don't let one bad object lose the whole batch
+			Log.warning(Log.FAC_REPO, "Saving batch of {0} failed, saving objects individually: {1}", batch.size(), e.getMessage());
+		}
+		ArrayList<NameEnumerationResponse> ners = new ArrayList<NameEnumerationResponse>(batch.size());
+		for (ContentObject co : batch) {
+			NameEnumerationResponse ner = null;
+			try {
+				if (repository.hasContent(co.fullName())) {
+					if (Log.isLoggable(Log.FAC_REPO, Level.FINER)) {
+						Log.finer(Log.FAC_REPO, "Already saved by failed batch: {0}", co.name());
+					}
+				} else
+					ner = repository.saveContent(co);
 			} catch (Exception e) {
-				e.printStackTrace();
+				Log.warning(Log.FAC_REPO, "Failed to save {0}: {1}", co.name(), e.getMessage());
 				Log.logStackTrace(Level.WARNING, e);
 			}
+			ners.add(ner);
 		}
+		return ners;
+	}
+
+	/**
+	 * Count a saved batch in the repository server's statistics
+	 * @param batch the objects saved
+	 */
+	private void updateIngestStats(List<ContentObject> batch) {
+		int bytes = 0;
+		for (ContentObject co : batch)
+			bytes += co.contentLength();
+		_server._stats.increment(RepositoryServer.StatsEnum.IngestObjects, batch.size());
+		_server._stats.increment(RepositoryServer.StatsEnum.IngestBytes, bytes);
+		_server._stats.addSample(RepositoryServer.StatsEnum.IngestBatchSize, batch.size());
+		_rateObjects += batch.size();
+		_rateBytes += bytes;
+		long now = System.currentTimeMillis();
+		if (now - _rateStart >= RATE_PERIOD) {
+			sampleIngestRate(now);
+			_rateStart = now;
+		}
+	}
+	
+	private void sampleIngestRate(long now) {
+		long elapsed = now - _rateStart;
+		if (0 == _rateStart || elapsed <= 0 || 0 == _rateObjects)
+			return;
+		_server._stats.addSample(RepositoryServer.StatsEnum.IngestObjectRate, _rateObjects * 1000 / elapsed);
+		_server._stats.addSample(RepositoryServer.StatsEnum.IngestByteRate, _rateBytes * 1000 / elapsed);
+		_rateObjects = 0;
+		_rateBytes = 0;
 	}
 
 	private void syncKeysForObject(ContentObject co, ContentName name) throws RepositoryException, IOException {
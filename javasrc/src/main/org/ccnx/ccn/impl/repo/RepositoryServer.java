@@ -27,6 +27,7 @@ import java.util.logging.Level;
 
 import org.ccnx.ccn.CCNHandle;
 import org.ccnx.ccn.config.SystemConfiguration;
+import org.ccnx.ccn.impl.CCNFlowControl;
 import org.ccnx.ccn.impl.CCNStats;
 import org.ccnx.ccn.impl.CCNStats.CCNEnumStats;
 import org.ccnx.ccn.impl.CCNStats.CCNStatistics;
@@ -159,6 +160,8 @@ public class RepositoryServer implements CCNStatistics {
 	 */
 	public RepositoryServer(RepositoryStore repo) throws IOException {
 			_repo = repo;
+			if (repo instanceof RepositoryStoreBase)
+				((RepositoryStoreBase) repo).setStats(_stats);
 			_handle = repo.getHandle();
 			_writer = new CCNWriter(_handle);
 			_iHandler = new RepositoryInterestHandler(this);
@@ -424,6 +427,12 @@ public class RepositoryServer implements CCNStatistics {
 	 * by a previous name enumeration interest where there was not new information
 	 * available.
 	 *
+	 * The signed segments are kept on the response, which the content tree hands out
+	 * again for the same prefix until a child is added under it. So repeated interests
+	 * for a version we have already written just get the same segments put again.
+	 * The whole collection still goes out as a single version however large it is -
+	 * clients expect one version to hold all the names.
+	 *
 	 * @param ner NameEnumerationResponse object to send out
 	 *
 	 * @return void
@@ -435,6 +444,16 @@ public class RepositoryServer implements CCNStatistics {
 				if (Log.isLoggable(Log.FAC_REPO, Level.FINER))
 					Log.finer(Log.FAC_REPO, "returning names for prefix: {0}", ner.getPrefix());
 
+				ArrayList<ContentObject> segments = ner.getResponseSegments();
+				if (null != segments) {
+					if (Log.isLoggable(Log.FAC_REPO, Level.FINER))
+						Log.finer(Log.FAC_REPO, "resending {0} saved segments for prefix: {1}", segments.size(), ner.getPrefix());
+					for (ContentObject co : segments)
+						_handle.put(co);
+					_stats.increment(StatsEnum.HandleInterestNameEnumResent);
+					return;
+				}
+
 				if (Log.isLoggable(Log.FAC_REPO, Level.FINER)) {
 					for (int x = 0; x < ner.getNames().size(); x++) {
 						Log.finer("name: {0}", ner.getNames().get(x));
@@ -444,11 +463,13 @@ public class RepositoryServer implements CCNStatistics {
 					if (Log.isLoggable(Log.FAC_REPO, Level.INFO))
 						Log.info(Log.FAC_REPO, "node.timestamp was null!!!");
 				NameEnumerationResponseMessage nem = ner.getNamesForResponse();
-				neResponseObject = new NameEnumerationResponseMessageObject(ner.getPrefix().append(_responseName), nem, _handle);
+				SegmentRecorder recorder = new SegmentRecorder(_handle);
+				neResponseObject = new NameEnumerationResponseMessageObject(ner.getPrefix().append(_responseName), nem, recorder);
 				// TODO this is only temporary until flow control issues can
 				// be worked out here
 				neResponseObject.disableFlowControl();
 				neResponseObject.save(ner.getTimestamp());
+				ner.setResponseSegments(recorder.segments());
 				if (Log.isLoggable(Log.FAC_REPO, Level.FINER))
 					Log.finer(Log.FAC_REPO, "saved collection object: {0}", neResponseObject.getVersionedName());
 				return;
@@ -462,6 +483,33 @@ public class RepositoryServer implements CCNStatistics {
 		}
 	}
 
+	/**
+	 * Keeps hold of the segments of a name enumeration response as they are put,
+	 * so they can be sent again later.
+	 */
+	private static class SegmentRecorder extends CCNFlowControl {
+		private final ArrayList<ContentObject> _segments = new ArrayList<ContentObject>();
+
+		public SegmentRecorder(CCNHandle handle) throws IOException {
+			super(handle);
+		}
+
+		@Override
+		public ContentObject put(ContentObject co) throws IOException {
+			ContentObject result = super.put(co);
+			synchronized (_segments) {
+				_segments.add(co);
+			}
+			return result;
+		}
+
+		public ArrayList<ContentObject> segments() {
+			synchronized (_segments) {
+				return new ArrayList<ContentObject>(_segments);
+			}
+		}
+	}
+
 	/**
 	 * Look for unverified keys. Note that we must have already checked to see that the repo has
 	 * the content for this target before calling this.
@@ -676,12 +724,23 @@ public class RepositoryServer implements CCNStatistics {
 		HandleInterestStartWritePolicyHandlers ("responses", "Number of RepositoryPolicyHandler created for StartWrite"),
 		HandleInterestStartWriteExpressInterest ("responses", "Number of expressInterests created for StartWrite"),
 		HandleInterestNameEnumResponses ("responses", "Number of responses sent for Name Enums"),
+		HandleInterestNameEnumResent ("responses", "Number of Name Enum responses resent from saved segments"),
 
 		HandleContent ("objects", "Calls to ResponsitoryDataListener.handleContent()"),
 		HandleContentHandleData ("objects", "Calls to handleData in RepositoryDataListener"),
 		HandleContentExpressInterest ("interests", "Number of interests expressed in handleContent()"),
 		HandleContentCancelInterest ("interests", "Number of interests cancelled"),
 		HandleContentExpressInterestErrors ("errors", "Number of errors expressing interests in handleContent()"),
+
+		IngestObjects ("objects", "Objects saved to the repository store by RepositoryDataHandler"),
+		IngestBytes ("bytes", "Content bytes saved to the repository store by RepositoryDataHandler"),
+		IngestBatchSize ("objects", "Objects per saveContent batch in RepositoryDataHandler"),
+		IngestObjectRate ("objects per second", "Rate at which RepositoryDataHandler saves objects while busy"),
+		IngestByteRate ("bytes per second", "Rate at which RepositoryDataHandler saves content bytes while busy"),
+
+		ObjectCacheHits ("objects", "Objects the repository store found in its object cache"),
+		ObjectCacheMisses ("objects", "Objects the repository store had to read from storage"),
+		ObjectCacheEvictions ("objects", "Objects dropped from the repository store's object cache to make room"),
 ;
 
 
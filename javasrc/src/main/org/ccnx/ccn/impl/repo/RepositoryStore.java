@@ -19,6 +19,7 @@ package org.ccnx.ccn.impl.repo;
 
 import java.io.File;
 import java.util.ArrayList;
+import java.util.List;
 
 import org.ccnx.ccn.CCNHandle;
 import org.ccnx.ccn.KeyManager;
@@ -94,6 +95,14 @@ public interface RepositoryStore {
 	 */
 	public NameEnumerationResponse saveContent(ContentObject content) throws RepositoryException;
 	
+	/**
+	 * Save a batch of content. Stores may write the whole batch at once, which is much cheaper
+	 * than saving each object separately.
+	 * @param content the objects to save
+	 * @return the NameEnumerationResponse (or null) for each object, in the same order as content
+	 */
+	public ArrayList<NameEnumerationResponse> saveContent(List<ContentObject> content) throws RepositoryException;
+	
 	/**
 	 * Return the matching content if it exists
 	 * @param interest Interest to match
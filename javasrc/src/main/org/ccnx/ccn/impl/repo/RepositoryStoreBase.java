@@ -22,10 +22,13 @@ import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.List;
 import java.util.logging.Level;
 
 import org.ccnx.ccn.CCNHandle;
 import org.ccnx.ccn.KeyManager;
+import org.ccnx.ccn.config.SystemConfiguration;
+import org.ccnx.ccn.impl.CCNStats.CCNEnumStats;
 import org.ccnx.ccn.impl.CCNFlowControl.SaveType;
 import org.ccnx.ccn.impl.repo.PolicyXML.PolicyObject;
 import org.ccnx.ccn.impl.repo.RepositoryInfo.RepositoryInfoObject;
@@ -49,6 +52,14 @@ public abstract class RepositoryStoreBase implements RepositoryStore {
 	protected CCNHandle _handle = null;
 	protected KeyManager _km = null;
 	
+	/**
+	 * Decoded objects recently handed to the ContentTree for matching. Subclasses which
+	 * read content from storage should look here first.
+	 */
+	protected ContentObjectCache _objectCache = new ContentObjectCache(SystemConfiguration.REPO_OBJECT_CACHE_BYTES);
+	
+	protected boolean _concurrentIndex = SystemConfiguration.REPO_CONCURRENT_INDEX;
+	
 	/**
 	 * Handle diagnostic requests
 	 * 
@@ -68,6 +79,39 @@ public abstract class RepositoryStoreBase implements RepositoryStore {
 	public CCNHandle getHandle() { return _handle; }
 	
 	public KeyManager getKeyManager() { return _km; }
+	
+	/**
+	 * Change the size of the cache of decoded objects. The default comes from
+	 * SystemConfiguration.REPO_OBJECT_CACHE_BYTES.
+	 * @param maxBytes 0 disables the cache
+	 */
+	public void setObjectCacheSize(long maxBytes) {
+		_objectCache.setMaxBytes(maxBytes);
+	}
+	
+	/**
+	 * Choose whether to index content with a ConcurrentContentTree, whose lookups don't lock,
+	 * or a ContentTree. Must be called before initialize. The default comes from
+	 * SystemConfiguration.REPO_CONCURRENT_INDEX.
+	 * @param concurrentIndex
+	 */
+	public void setConcurrentIndex(boolean concurrentIndex) {
+		_concurrentIndex = concurrentIndex;
+	}
+	
+	/**
+	 * @return a new, empty index of the kind chosen by setConcurrentIndex
+	 */
+	protected ContentTree newContentTree() {
+		return _concurrentIndex ? new ConcurrentContentTree() : new ContentTree();
+	}
+	
+	/**
+	 * Record object cache activity in the server's statistics
+	 */
+	public void setStats(CCNEnumStats<RepositoryServer.StatsEnum> stats) {
+		_objectCache.setStats(stats);
+	}
 
 	/**
 	 * Gets the currently valid namespace for this repository
@@ -202,6 +246,16 @@ public abstract class RepositoryStoreBase implements RepositoryStore {
 	}
 
 	public abstract NameEnumerationResponse saveContent(ContentObject content) throws RepositoryException;
+	
+	/**
+	 * Save a batch of content one object at a time. Subclasses which can do better should override this.
+	 */
+	public ArrayList<NameEnumerationResponse> saveContent(List<ContentObject> content) throws RepositoryException {
+		ArrayList<NameEnumerationResponse> ners = new ArrayList<NameEnumerationResponse>(content.size());
+		for (ContentObject co : content)
+			ners.add(saveContent(co));
+		return ners;
+	}
 
 	public void setPolicy(Policy policy) {
 		_policy = policy;
@@ -217,6 +271,7 @@ public abstract class RepositoryStoreBase implements RepositoryStore {
 
 	public void shutDown() {
 		Log.info(Log.FAC_REPO, "RespositoryStoreBase.shutdown()");
+		_objectCache.clear();
 		if( null != _handle )
 			_handle.close();
 	}
@@ -160,8 +160,17 @@ public class CCNMerkleTree extends MerkleTree {
 	 * Sets the signatures of all the contained ContentObjects.
 	 */
 	public void setSignatures() {
-		for (int i=0; i < numLeaves(); ++i) {
-			segmentSignature(i); // DKS TODO refactor, sets signature as a side effect
+		try {
+			ParallelDigester.forRange(0, numLeaves(), new ParallelDigester.RangeTask() {
+				public void run(int start, int end) {
+					for (int i=start; i < end; ++i) {
+						segmentSignature(i); // DKS TODO refactor, sets signature as a side effect
+					}
+				}
+			});
+		} catch (NoSuchAlgorithmException e) {
+			// segmentSignature doesn't digest anything
+			throw new RuntimeException(e);
 		}
 	}
 			
@@ -225,9 +234,23 @@ public class CCNMerkleTree extends MerkleTree {
 	 * @param contentObjects the content
 	 * @throws NoSuchAlgorithmException if the digestAlgorithm unknown
 	 */
-	protected void computeLeafValues(ContentObject [] contentObjects) throws NoSuchAlgorithmException {
+	protected void computeLeafValues(final ContentObject [] contentObjects) throws NoSuchAlgorithmException {
 		// Hash the leaves
-		for (int i=0; i < numLeaves(); ++i) {
+		ParallelDigester.forRange(0, numLeaves(), new ParallelDigester.RangeTask() {
+			public void run(int start, int end) {
+				computeLeafValues(contentObjects, start, end);
+			}
+		});
+	}
+
+	/**
+	 * Compute the leaf values of ContentObjects [start, end) in this tree.
+	 * @param contentObjects the content
+	 * @param start the first leaf to compute
+	 * @param end one past the last leaf to compute
+	 */
+	protected void computeLeafValues(ContentObject [] contentObjects, int start, int end) {
+		for (int i=start; i < end; ++i) {
 			// DKS -- need to make sure content() doesn't clone
 			try {
 				ContentObject co = contentObjects[i];
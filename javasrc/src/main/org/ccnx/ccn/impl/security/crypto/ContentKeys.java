@@ -31,6 +31,7 @@ import javax.crypto.spec.SecretKeySpec;
 
 import org.ccnx.ccn.KeyManager;
 import org.ccnx.ccn.impl.security.crypto.util.CryptoConstants;
+import org.ccnx.ccn.impl.security.crypto.util.CryptoInstances;
 import org.ccnx.ccn.impl.support.DataUtils;
 import org.ccnx.ccn.impl.support.Log;
 import org.ccnx.ccn.io.content.ContentEncodingException;
@@ -180,7 +181,7 @@ public abstract class ContentKeys implements Cloneable {
 	
 	private ContentKeys(String encryptionAlgorithm) throws NoSuchAlgorithmException, NoSuchPaddingException {
 		if (null != encryptionAlgorithm) {
-			Cipher.getInstance(encryptionAlgorithm, KeyManager.PROVIDER);
+			CryptoInstances.getCipher(encryptionAlgorithm, KeyManager.PROVIDER);
 			_encryptionAlgorithm = encryptionAlgorithm;
 		} else {
 			_encryptionAlgorithm = DEFAULT_CIPHER_ALGORITHM;
@@ -262,14 +263,16 @@ public abstract class ContentKeys implements Cloneable {
 	}
 
 	/**
-	 * Create a cipher for the encryption algorithm used by this ContentKeys
+	 * Get a cipher for the encryption algorithm used by this ContentKeys. This is the
+	 * calling thread's cached instance (see CryptoInstances), so it must be initialized
+	 * before use and is only good until the next call on this thread.
 	 * @return the cipher
 	 */
 	public Cipher getCipher() {
 		// We have tried a dummy call to Cipher.getInstance on construction of this ContentKeys - so
 		// further "NoSuch" exceptions should not happen here.
 		try {
-			return Cipher.getInstance(_encryptionAlgorithm, KeyManager.PROVIDER);
+			return CryptoInstances.getCipher(_encryptionAlgorithm, KeyManager.PROVIDER);
 		} catch (NoSuchAlgorithmException e) {
 			String err = "Unexpected NoSuchAlgorithmException for an algorithm we have already used!";
 			Log.severe(err);
@@ -283,7 +286,8 @@ public abstract class ContentKeys implements Cloneable {
 
 	/**
 	 * Make an encrypting or decrypting Cipher to be used in making a CipherStream to
-	 * wrap CCN data.
+	 * wrap CCN data. The cipher is reused by later calls on this thread, so finish with
+	 * it before asking for another segment's cipher.
 	 * @throws ContentEncodingException 
 	 */
 	public Cipher getSegmentEncryptionCipher(ContentName contentName, PublisherPublicKeyDigest publisher, long segmentNumber)
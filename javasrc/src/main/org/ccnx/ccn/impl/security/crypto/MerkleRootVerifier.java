@@ -0,0 +1,197 @@
+/*
+ * Part of the CCNx Java Library.
+ *
+ * Copyright (C) 2013 Palo Alto Research Center, Inc.
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version 2.1
+ * as published by the Free Software Foundation.
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details. You should have received
+ * a copy of the GNU Lesser General Public License along with this library;
+ * if not, write to the Free Software Foundation, Inc., 51 Franklin Street,
+ * Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package org.ccnx.ccn.impl.security.crypto;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.logging.Level;
+
+import org.ccnx.ccn.ContentVerifier;
+import org.ccnx.ccn.impl.CCNStats;
+import org.ccnx.ccn.impl.CCNStats.CCNEnumStats;
+import org.ccnx.ccn.impl.CCNStats.CCNEnumStats.IStatsEnum;
+import org.ccnx.ccn.impl.support.Log;
+import org.ccnx.ccn.protocol.ContentObject;
+import org.ccnx.ccn.protocol.PublisherPublicKeyDigest;
+
+/**
+ * Amortizes verification of content signed with CCNMerkleTree, the same way the tree
+ * amortizes signing. The first segment of a batch is verified by the wrapped verifier,
+ * which checks the root signature with a public key operation. We then remember the root
+ * (the content proxy), its signature and publisher. Later segments of the same batch only
+ * need their leaf digest hashed up their MerklePath; if they aggregate to a root we have
+ * already verified, under the same signature and publisher, they are accepted without
+ * verifying the signature again. If not, they are assumed to be part of a new tree and
+ * go to the wrapped verifier.
+ *
+ * A few roots are remembered, since a pipelined reader can receive segments from the
+ * end of one batch after the start of the next. Content without a Merkle witness always
+ * goes straight to the wrapped verifier.
+ */
+public class MerkleRootVerifier implements ContentVerifier, CCNStats.CCNStatistics {
+
+	public static final int DEFAULT_MAX_ROOTS = 4;
+
+	protected static class VerifiedRoot {
+		final byte [] _signature;
+		final PublisherPublicKeyDigest _publisher;
+
+		VerifiedRoot(byte [] signature, PublisherPublicKeyDigest publisher) {
+			_signature = signature;
+			_publisher = publisher;
+		}
+
+		boolean matches(ContentObject content) {
+			return Arrays.equals(_signature, content.signature().signature()) &&
+					_publisher.equals(content.signedInfo().getPublisherKeyID());
+		}
+	}
+
+	protected final ContentVerifier _verifier;
+	protected final int _maxRoots;
+
+	protected final LinkedHashMap<ByteBuffer, VerifiedRoot> _roots;
+
+	public MerkleRootVerifier(ContentVerifier verifier) {
+		this(verifier, DEFAULT_MAX_ROOTS);
+	}
+
+	/**
+	 * @param verifier verifies the root signature of each new batch
+	 * @param maxRoots the number of most recently verified roots to remember
+	 */
+	public MerkleRootVerifier(ContentVerifier verifier, int maxRoots) {
+		_verifier = verifier;
+		_maxRoots = maxRoots;
+		_roots = new LinkedHashMap<ByteBuffer, VerifiedRoot>(maxRoots * 2, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<ByteBuffer, VerifiedRoot> eldest) {
+				return size() > _maxRoots;
+			}
+		};
+	}
+
+	public boolean verify(ContentObject content) {
+		if (null == content)
+			return false;
+		byte [] proxy = null;
+		if ((null != content.signature()) && (null != content.signature().witness())
+				&& (null != content.signedInfo().getPublisherKeyID())) {
+			try {
+				proxy = content.computeProxy();
+			} catch (Exception e) {
+				if (Log.isLoggable(Log.FAC_VERIFY, Level.INFO))
+					Log.info(Log.FAC_VERIFY, "Cannot compute Merkle root for {0}: {1}", content.name(), e.getMessage());
+				return false;
+			}
+		}
+		if (null == proxy) {
+			_stats.increment(StatsEnum.Unaggregated);
+			return _verifier.verify(content);
+		}
+
+		ByteBuffer root = ByteBuffer.wrap(proxy);
+		synchronized (_roots) {
+			VerifiedRoot verified = _roots.get(root);
+			if ((null != verified) && verified.matches(content)) {
+				_stats.increment(StatsEnum.RootHits);
+				return true;
+			}
+		}
+
+		_stats.increment(StatsEnum.RootVerifications);
+		if (!_verifier.verify(content))
+			return false;
+		synchronized (_roots) {
+			_roots.put(root, new VerifiedRoot(content.signature().signature(), content.signedInfo().getPublisherKeyID()));
+		}
+		return true;
+	}
+
+	/**
+	 * Forget all verified roots, for instance if a publisher's key is no longer trusted.
+	 */
+	public void clear() {
+		synchronized (_roots) {
+			_roots.clear();
+		}
+	}
+
+	// ==============================================================
+	// Statistics
+
+	protected CCNEnumStats<StatsEnum> _stats = new CCNEnumStats<StatsEnum>(StatsEnum.RootHits);
+
+	public CCNStats getStats() {
+		return _stats;
+	}
+
+	public enum StatsEnum implements IStatsEnum {
+		// ====================================
+		// Just edit this list, dont need to change anything else
+
+		RootHits ("objects", "The number of objects accepted because their Merkle root was already verified"),
+		RootVerifications ("objects", "The number of objects whose Merkle root signature was verified"),
+		Unaggregated ("objects", "The number of objects without a Merkle witness"),
+		;
+
+		// ====================================
+		// This is the same for every user of IStatsEnum
+
+		protected final String _units;
+		protected final String _description;
+		protected final static String [] _names;
+
+		static {
+			_names = new String[StatsEnum.values().length];
+			for(StatsEnum stat : StatsEnum.values() )
+				_names[stat.ordinal()] = stat.toString();
+
+		}
+
+		StatsEnum(String units, String description) {
+			_units = units;
+			_description = description;
+		}
+
+		public String getDescription(int index) {
+			return StatsEnum.values()[index]._description;
+		}
+
+		public int getIndex(String name) {
+			StatsEnum x = StatsEnum.valueOf(name);
+			return x.ordinal();
+		}
+
+		public String getName(int index) {
+			return StatsEnum.values()[index].toString();
+		}
+
+		public String getUnits(int index) {
+			return StatsEnum.values()[index]._units;
+		}
+
+		public String [] getNames() {
+			return _names;
+		}
+	}
+}
@@ -494,14 +494,18 @@ public class MerkleTree {
 	 * @param lastBlockLength number of bytes of the last block to use; N/A if isDigest is true
 	 * @throws NoSuchAlgorithmException if digestAlgorithm is unknown
 	 */
-	protected void computeLeafValues(byte contentBlocks[][], boolean isDigest, int baseBlockIndex, int lastBlockLength) throws NoSuchAlgorithmException {
+	protected void computeLeafValues(final byte contentBlocks[][], final boolean isDigest, final int baseBlockIndex, final int lastBlockLength) throws NoSuchAlgorithmException {
 		// Hash the leaves
-		for (int i=0; i < numLeaves(); ++i) {
-			_tree[leafNodeIndex(i)-1] = 
-				new DEROctetString(
-						(isDigest ? contentBlocks[i+baseBlockIndex] : 
-									computeBlockDigest(i, contentBlocks, baseBlockIndex, lastBlockLength)));
-		}
+		ParallelDigester.forRange(0, numLeaves(), new ParallelDigester.RangeTask() {
+			public void run(int start, int end) throws NoSuchAlgorithmException {
+				for (int i=start; i < end; ++i) {
+					_tree[leafNodeIndex(i)-1] = 
+						new DEROctetString(
+								(isDigest ? contentBlocks[i+baseBlockIndex] : 
+											computeBlockDigest(i, contentBlocks, baseBlockIndex, lastBlockLength)));
+				}
+			}
+		});
 	}
 	
 	/**
@@ -515,27 +519,41 @@ public class MerkleTree {
 	 * @param blockWidth the length of leaf blocks to create
 	 * @throws NoSuchAlgorithmException if digestAlgorithm is unknown
 	 */
-	protected void computeLeafValues(byte [] content, int offset, int length, int blockWidth) throws NoSuchAlgorithmException {
+	protected void computeLeafValues(final byte [] content, final int offset, final int length, final int blockWidth) throws NoSuchAlgorithmException {
 		// Hash the leaves
-		for (int i=0; i < numLeaves(); ++i) {
-			_tree[leafNodeIndex(i)-1] = 
-				new DEROctetString(
-						(computeBlockDigest(i, content, offset + (blockWidth*i), 
-											((i < numLeaves()-1) ? blockWidth : (length - (blockWidth*i))))));
-		}
+		ParallelDigester.forRange(0, numLeaves(), new ParallelDigester.RangeTask() {
+			public void run(int start, int end) throws NoSuchAlgorithmException {
+				for (int i=start; i < end; ++i) {
+					_tree[leafNodeIndex(i)-1] = 
+						new DEROctetString(
+								(computeBlockDigest(i, content, offset + (blockWidth*i), 
+													((i < numLeaves()-1) ? blockWidth : (length - (blockWidth*i))))));
+				}
+			}
+		});
 	}
 
 	/**
 	 * Compute the intermediate node values by digesting the concatenation of the
 	 * left and right children (or the left child alone if there is no right child).
+	 * The nodes with indices [2^k, 2^(k+1)) only depend on nodes with higher indices,
+	 * so we climb the tree a level at a time and each level can be hashed in parallel.
 	 * @throws NoSuchAlgorithmException if digestAlgorithm is unknown
 	 */
 	protected void computeNodeValues() throws NoSuchAlgorithmException {
 		// Climb the tree
-		int firstNode = firstLeaf()-1;
-		for (int i=firstNode; i >= ROOT_NODE; --i) {
-			byte [] nodeDigest = CCNDigestHelper.digest(digestAlgorithm(), get(leftChild(i)), get(rightChild(i)));
-			_tree[i-1] = new DEROctetString(nodeDigest);
+		ParallelDigester.RangeTask level = new ParallelDigester.RangeTask() {
+			public void run(int start, int end) throws NoSuchAlgorithmException {
+				for (int i=start; i < end; ++i) {
+					byte [] nodeDigest = CCNDigestHelper.digest(digestAlgorithm(), get(leftChild(i)), get(rightChild(i)));
+					_tree[i-1] = new DEROctetString(nodeDigest);
+				}
+			}
+		};
+		int end = firstLeaf();
+		for (int start = Integer.highestOneBit(end - 1); start >= ROOT_NODE; start /= 2) {
+			ParallelDigester.forRange(start, end, level);
+			end = start;
 		}
 	}
 	
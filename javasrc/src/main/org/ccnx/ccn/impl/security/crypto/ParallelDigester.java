@@ -0,0 +1,152 @@
+/*
+ * Part of the CCNx Java Library.
+ *
+ * Copyright (C) 2013 Palo Alto Research Center, Inc.
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version 2.1
+ * as published by the Free Software Foundation.
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details. You should have received
+ * a copy of the GNU Lesser General Public License along with this library;
+ * if not, write to the Free Software Foundation, Inc., 51 Franklin Street,
+ * Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package org.ccnx.ccn.impl.security.crypto;
+
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.ccnx.ccn.config.SystemConfiguration;
+
+/**
+ * Splits the digesting done while building Merkle trees across a shared pool of
+ * SystemConfiguration.SEGMENTER_THREADS threads. MerkleTree uses it to hash leaves and
+ * each level of interior nodes, and CCNMerkleTree to build the per segment signatures.
+ *
+ * Work is split into contiguous ranges of indices; the caller computes the first range
+ * itself and waits for the rest, so the results land in the same places as they would
+ * sequentially and the tree, root signature and segments are identical either way.
+ * Small ranges, or a thread count of 1 (the default), just run on the caller's thread.
+ */
+public class ParallelDigester {
+
+	/**
+	 * The fewest nodes we hand to a thread; below this the handoff costs more than the hashing.
+	 */
+	public static final int MIN_CHUNK = 8;
+
+	/**
+	 * Work on the range of indices [start, end).
+	 */
+	public interface RangeTask {
+		void run(int start, int end) throws NoSuchAlgorithmException;
+	}
+
+	protected static ThreadPoolExecutor _pool = null;
+
+	/**
+	 * @return true if trees will be built in parallel
+	 */
+	public static boolean isParallel() {
+		return SystemConfiguration.SEGMENTER_THREADS > 1;
+	}
+
+	/**
+	 * Run task over [start, end), in parallel if that is enabled and worthwhile.
+	 * Returns once the whole range is done.
+	 */
+	public static void forRange(int start, int end, final RangeTask task) throws NoSuchAlgorithmException {
+		int threads = SystemConfiguration.SEGMENTER_THREADS;
+		int chunks = Math.min(threads, (end - start) / MIN_CHUNK);
+		if (chunks <= 1) {
+			task.run(start, end);
+			return;
+		}
+
+		int chunkSize = (end - start + chunks - 1) / chunks;
+		ThreadPoolExecutor pool = pool(threads);
+		ArrayList<Future<Object>> futures = new ArrayList<Future<Object>>(chunks - 1);
+		for (int from = start + chunkSize; from < end; from += chunkSize) {
+			final int chunkStart = from;
+			final int chunkEnd = Math.min(end, from + chunkSize);
+			futures.add(pool.submit(new Callable<Object>() {
+				public Object call() throws Exception {
+					task.run(chunkStart, chunkEnd);
+					return null;
+				}
+			}));
+		}
+
+		NoSuchAlgorithmException failure = null;
+		try {
+			task.run(start, start + chunkSize);
+		} catch (NoSuchAlgorithmException e) {
+			failure = e;
+		}
+
+		// Always wait for every chunk, so nothing is still writing into the tree when we return
+		boolean interrupted = false;
+		for (Future<Object> future : futures) {
+			while (true) {
+				try {
+					future.get();
+					break;
+				} catch (InterruptedException e) {
+					interrupted = true;
+				} catch (ExecutionException e) {
+					Throwable cause = e.getCause();
+					if (cause instanceof NoSuchAlgorithmException) {
+						if (null == failure)
+							failure = (NoSuchAlgorithmException)cause;
+					} else if (cause instanceof RuntimeException) {
+						throw (RuntimeException)cause;
+					} else if (cause instanceof Error) {
+						throw (Error)cause;
+					} else {
+						throw new RuntimeException(cause);
+					}
+					break;
+				}
+			}
+		}
+		if (interrupted)
+			Thread.currentThread().interrupt();
+		if (null != failure)
+			throw failure;
+	}
+
+	/**
+	 * The caller always does one chunk itself, so the pool needs one thread less than
+	 * the configured count.
+	 */
+	protected static synchronized ThreadPoolExecutor pool(int threads) {
+		if (null == _pool) {
+			_pool = new ThreadPoolExecutor(threads - 1, threads - 1, 0L, TimeUnit.MILLISECONDS,
+					new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+						protected final AtomicInteger _threadCount = new AtomicInteger(0);
+						public Thread newThread(Runnable r) {
+							Thread t = new Thread(r, "ParallelDigester-" + _threadCount.incrementAndGet());
+							t.setDaemon(true);
+							return t;
+						}
+					});
+		} else if (_pool.getCorePoolSize() < threads - 1) {
+			// SEGMENTER_THREADS was raised since we started
+			_pool.setMaximumPoolSize(threads - 1);
+			_pool.setCorePoolSize(threads - 1);
+		}
+		return _pool;
+	}
+}
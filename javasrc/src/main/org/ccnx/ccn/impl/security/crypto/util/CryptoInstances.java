@@ -0,0 +1,103 @@
+/*
+ * Part of the CCNx Java Library.
+ *
+ * Copyright (C) 2013 Palo Alto Research Center, Inc.
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version 2.1
+ * as published by the Free Software Foundation.
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details. You should have received
+ * a copy of the GNU Lesser General Public License along with this library;
+ * if not, write to the Free Software Foundation, Inc., 51 Franklin Street,
+ * Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package org.ccnx.ccn.impl.security.crypto.util;
+
+import java.security.NoSuchAlgorithmException;
+import java.security.Provider;
+import java.security.Signature;
+import java.util.HashMap;
+
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+import javax.crypto.NoSuchPaddingException;
+
+/**
+ * Per thread Cipher, Mac and Signature instances, keyed by algorithm and provider.
+ * Looking these up through the providers is expensive compared to encrypting or
+ * MACing a single segment, so the per segment code paths reuse an instance per thread.
+ *
+ * Every caller must initialize the instance it gets (init, initSign or initVerify)
+ * and be done with it before asking again for the same algorithm and provider on the
+ * same thread, as it will get the same object back. Instances are never shared
+ * between threads.
+ */
+public class CryptoInstances {
+
+	protected static final ThreadLocal<HashMap<String, Object>> _instances = new ThreadLocal<HashMap<String, Object>>() {
+		@Override
+		protected HashMap<String, Object> initialValue() {
+			return new HashMap<String, Object>();
+		}
+	};
+
+	/**
+	 * @param provider the provider to use, or null for the highest priority provider
+	 *   supporting the algorithm
+	 */
+	public static Cipher getCipher(String algorithm, Provider provider) throws NoSuchAlgorithmException, NoSuchPaddingException {
+		String key = key("Cipher", algorithm, provider);
+		HashMap<String, Object> instances = _instances.get();
+		Cipher cipher = (Cipher)instances.get(key);
+		if (null == cipher) {
+			cipher = (null == provider) ? Cipher.getInstance(algorithm) : Cipher.getInstance(algorithm, provider);
+			instances.put(key, cipher);
+		}
+		return cipher;
+	}
+
+	/**
+	 * @param provider the provider to use, or null for the highest priority provider
+	 *   supporting the algorithm
+	 */
+	public static Mac getMac(String algorithm, Provider provider) throws NoSuchAlgorithmException {
+		String key = key("Mac", algorithm, provider);
+		HashMap<String, Object> instances = _instances.get();
+		Mac mac = (Mac)instances.get(key);
+		if (null == mac) {
+			mac = (null == provider) ? Mac.getInstance(algorithm) : Mac.getInstance(algorithm, provider);
+			instances.put(key, mac);
+		}
+		return mac;
+	}
+
+	/**
+	 * @param provider the provider to use, or null for the highest priority provider
+	 *   supporting the algorithm
+	 */
+	public static Signature getSignature(String algorithm, Provider provider) throws NoSuchAlgorithmException {
+		String key = key("Signature", algorithm, provider);
+		HashMap<String, Object> instances = _instances.get();
+		Signature signature = (Signature)instances.get(key);
+		if (null == signature) {
+			signature = (null == provider) ? Signature.getInstance(algorithm) : Signature.getInstance(algorithm, provider);
+			instances.put(key, signature);
+		}
+		return signature;
+	}
+
+	/**
+	 * Drop this thread's instances, and the key material they were last initialized with.
+	 */
+	public static void clear() {
+		_instances.get().clear();
+	}
+
+	private static String key(String type, String algorithm, Provider provider) {
+		return type + ":" + algorithm + ":" + ((null == provider) ? "" : provider.getName());
+	}
+}
@@ -79,7 +79,7 @@ public class SignatureHelper {
 					DigestHelper.DEFAULT_DIGEST_ALGORITHM : digestAlgorithm,
 					signingKey);
 		if (null != sigAlgName && sigAlgName.toUpperCase().startsWith(CryptoConstants.HMAC)) {
-			Mac mac = Mac.getInstance(sigAlgName, KeyManager.PROVIDER);
+			Mac mac = CryptoInstances.getMac(sigAlgName, KeyManager.PROVIDER);
 			mac.init(signingKey);
 			return mac.doFinal(toBeSigned);
 		}
@@ -88,7 +88,7 @@ public class SignatureHelper {
 			throw new InvalidKeyException("Key algorithm: " + signingKey.getAlgorithm() + "not supported");
 		
 		// DKS TODO if we switch to SHA256, this fails.
-		Signature sig = Signature.getInstance(sigAlgName);
+		Signature sig = CryptoInstances.getSignature(sigAlgName, null);
 
 		// Protect against GC on platforms that don't do JNI for crypto properly
 		SignatureLocks.signingLock();
@@ -131,7 +131,7 @@ public class SignatureHelper {
 					signingKey);
 		
 		if (null != sigAlgName && sigAlgName.toUpperCase().startsWith(CryptoConstants.HMAC)) {
-			Mac mac = Mac.getInstance(sigAlgName, KeyManager.PROVIDER);
+			Mac mac = CryptoInstances.getMac(sigAlgName, KeyManager.PROVIDER);
 			mac.init(signingKey);
 			for (byte[] toBeSigned : toBeSigneds)
 				mac.update(toBeSigned);
@@ -141,7 +141,7 @@ public class SignatureHelper {
 		if (null == sigAlgName)
 			throw new InvalidKeyException("Key algorithm: " + signingKey.getAlgorithm() + "not supported");
 		
-		Signature sig = Signature.getInstance(sigAlgName);
+		Signature sig = CryptoInstances.getSignature(sigAlgName, null);
 
 		// Protect against GC on platforms that don't do JNI for crypto properly
 		SignatureLocks.signingLock();
@@ -186,7 +186,7 @@ public class SignatureHelper {
 					verificationKey);
 		
 		if (null != sigAlgName && sigAlgName.toUpperCase().startsWith(CryptoConstants.HMAC)) {
-			Mac mac = Mac.getInstance(sigAlgName, KeyManager.PROVIDER);
+			Mac mac = CryptoInstances.getMac(sigAlgName, KeyManager.PROVIDER);
 			mac.init(verificationKey);
 			for (byte[] b : data) {
 				mac.update(b);
@@ -220,7 +220,7 @@ public class SignatureHelper {
 			
 			if (null == sigAlgName)
 				throw new InvalidKeyException("Key algorithm: " + verificationKey.getAlgorithm() + "not supported");
-			Signature sig = Signature.getInstance(sigAlgName);
+			Signature sig = CryptoInstances.getSignature(sigAlgName, null);
 
 			// Protect against GC on platforms that don't do JNI for crypto properly
 			SignatureLocks.signingLock();
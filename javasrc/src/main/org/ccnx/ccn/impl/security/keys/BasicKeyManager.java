@@ -1128,10 +1128,11 @@ public class BasicKeyManager extends KeyManager {
 	}
 	
 	/**
-	 * Remove a verification and its backing keystore if applicable
-	 * TODO - should we remove the key from the cache? No mechanism was created for that in the past
+	 * Remove a verification key and its backing keystore if applicable. The key is
+	 * also forgotten by the public key cache, along with content verified with it.
 	 */
 	public void removeVerificationKey(Key key, String type, String fileName) throws IOException {
+		getPublicKeyCache().forget(new PublisherPublicKeyDigest(key));
 		if (null == fileName) {
 			fileName = _keyStoreFileName + "-" + keyToKeyStoreSuffix(SystemConfiguration.KEYSTORE_NAMING_VERSION, key);
 		}
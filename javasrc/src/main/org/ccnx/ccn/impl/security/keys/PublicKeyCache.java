@@ -76,6 +76,9 @@ public class PublicKeyCache {
 	protected HashMap<PublisherPublicKeyDigest, ArrayList<Certificate>> _rawCertificateMap = new HashMap<PublisherPublicKeyDigest, ArrayList<Certificate>>();
 	protected HashMap<PublisherPublicKeyDigest, CCNTime> _rawVersionMap = new HashMap<PublisherPublicKeyDigest, CCNTime>();
 
+	// Content already verified with the keys we hold
+	protected VerifiedContentCache _verifiedContent = new VerifiedContentCache();
+
 	public PublicKeyCache() {
 	}
 
@@ -92,7 +95,7 @@ public class PublicKeyCache {
 		_keyMap.put(theKey.getVersionedName(), theKey);
 		PublisherPublicKeyDigest id = theKey.publicKeyDigest();
 		rememberContentName(id, theKey.getVersionedName());
-		_rawKeyMap.put(id, theKey.publicKey());
+		rememberKey(id, theKey.publicKey());
 		_rawVersionMap.put(id, theKey.getVersion());
 		if (_DEBUG) {
 			recordKeyToFile(theKey);
@@ -117,7 +120,7 @@ public class PublicKeyCache {
 	 */
 	public void remember(PublicKey theKey, CCNTime version) {
 		PublisherPublicKeyDigest keyDigest = new PublisherPublicKeyDigest(theKey);
-		_rawKeyMap.put(keyDigest, theKey);
+		rememberKey(keyDigest, theKey);
 		if (null != version) {
 			_rawVersionMap.put(keyDigest, version);
 		}
@@ -130,12 +133,52 @@ public class PublicKeyCache {
 	public void remember(Certificate theCertificate, CCNTime version) {
 		PublisherPublicKeyDigest keyDigest = new PublisherPublicKeyDigest(theCertificate.getPublicKey());
 		rememberCertificate(keyDigest, theCertificate);
-		_rawKeyMap.put(keyDigest, theCertificate.getPublicKey());
+		rememberKey(keyDigest, theCertificate.getPublicKey());
 		if (null != version) {
 			_rawVersionMap.put(keyDigest, version);
 		}
 	}
 
+	/**
+	 * If this replaces a different key for the same publisher, anything verified
+	 * with the old key has to be verified again.
+	 */
+	protected void rememberKey(PublisherPublicKeyDigest id, PublicKey key) {
+		PublicKey oldKey = _rawKeyMap.put(id, key);
+		if ((null != oldKey) && !oldKey.equals(key)) {
+			_verifiedContent.invalidate(id);
+		}
+	}
+
+	/**
+	 * Forget a key, for instance because it has been revoked, along with any content
+	 * we have verified with it.
+	 * @param id digest of the key to forget
+	 */
+	public void forget(PublisherPublicKeyDigest id) {
+		_rawKeyMap.remove(id);
+		_rawVersionMap.remove(id);
+		synchronized(_rawCertificateMap) {
+			_rawCertificateMap.remove(id);
+		}
+		ArrayList<ContentName> names;
+		synchronized(_idMap) {
+			names = _idMap.remove(id);
+		}
+		if (null != names) {
+			for (ContentName name : names)
+				_keyMap.remove(name);
+		}
+		_verifiedContent.invalidate(id);
+	}
+
+	/**
+	 * @return the cache of content whose signatures have been verified with our keys
+	 */
+	public VerifiedContentCache getVerifiedContentCache() {
+		return _verifiedContent;
+	}
+
 	protected void rememberCertificate(PublisherPublicKeyDigest id, Certificate certificate) {
 		synchronized(_rawCertificateMap) {
 
@@ -0,0 +1,205 @@
+/*
+ * Part of the CCNx Java Library.
+ *
+ * Copyright (C) 2013 Palo Alto Research Center, Inc.
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version 2.1
+ * as published by the Free Software Foundation.
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details. You should have received
+ * a copy of the GNU Lesser General Public License along with this library;
+ * if not, write to the Free Software Foundation, Inc., 51 Franklin Street,
+ * Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package org.ccnx.ccn.impl.security.keys;
+
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.ccnx.ccn.config.SystemConfiguration;
+import org.ccnx.ccn.impl.CCNStats;
+import org.ccnx.ccn.impl.CCNStats.CCNEnumStats;
+import org.ccnx.ccn.impl.CCNStats.CCNEnumStats.IStatsEnum;
+import org.ccnx.ccn.protocol.ContentObject;
+import org.ccnx.ccn.protocol.PublisherPublicKeyDigest;
+
+/**
+ * Remembers content objects whose signatures have already been verified, so that
+ * reading the same object again doesn't repeat the public key operation.
+ *
+ * Objects are identified by their digest(), which covers the whole encoded object
+ * including its signature, together with the publisher key that verified them.
+ * Only successful verifications are remembered. The least recently used entries are
+ * dropped once the cache holds SystemConfiguration.VERIFIED_CONTENT_CACHE_SIZE objects.
+ *
+ * Each PublicKeyCache has one of these, and drops a publisher's entries when that
+ * publisher's key is forgotten or replaced.
+ */
+public class VerifiedContentCache implements CCNStats.CCNStatistics {
+
+	protected final int _maxEntries;
+
+	protected final LinkedHashMap<ByteBuffer, PublisherPublicKeyDigest> _verified;
+
+	public VerifiedContentCache() {
+		this(SystemConfiguration.VERIFIED_CONTENT_CACHE_SIZE);
+	}
+
+	/**
+	 * @param maxEntries the most objects to remember; 0 disables the cache
+	 */
+	public VerifiedContentCache(int maxEntries) {
+		_maxEntries = maxEntries;
+		_verified = new LinkedHashMap<ByteBuffer, PublisherPublicKeyDigest>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<ByteBuffer, PublisherPublicKeyDigest> eldest) {
+				if (size() > _maxEntries) {
+					_stats.increment(StatsEnum.Evictions);
+					return true;
+				}
+				return false;
+			}
+		};
+	}
+
+	/**
+	 * @return true if this object has already been verified with its publisher's key
+	 */
+	public boolean isVerified(ContentObject object) {
+		if (_maxEntries <= 0)
+			return false;
+		PublisherPublicKeyDigest publisher = object.signedInfo().getPublisherKeyID();
+		ByteBuffer key = ByteBuffer.wrap(object.digest());
+		boolean verified;
+		synchronized (_verified) {
+			PublisherPublicKeyDigest verifiedBy = _verified.get(key);
+			verified = (null != verifiedBy) && verifiedBy.equals(publisher);
+		}
+		_stats.increment(StatsEnum.Lookups);
+		if (verified)
+			_stats.increment(StatsEnum.VerificationsAvoided);
+		return verified;
+	}
+
+	/**
+	 * Remember that this object's signature verified.
+	 */
+	public void verified(ContentObject object) {
+		if (_maxEntries <= 0)
+			return;
+		PublisherPublicKeyDigest publisher = object.signedInfo().getPublisherKeyID();
+		if (null == publisher)
+			return;
+		synchronized (_verified) {
+			_verified.put(ByteBuffer.wrap(object.digest()), publisher);
+		}
+	}
+
+	/**
+	 * Forget everything verified with this publisher's key, because the key
+	 * has been revoked or replaced.
+	 */
+	public void invalidate(PublisherPublicKeyDigest publisher) {
+		int removed = 0;
+		synchronized (_verified) {
+			Iterator<PublisherPublicKeyDigest> it = _verified.values().iterator();
+			while (it.hasNext()) {
+				if (it.next().equals(publisher)) {
+					it.remove();
+					removed++;
+				}
+			}
+		}
+		_stats.increment(StatsEnum.Invalidations, removed);
+	}
+
+	public void clear() {
+		synchronized (_verified) {
+			_verified.clear();
+		}
+	}
+
+	public int size() {
+		synchronized (_verified) {
+			return _verified.size();
+		}
+	}
+
+	/**
+	 * @return the fraction of lookups which found an already verified object
+	 */
+	public double hitRate() {
+		long lookups = _stats.getCounter(StatsEnum.Lookups.toString());
+		if (0 == lookups)
+			return 0;
+		return (double)_stats.getCounter(StatsEnum.VerificationsAvoided.toString()) / lookups;
+	}
+
+	// ==============================================================
+	// Statistics
+
+	protected CCNEnumStats<StatsEnum> _stats = new CCNEnumStats<StatsEnum>(StatsEnum.Lookups);
+
+	public CCNStats getStats() {
+		return _stats;
+	}
+
+	public enum StatsEnum implements IStatsEnum {
+		// ====================================
+		// Just edit this list, dont need to change anything else
+
+		Lookups ("objects", "The number of objects checked against the cache before verifying"),
+		VerificationsAvoided ("objects", "The number of signature verifications skipped because the object was cached"),
+		Evictions ("objects", "The number of least recently used objects dropped from the cache"),
+		Invalidations ("objects", "The number of objects dropped because their publisher's key went away"),
+		;
+
+		// ====================================
+		// This is the same for every user of IStatsEnum
+
+		protected final String _units;
+		protected final String _description;
+		protected final static String [] _names;
+
+		static {
+			_names = new String[StatsEnum.values().length];
+			for(StatsEnum stat : StatsEnum.values() )
+				_names[stat.ordinal()] = stat.toString();
+
+		}
+
+		StatsEnum(String units, String description) {
+			_units = units;
+			_description = description;
+		}
+
+		public String getDescription(int index) {
+			return StatsEnum.values()[index]._description;
+		}
+
+		public int getIndex(String name) {
+			StatsEnum x = StatsEnum.valueOf(name);
+			return x.ordinal();
+		}
+
+		public String getName(int index) {
+			return StatsEnum.values()[index].toString();
+		}
+
+		public String getUnits(int index) {
+			return StatsEnum.values()[index]._units;
+		}
+
+		public String [] getNames() {
+			return _names;
+		}
+	}
+}
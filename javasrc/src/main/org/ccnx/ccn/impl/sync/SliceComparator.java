@@ -17,22 +17,28 @@
 package org.ccnx.ccn.impl.sync;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.NoSuchElementException;
 import java.util.Queue;
 import java.util.Stack;
 import java.util.TreeMap;
 import java.util.TreeSet;
 import java.util.concurrent.ConcurrentLinkedQueue;
-import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 
 import org.ccnx.ccn.CCNContentHandler;
 import org.ccnx.ccn.CCNHandle;
 import org.ccnx.ccn.CCNSyncHandler;
 import org.ccnx.ccn.config.SystemConfiguration;
+import org.ccnx.ccn.impl.CCNStats;
+import org.ccnx.ccn.impl.CCNStats.CCNEnumStats;
+import org.ccnx.ccn.impl.CCNStats.CCNEnumStats.IStatsEnum;
 import org.ccnx.ccn.impl.encoding.BinaryXMLDecoder;
 import org.ccnx.ccn.impl.support.DataUtils;
 import org.ccnx.ccn.impl.support.Log;
@@ -71,13 +77,23 @@ import org.ccnx.ccn.protocol.Interest;
  * run more than once simultaneously and that all unsynchronized global fields are only referenced from the run
  * routine or by internal methods called only by it so that synchronization is in fact unnecessary.
  *
+ * Note about scheduling: All comparators in the process share one pool of
+ * SystemConfiguration.SYNC_COMPARE_THREADS threads. A comparator is only scheduled when "kickCompare" is
+ * called because a new root hash or node content has arrived, and not at all if it is idle with nothing
+ * pending to compare. Kicks arriving while a compare is scheduled or running are folded into it.
+ * A compare which needs a node that hasn't arrived yet gives up its thread and is kicked again when the
+ * node arrives or its fetch times out, so a slow slice can't hold up the others.
  */
-public final class SliceComparator implements Runnable, Comparable<SliceComparator> {
+public final class SliceComparator implements Runnable, Comparable<SliceComparator>, CCNStats.CCNStatistics {
 	public static final int DECODER_SIZE = 756;
 	public static enum SyncCompareState {INIT, PRELOAD, COMPARE, DONE, UPDATE};
 
-	public ScheduledThreadPoolExecutor _executor = (ScheduledThreadPoolExecutor) Executors.newScheduledThreadPool(1);
-	public final int COMPARE_INTERVAL = 100; // ms
+	protected static ScheduledThreadPoolExecutor _scheduler = null;
+	public final int COMPARE_INTERVAL = 100; // ms - lets a burst of kicks share one compare
+	private ScheduledFuture<?> _scheduled = null;
+	private ScheduledFuture<?> _timeoutKick = null;
+	private HashMap<SyncHashEntry, Long> _requestDeadlines = new HashMap<SyncHashEntry, Long>();
+	private long _kickTime;
 	private BinaryXMLDecoder _decoder;
 	
 	private static int _nextID = 1;
@@ -85,6 +101,7 @@ public final class SliceComparator implements Runnable, Comparable<SliceComparat
 	
 	private volatile boolean _needToCompare = true;
 	private volatile boolean _comparing = false;
+	private volatile boolean _waitingForNode = false;
 	private volatile boolean _shutdown = false;
 	
 	// Prevents the comparison task from being run more than once simultaneously
@@ -302,7 +319,11 @@ public final class SliceComparator implements Runnable, Comparable<SliceComparat
 		synchronized (this) {
 			if (_callbacks.size() == 0) {
 				_shutdown = true;
-				_executor.shutdownNow();
+				if (null != _scheduled)
+					_scheduled.cancel(false);
+				if (null != _timeoutKick)
+					_timeoutKick.cancel(false);
+				_waitingForNode = false;
 			}
 			return _shutdown;
 		}
@@ -343,21 +364,60 @@ public final class SliceComparator implements Runnable, Comparable<SliceComparat
 	}
 	
 	/**
-	 * Start compare process if not already running
+	 * Start compare process if not already running, and if there is anything to compare
 	 */
 	public void kickCompare() {
 		synchronized (this) {
+			if (_shutdown)
+				return;
 			if (! _comparing) {
-				_comparing = true;
 				_needToCompare = false;
-				_executor.schedule(this, COMPARE_INTERVAL, TimeUnit.MILLISECONDS);
-			} else
+				if (idle()) {
+					_stats.increment(StatsEnum.IdleWakeupsAvoided);
+					return;
+				}
+				_comparing = true;
+				_kickTime = System.nanoTime();
+				_scheduled = scheduler().schedule(this, COMPARE_INTERVAL, TimeUnit.MILLISECONDS);
+			} else {
 				_needToCompare = true;
+				_stats.increment(StatsEnum.KicksCoalesced);
+			}
+		}
+	}
+
+	/**
+	 * Nothing to do if we are waiting to start a round and have nothing new to start it with.
+	 * Only called when no compare is scheduled or running, so the fields the run loop
+	 * owns are safe to look at.
+	 */
+	private boolean idle() {
+		return _state == SyncCompareState.INIT && _pendingEntries.isEmpty() && _pendingContent.isEmpty()
+				&& null == _startHash && _updateNames.isEmpty();
+	}
+
+	/**
+	 * The pool is sized when first used.
+	 */
+	protected static synchronized ScheduledThreadPoolExecutor scheduler() {
+		if (null == _scheduler) {
+			_scheduler = new ScheduledThreadPoolExecutor(Math.max(1, SystemConfiguration.SYNC_COMPARE_THREADS), new ThreadFactory() {
+				protected final AtomicInteger _threadCount = new AtomicInteger(0);
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "SliceComparator-" + _threadCount.incrementAndGet());
+					t.setDaemon(true);
+					return t;
+				}
+			});
 		}
+		return _scheduler;
 	}
 	
+	/**
+	 * @return true if a compare is scheduled, running or waiting for a node
+	 */
 	public synchronized boolean comparing() {
-		return _comparing || _needToCompare;
+		return _comparing || _needToCompare || _waitingForNode;
 	}
 	
 	/**
@@ -384,56 +444,91 @@ public final class SliceComparator implements Runnable, Comparable<SliceComparat
 	/**
 	 * Nodes can be shared across comparators so if we are missing a node, we really only want to
 	 * do one request for the node for the whole slice. Then when the node is returned other comparators
-	 * that want it can just retrieve the information from the cache. We use a boolean lock to accomplish this.
+	 * that want it can just retrieve the information from the cache. We use a Pending lock to accomplish this.
 	 * In some cases (preload) we want to issue the request but we don't want to wait for an answer. That's
 	 * what the wait flag is for.
 	 * 
-	 * Note: Since we are potentially waiting for an outside object here, we probably don't want to call
-	 * this synchronized to avoid potential deadlocks.
+	 * We don't block the thread while we wait since it belongs to the pool shared by all comparators. Instead
+	 * we register with the lock to be kicked when the node arrives, and schedule a kick for when the fetch
+	 * times out, and the run loop returns until then. The deadline is kept here rather than only in the
+	 * shared lock because the lock can be swept out of the cache once it has expired, and then we'd just
+	 * request the node again each time we're kicked instead of giving up.
+	 * 
+	 * Note: Since the lock is shared with other comparators, we don't want to call this synchronized
+	 * to avoid potential deadlocks.
 	 * 
 	 * @param srt
 	 * @param wait Wait for the node if true
 	 * @return null if node not found but request made
-	 * @throws SyncException
+	 * @throws SyncException if we were to wait and the fetch has timed out
 	 */
 	private SyncNodeComposite getOrRequestNode(SyncTreeEntry srt, boolean wait) throws SyncException {
 		SyncNodeComposite node = srt.getNode(_decoder);
-		if (null != node)
+		if (null != node) {
+			if (! _requestDeadlines.isEmpty())
+				_requestDeadlines.remove(new SyncHashEntry(srt.getHash()));
 			return node;
+		}
+		SyncHashEntry she = new SyncHashEntry(srt.getHash());
+		Long deadline = wait ? _requestDeadlines.get(she) : null;
+		long now = System.currentTimeMillis();
 		Pending lock = _snc.pending(srt.getHash());
-		long ourTime = System.currentTimeMillis();
+		if (null != deadline && now >= deadline)
+			nodeFetchTimeout(srt, she, lock);
 		long timeout;
 		synchronized (this) {
 			timeout = _timeout;
 		}
-		long endTime = ourTime + timeout;
-		while (wait && lock.getPending()) {
-			try {
-				synchronized (lock) {
-					lock.wait(timeout);
-				}
-			} catch (InterruptedException e) {
-				if (isShutdown())
-					return null;
-			}
+		boolean request = false;
+		synchronized (lock) {
+			if (! lock.getPending()) {
+				lock.requested(timeout);
+				request = true;
+			} else if (! wait)	// Someone else already requested it
+				return null;
+			if (null == deadline)
+				deadline = lock.getRequestTime() + timeout;
+			if (wait && now < deadline)
+				lock.addWaiter(this);
+		}
+		if (request)
+			ProtocolBasedSyncMonitor.requestNode(_slice, srt.getHash(), _handle, _nfh);
+		if (! wait)
+			return null;
+		if (now >= deadline)
+			nodeFetchTimeout(srt, she, lock);
+		_requestDeadlines.put(she, deadline);
+		if (! request) {
+			// It may have arrived before we were added as a waiter
 			node = srt.getNode(_decoder);
-			if (null != node)
+			if (null != node) {
+				_requestDeadlines.remove(she);
 				return node;
-			ourTime = System.currentTimeMillis();
-			if (ourTime > endTime) {
-				throw new SyncException("Node fetch timeout for: " + Component.printURI(srt.getHash()));
 			}
 		}
-		
-		synchronized (lock) {
-			if (lock.getPending())	// For non wait case when someone else already requested it
-				return null;
-			lock.setPending(true);
+		_waitingForNode = true;
+		synchronized (this) {
+			if (null != _timeoutKick)
+				_timeoutKick.cancel(false);
+			_timeoutKick = scheduler().schedule(new Runnable() {
+				public void run() {
+					kickCompare();
+				}
+			}, deadline - now, TimeUnit.MILLISECONDS);
 		}
-		ProtocolBasedSyncMonitor.requestNode(_slice, srt.getHash(), _handle, _nfh);
 		return null;
 	}
 	
+	/**
+	 * Give up on a node we have waited too long for. The pending entry is dropped so that a later
+	 * compare requests the node again.
+	 */
+	private void nodeFetchTimeout(SyncTreeEntry srt, SyncHashEntry she, Pending lock) throws SyncException {
+		_requestDeadlines.remove(she);
+		_snc.expirePending(srt.getHash(), lock);
+		throw new SyncException("Node fetch timeout for: " + Component.printURI(srt.getHash()));
+	}
+	
 	private void changeState(SyncCompareState state) {
 		synchronized (this) {
 			_state = state;
@@ -985,6 +1080,7 @@ public final class SliceComparator implements Runnable, Comparable<SliceComparat
 					if (_shutdown)
 						return;
 				}
+				_waitingForNode = false;
 				switch (getState()) {
 				case INIT:		// Starting a new compare
 					if (Log.isLoggable(Log.FAC_SYNC, Level.FINE)  && null != _startHash)
@@ -1033,6 +1129,7 @@ public final class SliceComparator implements Runnable, Comparable<SliceComparat
 							nextRound();
 						changeState(SyncCompareState.PRELOAD);
 						didARound = true;
+						_stats.increment(StatsEnum.CompareRounds);
 					}
 						
 					if (getState() == SyncCompareState.INIT) {
@@ -1142,25 +1239,40 @@ public final class SliceComparator implements Runnable, Comparable<SliceComparat
 					keepComparing = false;
 					break;
 				}
+				// Don't hold the thread while we wait for a node - we'll be kicked when it arrives
+				if (_waitingForNode)
+					keepComparing = false;
 				synchronized (this) {
 					if (!keepComparing) {
 						if (_needToCompare) {
 							keepComparing = true;
 							_needToCompare = false;
 						}
-						else
+						else {
 							_comparing = false;
+							_stats.addSample(StatsEnum.CompareLatency, System.nanoTime() - _kickTime);
+						}
 					}
 				}
 			} while (keepComparing);
-			_compareSemaphore.release();
 		} catch (Exception ex) {
 			Log.logStackTrace(Log.FAC_SYNC, Level.WARNING, ex);
 			changeState(SyncCompareState.INIT);
-
+			_requestDeadlines.clear();
+			synchronized (this) {
+				_comparing = false;
+				_waitingForNode = false;
+			}
 		} catch (Error er) {
 			Log.logStackTrace(Log.FAC_SYNC, Level.WARNING, er);
 			changeState(SyncCompareState.INIT);
+			_requestDeadlines.clear();
+			synchronized (this) {
+				_comparing = false;
+				_waitingForNode = false;
+			}
+		} finally {
+			_compareSemaphore.release();
 		}
 	}
 	
@@ -1195,4 +1307,64 @@ public final class SliceComparator implements Runnable, Comparable<SliceComparat
 	public int compareTo(SliceComparator o) {
 		return _id - o._id;
 	}
+
+	// ==============================================================
+	// Statistics
+
+	protected CCNEnumStats<StatsEnum> _stats = new CCNEnumStats<StatsEnum>(StatsEnum.CompareRounds);
+
+	public CCNStats getStats() {
+		return _stats;
+	}
+
+	public enum StatsEnum implements IStatsEnum {
+		// ====================================
+		// Just edit this list, dont need to change anything else
+
+		CompareRounds ("rounds", "The number of new hash trees compared"),
+		CompareLatency ("nanos", "The time from a compare being kicked until it could go no further"),
+		KicksCoalesced ("kicks", "The number of kicks folded into a compare already scheduled or running"),
+		IdleWakeupsAvoided ("kicks", "The number of kicks ignored because there was nothing to compare"),
+		;
+
+		// ====================================
+		// This is the same for every user of IStatsEnum
+
+		protected final String _units;
+		protected final String _description;
+		protected final static String [] _names;
+
+		static {
+			_names = new String[StatsEnum.values().length];
+			for(StatsEnum stat : StatsEnum.values() )
+				_names[stat.ordinal()] = stat.toString();
+
+		}
+
+		StatsEnum(String units, String description) {
+			_units = units;
+			_description = description;
+		}
+
+		public String getDescription(int index) {
+			return StatsEnum.values()[index]._description;
+		}
+
+		public int getIndex(String name) {
+			StatsEnum x = StatsEnum.valueOf(name);
+			return x.ordinal();
+		}
+
+		public String getName(int index) {
+			return StatsEnum.values()[index].toString();
+		}
+
+		public String getUnits(int index) {
+			return StatsEnum.values()[index]._units;
+		}
+
+		public String [] getNames() {
+			return _names;
+		}
+	}
 }
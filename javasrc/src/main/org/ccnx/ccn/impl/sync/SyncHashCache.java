@@ -24,6 +24,11 @@ import java.util.HashMap;
  * in the walk the comparator currently is, these hashes can not be shared on a slice either.
  */
 public class SyncHashCache {
+	// Deliberately not bounded. An entry carries its COVERED flag, which is what lets the comparator
+	// throw away a hash it has already seen without walking it again, and its position in the walk for
+	// entries on the compare stacks, so an LRU could only drop state the comparator still depends on.
+	// The entries themselves are small since remote nodes are only held softly or through the shared
+	// SyncNodeCache, and entries for locally built nodes are removed when they are replaced.
 	protected HashMap<SyncHashEntry, SyncTreeEntry> _hashes = new HashMap<SyncHashEntry, SyncTreeEntry>();
 
 	/**
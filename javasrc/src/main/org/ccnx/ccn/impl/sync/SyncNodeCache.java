@@ -16,51 +16,137 @@
  */
 package org.ccnx.ccn.impl.sync;
 
+import java.lang.ref.ReferenceQueue;
 import java.lang.ref.WeakReference;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
+import org.ccnx.ccn.config.SystemConfiguration;
+import org.ccnx.ccn.impl.CCNStats;
+import org.ccnx.ccn.impl.CCNStats.CCNEnumStats;
+import org.ccnx.ccn.impl.CCNStats.CCNEnumStats.IStatsEnum;
 import org.ccnx.ccn.io.content.SyncNodeComposite;
+import org.ccnx.ccn.io.content.SyncNodeComposite.SyncNodeElement;
 
 /**
- * Nodes can be cached by hash across different comparators. We use WeakReferences to avoid accidentally caching nodes that
- * no longer have any real referents.
+ * Nodes can be cached by hash across different comparators. A node's hash is computed from its contents, so
+ * the nodes themselves are shared by every SyncNodeCache in the process, across slices as well as comparators.
+ * 
+ * Nodes we got from the network are held by a size bounded LRU list of about SystemConfiguration.SYNC_NODE_CACHE_BYTES,
+ * so we don't have to fetch and decode them again. Beyond that we use WeakReferences to avoid accidentally caching
+ * nodes that no longer have any real referents. A node that falls off the LRU list but is still on a comparison path
+ * (held by a SyncTreeEntry) can still be found here, and its entry goes away once nobody holds it.
  * 
  * Since we only need to request nodes once per slice, the pending mechanism should be global
  */
-public class SyncNodeCache {
+public class SyncNodeCache implements CCNStats.CCNStatistics {
 	
 	/**
 	 * This mechanism is used to avoid requesting the same node more than once (see below). One of
-	 * these objects is created for each node request and used as a java synchronization object to
-	 * insure that we don't return without having retrieved the node when that is required.
+	 * these objects is created for each node request and used as a java synchronization object.
+	 * Comparators which need the node register with it to be kicked when it arrives.
 	 */
 	public class Pending {
 		volatile boolean _pending = false;
+		volatile long _requestTime = 0;
+		volatile long _timeout = 0;
+		ArrayList<SliceComparator> _waiters = new ArrayList<SliceComparator>();
 		
 		public void setPending(boolean value) {
 			_pending = value;
 		}
 		
+		/**
+		 * Mark the node as requested
+		 * @param timeout how long the requester will wait for it
+		 */
+		public void requested(long timeout) {
+			_requestTime = System.currentTimeMillis();
+			_timeout = timeout;
+			_pending = true;
+		}
+		
+		/**
+		 * @return true if the node was requested and hasn't arrived within its timeout
+		 */
+		public boolean expired(long now) {
+			return _pending && now - _requestTime >= _timeout;
+		}
+		
 		public boolean getPending() {
 			return _pending;
 		}
+		
+		/**
+		 * @return when the node was requested
+		 */
+		public long getRequestTime() {
+			return _requestTime;
+		}
+		
+		public synchronized void addWaiter(SliceComparator waiter) {
+			if (! _waiters.contains(waiter))
+				_waiters.add(waiter);
+		}
+		
+		/**
+		 * Kick the comparators waiting for the node. They have to register again if they
+		 * still need it.
+		 */
+		protected void wakeup() {
+			ArrayList<SliceComparator> waiters;
+			synchronized (this) {
+				waiters = _waiters;
+				_waiters = new ArrayList<SliceComparator>();
+			}
+			for (SliceComparator waiter : waiters)
+				waiter.kickCompare();
+		}
 	}
 	
-	// For holding objects used as locks for each pending hash
+	// For holding objects used as locks for each pending hash. Entries are removed when their node
+	// arrives, or once their fetch has timed out so the node can be requested again
+	public static final int PENDING_SWEEP_SIZE = 64;
 	private HashMap<SyncHashEntry, Pending> _hashesPending = new HashMap<SyncHashEntry, Pending>();
+	private int _sweepPendingAt = PENDING_SWEEP_SIZE;
 	
-	protected HashMap<SyncHashEntry, WeakReference<SyncNodeComposite>> _nodes = new HashMap<SyncHashEntry, WeakReference<SyncNodeComposite>>();
+	/**
+	 * Removes itself from the cache once its node has been collected
+	 */
+	protected static class NodeReference extends WeakReference<SyncNodeComposite> {
+		final SyncHashEntry _key;
+
+		NodeReference(SyncHashEntry key, SyncNodeComposite node) {
+			super(node, _collected);
+			_key = key;
+		}
+	}
+
+	// Every node in the process that someone still holds
+	protected static final ConcurrentHashMap<SyncHashEntry, NodeReference> _nodes = new ConcurrentHashMap<SyncHashEntry, NodeReference>();
+	protected static final ReferenceQueue<SyncNodeComposite> _collected = new ReferenceQueue<SyncNodeComposite>();
+
+	// The most recently used network nodes, which we hold whether anyone else does or not
+	protected static final LinkedHashMap<SyncHashEntry, SyncNodeComposite> _recent = new LinkedHashMap<SyncHashEntry, SyncNodeComposite>(16, 0.75f, true);
+	protected static long _recentBytes = 0;
 
 	/**
 	 * Put a newly decoded node into the cache
 	 * @param node
 	 */
 	public void putNode(SyncNodeComposite node) {
-		synchronized (this) {
-			WeakReference<SyncNodeComposite> wr = new WeakReference<SyncNodeComposite>(node);
-			_nodes.put((new SyncHashEntry(node.getHash())), wr);
-			clearPending(node.getHash());
-		}
+		SyncHashEntry she = new SyncHashEntry(node.getHash());
+		NodeReference old = _nodes.put(she, new NodeReference(she, node));
+		if (null == old || null == old.get())
+			_stats.increment(StatsEnum.ResidentNodes);
+		if (node.retrievable())
+			hold(she, node);
+		purge();
+		clearPending(node.getHash());
 	}
 	
 	/**
@@ -71,21 +157,83 @@ public class SyncNodeCache {
 	public SyncNodeComposite getNode(byte[] hash) {
 		if (null == hash)
 			return null;
-		synchronized (this) {
-			WeakReference<SyncNodeComposite> wr = _nodes.get(new SyncHashEntry(hash));
-			if (null == wr)
-				return null;
-			return wr.get();
+		SyncHashEntry she = new SyncHashEntry(hash);
+		synchronized (_recent) {
+			SyncNodeComposite node = _recent.get(she);
+			if (null != node) {
+				_stats.increment(StatsEnum.Hits);
+				return node;
+			}
+		}
+		NodeReference ref = _nodes.get(she);
+		SyncNodeComposite node = (null == ref) ? null : ref.get();
+		if (null == node) {
+			_stats.increment(StatsEnum.Misses);
+			return null;
 		}
+		_stats.increment(StatsEnum.Hits);
+		if (node.retrievable())
+			hold(she, node);
+		return node;
+	}
+
+	/**
+	 * Put a node at the head of the LRU list, dropping the least recently used nodes
+	 * from it to stay within the configured size.
+	 */
+	protected static void hold(SyncHashEntry she, SyncNodeComposite node) {
+		synchronized (_recent) {
+			if (null != _recent.put(she, node))
+				return;
+			int size = nodeSize(node);
+			_recentBytes += size;
+			_stats.increment(StatsEnum.ResidentBytes, size);
+			Iterator<Map.Entry<SyncHashEntry, SyncNodeComposite>> it = _recent.entrySet().iterator();
+			while (_recentBytes > SystemConfiguration.SYNC_NODE_CACHE_BYTES && _recent.size() > 1) {
+				SyncNodeComposite eldest = it.next().getValue();
+				it.remove();
+				size = nodeSize(eldest);
+				_recentBytes -= size;
+				_stats.increment(StatsEnum.ResidentBytes, -size);
+				_stats.increment(StatsEnum.Evictions);
+			}
+		}
+	}
+
+	/**
+	 * Forget nodes nobody holds any more
+	 */
+	protected static void purge() {
+		NodeReference ref;
+		while (null != (ref = (NodeReference)_collected.poll())) {
+			if (_nodes.remove(ref._key, ref))
+				_stats.increment(StatsEnum.ResidentNodes, -1);
+		}
+	}
+
+	/**
+	 * A rough idea of the memory a decoded node takes up
+	 */
+	protected static int nodeSize(SyncNodeComposite node) {
+		int size = 64;
+		for (SyncNodeElement sne : node.getRefs()) {
+			size += 32;
+			if (null != sne.getData())
+				size += sne.getData().length;
+			if (null != sne.getName()) {
+				for (byte [] component : sne.getName())
+					size += 16 + component.length;
+			}
+		}
+		return size;
 	}
 	
 	/**
 	 * Activate the mechanism to avoid multiple requests for the same node and to wait for a
 	 * node in the process of being fetched by another comparator if it is.
 	 * This is a "get and set" routine which creates and stores a lock for sharing if one hasn't
-	 * already been created for this hash. The caller must acquire or attempt to acquire the lock.
-	 * The first caller should request the node and notify waiters when it has it. Subsequent callers 
-	 * will wait for the node to return by acquiring the lock.
+	 * already been created for this hash. The first caller should set it pending and request the node.
+	 * Subsequent callers register with it as waiters and are kicked when the node returns.
 	 * 
 	 * @param hash
 	 * @return Lock object for waiting for the node
@@ -96,16 +244,50 @@ public class SyncNodeCache {
 			SyncHashEntry she = new SyncHashEntry(hash);
 			lock = _hashesPending.get(she);
 			if (null == lock) {
+				if (_hashesPending.size() >= _sweepPendingAt)
+					sweepPending();
 				lock = new Pending();
 				_hashesPending.put(she, lock);
 			}
 			return lock;
 		}
 	}
+	
+	/**
+	 * Drop entries for fetches which have timed out, such as preloads nobody went on to wait for.
+	 * Sweeping again once the map has doubled keeps this cheap per request.
+	 */
+	private void sweepPending() {
+		long now = System.currentTimeMillis();
+		Iterator<Pending> it = _hashesPending.values().iterator();
+		while (it.hasNext()) {
+			if (it.next().expired(now)) {
+				it.remove();
+				_stats.increment(StatsEnum.PendingExpired);
+			}
+		}
+		_sweepPendingAt = Math.max(PENDING_SWEEP_SIZE, 2 * _hashesPending.size());
+	}
+	
+	/**
+	 * Call this when a node fetch has timed out. Removes the entry if it is still the one for
+	 * this hash so that the next comparator that needs the node requests it again.
+	 * @param hash
+	 * @param lock the timed out entry
+	 */
+	public void expirePending(byte[] hash, Pending lock) {
+		synchronized (this) {
+			SyncHashEntry she = new SyncHashEntry(hash);
+			if (_hashesPending.get(she) == lock) {
+				_hashesPending.remove(she);
+				_stats.increment(StatsEnum.PendingExpired);
+			}
+		}
+	}
 		
 	/**
-	 * Call this after a node has been returned. It releases the semaphore (allowing waiters to
-	 * continue) and removes the entry from the array of pending node requests
+	 * Call this after a node has been returned. It kicks the waiters and removes the entry
+	 * from the array of pending node requests
 	 * @param hash
 	 */
 	public void clearPending(byte[] hash) {
@@ -117,8 +299,8 @@ public class SyncNodeCache {
 		if (null != lock) {
 			synchronized (lock) {
 				lock.setPending(false);
-				lock.notifyAll();
 			}
+			lock.wakeup();
 		}
 	}
 	
@@ -132,10 +314,72 @@ public class SyncNodeCache {
 			SyncHashEntry she = new SyncHashEntry(hash);
 			lock = _hashesPending.get(she);
 		}
-		if (null != lock) {
-			synchronized (lock) {
-				lock.notifyAll();
-			}
+		if (null != lock)
+			lock.wakeup();
+	}
+
+	// ==============================================================
+	// Statistics
+
+	protected static CCNEnumStats<StatsEnum> _stats = new CCNEnumStats<StatsEnum>(StatsEnum.Hits);
+
+	/**
+	 * The statistics are for the cache shared by the whole process
+	 */
+	public CCNStats getStats() {
+		return _stats;
+	}
+
+	public enum StatsEnum implements IStatsEnum {
+		// ====================================
+		// Just edit this list, dont need to change anything else
+
+		Hits ("nodes", "The number of lookups that found a decoded node"),
+		Misses ("nodes", "The number of lookups that found no decoded node"),
+		Evictions ("nodes", "The number of nodes dropped from the LRU list to keep it within its size"),
+		ResidentBytes ("bytes", "The approximate size of the nodes on the LRU list"),
+		ResidentNodes ("nodes", "The number of nodes in the cache, whether on the LRU list or not"),
+		PendingExpired ("nodes", "The number of node requests forgotten because their fetch timed out"),
+		;
+
+		// ====================================
+		// This is the same for every user of IStatsEnum
+
+		protected final String _units;
+		protected final String _description;
+		protected final static String [] _names;
+
+		static {
+			_names = new String[StatsEnum.values().length];
+			for(StatsEnum stat : StatsEnum.values() )
+				_names[stat.ordinal()] = stat.toString();
+
+		}
+
+		StatsEnum(String units, String description) {
+			_units = units;
+			_description = description;
+		}
+
+		public String getDescription(int index) {
+			return StatsEnum.values()[index]._description;
+		}
+
+		public int getIndex(String name) {
+			StatsEnum x = StatsEnum.valueOf(name);
+			return x.ordinal();
+		}
+
+		public String getName(int index) {
+			return StatsEnum.values()[index].toString();
+		}
+
+		public String getUnits(int index) {
+			return StatsEnum.values()[index]._units;
+		}
+
+		public String [] getNames() {
+			return _names;
 		}
 	}
 }
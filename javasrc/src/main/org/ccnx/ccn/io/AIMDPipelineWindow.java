@@ -0,0 +1,48 @@
+/*
+ * Part of the CCNx Java Library.
+ *
+ * Copyright (C) 2013 Palo Alto Research Center, Inc.
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version 2.1
+ * as published by the Free Software Foundation.
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details. You should have received
+ * a copy of the GNU Lesser General Public License along with this library;
+ * if not, write to the Free Software Foundation, Inc., 51 Franklin Street,
+ * Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package org.ccnx.ccn.io;
+
+/**
+ * Additive increase, multiplicative decrease pipeline window, as in TCP Reno.
+ * The window grows by one segment per delivery until it reaches the slow start
+ * threshold and by one segment per window after that. A hole halves the window;
+ * a timeout sets it back to the minimum and starts slow start again.
+ */
+public class AIMDPipelineWindow extends PipelineWindow {
+
+	protected double _slowStartThreshold;
+
+	public AIMDPipelineWindow(int initialWindow, int maxWindow) {
+		super(initialWindow, maxWindow);
+		_slowStartThreshold = maxWindow;
+	}
+
+	@Override
+	protected void increase() {
+		if (_window < _slowStartThreshold)
+			setWindow(_window + 1);
+		else
+			setWindow(_window + 1 / _window);
+	}
+
+	@Override
+	protected void decrease(boolean timeout) {
+		_slowStartThreshold = Math.max(MIN_WINDOW, _window / 2);
+		setWindow(timeout ? MIN_WINDOW : _slowStartThreshold);
+	}
+}
@@ -25,6 +25,7 @@ import java.security.InvalidKeyException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.EnumSet;
+import java.util.HashSet;
 import java.util.logging.Level;
 
 import javax.crypto.BadPaddingException;
@@ -37,6 +38,7 @@ import org.ccnx.ccn.CCNHandle;
 import org.ccnx.ccn.config.SystemConfiguration;
 import org.ccnx.ccn.impl.QueuedContentHandler;
 import org.ccnx.ccn.impl.security.crypto.ContentKeys;
+import org.ccnx.ccn.impl.security.crypto.MerkleRootVerifier;
 import org.ccnx.ccn.impl.support.DataUtils;
 import org.ccnx.ccn.impl.support.Log;
 import org.ccnx.ccn.io.content.Link.LinkObject;
@@ -140,10 +142,9 @@ public abstract class CCNAbstractInputStream extends InputStream implements CCNC
 	 * data as follows: store the currently-verified root signature, so we don't have to re-verify it;
 	 * and the verified root hash. For each piece of incoming content, see if it aggregates
 	 * to the same root, if so don't reverify signature. If not, assume it's part of
-	 * a new tree and change the root.
+	 * a new tree and change the root. Created on first use from the handle's default verifier.
 	 */
-	protected byte [] _verifiedRootSignature = null;
-	protected byte [] _verifiedProxy = null;
+	protected MerkleRootVerifier _segmentVerifier = null;
 
 	protected boolean _atEOF = false;
 
@@ -172,6 +173,11 @@ public abstract class CCNAbstractInputStream extends InputStream implements CCNC
 
 	private double avgResponseTime = -1;
 
+	private final PipelineWindow _window = PipelineWindow.create();
+
+	// Segments we have asked for more than once, guarded by processingSegmentLock
+	private final HashSet<Long> _reexpressedSegments = new HashSet<Long>();
+
 	private final Object processingSegmentLock = new Object();
 	private long processingSegment = -1;
 
@@ -297,7 +303,7 @@ public abstract class CCNAbstractInputStream extends InputStream implements CCNC
 
 			_pipelineStartTime = System.currentTimeMillis();
 			if (SystemConfiguration.PIPELINE_STATS)
-				System.out.println("plot "+(System.currentTimeMillis() - _pipelineStartTime)+" inOrder: "+inOrderSegments.size() +" outOfOrder: "+outOfOrderSegments.size() + " interests: "+_sentInterests.size() +" holes: "+_holes + " received: "+_totalReceived+" ["+_baseName+"].1"+ "avgResponseTime "+avgResponseTime);
+				System.out.println("plot "+(System.currentTimeMillis() - _pipelineStartTime)+" inOrder: "+inOrderSegments.size() +" outOfOrder: "+outOfOrderSegments.size() + " interests: "+_sentInterests.size() +" holes: "+_holes + " received: "+_totalReceived+" ["+_baseName+"].1"+ "avgResponseTime "+avgResponseTime + " window " + _window.window());
 
 			long segmentToGet = -1;
 			Interest interest = null;
@@ -395,6 +401,7 @@ public abstract class CCNAbstractInputStream extends InputStream implements CCNC
 				//this is the next segment in order
 				inOrderSegments.add(co);
 				_lastInOrderSegment = returnedSegment;
+				_window.segmentDelivered(co.contentLength());
 				//do we have any out of order segments to move over?
 				if (Log.isLoggable(Log.FAC_PIPELINE, Level.INFO)) {
 					Log.info(Log.FAC_PIPELINE, "PIPELINE: before checking ooos:" );
@@ -409,7 +416,9 @@ public abstract class CCNAbstractInputStream extends InputStream implements CCNC
 					while (outOfOrderSegments.size() > 0 ) {
 						if(SegmentationProfile.getSegmentNumber(outOfOrderSegments.get(0).name()) == nextInOrderSegmentNeeded()) {
 							_lastInOrderSegment = SegmentationProfile.getSegmentNumber(outOfOrderSegments.get(0).name());
-							inOrderSegments.add(outOfOrderSegments.remove(0));
+							ContentObject filled = outOfOrderSegments.remove(0);
+							inOrderSegments.add(filled);
+							_window.segmentDelivered(filled.contentLength());
 						} else {
 							//the first one isn't what we wanted..
 							if (Log.isLoggable(Log.FAC_PIPELINE, Level.INFO)) {
@@ -441,6 +450,7 @@ public abstract class CCNAbstractInputStream extends InputStream implements CCNC
 						Log.info(Log.FAC_PIPELINE, "PIPELINE: this is a pipeline segment, add to outOfOrderSegment queue");
 					_totalReceived++;
 					_holes++;
+					_window.holeDetected();
 					int i = 0;
 					for (ContentObject c:outOfOrderSegments) {
 						if(returnedSegment < SegmentationProfile.getSegmentNumber(c.name()))
@@ -490,7 +500,7 @@ public abstract class CCNAbstractInputStream extends InputStream implements CCNC
 
 			Interest i = null;
 
-			while (_sentInterests.size() + inOrderSegments.size() + outOfOrderSegments.size() + processingDefer < SystemConfiguration.PIPELINE_SIZE && !doneAdvancing) {
+			while (_sentInterests.size() + inOrderSegments.size() + outOfOrderSegments.size() + processingDefer < _window.window() && !doneAdvancing) {
 				if (Log.isLoggable(Log.FAC_PIPELINE, Level.INFO))
 					Log.info(Log.FAC_PIPELINE, "PIPELINE: _sentInterests.size() = {0} inOrderSegments.size() = {1} outOfOrderSegments.size()  = {2} processingDefer = {3} total = {4}", _sentInterests.size(), inOrderSegments.size(), outOfOrderSegments.size(), processingDefer, (_sentInterests.size() + inOrderSegments.size() + outOfOrderSegments.size() + processingDefer) );
 
@@ -523,7 +533,7 @@ public abstract class CCNAbstractInputStream extends InputStream implements CCNC
 						_sentInterests.add(i);
 						_lastRequestedPipelineSegment++;
 						if (Log.isLoggable(Log.FAC_PIPELINE, Level.INFO))
-							Log.info(Log.FAC_PIPELINE, "PIPELINE: requested segment "+_lastRequestedPipelineSegment +" ("+(SystemConfiguration.PIPELINE_SIZE - _sentInterests.size())+" tokens)");
+							Log.info(Log.FAC_PIPELINE, "PIPELINE: requested segment "+_lastRequestedPipelineSegment +" ("+(_window.window() - _sentInterests.size())+" tokens)");
 					} catch (IOException e) {
 						// This could happen if the handle got closed underneath us - maybe that's OK?
 						// For now will leave it as a warning
@@ -689,7 +699,7 @@ public abstract class CCNAbstractInputStream extends InputStream implements CCNC
 							_handle.cancelInterest(toDelete, this);
 							_sentInterests.remove(toDelete);
 
-							adjustAvgResponseTimeForHole();
+							adjustAvgResponseTimeForHole(hole, elapsed2);
 
 							if (Log.isLoggable(Log.FAC_PIPELINE, Level.INFO)) {
 								Log.info(Log.FAC_PIPELINE, "PIPELINE: expressed: {0} deleted: {1}", i, toDelete);
@@ -742,7 +752,7 @@ public abstract class CCNAbstractInputStream extends InputStream implements CCNC
 					// interest
 					if (index != -1) {
 						_handle.cancelInterest(_sentInterests.remove(index+1), this);
-						adjustAvgResponseTimeForHole();
+						adjustAvgResponseTimeForHole(hole, elapsed1);
 					}
 
 					if (Log.isLoggable(Log.FAC_PIPELINE, Level.INFO))
@@ -760,11 +770,25 @@ public abstract class CCNAbstractInputStream extends InputStream implements CCNC
 		}
 	}
 
-	private void adjustAvgResponseTimeForHole() {
+	/**
+	 * Called after we reexpress the interest for a hole.
+	 * @param hole the segment we asked for again
+	 * @param elapsed how long ago we first asked for it
+	 */
+	private void adjustAvgResponseTimeForHole(long hole, long elapsed) {
 		synchronized (processingSegmentLock) {
 			Log.info(Log.FAC_PIPELINE, "PIPELINE: before adjusting avgResponseTime for hole. avgResponseTime = {0}", avgResponseTime);
 			avgResponseTime = 0.9 * avgResponseTime + 0.1 * (SystemConfiguration.PIPELINE_RTTFACTOR * avgResponseTime);
 			Log.info(Log.FAC_PIPELINE, "PIPELINE: after adjusting avgResponseTime for hole. avgResponseTime = {0}", avgResponseTime);
+			_reexpressedSegments.add(hole);
+		}
+		// Usually we reexpress well before the interest would have timed out, and the hole
+		// has already shrunk the window. Only an interest that went unanswered for its
+		// whole lifetime counts as a timeout.
+		if (elapsed >= SystemConfiguration.INTEREST_REEXPRESSION_DEFAULT) {
+			_window.timeout();
+			if (Log.isLoggable(Log.FAC_PIPELINE, Level.INFO))
+				Log.info(Log.FAC_PIPELINE, "PIPELINE: interest for segment {0} timed out: {1}", hole, _window);
 		}
 	}
 
@@ -914,7 +938,7 @@ public abstract class CCNAbstractInputStream extends InputStream implements CCNC
 					interest.userTime = System.currentTimeMillis();
 					_handle.expressInterest(interest, this);
 					ArrayList<Object> toRemove = new ArrayList<Object>();
-					long maxExpress = segmentNumber + SystemConfiguration.PIPELINE_SIZE-1;
+					long maxExpress = segmentNumber + _window.window()-1;
 					long lastExpressed = segmentNumber;
 					long segNum;
 					for (Interest i: _sentInterests) {
@@ -1044,6 +1068,9 @@ public abstract class CCNAbstractInputStream extends InputStream implements CCNC
 					Log.info(Log.FAC_PIPELINE, "PIPELINE: canceling interest: {0}", i);
 			}
 			_sentInterests.clear();
+			synchronized (processingSegmentLock) {
+				_reexpressedSegments.clear();
+			}
 		}
 	}
 
@@ -1491,7 +1518,7 @@ public abstract class CCNAbstractInputStream extends InputStream implements CCNC
 			if (_baseName.equals(_basePipelineName)) {
 				// we already have the base name...
 				if (SystemConfiguration.PIPELINE_STATS)
-					System.out.println("plot " + (System.currentTimeMillis() - _pipelineStartTime) + " inOrder: " + inOrderSegments.size() + " outOfOrder: " + outOfOrderSegments.size() + " interests: " + _sentInterests.size() + " holes: " + _holes + " received: " + _totalReceived + " [" + _baseName + "].3" +" avgResponseTime "+avgResponseTime);
+					System.out.println("plot " + (System.currentTimeMillis() - _pipelineStartTime) + " inOrder: " + inOrderSegments.size() + " outOfOrder: " + outOfOrderSegments.size() + " interests: " + _sentInterests.size() + " holes: " + _holes + " received: " + _totalReceived + " [" + _baseName + "].3" +" avgResponseTime "+avgResponseTime + " window " + _window.window());
 			} else {
 				// we don't have the base name... set for pipelining.
 				Log.info(Log.FAC_PIPELINE, "PIPELINE: in getSegment and we detected a name change.  _baseName: {0} _basePipelineName: {1}", _baseName, _basePipelineName);
@@ -1737,6 +1764,25 @@ public abstract class CCNAbstractInputStream extends InputStream implements CCNC
 	 */
 	public synchronized LinkObject getDereferencedLink() { return _dereferencedLink; }
 
+	/**
+	 * The window controlling this stream's segment pipeline, which also reports its
+	 * current size, round trip time estimate and throughput.
+	 * @return the pipeline window
+	 * @see SystemConfiguration#PIPELINE_WINDOW
+	 */
+	public PipelineWindow getPipelineWindow() { return _window; }
+
+	/**
+	 * The verifier for segments arriving through the pipeline, which checks each
+	 * Merkle root signature only once per batch.
+	 * @return the segment verifier
+	 */
+	public MerkleRootVerifier segmentVerifier() {
+		if (null == _segmentVerifier)
+			_segmentVerifier = new MerkleRootVerifier(_handle.defaultVerifier());
+		return _segmentVerifier;
+	}
+
 	/**
 	 * Use only if you know what you are doing.
 	 */
@@ -2099,13 +2145,22 @@ public abstract class CCNAbstractInputStream extends InputStream implements CCNC
 				}
 				Log.info(Log.FAC_PIPELINE, "PIPELINE: after adjusting avgResponseTime after reception. avgResponseTime = {0}", avgResponseTime);
 
+				// Karn's rule: once we have asked for a segment more than once we can't tell
+				// which expression the answer is for, so its response time says nothing about
+				// the round trip. Reexpressed interests also keep the original expression time,
+				// so their response times would overstate it.
+				long segment = SegmentationProfile.getSegmentNumber(result.name());
+				boolean reexpressed = _reexpressedSegments.remove(segment);
+				if (!reexpressed && interest.exclude() == null && interest.userTime > 0)
+					_window.rttSample(starttime - interest.userTime);
+
 				interest.userTime = -1;
 
 				if (Log.isLoggable(Log.FAC_PIPELINE, Level.INFO))
 					Log.info(Log.FAC_PIPELINE, "PIPELINE: in handleContent after reading {0} avgResponseTime {1}", result.name(), avgResponseTime);
 				is = new IncomingSegment(result, interest);
 
-				processingSegment = SegmentationProfile.getSegmentNumber(is.content.name());
+				processingSegment = segment;
 			}
 
 			synchronized(inOrderSegments){
@@ -2114,7 +2169,7 @@ public abstract class CCNAbstractInputStream extends InputStream implements CCNC
 				//synchronized(inOrderSegments) {
 
 				if (SystemConfiguration.PIPELINE_STATS)
-					System.out.println("plot "+(System.currentTimeMillis() - _pipelineStartTime)+" inOrder: "+inOrderSegments.size() +" outOfOrder: "+outOfOrderSegments.size() + " interests: "+_sentInterests.size() +" holes: "+_holes + " received: "+_totalReceived+" ["+_baseName+"].2" + " avgResponseTime "+avgResponseTime);
+					System.out.println("plot "+(System.currentTimeMillis() - _pipelineStartTime)+" inOrder: "+inOrderSegments.size() +" outOfOrder: "+outOfOrderSegments.size() + " interests: "+_sentInterests.size() +" holes: "+_holes + " received: "+_totalReceived+" ["+_baseName+"].2" + " avgResponseTime "+avgResponseTime + " window " + _window.window());
 
 				if (_sentInterests.remove(is.interest)) {
 					//we had this interest outstanding...
@@ -2148,7 +2203,7 @@ public abstract class CCNAbstractInputStream extends InputStream implements CCNC
 
 				if (is != null) {
 					// verify the content object
-					if (_handle.defaultVerifier().verify(is.content)) {
+					if (segmentVerifier().verify(is.content)) {
 						// this content verified
 						receivePipelineContent(is.content);
 					} else {
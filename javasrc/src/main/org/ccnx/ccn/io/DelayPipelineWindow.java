@@ -0,0 +1,57 @@
+/*
+ * Part of the CCNx Java Library.
+ *
+ * Copyright (C) 2013 Palo Alto Research Center, Inc.
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version 2.1
+ * as published by the Free Software Foundation.
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details. You should have received
+ * a copy of the GNU Lesser General Public License along with this library;
+ * if not, write to the Free Software Foundation, Inc., 51 Franklin Street,
+ * Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package org.ccnx.ccn.io;
+
+/**
+ * Delay based pipeline window, along the lines of TCP Vegas. From the smallest and the
+ * smoothed round trip times we estimate how many of our segments are queued in the
+ * network, and steer the window to keep that between ALPHA and BETA segments.
+ * Holes and timeouts still back off like AIMDPipelineWindow.
+ */
+public class DelayPipelineWindow extends PipelineWindow {
+
+	public static final double ALPHA = 1;
+	public static final double BETA = 3;
+
+	public DelayPipelineWindow(int initialWindow, int maxWindow) {
+		super(initialWindow, maxWindow);
+	}
+
+	/**
+	 * @return estimated number of our segments waiting in queues, or -1 if we have no samples
+	 */
+	public synchronized double queued() {
+		if (_srtt <= 0 || _minRtt < 0)
+			return -1;
+		return _window * (1 - _minRtt / _srtt);
+	}
+
+	@Override
+	protected void increase() {
+		double queued = queued();
+		if (queued < ALPHA)
+			setWindow(_window + 1 / _window);
+		else if (queued > BETA)
+			setWindow(_window - 1 / _window);
+	}
+
+	@Override
+	protected void decrease(boolean timeout) {
+		setWindow(timeout ? MIN_WINDOW : _window / 2);
+	}
+}
@@ -0,0 +1,204 @@
+/*
+ * Part of the CCNx Java Library.
+ *
+ * Copyright (C) 2013 Palo Alto Research Center, Inc.
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version 2.1
+ * as published by the Free Software Foundation.
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details. You should have received
+ * a copy of the GNU Lesser General Public License along with this library;
+ * if not, write to the Free Software Foundation, Inc., 51 Franklin Street,
+ * Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package org.ccnx.ccn.io;
+
+import java.util.logging.Level;
+
+import org.ccnx.ccn.config.SystemConfiguration;
+import org.ccnx.ccn.impl.support.Log;
+
+/**
+ * Decides how many segments CCNAbstractInputStream may have outstanding or buffered.
+ * This base class is a fixed window of SystemConfiguration.PIPELINE_SIZE segments;
+ * subclasses adapt the window as segments arrive, holes appear and interests time out.
+ *
+ * The window also keeps a round trip time estimate and the delivered throughput
+ * for its stream so that the pipeline can be tuned.
+ *
+ * @see AIMDPipelineWindow
+ * @see DelayPipelineWindow
+ */
+public class PipelineWindow {
+
+	public static final String FIXED = "fixed";
+	public static final String AIMD = "aimd";
+	public static final String DELAY = "delay";
+
+	/**
+	 * Adaptive windows never shrink below this, so a stream always has some pipelining.
+	 */
+	public static final int MIN_WINDOW = 2;
+
+	protected double _window;
+	protected final int _maxWindow;
+
+	protected double _srtt = -1;
+	protected double _rttVariance = 0;
+	protected double _minRtt = -1;
+
+	protected long _delivered = 0;
+	protected long _deliveredBytes = 0;
+	protected long _firstDelivery = -1;
+	protected long _lastDelivery = -1;
+
+	// We back off at most once per window of delivered segments; a burst of holes or
+	// timeouts is usually a single congestion event.
+	private long _recoveryPoint = 0;
+
+	/**
+	 * Make the window configured by SystemConfiguration.PIPELINE_WINDOW.
+	 */
+	public static PipelineWindow create() {
+		int initial = SystemConfiguration.PIPELINE_SIZE;
+		int max = Math.max(initial, SystemConfiguration.PIPELINE_MAX_SIZE);
+		String type = SystemConfiguration.PIPELINE_WINDOW;
+		if (FIXED.equalsIgnoreCase(type))
+			return new PipelineWindow(initial, initial);
+		if (DELAY.equalsIgnoreCase(type))
+			return new DelayPipelineWindow(initial, max);
+		if (!AIMD.equalsIgnoreCase(type)) {
+			if (Log.isLoggable(Log.FAC_PIPELINE, Level.WARNING))
+				Log.warning(Log.FAC_PIPELINE, "Unknown pipeline window {0}, using {1}", type, AIMD);
+		}
+		return new AIMDPipelineWindow(initial, max);
+	}
+
+	public PipelineWindow(int initialWindow, int maxWindow) {
+		_window = initialWindow;
+		_maxWindow = maxWindow;
+	}
+
+	/**
+	 * @return the number of segments the stream may currently have in its pipeline
+	 */
+	public synchronized int window() {
+		return (int)_window;
+	}
+
+	/**
+	 * @return the smoothed round trip time in ms, or -1 if we have no samples yet
+	 */
+	public synchronized double rtt() {
+		return _srtt;
+	}
+
+	/**
+	 * @return the smallest round trip time seen in ms, or -1 if we have no samples yet
+	 */
+	public synchronized double minRtt() {
+		return _minRtt;
+	}
+
+	/**
+	 * @return the mean deviation of the round trip time in ms
+	 */
+	public synchronized double rttVariance() {
+		return _rttVariance;
+	}
+
+	/**
+	 * @return content bytes per second delivered in order since the first segment arrived
+	 */
+	public synchronized double throughput() {
+		if (_lastDelivery <= _firstDelivery)
+			return 0;
+		return _deliveredBytes * 1000.0 / (_lastDelivery - _firstDelivery);
+	}
+
+	/**
+	 * @return segments delivered in order so far
+	 */
+	public synchronized long delivered() {
+		return _delivered;
+	}
+
+	/**
+	 * Record the response time of an interest. Callers should leave out responses to
+	 * reexpressed interests, as we can't tell which expression they answer.
+	 * @param rtt response time in ms
+	 */
+	public synchronized void rttSample(long rtt) {
+		if (rtt < 0)
+			return;
+		if (_srtt < 0) {
+			_srtt = rtt;
+			_rttVariance = rtt / 2.0;
+		} else {
+			_rttVariance = 0.75 * _rttVariance + 0.25 * Math.abs(_srtt - rtt);
+			_srtt = 0.875 * _srtt + 0.125 * rtt;
+		}
+		if (_minRtt < 0 || rtt < _minRtt)
+			_minRtt = rtt;
+	}
+
+	/**
+	 * A segment became available to the reader in order.
+	 * @param length content length of the segment
+	 */
+	public synchronized void segmentDelivered(int length) {
+		long now = System.currentTimeMillis();
+		if (_firstDelivery < 0)
+			_firstDelivery = now;
+		_lastDelivery = now;
+		_delivered++;
+		_deliveredBytes += length;
+		increase();
+	}
+
+	/**
+	 * A segment arrived ahead of one we are still waiting for.
+	 */
+	public synchronized void holeDetected() {
+		if (_delivered < _recoveryPoint)
+			return;
+		decrease(false);
+		_recoveryPoint = _delivered + window();
+	}
+
+	/**
+	 * An interest went unanswered long enough that we reexpressed it.
+	 */
+	public synchronized void timeout() {
+		if (_delivered < _recoveryPoint)
+			return;
+		decrease(true);
+		_recoveryPoint = _delivered + window();
+	}
+
+	/**
+	 * Grow the window after an in order delivery. The fixed window does nothing.
+	 */
+	protected void increase() {
+	}
+
+	/**
+	 * Shrink the window after a hole or timeout. The fixed window does nothing.
+	 * @param timeout true if an interest timed out rather than a segment arriving out of order
+	 */
+	protected void decrease(boolean timeout) {
+	}
+
+	protected void setWindow(double window) {
+		_window = Math.max(MIN_WINDOW, Math.min(_maxWindow, window));
+	}
+
+	@Override
+	public synchronized String toString() {
+		return getClass().getSimpleName() + " window: " + window() + " rtt: " + _srtt + " throughput: " + throughput();
+	}
+}
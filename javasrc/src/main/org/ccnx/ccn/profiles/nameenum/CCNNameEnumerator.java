@@ -21,7 +21,6 @@ import static org.ccnx.ccn.profiles.CommandMarker.COMMAND_MARKER_BASIC_ENUMERATI
 
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.LinkedList;
 import java.util.logging.Level;
 
 import org.ccnx.ccn.CCNContentHandler;
@@ -30,6 +29,7 @@ import org.ccnx.ccn.CCNHandle;
 import org.ccnx.ccn.CCNInterestHandler;
 import org.ccnx.ccn.impl.QueuedContentHandler;
 import org.ccnx.ccn.impl.support.Log;
+import org.ccnx.ccn.io.CCNVersionedInputStream;
 import org.ccnx.ccn.io.content.ContentDecodingException;
 import org.ccnx.ccn.io.content.Link;
 import org.ccnx.ccn.io.content.Collection.CollectionObject;
@@ -75,6 +75,12 @@ public class CCNNameEnumerator implements CCNInterestHandler, CCNContentHandler
 	protected ArrayList<ContentName> _registeredNames = new ArrayList<ContentName>();
 	protected NEHandler _neHandler;
 
+	/**
+	 * The most names handed to the listener at once. A response listing a large directory
+	 * is passed on in several calls, as its segments arrive.
+	 */
+	public static final int NAMES_PER_CALLBACK = 1000;
+
 	/**
 	 * A supporting class for CCNNameEnumerator.  NERequest objects hold registered prefixes and
 	 * their corresponding active interests.
@@ -175,9 +181,6 @@ public class CCNNameEnumerator implements CCNInterestHandler, CCNContentHandler
 
 			ner.removeInterest(interest);
 
-			NameEnumerationResponseMessageObject neResponse;
-			ArrayList<ContentName> names = new ArrayList<ContentName>();
-			LinkedList<Link> links;
 			Interest newInterest = interest;
 
 			//update: now supports multiple responders!
@@ -243,28 +246,31 @@ public class CCNNameEnumerator implements CCNInterestHandler, CCNContentHandler
 
 				newInterests.clear();
 
+				CCNVersionedInputStream neResponse = null;
 				try {
 					//need to make sure that the content object we got back is the first segment of the underlying stream.
 					if (SegmentationProfile.isFirstSegment(c.getContentName())) {
-						neResponse = new NameEnumerationResponseMessageObject(c, _handle);
+						neResponse = new CCNVersionedInputStream(c, null, _handle);
 					} else {
-						neResponse = new NameEnumerationResponseMessageObject(SegmentationProfile.segmentRoot(c.getContentName()), _handle);
+						neResponse = new CCNVersionedInputStream(SegmentationProfile.segmentRoot(c.getContentName()), _handle);
 						Log.fine(Log.FAC_SEARCH, "Discovery interest got a content object that wasn't the base segment, stripping off segment number and opening object with name");
 					}
-					links = neResponse.contents();
-					for (Link l: links) {
-						names.add(l.targetName());
-					}
-					//strip off NEMarker before passing through callback
+					//strip off NEMarker before passing through callback, and hand the names on
+					//as the segments arrive
 					//Note: we must not hold any locks here
-					callback.handleNameEnumerator(
-							interest.name().cut(CommandMarker.COMMAND_MARKER_BASIC_ENUMERATION.getBytes()), names);
+					NameEnumerationResponse.readNames(neResponse, prefix, NAMES_PER_CALLBACK, callback);
 				} catch(ContentDecodingException e) {
 					Log.warning(Log.FAC_SEARCH, "Error parsing Collection from ContentObject in CCNNameEnumerator");
 					Log.warningStackTrace(Log.FAC_SEARCH, e);
 				} catch(IOException e) {
 					Log.warning(Log.FAC_SEARCH, "error getting CollectionObject from ContentObject in CCNNameEnumerator.handleContent");
 					Log.warningStackTrace(Log.FAC_SEARCH, e);
+				} finally {
+					if (null != neResponse) {
+						try {
+							neResponse.close();
+						} catch (IOException e) {}
+					}
 				}
 			}
 		}
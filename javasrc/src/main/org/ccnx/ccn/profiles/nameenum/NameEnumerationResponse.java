@@ -17,12 +17,19 @@
 
 package org.ccnx.ccn.profiles.nameenum;
 
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.LinkedList;
 
 import org.ccnx.ccn.CCNHandle;
+import org.ccnx.ccn.impl.CCNFlowControl;
 import org.ccnx.ccn.impl.CCNFlowControl.SaveType;
+import org.ccnx.ccn.impl.encoding.BinaryXMLCodec;
+import org.ccnx.ccn.impl.encoding.CCNProtocolDTags;
 import org.ccnx.ccn.io.ErrorStateException;
 import org.ccnx.ccn.io.content.CCNEncodableObject;
 import org.ccnx.ccn.io.content.Collection;
@@ -49,6 +56,8 @@ public class NameEnumerationResponse {
 	private ContentName _prefix;
 	private ArrayList<ContentName> _names;
 	private CCNTime _version;
+	private NameEnumerationResponseMessage _message = null;
+	private ArrayList<ContentObject> _segments = null;
 	
 	/**
 	 * Inner class to slightly modify the collection type used to respond to NE
@@ -75,6 +84,10 @@ public class NameEnumerationResponse {
 				super(NameEnumerationResponseMessage.class, true, name, data, SaveType.RAW, publisher, keyLocator, handle);
 			}
 
+			public NameEnumerationResponseMessageObject(ContentName name, NameEnumerationResponseMessage data, CCNFlowControl flowControl) throws IOException {
+				super(NameEnumerationResponseMessage.class, true, name, data, null, null, flowControl);
+			}
+
 			public NameEnumerationResponseMessageObject(ContentName name, java.util.Collection<Link> contents, 
 									PublisherPublicKeyDigest publisher, KeyLocator keyLocator, CCNHandle handle) throws IOException {
 				this(name, new NameEnumerationResponseMessage(contents), publisher, keyLocator, handle);
@@ -194,6 +207,7 @@ public class NameEnumerationResponse {
 	 */
 	public void setPrefix(ContentName p) {
 		_prefix = p;
+		_segments = null;
 	}
 	
 	/**
@@ -204,6 +218,8 @@ public class NameEnumerationResponse {
 	 */
 	public void setNameList(ArrayList<ContentName> n) {
 		_names = n;
+		_message = null;
+		_segments = null;
 	}
 	
 	/**
@@ -211,20 +227,22 @@ public class NameEnumerationResponse {
 	 */
 	public void add(ContentName name) {
 		_names.add(name);
+		_message = null;
+		_segments = null;
 	}
 	
 	/**
 	 * Add a single-component name to the list.
 	 */
 	public void add(byte [] name) {
-		_names.add(new ContentName(name));
+		add(new ContentName(name));
 	}
 	
 	/**
 	 * Add a single-component name to the list.
 	 */
 	public void add(String name) {
-		_names.add(new ContentName(name));
+		add(new ContentName(name));
 	}
 	
 	/**
@@ -253,6 +271,7 @@ public class NameEnumerationResponse {
 	 */
 	public void setTimestamp(CCNTime ts) {
 		_version = ts;
+		_segments = null;
 	}
 	
 	
@@ -266,12 +285,35 @@ public class NameEnumerationResponse {
 	}
 	
 	/**
-	 * Method to return a Collection object for the names in the response
+	 * Method to return a Collection object for the names in the response. The collection is
+	 * built once and handed out again until the names change, so it must not be modified.
 	 * 
 	 * @return Collection A collection of the names (as Link objects) to return.
 	 */
-	public NameEnumerationResponseMessage getNamesForResponse() {
-		return new NameEnumerationResponseMessage(_names);
+	public synchronized NameEnumerationResponseMessage getNamesForResponse() {
+		if (null == _message)
+			_message = new NameEnumerationResponseMessage(_names);
+		return _message;
+	}
+	
+	/**
+	 * Get the signed segments this response was last written out as, so they can be sent
+	 * again without encoding and signing the names once more.
+	 * 
+	 * @return the segments, or null if the response hasn't been written since it last changed
+	 */
+	public synchronized ArrayList<ContentObject> getResponseSegments() {
+		return _segments;
+	}
+	
+	/**
+	 * Remember the signed segments this response was written out as. They are forgotten
+	 * if the prefix, names or timestamp change.
+	 * 
+	 * @param segments the segments in the order they were written
+	 */
+	public synchronized void setResponseSegments(ArrayList<ContentObject> segments) {
+		_segments = segments;
 	}
 	
 	/**
@@ -287,4 +329,62 @@ public class NameEnumerationResponse {
 			return false;
 	}
 	
+	/**
+	 * Read the names in an encoded response as they arrive rather than decoding the whole
+	 * response first, handing them to the listener a batch at a time. A response for a
+	 * large directory spans many segments, and this lets the listener start on the first
+	 * names while the rest are still on their way, without holding all the links at once.
+	 * 
+	 * @param istream the encoded response, usually a stream reading its segments
+	 * @param prefix the prefix passed to the listener
+	 * @param batchSize the most names to hand to the listener in one call
+	 * @param listener gets each batch of names. It owns each list it is given.
+	 * @return the number of names read
+	 * @throws ContentDecodingException if the response isn't a collection of links
+	 * @throws IOException on errors reading the stream
+	 */
+	public static int readNames(InputStream istream, ContentName prefix, int batchSize, 
+								BasicNameEnumeratorListener listener) throws ContentDecodingException, IOException {
+		if (!istream.markSupported())
+			istream = new BufferedInputStream(istream);
+		ByteArrayOutputStream tag = new ByteArrayOutputStream();
+		BinaryXMLCodec.encodeTypeAndVal(BinaryXMLCodec.XML_DTAG, CCNProtocolDTags.Collection, tag);
+		byte [] start = tag.toByteArray();
+		byte [] header = new byte[start.length];
+		int read = 0;
+		while (read < header.length) {
+			int count = istream.read(header, read, header.length - read);
+			if (count < 0) {
+				if (0 == read)
+					return 0;	// empty response
+				break;
+			}
+			read += count;
+		}
+		if (!Arrays.equals(start, header))
+			throw new ContentDecodingException("Name enumeration response is not a collection");
+		
+		int total = 0;
+		ArrayList<ContentName> names = new ArrayList<ContentName>();
+		while (true) {
+			istream.mark(1);
+			int next = istream.read();
+			if (next < 0)
+				throw new ContentDecodingException("Name enumeration response ended early after " + total + " names");
+			if (BinaryXMLCodec.XML_CLOSE == next)
+				break;
+			istream.reset();
+			Link link = new Link();
+			link.decode(istream);
+			names.add(link.targetName());
+			total++;
+			if (names.size() >= batchSize) {
+				listener.handleNameEnumerator(prefix, names);
+				names = new ArrayList<ContentName>();
+			}
+		}
+		if (names.size() > 0)
+			listener.handleNameEnumerator(prefix, names);
+		return total;
+	}
 }
@@ -18,10 +18,12 @@
 package org.ccnx.ccn.protocol;
 
 import java.io.Serializable;
+import java.lang.ref.WeakReference;
 import java.net.URISyntaxException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Iterator;
+import java.util.WeakHashMap;
 
 import org.ccnx.ccn.impl.encoding.CCNProtocolDTags;
 import org.ccnx.ccn.impl.encoding.GenericXMLEncodable;
@@ -39,6 +41,12 @@ import org.ccnx.ccn.io.content.ContentEncodingException;
  * Warning: This class is designed to be immutable. Some methods expose the internal
  * byte[] components. You must be careful not to change the contents of these byte[]
  * when you receive the values back from this class.
+ *
+ * Names are used as map keys almost everywhere, so the hash code is computed once and
+ * comparisons check for shared component arrays before looking at bytes. Names built from a
+ * parent share the parent's component arrays. Long lived names (registered prefixes, for
+ * example) can be {@link #intern()}ed, so that equal names and their prefixes share the same
+ * components and compare without touching the bytes.
  */
 public class ContentName extends GenericXMLEncodable implements XMLEncodable, Comparable<ContentName>, Serializable, ContentNameProvider, Iterable<byte []> {
 
@@ -61,6 +69,12 @@ public class ContentName extends GenericXMLEncodable implements XMLEncodable, Co
 	// Goal is to make this final in the future.
 	protected byte[][]  _components;
 
+	// Cached hash code, 0 until computed
+	private transient int _hash;
+
+	private static final WeakHashMap<ContentName, WeakReference<ContentName>> _internPool =
+		new WeakHashMap<ContentName, WeakReference<ContentName>>();
+
 	// Constructors
 	/**
 	 * Will become private in future. Today used together with {@link #decode(XMLDecoder)}
@@ -849,6 +863,7 @@ public class ContentName extends GenericXMLEncodable implements XMLEncodable, Co
 
 		decoder.readEndElement();
 		_components = components.toArray(new byte[components.size()][]);
+		_hash = 0;
 	}
 
 	/**
@@ -871,8 +886,12 @@ public class ContentName extends GenericXMLEncodable implements XMLEncodable, Co
 			return false;
 		if (count > name._components.length)
 			return false;
+		byte [][] components = _components;
+		byte [][] otherComponents = name._components;
+		if (components == otherComponents)
+			return true;
 		for (int i=0; i < count; ++i) {
-			if (!Arrays.equals(name.component(i), component(i)))
+			if (!componentEquals(otherComponents[i], (i < components.length) ? components[i] : null))
 				return false;
 		}
 		return true;
@@ -914,12 +933,67 @@ public class ContentName extends GenericXMLEncodable implements XMLEncodable, Co
 				return false;
 		}
 		ContentName other = (ContentName) obj;
-		return Arrays.deepEquals(_components, other._components);
+		if (this == other || _components == other._components)
+			return true;
+		if (_components.length != other._components.length)
+			return false;
+		if (0 != _hash && 0 != other._hash && _hash != other._hash)
+			return false;
+		for (int i = _components.length - 1; i >= 0; i--) {
+			// Names mostly differ at the end
+			if (!componentEquals(_components[i], other._components[i]))
+				return false;
+		}
+		return true;
 	}
 
+	/**
+	 * Same value as Arrays.deepHashCode of the components, computed once.
+	 */
 	@Override
 	public int hashCode() {
-		return Arrays.deepHashCode(_components);
+		int hash = _hash;
+		if (0 == hash) {
+			hash = Arrays.deepHashCode(_components);
+			_hash = hash;
+		}
+		return hash;
+	}
+
+	private static boolean componentEquals(byte [] left, byte [] right) {
+		return (left == right) || Arrays.equals(left, right);
+	}
+
+	/**
+	 * Returns a canonical name equal to this one. Interned names share their component
+	 * arrays with the interned names of their prefixes, so comparing interned names, or
+	 * names built from them, usually doesn't need to look at the component bytes.
+	 * The pool holds its names weakly.
+	 *
+	 * @return the interned name, always a plain ContentName
+	 */
+	public ContentName intern() {
+		synchronized (_internPool) {
+			return internLocked();
+		}
+	}
+
+	private ContentName internLocked() {
+		WeakReference<ContentName> ref = _internPool.get(this);
+		ContentName interned = (null == ref) ? null : ref.get();
+		if (null != interned)
+			return interned;
+		interned = new ContentName();
+		int count = _components.length;
+		if (count > 0) {
+			ContentName parent = cut(count - 1).internLocked();
+			interned._components = new byte[count][];
+			System.arraycopy(parent._components, 0, interned._components, 0, count - 1);
+			interned._components[count - 1] = _components[count - 1];
+		}
+		interned._hash = _hash;
+		_internPool.put(interned, new WeakReference<ContentName>(interned));
+		return interned;
 	}
 
 	/**
@@ -1195,7 +1269,7 @@ public class ContentName extends GenericXMLEncodable implements XMLEncodable, Co
 		for (int i = 0; i < count(); i++) {
 			if (otherLength < i)
 				break;
-			if (!Arrays.equals(_components[i], name.component(i)))
+			if (!componentEquals(_components[i], name._components[i]))
 				break;
 			length++;
 		}
@@ -1250,18 +1324,23 @@ public class ContentName extends GenericXMLEncodable implements XMLEncodable, Co
 	}
 
 	public int compareTo(ContentName o) {
-		if (this == o)
+		if (this == o || _components == o._components)
 			return 0;
-		int thisCount = _components.length;
-		int oCount = o._components.length;
-		int len = (thisCount > oCount) ? thisCount : oCount;
+		byte [][] components = _components;
+		byte [][] oComponents = o._components;
+		int len = (components.length < oComponents.length) ? components.length : oComponents.length;
 		int componentResult;
 		for (int i=0; i < len; ++i) {
-			componentResult = DataUtils.compare(this.component(i), o.component(i));
+			if (components[i] == oComponents[i])
+				continue;
+			componentResult = DataUtils.compare(components[i], oComponents[i]);
 			if (0 != componentResult)
 				return componentResult;
 		}
-		return 0;
+		// A prefix sorts before the longer name
+		if (components.length == oComponents.length)
+			return 0;
+		return (components.length < oComponents.length) ? -1 : 1;
 	}
 
 	/**
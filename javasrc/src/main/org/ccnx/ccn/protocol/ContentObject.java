@@ -42,6 +42,7 @@ import org.ccnx.ccn.impl.encoding.XMLEncodable;
 import org.ccnx.ccn.impl.encoding.XMLEncoder;
 import org.ccnx.ccn.impl.security.crypto.CCNDigestHelper;
 import org.ccnx.ccn.impl.security.crypto.CCNSignatureHelper;
+import org.ccnx.ccn.impl.security.keys.VerifiedContentCache;
 import org.ccnx.ccn.impl.support.DataUtils;
 import org.ccnx.ccn.impl.support.Log;
 import org.ccnx.ccn.io.NullOutputStream;
@@ -606,12 +607,24 @@ public class ContentObject extends GenericXMLEncodable implements XMLEncodable,
 		return result;
 	}
 	
+	/**
+	 * Verify an object with the key its publisher is known by to this key manager.
+	 * Objects that have verified before are remembered by the key manager's
+	 * VerifiedContentCache and are not verified again.
+	 */
 	public static boolean verify(ContentObject object,
 								 KeyManager keyManager) throws SignatureException, InvalidKeyException, 
 					NoSuchAlgorithmException, ContentEncodingException {
 		try {
 			if (null == keyManager)
 				keyManager = KeyManager.getDefaultKeyManager();
+
+			VerifiedContentCache verifiedContent = null;
+			if (null != keyManager.getPublicKeyCache()) {
+				verifiedContent = keyManager.getPublicKeyCache().getVerifiedContentCache();
+				if (verifiedContent.isVerified(object))
+					return true;
+			}
 			
 			Key verificationKey = keyManager.getVerificationKey(
 					object.signedInfo().getPublisherKeyID(),
@@ -623,7 +636,10 @@ public class ContentObject extends GenericXMLEncodable implements XMLEncodable,
 						object.signedInfo().getKeyLocator());
 			}
 			
-			return verify(object, verificationKey);
+			boolean result = verify(object, verificationKey);
+			if (result && (null != verifiedContent))
+				verifiedContent.verified(object);
+			return result;
 			
 		} catch (IOException e) {
 			throw new SignatureException("Cannot obtain key to verify object. Key locator: " + 
@@ -748,21 +764,25 @@ public class ContentObject extends GenericXMLEncodable implements XMLEncodable,
 		// Do setup. Binary codec doesn't write a preamble or anything.
 		// If allow to pick, text encoder would sometimes write random stuff...
 		ByteArrayOutputStream baos = new ByteArrayOutputStream();
-		XMLEncoder encoder = XMLCodecFactory.getEncoder(BinaryXMLCodec.CODEC_NAME);
-		encoder.beginEncoding(baos);
-
-		// We include the tags in what we verify, to allow routers to merely
-		// take a chunk of data from the packet and sign/verify it en masse
-		name.encode(encoder);
-		signedInfo.encode(encoder);
-		// We treat content as a blob according to the binary codec. Want to always
-		// sign the same thing, plus it's really hard to do the automated codec
-		// stuff without doing a whole document, unless we do some serious
-		// rearranging.
-		
-		encoder.writeElement(CCNProtocolDTags.Content, content, start, length);
-
-		encoder.endEncoding();	
+		XMLEncoder encoder = XMLCodecFactory.acquireEncoder(BinaryXMLCodec.CODEC_NAME);
+		try {
+			encoder.beginEncoding(baos);
+
+			// We include the tags in what we verify, to allow routers to merely
+			// take a chunk of data from the packet and sign/verify it en masse
+			name.encode(encoder);
+			signedInfo.encode(encoder);
+			// We treat content as a blob according to the binary codec. Want to always
+			// sign the same thing, plus it's really hard to do the automated codec
+			// stuff without doing a whole document, unless we do some serious
+			// rearranging.
+
+			encoder.writeElement(CCNProtocolDTags.Content, content, start, length);
+
+			encoder.endEncoding();
+		} finally {
+			XMLCodecFactory.releaseEncoder(encoder);
+		}
 
 		return baos.toByteArray();
 	}
@@ -20,6 +20,7 @@ package org.ccnx.ccn.protocol;
 import java.security.InvalidParameterException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 
 import org.ccnx.ccn.impl.encoding.CCNProtocolDTags;
 import org.ccnx.ccn.impl.encoding.GenericXMLEncodable;
@@ -27,6 +28,7 @@ import org.ccnx.ccn.impl.encoding.XMLDecoder;
 import org.ccnx.ccn.impl.encoding.XMLEncodable;
 import org.ccnx.ccn.impl.encoding.XMLEncoder;
 import org.ccnx.ccn.impl.support.ByteArrayCompare;
+import org.ccnx.ccn.impl.support.DataUtils;
 import org.ccnx.ccn.io.content.ContentDecodingException;
 import org.ccnx.ccn.io.content.ContentEncodingException;
 
@@ -45,6 +47,11 @@ import org.ccnx.ccn.io.content.ContentEncodingException;
  * 2. An any element or a bloom filter element must not be followed by an any element or bloom filter.
  * @see Filler
  * I.E. Any elements or bloom filters must be separated by at least one name component element.
+ * 
+ * Matching doesn't lock the filter. It uses an immutable sorted copy of the components, made on
+ * first use after the filter changes, and finds a component with a binary search. Filters
+ * carrying hundreds of excluded versions are common, and the repository checks every
+ * candidate child against them.
  */
 public class Exclude extends GenericXMLEncodable implements XMLEncodable,
 		Comparable<Exclude> {
@@ -71,6 +78,67 @@ public class Exclude extends GenericXMLEncodable implements XMLEncodable,
 	}
 
 	protected ArrayList<Element> _values = new ArrayList<Element>();
+
+	/**
+	 * Immutable view of _values for matching. _fillers[i] is the filler just before
+	 * _components[i], or null if there is none; the last entry is the filler after the
+	 * last component.
+	 */
+	private static class Matcher {
+		final byte [][] _components;
+		final Filler [] _fillers;
+		final boolean _sorted;
+
+		Matcher(ArrayList<Element> values) {
+			ArrayList<byte []> components = new ArrayList<byte []>(values.size());
+			ArrayList<Filler> fillers = new ArrayList<Filler>(values.size() + 1);
+			Filler lastFiller = null;
+			boolean sorted = true;
+			for (Element ee : values) {
+				if (ee instanceof ExcludeComponent) {
+					byte [] component = ((ExcludeComponent) ee).getComponent();
+					// Filters decoded from the network haven't been checked
+					if (components.size() > 0 && DataUtils.compare(components.get(components.size() - 1), component) >= 0)
+						sorted = false;
+					components.add(component);
+					fillers.add(lastFiller);
+					lastFiller = null;
+				} else {
+					lastFiller = (Filler) ee;
+				}
+			}
+			fillers.add(lastFiller);
+			_components = components.toArray(new byte[components.size()][]);
+			_fillers = fillers.toArray(new Filler[fillers.size()]);
+			_sorted = sorted;
+		}
+
+		/**
+		 * @return index of component if present, else -(insertion point) - 1
+		 */
+		int search(byte [] component) {
+			int low = 0;
+			int high = _components.length - 1;
+			while (low <= high) {
+				int mid = (low + high) >>> 1;
+				int res = DataUtils.compare(_components[mid], component);
+				if (res < 0)
+					low = mid + 1;
+				else if (res > 0)
+					high = mid - 1;
+				else
+					return mid;
+			}
+			return -(low + 1);
+		}
+
+		boolean fillerMatch(int index, byte [] component) {
+			Filler filler = _fillers[index];
+			return filler != null && filler.match(component);
+		}
+	}
+
+	private volatile Matcher _matcher;
 	
 	/**
 	 * @param values Must be a list of ExcludeElements - Components must be in increasing order
@@ -148,6 +216,57 @@ public class Exclude extends GenericXMLEncodable implements XMLEncodable,
 	 * @return true if this component would be excluded by the exclude filter
 	 */
 	public boolean match(byte [] component) {
+		Matcher matcher = matcher();
+		if (!matcher._sorted)
+			return linearMatch(component);
+		int index = matcher.search(component);
+		if (index >= 0)
+			return true;
+		return matcher.fillerMatch(-index - 1, component);
+	}
+
+	/**
+	 * Match a list of components against the filter in one pass.
+	 * @param components name components in increasing order
+	 * @return for each component, true if it would be excluded by the exclude filter
+	 */
+	public boolean [] matchAll(List<byte []> components) {
+		boolean [] result = new boolean[components.size()];
+		Matcher matcher = matcher();
+		int i = 0;
+		if (!matcher._sorted) {
+			for (byte [] component : components)
+				result[i++] = linearMatch(component);
+			return result;
+		}
+		int j = 0;
+		for (byte [] component : components) {
+			int res = -1;
+			while (j < matcher._components.length && (res = DataUtils.compare(matcher._components[j], component)) < 0)
+				j++;
+			result[i++] = (j < matcher._components.length && res == 0) || matcher.fillerMatch(j, component);
+		}
+		return result;
+	}
+
+	private Matcher matcher() {
+		Matcher matcher = _matcher;
+		if (null == matcher) {
+			synchronized (_values) {
+				matcher = _matcher;
+				if (null == matcher) {
+					matcher = new Matcher(_values);
+					_matcher = matcher;
+				}
+			}
+		}
+		return matcher;
+	}
+
+	/**
+	 * Scan the elements in order, for filters whose components are not in order.
+	 */
+	private boolean linearMatch(byte [] component) {
 		Filler lastFiller = null;
 		synchronized (_values) {
 			for (Element ee : _values) {
@@ -234,6 +353,7 @@ public class Exclude extends GenericXMLEncodable implements XMLEncodable,
 				omission = omissions[i];
 				_values.add(new ExcludeComponent(omission));
 			}
+			_matcher = null;
 		}
 	}
 	
@@ -249,6 +369,7 @@ public class Exclude extends GenericXMLEncodable implements XMLEncodable,
 
 		Filler lastFiller = null;
 		synchronized (_values) {
+			_matcher = null;
 			int res = -2;
 			int removes = 0;
 			for (Element ee : _values) {
@@ -314,6 +435,7 @@ public class Exclude extends GenericXMLEncodable implements XMLEncodable,
 				ee.decode(decoder);
 				_values.add(ee);
 			}
+			_matcher = null;
 			decoder.readEndElement();
 		}
 	}
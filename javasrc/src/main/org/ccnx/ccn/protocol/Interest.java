@@ -188,6 +188,30 @@ public class Interest extends GenericXMLEncodable implements XMLEncodable, Compa
 		return false;
 	}
 	
+	/**
+	 * Determine whether content with a known full name matches this Interest, without the content.
+	 * Gives the same answer as {@link #matches(ContentObject, PublisherPublicKeyDigest)} for
+	 * content whose fullName() is fullName.
+	 *
+	 * @param fullName name of the content including its digest component
+	 * @param resultPublisherKeyID
+	 * @return true if the content/publisherPublicKeyDigest matches the Interest
+	 */
+	public boolean matchesFullName(ContentName fullName, PublisherPublicKeyDigest resultPublisherKeyID) {
+		if (null == name() || null == fullName || fullName.count() == 0)
+			return false;
+		int count = fullName.count() - 1;
+		boolean digest = count + 1 == name().count();
+		if (count == name().count() && (exclude() != null && !exclude().empty())) {
+			digest = true;
+		}
+		ContentName name = digest ? fullName : fullName.cut(count);
+		if (isPrefixOf(name)) {
+			return internalMatch(name, digest, resultPublisherKeyID);
+		}
+		return false;
+	}
+
 	/**
 	 * Determine whether a piece of content matches this Interest.
 	 * Note: this computes the digest for the ContentObject, to know the full name. This is
@@ -21,6 +21,7 @@ import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map.Entry;
 
+import org.ccnx.ccn.impl.encoding.BinaryXMLDecoder;
 import org.ccnx.ccn.impl.encoding.CCNProtocolDTags;
 import org.ccnx.ccn.impl.encoding.GenericXMLEncodable;
 import org.ccnx.ccn.impl.encoding.XMLDecoder;
@@ -458,7 +459,10 @@ public class SignedInfo extends GenericXMLEncodable implements XMLEncodable {
 		}
 
 		if (decoder.peekStartElement(CCNProtocolDTags.Type)) {
-			byte [] binType = decoder.readBinaryElement(CCNProtocolDTags.Type);
+			// The binary decoder can hand back our own copy of the type value rather than a new one
+			byte [] binType = (decoder instanceof BinaryXMLDecoder) ?
+					((BinaryXMLDecoder)decoder).readBinaryElement(CCNProtocolDTags.Type, ContentValueTypes.keySet()) :
+					decoder.readBinaryElement(CCNProtocolDTags.Type);
 			_type = valueToType(binType);
 			if (null == _type) {
 				throw new ContentDecodingException("Cannot parse signedInfo type: " + DataUtils.printHexBytes(binType) + " " + binType.length + " bytes.");
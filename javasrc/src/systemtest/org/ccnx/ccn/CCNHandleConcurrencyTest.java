@@ -0,0 +1,166 @@
+/*
+ * A CCNx library test.
+ *
+ * Copyright (C) 2013 Palo Alto Research Center, Inc.
+ *
+ * This work is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License version 2 as published by the
+ * Free Software Foundation.
+ * This work is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License
+ * for more details. You should have received a copy of the GNU General Public
+ * License along with this program; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor,
+ * Boston, MA 02110-1301, USA.
+ */
+
+package org.ccnx.ccn;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.ccnx.ccn.config.SystemConfiguration;
+import org.ccnx.ccn.protocol.ContentName;
+import org.ccnx.ccn.protocol.ContentObject;
+import org.ccnx.ccn.protocol.Interest;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Many threads sharing one CCNHandle. Times expressInterest/cancelInterest and put
+ * from 1 to 8 threads, and checks that closing the handle under load lets in flight
+ * operations finish and makes later ones fail cleanly.
+ */
+public class CCNHandleConcurrencyTest {
+
+	public static final int NUM_ITER = 20000;
+	public static final int [] THREADS = new int[]{1, 2, 4, 8};
+
+	static CCNTestHelper testHelper = new CCNTestHelper(CCNHandleConcurrencyTest.class);
+
+	static final CCNContentHandler nullHandler = new CCNContentHandler() {
+		public Interest handleContent(ContentObject data, Interest interest) {
+			return null;
+		}
+	};
+
+	static abstract class HandleOperation {
+		abstract void run(CCNHandle handle, int thread, int iteration) throws Exception;
+	}
+
+	@Test
+	public void testExpressInterestScaling() throws Exception {
+		final ContentName prefix = testHelper.getTestNamespace("testExpressInterestScaling");
+		CCNHandle handle = CCNHandle.open();
+		try {
+			System.out.println("==== expressInterest/cancelInterest on a shared handle");
+			for (int threads : THREADS) {
+				run(handle, threads, new HandleOperation() {
+					void run(CCNHandle handle, int thread, int iteration) throws Exception {
+						Interest interest = new Interest(new ContentName(prefix, "t" + thread, "i" + iteration));
+						handle.expressInterest(interest, nullHandler);
+						handle.cancelInterest(interest, nullHandler);
+					}
+				});
+			}
+		} finally {
+			handle.close();
+		}
+	}
+
+	@Test
+	public void testPutScaling() throws Exception {
+		final ContentName prefix = testHelper.getTestNamespace("testPutScaling");
+		CCNHandle handle = CCNHandle.open();
+		try {
+			// Nobody asked for these, so ccnd drops them; we are only timing the library
+			final ContentObject co = ContentObject.buildContentObject(new ContentName(prefix, "data"), "data".getBytes());
+			System.out.println("==== unsolicited put on a shared handle");
+			for (int threads : THREADS) {
+				run(handle, threads, new HandleOperation() {
+					void run(CCNHandle handle, int thread, int iteration) throws Exception {
+						handle.put(co);
+					}
+				});
+			}
+		} finally {
+			handle.close();
+		}
+	}
+
+	@Test
+	public void testCloseUnderLoad() throws Exception {
+		final ContentName prefix = testHelper.getTestNamespace("testCloseUnderLoad");
+		final CCNHandle handle = CCNHandle.open();
+		final AtomicInteger completed = new AtomicInteger(0);
+		final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+		final CountDownLatch started = new CountDownLatch(4);
+		Thread [] workers = new Thread[4];
+		for (int t = 0; t < workers.length; t++) {
+			final int thread = t;
+			workers[t] = new Thread() {
+				public void run() {
+					started.countDown();
+					for (int i = 0; ; i++) {
+						Interest interest = new Interest(new ContentName(prefix, "t" + thread, "i" + i));
+						try {
+							handle.expressInterest(interest, nullHandler);
+							handle.cancelInterest(interest, nullHandler);
+							completed.incrementAndGet();
+						} catch (IOException e) {
+							// The handle closed under us; that's what we expect
+							return;
+						} catch (Throwable e) {
+							failure.set(e);
+							return;
+						}
+					}
+				}
+			};
+			workers[t].start();
+		}
+		started.await();
+		Thread.sleep(200);
+		handle.close();
+		Assert.assertFalse(handle.isOpen());
+		Assert.assertNull(handle.getNetworkManager());
+		for (Thread worker : workers) {
+			worker.join(SystemConfiguration.SHORT_TIMEOUT * 10);
+			Assert.assertFalse(worker.isAlive());
+		}
+		Assert.assertNull(failure.get());
+		Assert.assertTrue(completed.get() > 0);
+	}
+
+	private void run(final CCNHandle handle, int threads, final HandleOperation operation) throws Exception {
+		final int perThread = NUM_ITER / threads;
+		final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+		final CountDownLatch start = new CountDownLatch(1);
+		Thread [] workers = new Thread[threads];
+		for (int t = 0; t < threads; t++) {
+			final int thread = t;
+			workers[t] = new Thread() {
+				public void run() {
+					try {
+						start.await();
+						for (int i = 0; i < perThread; i++)
+							operation.run(handle, thread, i);
+					} catch (Throwable e) {
+						failure.set(e);
+					}
+				}
+			};
+			workers[t].start();
+		}
+		long startTime = System.nanoTime();
+		start.countDown();
+		for (Thread worker : workers)
+			worker.join();
+		long elapsed = System.nanoTime() - startTime;
+		Assert.assertNull(failure.get());
+		System.out.println(threads + " threads: " + (long)(perThread * threads / (elapsed / 1e9)) + " ops/s");
+	}
+}
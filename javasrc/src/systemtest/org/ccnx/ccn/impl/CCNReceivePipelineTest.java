@@ -0,0 +1,319 @@
+/*
+ * A CCNx library test.
+ *
+ * Copyright (C) 2013 Palo Alto Research Center, Inc.
+ *
+ * This work is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License version 2 as published by the
+ * Free Software Foundation.
+ * This work is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License
+ * for more details. You should have received a copy of the GNU General Public
+ * License along with this program; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor,
+ * Boston, MA 02110-1301, USA.
+ */
+
+package org.ccnx.ccn.impl;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import org.ccnx.ccn.CCNContentHandler;
+import org.ccnx.ccn.CCNInterestHandler;
+import org.ccnx.ccn.impl.CCNNetworkManager.Filter;
+import org.ccnx.ccn.impl.CCNNetworkManager.NetworkProtocol;
+import org.ccnx.ccn.impl.CCNNetworkManager.StatsEnum;
+import org.ccnx.ccn.impl.encoding.BinaryXMLDecoder;
+import org.ccnx.ccn.impl.encoding.XMLEncodable;
+import org.ccnx.ccn.protocol.CCNTime;
+import org.ccnx.ccn.protocol.ContentName;
+import org.ccnx.ccn.protocol.ContentObject;
+import org.ccnx.ccn.protocol.Interest;
+import org.ccnx.ccn.protocol.PublisherPublicKeyDigest;
+import org.ccnx.ccn.protocol.Signature;
+import org.ccnx.ccn.protocol.SignedInfo;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Test the pipelined receive path: framing of raw packets by CCNNetworkChannel, delivery of
+ * decoded packets in arrival order, delivery of interests to their filter handlers, cancelling
+ * queued content deliveries and shutdown.
+ *
+ * No ccnd is needed. The network manager and channel are connected to a local socket which stands
+ * in for it. The content is not really signed as nothing here verifies it.
+ */
+public class CCNReceivePipelineTest {
+
+	public static final int NUM_PACKETS = 500;
+	public static final int DECODE_THREADS = 4;
+	public static final long TIMEOUT = 10000;
+
+	static ServerSocket _ccnd;
+	static ContentName _prefix = new ContentName("test", "receivePipeline");
+	static SignedInfo _signedInfo;
+	static Signature _signature;
+
+	/**
+	 * Network manager which records the packets handed to it by the pipeline
+	 */
+	static class RecordingManager extends CCNNetworkManager {
+		List<XMLEncodable> _dispatched = Collections.synchronizedList(new ArrayList<XMLEncodable>());
+
+		RecordingManager() throws Exception {
+			super(null);
+		}
+
+		@Override
+		protected void dispatchPacket(XMLEncodable packet) {
+			_dispatched.add(packet);
+		}
+	}
+
+	/**
+	 * Interest handler which records the interests offered to it and handles those whose
+	 * last component is a multiple of _modulus.
+	 */
+	static class RecordingHandler implements CCNInterestHandler {
+		List<Interest> _interests = Collections.synchronizedList(new ArrayList<Interest>());
+		int _modulus;
+		Random _rnd = new Random(1);
+
+		RecordingHandler(int modulus) {
+			_modulus = modulus;
+		}
+
+		public boolean handleInterest(Interest interest) {
+			_interests.add(interest);
+			if (_rnd.nextInt(10) == 0)
+				Thread.yield();
+			return 0 == index(interest) % _modulus;
+		}
+	}
+
+	@BeforeClass
+	public static void setUpBeforeClass() throws Exception {
+		_ccnd = new ServerSocket(0);
+		System.setProperty(CCNNetworkManager.PROP_AGENT_PORT, Integer.toString(_ccnd.getLocalPort()));
+		Random rnd = new Random(1);
+		byte [] fakeSigBytes = new byte[128];
+		byte [] publisher = new byte[32];
+		rnd.nextBytes(fakeSigBytes);
+		rnd.nextBytes(publisher);
+		_signature = new Signature(fakeSigBytes);
+		_signedInfo = new SignedInfo(new PublisherPublicKeyDigest(publisher), CCNTime.now(), SignedInfo.ContentType.DATA, null);
+	}
+
+	@AfterClass
+	public static void tearDownAfterClass() throws Exception {
+		System.clearProperty(CCNNetworkManager.PROP_AGENT_PORT);
+		_ccnd.close();
+	}
+
+	@Test
+	public void testFramePacket() throws Exception {
+		ArrayList<XMLEncodable> packets = new ArrayList<XMLEncodable>();
+		ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+		for (int i = 0; i < 20; i++) {
+			// Big enough objects that packets cross the ends of the channel's reads
+			XMLEncodable packet = (i % 2 == 0) ? new Interest(name(i)) : content(i, (i % 3 == 0) ? 6000 : 100);
+			packets.add(packet);
+			encoded.write(packet.encode());
+		}
+
+		CCNNetworkChannel channel = new CCNNetworkChannel("localhost", _ccnd.getLocalPort(), NetworkProtocol.TCP, null);
+		channel.open();
+		Socket socket = _ccnd.accept();
+		try {
+			// Write in odd sized chunks so packets arrive split
+			OutputStream out = socket.getOutputStream();
+			byte [] bytes = encoded.toByteArray();
+			for (int offset = 0; offset < bytes.length; offset += 3001) {
+				out.write(bytes, offset, Math.min(3001, bytes.length - offset));
+				out.flush();
+			}
+
+			// Take the packets alternately framed but not decoded, and decoded in place
+			BinaryXMLDecoder decoder = new BinaryXMLDecoder();
+			for (int i = 0; i < packets.size(); i++) {
+				XMLEncodable packet = packets.get(i);
+				long start = System.currentTimeMillis();
+				if (i % 4 < 2) {
+					byte [] raw = null;
+					while (null == raw && System.currentTimeMillis() - start < TIMEOUT)
+						raw = channel.getRawPacket();
+					Assert.assertNotNull(raw);
+					Assert.assertTrue(Arrays.equals(packet.encode(), raw));
+					decoder.beginDecoding(ByteBuffer.wrap(raw));
+					Assert.assertEquals(packet, decoder.getPacket());
+				} else {
+					XMLEncodable decoded = null;
+					while (null == decoded && System.currentTimeMillis() - start < TIMEOUT)
+						decoded = channel.getPacket();
+					Assert.assertEquals(packet, decoded);
+				}
+			}
+		} finally {
+			channel.close();
+			socket.close();
+		}
+	}
+
+	@Test
+	public void testReceiveOrder() throws Exception {
+		RecordingManager manager = new RecordingManager();
+		CCNReceivePipeline pipeline = new CCNReceivePipeline(manager, DECODE_THREADS);
+		try {
+			ArrayList<XMLEncodable> packets = new ArrayList<XMLEncodable>();
+			for (int i = 0; i < NUM_PACKETS; i++) {
+				// Mix packets which are quick and slow to decode
+				XMLEncodable packet = (i % 2 == 0) ? new Interest(name(i)) : content(i, (i % 5 == 0) ? 8000 : 10);
+				packets.add(packet);
+				pipeline.submit(packet.encode());
+			}
+			waitForSize(manager._dispatched, NUM_PACKETS);
+			Assert.assertEquals(packets, manager._dispatched);
+		} finally {
+			pipeline.shutdown();
+			manager.shutdown();
+		}
+	}
+
+	@Test
+	public void testInterestDelivery() throws Exception {
+		CCNNetworkManager manager = new CCNNetworkManager(null);
+		manager._receivePipeline = new CCNReceivePipeline(manager, DECODE_THREADS);
+		try {
+			ContentName longer = new ContentName(_prefix, "interests");
+			RecordingHandler evens = new RecordingHandler(2);
+			RecordingHandler all = new RecordingHandler(1);
+			manager._myFilters.add(longer, manager.new Filter(longer, evens));
+			manager._myFilters.add(_prefix, manager.new Filter(_prefix, all));
+			List<Filter> filters = manager._myFilters.getValues(name(0));
+			Assert.assertEquals(2, filters.size());
+			RecordingHandler first = (RecordingHandler)filters.get(0).handler;
+			RecordingHandler second = (RecordingHandler)filters.get(1).handler;
+
+			ArrayList<Interest> interests = new ArrayList<Interest>();
+			ArrayList<Interest> declined = new ArrayList<Interest>();
+			for (int i = 0; i < NUM_PACKETS; i++) {
+				Interest interest = new Interest(name(i));
+				interests.add(interest);
+				if (0 != i % first._modulus)
+					declined.add(interest);
+				manager._receivePipeline.submit(interest.encode());
+			}
+			// Every interest is offered to the first handler and those it declines to the second,
+			// each in the order they arrived
+			waitForSize(second._interests, declined.size());
+			waitForSize(first._interests, interests.size());
+			Assert.assertEquals(interests, first._interests);
+			Assert.assertEquals(declined, second._interests);
+		} finally {
+			manager.shutdown();
+		}
+	}
+
+	/**
+	 * A content callback queued behind a slow one for the same handler must not run once its
+	 * interest has been cancelled, nor reexpress the interest.
+	 */
+	@Test
+	public void testCancelQueuedDelivery() throws Exception {
+		CCNNetworkManager manager = new CCNNetworkManager(null);
+		manager._receivePipeline = new CCNReceivePipeline(manager, DECODE_THREADS);
+		final Semaphore started = new Semaphore(0);
+		final Semaphore release = new Semaphore(0);
+		try {
+			final List<ContentObject> received = Collections.synchronizedList(new ArrayList<ContentObject>());
+			CCNContentHandler handler = new CCNContentHandler() {
+				public Interest handleContent(ContentObject data, Interest interest) {
+					received.add(data);
+					started.release();
+					release.acquireUninterruptibly();
+					return interest;	// Ask for more, as a pipelining reader would
+				}
+			};
+			Interest first = new Interest(name(0));
+			Interest second = new Interest(name(1));
+			manager.expressInterest(first, handler);
+			manager.expressInterest(second, handler);
+
+			manager._receivePipeline.submit(content(0, 10).encode());
+			Assert.assertTrue(started.tryAcquire(TIMEOUT, TimeUnit.MILLISECONDS));
+			manager._receivePipeline.submit(content(1, 10).encode());
+			long start = System.currentTimeMillis();
+			while (manager._queuedForDelivery.isEmpty() && System.currentTimeMillis() - start < TIMEOUT)
+				Thread.sleep(10);
+			Assert.assertEquals(1, manager._queuedForDelivery.size());
+
+			manager.cancelInterest(second, handler);
+			release.release();
+			Thread.sleep(500);
+			Assert.assertEquals(1, received.size());
+			Assert.assertEquals(content(0, 10), received.get(0));
+			Assert.assertTrue(manager._queuedForDelivery.isEmpty());
+			// The cancelled interest wasn't reexpressed
+			Assert.assertTrue(manager._myInterests.getValues(content(1, 10)).isEmpty());
+		} finally {
+			release.release(10);
+			manager.shutdown();
+		}
+	}
+
+	@Test
+	public void testShutdown() throws Exception {
+		RecordingManager manager = new RecordingManager();
+		CCNReceivePipeline pipeline = new CCNReceivePipeline(manager, DECODE_THREADS);
+		try {
+			pipeline.submit(new Interest(name(0)).encode());
+			waitForSize(manager._dispatched, 1);
+			pipeline.shutdown();
+
+			// Packets submitted after shutdown are dropped and counted as errors
+			long errors = manager.getStats().getCounter(StatsEnum.ReceiveErrors.toString());
+			pipeline.submit(new Interest(name(1)).encode());
+			Assert.assertEquals(errors + 1, manager.getStats().getCounter(StatsEnum.ReceiveErrors.toString()));
+			Assert.assertEquals(0, pipeline._pending.get());
+			Thread.sleep(100);
+			Assert.assertEquals(1, manager._dispatched.size());
+		} finally {
+			manager.shutdown();
+		}
+	}
+
+	static ContentName name(int i) {
+		return new ContentName(_prefix, "interests", Integer.toString(i));
+	}
+
+	static int index(Interest interest) {
+		return Integer.parseInt(new String(interest.name().lastComponent()));
+	}
+
+	static ContentObject content(int i, int length) {
+		byte [] content = new byte[length];
+		Arrays.fill(content, (byte)i);
+		return new ContentObject(name(i), _signedInfo, content, _signature);
+	}
+
+	static void waitForSize(List<?> list, int size) throws InterruptedException {
+		long start = System.currentTimeMillis();
+		while (list.size() < size && System.currentTimeMillis() - start < TIMEOUT)
+			Thread.sleep(10);
+		Assert.assertEquals(size, list.size());
+	}
+}
@@ -17,10 +17,14 @@
 
 package org.ccnx.ccn.impl;
 
+import java.util.Map;
 import java.util.Random;
 
 import org.ccnx.ccn.impl.CCNStats;
+import org.ccnx.ccn.impl.CCNStats.CCNEnumStats;
 import org.ccnx.ccn.impl.CCNStats.ExampleClassWithStatistics;
+import org.ccnx.ccn.impl.CCNStats.ExampleClassWithStatistics.MyStats;
+import org.ccnx.ccn.impl.CCNStats.Histogram;
 import org.ccnx.ccn.impl.support.Log;
 import org.junit.Assert;
 import org.junit.Test;
@@ -107,4 +111,96 @@ public class CCNStatTest {
 		Log.info(Log.FAC_TEST, "Completed testPerformance");
 
 	}	
+
+	@Test
+	public void testHistogram() throws Exception {
+		Log.info(Log.FAC_TEST, "Starting testHistogram");
+
+		for (long sample : new long[]{0, 1, 7, 8, 9, 15, 16, 17, 1000, 123456789L, Long.MAX_VALUE}) {
+			int bucket = Histogram.bucket(sample);
+			Assert.assertTrue(sample <= Histogram.bucketTop(bucket));
+			Assert.assertTrue(bucket == 0 || sample > Histogram.bucketTop(bucket - 1));
+			Assert.assertTrue(Histogram.bucketTop(bucket) - sample <= sample / Histogram.SUB_BUCKETS);
+		}
+		// Very large samples share the top bucket
+		Assert.assertEquals(Histogram.BUCKETS - 1, Histogram.bucket(Histogram.TOP_BUCKET_SAMPLE));
+		Assert.assertEquals(Histogram.BUCKETS - 1, Histogram.bucket(Long.MAX_VALUE));
+		Assert.assertEquals(Histogram.TOP_BUCKET_SAMPLE - 1, Histogram.bucketTop(Histogram.BUCKETS - 2));
+
+		CCNEnumStats<MyStats> stats = new CCNEnumStats<MyStats>(MyStats.SendRequests);
+		Assert.assertFalse(stats.isAveragingCounter("SendRate"));
+		Assert.assertTrue(Double.isNaN(stats.getAverageAndStdev("SendRate")[0]));
+		for (int i = 1; i <= 10000; i++)
+			stats.addSample(MyStats.SendRate, i);
+		Assert.assertTrue(stats.isAveragingCounter("SendRate"));
+		Histogram histogram = stats.getHistogram("SendRate");
+		Assert.assertEquals(10000, histogram.getCount());
+		Assert.assertEquals(10000, histogram.getMax());
+		Assert.assertEquals(5000.5, histogram.getAverage(), 0.001);
+		Assert.assertEquals(2886.9, histogram.getStdev(), 0.1);
+		for (double p : new double[]{50, 90, 99, 99.9}) {
+			double exact = p * 100;
+			double reported = histogram.getPercentile(p);
+			Assert.assertTrue(p + ": " + reported, reported >= exact && reported <= exact * 1.125);
+		}
+		Assert.assertEquals(10000, histogram.getPercentile(100), 0);
+		Assert.assertEquals(histogram.getAverage(), stats.getAverageAndStdev("SendRate")[0], 0);
+		Assert.assertEquals(histogram.getStdev(), stats.getAverageAndStdev("SendRate")[1], 0);
+		System.out.println("SendRate: " + histogram);
+
+		// Intervals
+		Map<String, Histogram> interval = stats.snapshotAndReset();
+		Assert.assertEquals(1, interval.size());
+		Assert.assertEquals(10000, interval.get("SendRate").getCount());
+		stats.addSample(MyStats.SendRate, 3);
+		stats.addSample(MyStats.SendRate, 5);
+		stats.addSample(MyStats.BytesPerPacket, 100);
+		interval = stats.snapshotAndReset();
+		Assert.assertEquals(2, interval.get("SendRate").getCount());
+		Assert.assertEquals(5, interval.get("SendRate").getMax());
+		Assert.assertEquals(4.0, interval.get("SendRate").getAverage(), 0);
+		Assert.assertEquals(1, interval.get("BytesPerPacket").getCount());
+		Assert.assertEquals(10002, stats.getHistogram("SendRate").getCount());
+		Assert.assertEquals(0, stats.snapshotAndReset().get("SendRate").getCount());
+
+		stats.clearCounters();
+		Assert.assertFalse(stats.isAveragingCounter("SendRate"));
+		Assert.assertEquals(0, stats.getHistogram("SendRate").getCount());
+
+		Log.info(Log.FAC_TEST, "Completed testHistogram");
+	}
+
+	/**
+	 * Add samples from several threads at once, check none are lost and time them
+	 */
+	@Test
+	public void testConcurrentSamples() throws Exception {
+		Log.info(Log.FAC_TEST, "Starting testConcurrentSamples");
+
+		final int samples = 1000000;
+		for (int threads : new int[]{1, 2, 4}) {
+			final CCNEnumStats<MyStats> stats = new CCNEnumStats<MyStats>(MyStats.SendRequests);
+			Thread [] adders = new Thread[threads];
+			for (int t = 0; t < threads; t++) {
+				adders[t] = new Thread() {
+					public void run() {
+						for (int i = 0; i < samples; i++)
+							stats.addSample(MyStats.BytesPerPacket, i & 1023);
+					}
+				};
+			}
+			long start = System.nanoTime();
+			for (Thread adder : adders)
+				adder.start();
+			for (Thread adder : adders)
+				adder.join();
+			long elapsed = System.nanoTime() - start;
+			Histogram histogram = stats.getHistogram("BytesPerPacket");
+			Assert.assertEquals((long)samples * threads, histogram.getCount());
+			Assert.assertEquals(1023, histogram.getMax());
+			System.out.println(String.format("%d threads: %f nanos/sample", threads, (double)elapsed / ((long)samples * threads)));
+		}
+
+		Log.info(Log.FAC_TEST, "Completed testConcurrentSamples");
+	}
 }
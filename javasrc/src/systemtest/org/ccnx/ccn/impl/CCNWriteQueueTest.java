@@ -0,0 +1,215 @@
+/*
+ * A CCNx library test.
+ *
+ * Copyright (C) 2013 Palo Alto Research Center, Inc.
+ *
+ * This work is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License version 2 as published by the
+ * Free Software Foundation.
+ * This work is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License
+ * for more details. You should have received a copy of the GNU General Public
+ * License along with this program; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor,
+ * Boston, MA 02110-1301, USA.
+ */
+
+package org.ccnx.ccn.impl;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import org.ccnx.ccn.impl.CCNNetworkManager.StatsEnum;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Test that CCNWriteQueue flushes when enough data is pending, when the batch delay
+ * expires and when asked to, and that batches reach the channel intact and in order.
+ *
+ * No ccnd is needed. The network manager is connected to a local socket which stands in for it
+ * and the test reads what is written from there.
+ */
+public class CCNWriteQueueTest {
+
+	public static final int PACKET_SIZE = 100;
+	public static final int BATCH_SIZE = 1000;
+	public static final int LONG_DELAY = 60000;
+	public static final int SHORT_DELAY = 50;
+	public static final int TIMEOUT = 10000;
+
+	static ServerSocket _ccnd;
+
+	CCNNetworkManager _manager;
+	Socket _socket;
+	InputStream _in;
+	int _packetCount = 0;
+
+	@BeforeClass
+	public static void setUpBeforeClass() throws Exception {
+		_ccnd = new ServerSocket(0);
+		System.setProperty(CCNNetworkManager.PROP_AGENT_PORT, Integer.toString(_ccnd.getLocalPort()));
+	}
+
+	@AfterClass
+	public static void tearDownAfterClass() throws Exception {
+		System.clearProperty(CCNNetworkManager.PROP_AGENT_PORT);
+		_ccnd.close();
+	}
+
+	@Before
+	public void setUp() throws Exception {
+		_manager = new CCNNetworkManager(null);
+		_socket = _ccnd.accept();
+		_socket.setSoTimeout(TIMEOUT);
+		_in = _socket.getInputStream();
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		_manager.shutdown();
+		_socket.close();
+	}
+
+	@Test
+	public void testNoDelay() throws Exception {
+		CCNWriteQueue queue = new CCNWriteQueue(_manager, _manager._channel, 0, BATCH_SIZE);
+		try {
+			for (int i = 0; i < 3; i++) {
+				byte [] packet = packet();
+				queue.write(packet);
+				assertReceived(packet);
+			}
+			Assert.assertEquals(3, batches());
+		} finally {
+			queue.shutdown();
+		}
+	}
+
+	@Test
+	public void testBatchSize() throws Exception {
+		CCNWriteQueue queue = new CCNWriteQueue(_manager, _manager._channel, LONG_DELAY, BATCH_SIZE);
+		try {
+			ByteArrayOutputStream expected = new ByteArrayOutputStream();
+			for (int i = 0; i < BATCH_SIZE / PACKET_SIZE - 1; i++) {
+				byte [] packet = packet();
+				expected.write(packet);
+				queue.write(packet);
+			}
+			assertNothingReceived();
+
+			// This one takes the pending data up to the batch size so all of it is written together
+			byte [] packet = packet();
+			expected.write(packet);
+			queue.write(packet);
+			assertReceived(expected.toByteArray());
+			Assert.assertEquals(1, batches());
+			Assert.assertEquals(BATCH_SIZE / PACKET_SIZE, Math.round(_manager.getStats().getAverageAndStdev(StatsEnum.WriteBatchPackets.toString())[0]));
+
+			// Below the batch size it waits for a flush
+			packet = packet();
+			queue.write(packet);
+			assertNothingReceived();
+			queue.flush();
+			assertReceived(packet);
+			Assert.assertEquals(2, batches());
+		} finally {
+			queue.shutdown();
+		}
+	}
+
+	@Test
+	public void testBatchDelay() throws Exception {
+		CCNWriteQueue queue = new CCNWriteQueue(_manager, _manager._channel, SHORT_DELAY, BATCH_SIZE);
+		try {
+			byte [] first = packet();
+			byte [] second = packet();
+			long start = System.currentTimeMillis();
+			queue.write(first);
+			queue.write(second);
+			assertReceived(concat(first, second));
+			Assert.assertTrue(System.currentTimeMillis() - start >= SHORT_DELAY);
+			Assert.assertEquals(1, batches());
+		} finally {
+			queue.shutdown();
+		}
+	}
+
+	@Test
+	public void testGatheredWrite() throws Exception {
+		CCNWriteQueue queue = new CCNWriteQueue(_manager, _manager._channel, LONG_DELAY, BATCH_SIZE);
+		try {
+			// Something already pending goes out first
+			byte [] pending = packet();
+			queue.write(pending);
+			assertNothingReceived();
+
+			ArrayList<byte []> packets = new ArrayList<byte []>();
+			ByteArrayOutputStream expected = new ByteArrayOutputStream();
+			expected.write(pending);
+			int count = 2 * BATCH_SIZE / PACKET_SIZE + 5;
+			for (int i = 0; i < count; i++) {
+				byte [] packet = packet();
+				packets.add(packet);
+				expected.write(packet);
+			}
+			// The batch is written before write returns, split where the pending data reaches the batch size
+			queue.write(packets);
+			assertReceived(expected.toByteArray());
+			Assert.assertEquals(3, batches());
+		} finally {
+			queue.shutdown();
+		}
+	}
+
+	/**
+	 * Each packet is filled with its own number so that misordering shows up
+	 */
+	byte [] packet() {
+		byte [] packet = new byte[PACKET_SIZE];
+		Arrays.fill(packet, (byte)++_packetCount);
+		return packet;
+	}
+
+	/**
+	 * A flush counts its batch after writing it, still holding the channel lock, so
+	 * take the lock to be sure a batch we have received has been counted.
+	 */
+	long batches() {
+		synchronized (_manager._channel) {
+			return _manager.getStats().getCounter(StatsEnum.WriteBatches.toString());
+		}
+	}
+
+	void assertReceived(byte [] expected) throws Exception {
+		byte [] received = new byte[expected.length];
+		int read = 0;
+		while (read < received.length) {
+			int ret = _in.read(received, read, received.length - read);
+			Assert.assertTrue(ret > 0);
+			read += ret;
+		}
+		Assert.assertTrue(Arrays.equals(expected, received));
+	}
+
+	void assertNothingReceived() throws Exception {
+		Thread.sleep(SHORT_DELAY * 2);
+		Assert.assertEquals(0, _in.available());
+	}
+
+	static byte [] concat(byte [] a, byte [] b) {
+		byte [] result = new byte[a.length + b.length];
+		System.arraycopy(a, 0, result, 0, a.length);
+		System.arraycopy(b, 0, result, a.length, b.length);
+		return result;
+	}
+}
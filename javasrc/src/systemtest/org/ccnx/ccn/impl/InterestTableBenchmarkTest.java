@@ -0,0 +1,136 @@
+/*
+ * A CCNx library test.
+ *
+ * Copyright (C) 2013 Palo Alto Research Center, Inc.
+ *
+ * This work is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License version 2 as published by the
+ * Free Software Foundation.
+ * This work is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License
+ * for more details. You should have received a copy of the GNU General Public
+ * License along with this program; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor,
+ * Boston, MA 02110-1301, USA.
+ */
+
+package org.ccnx.ccn.impl;
+
+import static org.junit.Assert.assertEquals;
+
+import java.text.DecimalFormat;
+import java.text.NumberFormat;
+import java.util.Random;
+
+import org.ccnx.ccn.protocol.CCNTime;
+import org.ccnx.ccn.protocol.ContentName;
+import org.ccnx.ccn.protocol.ContentObject;
+import org.ccnx.ccn.protocol.Interest;
+import org.ccnx.ccn.protocol.PublisherPublicKeyDigest;
+import org.ccnx.ccn.protocol.Signature;
+import org.ccnx.ccn.protocol.SignedInfo;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * This is mainly a benchmark rather than a functional test. It compares content
+ * delivery lookups in the default InterestTable against the NameTrieInterestTable
+ * at various table sizes, and checks that both find the same matches.
+ */
+public class InterestTableBenchmarkTest {
+
+	public static final int [] TABLE_SIZES = new int[]{1000, 10000, 100000};
+	public static final int NUM_LOOKUPS = 200;
+	public static final double NanoToMicro = 1000.0d;
+
+	static Signature fakeSignature;
+	static SignedInfo signedInfo;
+	static NumberFormat format = DecimalFormat.getNumberInstance();
+
+	@BeforeClass
+	public static void setUpBeforeClass() throws Exception {
+		Random rnd = new Random();
+		byte [] fakeSigBytes = new byte[128];
+		byte [] publisher = new byte[32];
+		rnd.nextBytes(fakeSigBytes);
+		rnd.nextBytes(publisher);
+		fakeSignature = new Signature(fakeSigBytes);
+		signedInfo = new SignedInfo(new PublisherPublicKeyDigest(publisher), CCNTime.now(), SignedInfo.ContentType.DATA, null);
+		format.setMaximumFractionDigits(3);
+	}
+
+	/**
+	 * Build a name resembling a pipelined segment read: /bench/<stream>/<version>/<segment>
+	 */
+	private static ContentName interestName(int i) {
+		return new ContentName("bench", "stream" + (i % 997), "v" + (i / 997), "s" + i);
+	}
+
+	private static void fill(InterestTable<Integer> table, int size) {
+		for (int i = 0; i < size; i++) {
+			table.add(new Interest(interestName(i)), i);
+		}
+	}
+
+	private static ContentObject [] targets(int size) {
+		Random rnd = new Random(size);
+		ContentObject [] result = new ContentObject[NUM_LOOKUPS];
+		for (int i = 0; i < NUM_LOOKUPS; i++) {
+			ContentName name = new ContentName(interestName(rnd.nextInt(size)), "data");
+			result[i] = new ContentObject(name, signedInfo, "bench".getBytes(), fakeSignature);
+		}
+		return result;
+	}
+
+	private static long timeLookups(InterestTable<Integer> table, ContentObject [] targets) {
+		long start = System.nanoTime();
+		for (ContentObject co : targets)
+			table.getValues(co);
+		return System.nanoTime() - start;
+	}
+
+	@Test
+	public void testSameMatches() throws Exception {
+		InterestTable<Integer> list = new InterestTable<Integer>();
+		InterestTable<Integer> trie = new NameTrieInterestTable<Integer>();
+		fill(list, 1000);
+		fill(trie, 1000);
+		list.add(new Interest(new ContentName("bench")), -1);
+		trie.add(new Interest(new ContentName("bench")), -1);
+		assertEquals(list.size(), trie.size());
+		assertEquals(list.sizeNames(), trie.sizeNames());
+
+		for (ContentObject co : targets(1000)) {
+			assertEquals(list.getValues(co), trie.getValues(co));
+			assertEquals(list.getValues(co.name()), trie.getValues(co.name()));
+		}
+		for (ContentObject co : targets(1000)) {
+			assertEquals(list.removeValues(co), trie.removeValues(co));
+		}
+		assertEquals(list.size(), trie.size());
+		assertEquals(list.sizeNames(), trie.sizeNames());
+	}
+
+	@Test
+	public void testLookupBenchmark() throws Exception {
+		System.out.println("==== InterestTable content delivery lookups");
+		for (int size : TABLE_SIZES) {
+			ContentObject [] targets = targets(size);
+			InterestTable<Integer> list = new InterestTable<Integer>();
+			InterestTable<Integer> trie = new NameTrieInterestTable<Integer>();
+			fill(list, size);
+			fill(trie, size);
+
+			// Warm up and compute digests ahead of time so we time only the lookups
+			timeLookups(list, targets);
+			timeLookups(trie, targets);
+
+			long listTime = timeLookups(list, targets);
+			long trieTime = timeLookups(trie, targets);
+			System.out.println("Entries " + size + ": InterestTable " +
+					format.format(listTime / NUM_LOOKUPS / NanoToMicro) + " us/lookup, NameTrieInterestTable " +
+					format.format(trieTime / NUM_LOOKUPS / NanoToMicro) + " us/lookup");
+		}
+	}
+}
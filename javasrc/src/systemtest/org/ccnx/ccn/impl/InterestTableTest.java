@@ -18,12 +18,19 @@
 package org.ccnx.ccn.impl;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 import java.nio.ByteBuffer;
 import java.security.InvalidKeyException;
 import java.security.SignatureException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Random;
 
@@ -45,13 +52,24 @@ import org.ccnx.ccn.CCNTestBase;
 import org.junit.Before;
 import org.junit.BeforeClass;
 import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameters;
 
 /**
  * Tests InterestTable, the core implementation of interest matching
- * and dispatching.
+ * and dispatching. Everything is run against both the original table
+ * and NameTrieInterestTable.
  */
+@RunWith(Parameterized.class)
 public class InterestTableTest extends CCNTestBase {
 
+	public static final int CONCURRENT_WRITERS = 4;
+	public static final int CONCURRENT_READERS = 4;
+	public static final int CONCURRENT_ITERATIONS = 2000;
+
+	// Which implementation this run tests
+	protected boolean _trie;
 
 	static public PublisherID ids[] = new PublisherID[3];
 	static public PublisherPublicKeyDigest keyids[] = new PublisherPublicKeyDigest[3];
@@ -108,6 +126,19 @@ public class InterestTableTest extends CCNTestBase {
 		}
 	}
 
+	@Parameters
+	public static Collection<Object[]> tables() {
+		return Arrays.asList(new Object[][] {{false}, {true}});
+	}
+
+	public InterestTableTest(boolean trie) {
+		_trie = trie;
+	}
+
+	protected <V> InterestTable<V> newTable() {
+		return _trie ? new NameTrieInterestTable<V>() : new InterestTable<V>();
+	}
+
 	@Before
 	public void setUp() throws Exception {
 	}
@@ -124,7 +155,7 @@ public class InterestTableTest extends CCNTestBase {
 		ContentName namB = ContentName.fromNative("/a/b/c");
 		ContentName namC = ContentName.fromNative("/a/b/c/d");
 		
-		InterestTable<Object> interests = new InterestTable<Object>();
+		InterestTable<Object> interests = newTable();
 		interests.add(intA, null);
 		interests.add(intB, null);
 		interests.add(intC, null);
@@ -139,7 +170,7 @@ public class InterestTableTest extends CCNTestBase {
 		assertEquals(4, interests.size());
 		assertEquals(2, interests.sizeNames());
 		
-		InterestTable<Object> names = new InterestTable<Object>();
+		InterestTable<Object> names = newTable();
 		names.add(namA, null);
 		names.add(namB, null);
 		names.add(namC, null);
@@ -333,7 +364,7 @@ public class InterestTableTest extends CCNTestBase {
 	final ContentName onethree = new ContentName(new byte[]{0x01, 0x02, 0x03, 0x04}, new byte[]{0x03});
 
 	private InterestTable<Integer> initTable() throws MalformedContentNameStringException {
-		InterestTable<Integer> table = new InterestTable<Integer>();
+		InterestTable<Integer> table = newTable();
 		addEntry(table, a, new Integer(1));
 		addEntry(table, ab, new Integer(2));
 		addEntry(table, c, new Integer(3));
@@ -414,7 +445,7 @@ public class InterestTableTest extends CCNTestBase {
 	}
 	
 	public InterestTable<Integer> initPub() throws MalformedContentNameStringException {
-		InterestTable<Integer> table = new InterestTable<Integer>();
+		InterestTable<Integer> table = newTable();
 		
 		setID(0);
 		addEntry(table, a, new Integer(1));
@@ -589,7 +620,7 @@ public class InterestTableTest extends CCNTestBase {
 	private enum InterestType {Next, Last, MaxSuffixComponents, Exclude};
 	
 	private InterestTable<Integer> initInterest(InterestType type) throws MalformedContentNameStringException {
-		InterestTable<Integer> table = new InterestTable<Integer>();
+		InterestTable<Integer> table = newTable();
 		addEntry(table, a, type, new Integer(1));
 		addEntry(table, ab, type, new Integer(2));
 		addEntry(table, c, type, new Integer(3));
@@ -684,7 +715,7 @@ public class InterestTableTest extends CCNTestBase {
 	public void testLRU() throws MalformedContentNameStringException, InvalidKeyException, SignatureException, ConfigurationException {
 		Log.info(Log.FAC_TEST, "Starting testLRU");
 
-		InterestTable<Integer> table = new InterestTable<Integer>();
+		InterestTable<Integer> table = newTable();
 		table.setCapacity(6);
 		addEntry(table, a, new Integer(1));
 		addEntry(table, ab, new Integer(2));
@@ -704,4 +735,187 @@ public class InterestTableTest extends CCNTestBase {
 		
 		Log.info(Log.FAC_TEST, "Completed testLRU");
 	}
+	
+	@Test
+	public void testLRUEviction() throws MalformedContentNameStringException {
+		Log.info(Log.FAC_TEST, "Starting testLRUEviction");
+
+		setID(-1);
+		InterestTable<Integer> table = newTable();
+		table.setCapacity(3);
+		addEntry(table, a, new Integer(1));
+		addEntry(table, b, new Integer(2));
+		addEntry(table, c, new Integer(3));
+		sizes(table, 3, 3);
+		
+		// Adding to a name makes it the most recently used, so b goes first
+		addEntry(table, a, new Integer(4));
+		addEntry(table, abc, new Integer(5));
+		sizes(table, 4, 3);
+		assertNull(table.getMatch(ContentName.fromNative(b)));
+		assertEquals(2, table.getMatches(ContentName.fromNative(a)).size());
+		
+		// All the entries for a name go together
+		addEntry(table, ab, new Integer(6));
+		addEntry(table, a_bb, new Integer(7));
+		sizes(table, 3, 3);
+		assertNull(table.getMatch(ContentName.fromNative(c)));
+		assertEquals(new Integer(5), table.getMatch(ContentName.fromNative(abc)).value());
+		assertNull(table.getMatch(ContentName.fromNative(a)));
+		
+		Log.info(Log.FAC_TEST, "Completed testLRUEviction");
+	}
+	
+	@Test
+	public void testEmptyNodesRemoved() throws MalformedContentNameStringException, InvalidKeyException, SignatureException, ConfigurationException {
+		Log.info(Log.FAC_TEST, "Starting testEmptyNodesRemoved");
+
+		setID(-1);
+		InterestTable<Integer> table = newTable();
+		addEntry(table, abc, new Integer(1));
+		addEntry(table, "/a/b/d", new Integer(2));
+		addEntry(table, "/a/x", new Integer(3));
+		trieNodes(table, 5);
+		
+		// b is still needed for /a/b/d
+		remove(table, abc, 1);
+		trieNodes(table, 4);
+		sizes(table, 2, 2);
+		
+		// Now b can go, but a holds /a/x
+		remove(table, "/a/b/d", 2);
+		trieNodes(table, 2);
+		sizes(table, 1, 1);
+		
+		remove(table, "/a/x", 3);
+		trieNodes(table, 0);
+		sizes(table, 0, 0);
+		
+		// Removing by match and evicting prune the same way
+		setID(0);
+		addEntry(table, abc, new Integer(4));
+		trieNodes(table, 3);
+		removeMatch(table, "/a/b/c/d", 4);
+		trieNodes(table, 0);
+		
+		table.setCapacity(1);
+		addEntry(table, abc, new Integer(5));
+		addEntry(table, b, new Integer(6));
+		trieNodes(table, 1);
+		sizes(table, 1, 1);
+		noMatch(table, abc);
+		
+		Log.info(Log.FAC_TEST, "Completed testEmptyNodesRemoved");
+	}
+	
+	/**
+	 * Writers add and remove their own names while readers match names under a prefix which is
+	 * registered throughout. Readers must always find that entry, never see an entry which doesn't
+	 * match, and once the writers are done only the prefix is left.
+	 */
+	@Test
+	public void testConcurrentAddRemoveMatch() throws Exception {
+		Log.info(Log.FAC_TEST, "Starting testConcurrentAddRemoveMatch");
+
+		setID(0);
+		final InterestTable<Integer> table = newTable();
+		final ContentName prefix = ContentName.fromNative("/concurrent");
+		table.add(new Interest(prefix), new Integer(-1));
+		final ContentObject [] targets = new ContentObject[CONCURRENT_WRITERS];
+		for (int i = 0; i < CONCURRENT_WRITERS; i++)
+			targets[i] = getContentObject(new ContentName(prefix, "w" + i, "n0", "x", "y"));
+		final List<Throwable> errors = Collections.synchronizedList(new ArrayList<Throwable>());
+		final boolean [] writing = new boolean[] {true};
+		
+		ArrayList<Thread> writers = new ArrayList<Thread>();
+		for (int i = 0; i < CONCURRENT_WRITERS; i++) {
+			final int id = i;
+			writers.add(new Thread() {
+				public void run() {
+					try {
+						LinkedList<Interest> added = new LinkedList<Interest>();
+						for (int j = 0; j < CONCURRENT_ITERATIONS; j++) {
+							Interest interest = new Interest(new ContentName(prefix, "w" + id, "n" + (j % 10), "x"));
+							table.add(interest, new Integer(j));
+							added.add(interest);
+							if (added.size() > 5) {
+								if (null == table.remove(added.removeFirst(), new Integer(j - 5)))
+									throw new AssertionError("entry " + (j - 5) + " of writer " + id + " is missing");
+							}
+						}
+						for (int j = CONCURRENT_ITERATIONS - added.size(); j < CONCURRENT_ITERATIONS; j++) {
+							if (null == table.remove(added.removeFirst(), new Integer(j)))
+								throw new AssertionError("entry " + j + " of writer " + id + " is missing");
+						}
+					} catch (Throwable t) {
+						errors.add(t);
+					}
+				}
+			});
+		}
+		ArrayList<Thread> readers = new ArrayList<Thread>();
+		for (int i = 0; i < CONCURRENT_READERS; i++) {
+			final ContentObject target = targets[i % CONCURRENT_WRITERS];
+			readers.add(new Thread() {
+				public void run() {
+					try {
+						while (writing[0] && errors.isEmpty()) {
+							List<InterestTable.Entry<Integer>> matches = table.getMatches(target);
+							boolean found = false;
+							for (InterestTable.Entry<Integer> entry : matches) {
+								if (!entry.interest().matches(target))
+									throw new AssertionError(entry.interest() + " doesn't match " + target.name());
+								if (entry.value().intValue() == -1)
+									found = true;
+							}
+							if (!found)
+								throw new AssertionError("lost " + prefix);
+							if (null == table.getMatch(target.name()))
+								throw new AssertionError("no match for " + target.name());
+						}
+					} catch (Throwable t) {
+						errors.add(t);
+					}
+				}
+			});
+		}
+		for (Thread t : readers)
+			t.start();
+		for (Thread t : writers)
+			t.start();
+		for (Thread t : writers)
+			t.join();
+		writing[0] = false;
+		for (Thread t : readers)
+			t.join();
+		if (!errors.isEmpty())
+			throw new AssertionError(errors.get(0));
+		
+		sizes(table, 1, 1);
+		assertEquals(new Integer(-1), table.getMatch(targets[0]).value());
+		trieNodes(table, 1);
+		
+		Log.info(Log.FAC_TEST, "Completed testConcurrentAddRemoveMatch");
+	}
+	
+	/**
+	 * Check the number of nodes below the root of a NameTrieInterestTable. Nothing to check
+	 * for the original table.
+	 */
+	@SuppressWarnings("unchecked")
+	private void trieNodes(InterestTable<Integer> table, int count) {
+		if (!_trie)
+			return;
+		LinkedList<NameTrieInterestTable<Integer>.TrieNode> pending = new LinkedList<NameTrieInterestTable<Integer>.TrieNode>();
+		pending.add(((NameTrieInterestTable<Integer>)table)._root);
+		int nodes = -1;
+		while (!pending.isEmpty()) {
+			NameTrieInterestTable<Integer>.TrieNode node = pending.removeFirst();
+			assertNotNull(node);
+			assertTrue(node == ((NameTrieInterestTable<Integer>)table)._root || !node.isEmpty());
+			pending.addAll(node._children.values());
+			nodes++;
+		}
+		assertEquals(count, nodes);
+	}
 }
@@ -0,0 +1,133 @@
+/*
+ * A CCNx library test.
+ *
+ * Copyright (C) 2013 Palo Alto Research Center, Inc.
+ *
+ * This work is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License version 2 as published by the
+ * Free Software Foundation.
+ * This work is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License
+ * for more details. You should have received a copy of the GNU General Public
+ * License along with this program; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor,
+ * Boston, MA 02110-1301, USA.
+ */
+
+package org.ccnx.ccn.impl.encoding;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import junit.framework.Assert;
+
+import org.ccnx.ccn.protocol.CCNTime;
+import org.ccnx.ccn.protocol.ContentName;
+import org.ccnx.ccn.protocol.ContentObject;
+import org.ccnx.ccn.protocol.Interest;
+import org.ccnx.ccn.protocol.PublisherPublicKeyDigest;
+import org.ccnx.ccn.protocol.Signature;
+import org.ccnx.ccn.protocol.SignedInfo;
+import org.junit.Test;
+
+/**
+ * This is mainly a benchmark rather than a functional test. It measures the time
+ * and bytes allocated per encode/decode round trip of Interests and ContentObjects,
+ * with a new codec made for every operation as before, with the per thread codecs
+ * used by GenericXMLEncodable, and through ByteBuffers.
+ *
+ * Allocation is only measured on JVMs which support per thread allocation counts.
+ */
+public class CodecRoundTripBenchmarkTest {
+
+	public static final int NUM_ITER = 50000;
+	public static final int CONTENT_SIZE = 1024;
+
+	static abstract class RoundTrip {
+		abstract XMLEncodable roundTrip(XMLEncodable object) throws Exception;
+	}
+
+	@Test
+	public void testRoundTrips() throws Exception {
+		ContentName name = ContentName.fromNative("/test/codec/roundtrip/segment");
+		Interest interest = new Interest(name);
+		interest.maxSuffixComponents(1);
+		// Fake signature, so we don't need a key manager
+		Random rnd = new Random(1);
+		byte [] fakeSigBytes = new byte[128];
+		byte [] publisher = new byte[32];
+		rnd.nextBytes(fakeSigBytes);
+		rnd.nextBytes(publisher);
+		SignedInfo signedInfo = new SignedInfo(new PublisherPublicKeyDigest(publisher), CCNTime.now(), SignedInfo.ContentType.DATA, null);
+		ContentObject co = new ContentObject(name, signedInfo, new byte[CONTENT_SIZE], new Signature(fakeSigBytes));
+
+		System.out.println("==== " + NUM_ITER + " encode/decode round trips");
+		for (XMLEncodable object : new XMLEncodable[]{interest, co}) {
+			final Class<? extends XMLEncodable> type = object.getClass();
+			final ByteBuffer buffer = ByteBuffer.allocate(object.encode().length * 2);
+
+			run(type.getSimpleName() + ", new codecs", object, new RoundTrip() {
+				XMLEncodable roundTrip(XMLEncodable object) throws Exception {
+					ByteArrayOutputStream baos = new ByteArrayOutputStream();
+					XMLEncoder encoder = XMLCodecFactory.getEncoder(BinaryXMLCodec.CODEC_NAME);
+					encoder.beginEncoding(baos);
+					object.encode(encoder);
+					encoder.endEncoding();
+
+					XMLEncodable decoded = type.newInstance();
+					XMLDecoder decoder = XMLCodecFactory.getDecoder(BinaryXMLCodec.CODEC_NAME);
+					decoder.beginDecoding(new ByteArrayInputStream(baos.toByteArray()));
+					decoded.decode(decoder);
+					decoder.endDecoding();
+					return decoded;
+				}
+			});
+			run(type.getSimpleName() + ", byte []", object, new RoundTrip() {
+				XMLEncodable roundTrip(XMLEncodable object) throws Exception {
+					XMLEncodable decoded = type.newInstance();
+					decoded.decode(object.encode());
+					return decoded;
+				}
+			});
+			run(type.getSimpleName() + ", ByteBuffer", object, new RoundTrip() {
+				XMLEncodable roundTrip(XMLEncodable object) throws Exception {
+					buffer.clear();
+					object.encode(buffer);
+					buffer.flip();
+					XMLEncodable decoded = type.newInstance();
+					decoded.decode(buffer);
+					Assert.assertEquals(0, buffer.remaining());
+					return decoded;
+				}
+			});
+		}
+	}
+
+	private void run(String label, XMLEncodable object, RoundTrip roundTrip) throws Exception {
+		// Warm up, and make sure we get back what we started with
+		for (int i = 0; i < NUM_ITER / 10; i++)
+			Assert.assertEquals(object, roundTrip.roundTrip(object));
+
+		long startBytes = allocatedBytes();
+		long start = System.nanoTime();
+		for (int i = 0; i < NUM_ITER; i++)
+			roundTrip.roundTrip(object);
+		long elapsed = System.nanoTime() - start;
+		long allocated = allocatedBytes() - startBytes;
+
+		System.out.println(label + ": " + (elapsed / NUM_ITER) + " ns/op" +
+				(startBytes < 0 ? "" : ", " + (allocated / NUM_ITER) + " bytes allocated/op"));
+	}
+
+	private static long allocatedBytes() {
+		ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		if (bean instanceof com.sun.management.ThreadMXBean)
+			return ((com.sun.management.ThreadMXBean)bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+		return -1;
+	}
+}
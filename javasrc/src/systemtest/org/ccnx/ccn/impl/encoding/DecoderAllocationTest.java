@@ -0,0 +1,182 @@
+/*
+ * A CCNx library test.
+ *
+ * Copyright (C) 2013 Palo Alto Research Center, Inc.
+ *
+ * This work is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License version 2 as published by the
+ * Free Software Foundation.
+ * This work is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License
+ * for more details. You should have received a copy of the GNU General Public
+ * License along with this program; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor,
+ * Boston, MA 02110-1301, USA.
+ */
+
+package org.ccnx.ccn.impl.encoding;
+
+import java.io.ByteArrayInputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.ByteBuffer;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.util.ArrayList;
+
+import junit.framework.Assert;
+
+import org.ccnx.ccn.protocol.CCNTime;
+import org.ccnx.ccn.protocol.ContentName;
+import org.ccnx.ccn.protocol.ContentObject;
+import org.ccnx.ccn.protocol.Interest;
+import org.ccnx.ccn.protocol.KeyLocator;
+import org.ccnx.ccn.protocol.PublisherPublicKeyDigest;
+import org.ccnx.ccn.protocol.SignedInfo;
+import org.junit.Test;
+
+/**
+ * This is mainly a benchmark rather than a functional test. It measures the
+ * bytes allocated and the time taken per packet when decoding ContentObjects
+ * through an InputStream and directly from a ByteBuffer.
+ *
+ * Allocation is only measured on JVMs which support per thread allocation counts.
+ */
+public class DecoderAllocationTest {
+
+	public static final int NUM_PACKETS = 20000;
+	public static final int CONTENT_SIZE = 4096;
+
+	static KeyPair pair = null;
+
+	static abstract class Decode {
+		abstract void decode(BinaryXMLDecoder decoder, byte [] packet, ByteBuffer buffer) throws Exception;
+	}
+
+	@Test
+	public void testDecodeAllocation() throws Exception {
+		ContentName name = ContentName.fromNative("/test/decoder/allocation/segment");
+		ContentObject co = build(name, SignedInfo.ContentType.DATA, new byte[CONTENT_SIZE], null, null);
+		final byte [] packet = co.encode();
+		ByteBuffer direct = ByteBuffer.allocateDirect(packet.length);
+		direct.put(packet);
+
+		System.out.println("==== Decoding " + NUM_PACKETS + " ContentObjects of " + packet.length + " bytes");
+		Decode fromStream = new Decode() {
+			void decode(BinaryXMLDecoder decoder, byte [] packet, ByteBuffer buffer) throws Exception {
+				decoder.beginDecoding(new ByteArrayInputStream(packet));
+				decoder.getPacket();
+			}
+		};
+		run("InputStream", packet, direct, fromStream);
+		run("Direct ByteBuffer", packet, direct, new Decode() {
+			void decode(BinaryXMLDecoder decoder, byte [] packet, ByteBuffer buffer) throws Exception {
+				buffer.clear();
+				decoder.beginDecoding(buffer);
+				decoder.getPacket();
+			}
+		});
+		run("Direct ByteBuffer, name only", packet, direct, new Decode() {
+			void decode(BinaryXMLDecoder decoder, byte [] packet, ByteBuffer buffer) throws Exception {
+				// Models a receiver which only looks at the name, for instance to drop unwanted content
+				buffer.clear();
+				decoder.beginDecoding(buffer);
+				decoder.readStartElement(CCNProtocolDTags.ContentObject);
+				decoder.readStartElement(CCNProtocolDTags.Signature);
+				while (decoder.peekStartElementAsLong() != null) {
+					decoder.readStartElement(decoder.peekStartElementAsLong());
+					decoder.readBlob();
+				}
+				decoder.readEndElement();
+				ContentName decoded = new ContentName();
+				decoded.decode(decoder);
+				Assert.assertNotNull(decoded);
+			}
+		});
+	}
+
+	/**
+	 * Packets decoded from a ByteBuffer must come out the same as from an InputStream, including
+	 * the parts that are read in place rather than copied, and with enough elements to grow
+	 * the decoder's element stack.
+	 */
+	@Test
+	public void testByteBufferDecode() throws Exception {
+		BinaryXMLDecoder plain = new BinaryXMLDecoder();
+		BinaryXMLDecoder inPlace = new BinaryXMLDecoder();
+		ArrayList<XMLEncodable> packets = new ArrayList<XMLEncodable>();
+		for (int size : new int[]{0, 1, 100, CONTENT_SIZE}) {
+			ContentName name = ContentName.fromNative("/test/decoder/buffer/" + size);
+			packets.add(build(name, SignedInfo.ContentType.DATA, new byte[size], null, null));
+			packets.add(build(name, SignedInfo.ContentType.KEY, new byte[size], 1000 + size, new byte[]{1, 2}));
+		}
+		// Enough components to outgrow the first element stack
+		ContentName longName = ContentName.fromNative("/test/decoder/buffer/long");
+		for (int i = 0; i < 200; i++)
+			longName = new ContentName(longName, "component" + i);
+		packets.add(build(longName, SignedInfo.ContentType.DATA, new byte[100], null, null));
+		Interest interest = new Interest(ContentName.fromNative("/test/decoder/buffer/interest"));
+		interest.scope(2);
+		interest.answerOriginKind(3);
+		interest.maxSuffixComponents(12345);
+		packets.add(interest);
+
+		for (XMLEncodable packet : packets) {
+			byte [] encoded = packet.encode();
+			plain.beginDecoding(new ByteArrayInputStream(encoded));
+			XMLEncodable expected = plain.getPacket();
+			ByteBuffer buffer = ByteBuffer.allocateDirect(encoded.length);
+			buffer.put(encoded);
+			buffer.flip();
+			inPlace.beginDecoding(buffer);
+			Assert.assertFalse(buffer.hasRemaining());
+			XMLEncodable decoded = inPlace.getPacket();
+			Assert.assertEquals(packet, expected);
+			Assert.assertEquals(expected, decoded);
+		}
+	}
+
+	/**
+	 * Sign with our own key so we don't need a key manager
+	 */
+	private static ContentObject build(ContentName name, SignedInfo.ContentType type, byte [] content,
+			Integer freshnessSeconds, byte [] finalBlockID) throws Exception {
+		synchronized (DecoderAllocationTest.class) {
+			if (null == pair) {
+				KeyPairGenerator kpg = KeyPairGenerator.getInstance("RSA");
+				kpg.initialize(1024);
+				pair = kpg.generateKeyPair();
+			}
+		}
+		PublisherPublicKeyDigest publisher = new PublisherPublicKeyDigest(pair.getPublic());
+		// Locate the key by name, as most segments do
+		SignedInfo signedInfo = new SignedInfo(publisher, CCNTime.now(), type,
+				new KeyLocator(new ContentName("test", "decoder", "key"), publisher), freshnessSeconds, finalBlockID);
+		return new ContentObject(name, signedInfo, content, pair.getPrivate());
+	}
+
+	private void run(String label, byte [] packet, ByteBuffer buffer, Decode decode) throws Exception {
+		BinaryXMLDecoder decoder = new BinaryXMLDecoder();
+		// Warm up
+		for (int i = 0; i < NUM_PACKETS / 10; i++)
+			decode.decode(decoder, packet, buffer);
+
+		long startBytes = allocatedBytes();
+		long start = System.nanoTime();
+		for (int i = 0; i < NUM_PACKETS; i++)
+			decode.decode(decoder, packet, buffer);
+		long elapsed = System.nanoTime() - start;
+		long allocated = allocatedBytes() - startBytes;
+
+		System.out.println(label + ": " + (elapsed / NUM_PACKETS) + " ns/packet" +
+				(startBytes < 0 ? "" : ", " + (allocated / NUM_PACKETS) + " bytes allocated/packet"));
+	}
+
+	private static long allocatedBytes() {
+		ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		if (bean instanceof com.sun.management.ThreadMXBean)
+			return ((com.sun.management.ThreadMXBean)bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+		return -1;
+	}
+}
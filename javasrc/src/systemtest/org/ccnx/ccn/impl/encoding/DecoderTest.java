@@ -17,6 +17,7 @@
 package org.ccnx.ccn.impl.encoding;
 
 import java.io.ByteArrayInputStream;
+import java.nio.ByteBuffer;
 import java.util.Random;
 
 import junit.framework.Assert;
@@ -59,6 +60,46 @@ public class DecoderTest {
 		Assert.assertEquals(((ContentObject)packet).name(), contentName);
 	}
 
+	@Test
+	public void testByteBufferDecoding() throws Exception {
+		ContentName interestName = ContentName.fromNative(interestTest);
+		Interest interest = new Interest(interestName);
+		byte[] interestBytes = interest.encode();
+		ContentName contentName = ContentName.fromNative(contentTest);
+		ContentObject co = ContentObject.buildContentObject(contentName, "test decoder".getBytes());
+		byte[] contentBytes = co.encode();
+
+		// Two packets back to back in a direct buffer, as they would be read from the network
+		ByteBuffer buffer = ByteBuffer.allocateDirect(interestBytes.length + contentBytes.length);
+		buffer.put(interestBytes);
+		buffer.put(contentBytes);
+		buffer.flip();
+
+		_decoder.beginDecoding(buffer);
+		XMLEncodable packet = _decoder.getPacket();
+		Assert.assertTrue("Packet has incorrect type", packet instanceof Interest);
+		Assert.assertEquals(interest, packet);
+		Assert.assertEquals(interestBytes.length, buffer.position());
+
+		_decoder.beginDecoding(buffer);
+		packet = _decoder.getPacket();
+		Assert.assertTrue("Packet has incorrect type", packet instanceof ContentObject);
+		Assert.assertEquals(co, packet);
+		Assert.assertFalse(buffer.hasRemaining());
+
+		// Heap buffer and a stream should give the same result
+		_decoder.beginDecoding(ByteBuffer.wrap(contentBytes));
+		packet = _decoder.getPacket();
+		_decoder.beginDecoding(new ByteArrayInputStream(contentBytes));
+		Assert.assertEquals(_decoder.getPacket(), packet);
+
+		// Truncated packet
+		try {
+			_decoder.beginDecoding(ByteBuffer.wrap(contentBytes, 0, contentBytes.length - 10));
+			Assert.fail("Decoded truncated packet");
+		} catch (ContentDecodingException cde) {}
+	}
+
 	@Test
 	public void testResync() throws Exception {
 		Log.info(Log.FAC_TEST, "Starting testResync");
@@ -0,0 +1,105 @@
+/*
+ * A CCNx library test.
+ *
+ * Copyright (C) 2013 Palo Alto Research Center, Inc.
+ *
+ * This work is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License version 2 as published by the
+ * Free Software Foundation.
+ * This work is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License
+ * for more details. You should have received a copy of the GNU General Public
+ * License along with this program; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor,
+ * Boston, MA 02110-1301, USA.
+ */
+
+package org.ccnx.ccn.impl.security.keys;
+
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+
+import org.ccnx.ccn.protocol.CCNTime;
+import org.ccnx.ccn.protocol.ContentName;
+import org.ccnx.ccn.protocol.ContentObject;
+import org.ccnx.ccn.protocol.PublisherPublicKeyDigest;
+import org.ccnx.ccn.protocol.SignedInfo;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Check the bookkeeping of the VerifiedContentCache, and that PublicKeyCache
+ * drops verified content when a key is forgotten or replaced.
+ */
+public class VerifiedContentCacheTest {
+
+	static KeyPair pair;
+	static PublisherPublicKeyDigest publisher;
+
+	@BeforeClass
+	public static void setUpBeforeClass() throws Exception {
+		KeyPairGenerator kpg = KeyPairGenerator.getInstance("RSA");
+		kpg.initialize(1024);
+		pair = kpg.generateKeyPair();
+		publisher = new PublisherPublicKeyDigest(pair.getPublic());
+	}
+
+	@Test
+	public void testHitsAndEviction() throws Exception {
+		VerifiedContentCache cache = new VerifiedContentCache(2);
+		ContentObject a = object("a");
+		ContentObject b = object("b");
+		ContentObject c = object("c");
+
+		Assert.assertFalse(cache.isVerified(a));
+		Assert.assertTrue(ContentObject.verify(a, pair.getPublic()));
+		cache.verified(a);
+		Assert.assertTrue(cache.isVerified(a));
+		Assert.assertEquals(0.5, cache.hitRate(), 0.0);
+
+		// a is the most recently used, so b goes when c arrives
+		cache.verified(b);
+		Assert.assertTrue(cache.isVerified(a));
+		cache.verified(c);
+		Assert.assertEquals(2, cache.size());
+		Assert.assertTrue(cache.isVerified(a));
+		Assert.assertFalse(cache.isVerified(b));
+		Assert.assertTrue(cache.isVerified(c));
+		Assert.assertEquals(1, cache.getStats().getCounter(VerifiedContentCache.StatsEnum.Evictions.toString()));
+		Assert.assertEquals(4, cache.getStats().getCounter(VerifiedContentCache.StatsEnum.VerificationsAvoided.toString()));
+	}
+
+	@Test
+	public void testForgetKey() throws Exception {
+		PublicKeyCache keys = new PublicKeyCache();
+		keys.remember(pair.getPublic(), null);
+		VerifiedContentCache cache = keys.getVerifiedContentCache();
+		ContentObject a = object("a");
+		cache.verified(a);
+		Assert.assertTrue(cache.isVerified(a));
+
+		// Remembering the same key again changes nothing
+		keys.remember(pair.getPublic(), null);
+		Assert.assertTrue(cache.isVerified(a));
+
+		keys.forget(publisher);
+		Assert.assertNull(keys.getPublicKeyFromCache(publisher));
+		Assert.assertFalse(cache.isVerified(a));
+	}
+
+	@Test
+	public void testDisabled() throws Exception {
+		VerifiedContentCache cache = new VerifiedContentCache(0);
+		ContentObject a = object("a");
+		cache.verified(a);
+		Assert.assertFalse(cache.isVerified(a));
+		Assert.assertEquals(0, cache.size());
+	}
+
+	private ContentObject object(String content) throws Exception {
+		SignedInfo signedInfo = new SignedInfo(publisher, CCNTime.now(), SignedInfo.ContentType.DATA, null);
+		return new ContentObject(new ContentName("test", "verifiedContentCache", content), signedInfo, content.getBytes(), pair.getPrivate());
+	}
+}
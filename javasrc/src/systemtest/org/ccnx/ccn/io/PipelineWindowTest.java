@@ -0,0 +1,91 @@
+/*
+ * A CCNx library test.
+ *
+ * Copyright (C) 2013 Palo Alto Research Center, Inc.
+ *
+ * This work is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License version 2 as published by the
+ * Free Software Foundation.
+ * This work is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License
+ * for more details. You should have received a copy of the GNU General Public
+ * License along with this program; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor,
+ * Boston, MA 02110-1301, USA.
+ */
+
+package org.ccnx.ccn.io;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Check the pipeline window controllers used by CCNAbstractInputStream without a network.
+ */
+public class PipelineWindowTest {
+
+	@Test
+	public void testFixedWindow() {
+		PipelineWindow window = new PipelineWindow(4, 4);
+		for (int i = 0; i < 100; i++)
+			window.segmentDelivered(100);
+		Assert.assertEquals(4, window.window());
+		window.holeDetected();
+		window.timeout();
+		Assert.assertEquals(4, window.window());
+		Assert.assertEquals(100, window.delivered());
+	}
+
+	@Test
+	public void testAIMDGrowsAndBacksOff() {
+		PipelineWindow window = new AIMDPipelineWindow(4, 64);
+		for (int i = 0; i < 60; i++)
+			window.segmentDelivered(100);
+		Assert.assertEquals(64, window.window());
+
+		window.holeDetected();
+		Assert.assertEquals(32, window.window());
+		// Further holes in the same window are the same congestion event
+		window.holeDetected();
+		window.timeout();
+		Assert.assertEquals(32, window.window());
+
+		// Past the slow start threshold we only grow by one per window
+		for (int i = 0; i < 40; i++)
+			window.segmentDelivered(100);
+		Assert.assertEquals(33, window.window());
+
+		window.timeout();
+		Assert.assertEquals(PipelineWindow.MIN_WINDOW, window.window());
+	}
+
+	@Test
+	public void testDelayBacksOffWhenQueueing() {
+		DelayPipelineWindow window = new DelayPipelineWindow(16, 64);
+		window.rttSample(10);
+		for (int i = 0; i < 20; i++)
+			window.segmentDelivered(100);
+		Assert.assertEquals(17, window.window());
+
+		// Round trip doubles: about half the window is sitting in queues
+		for (int i = 0; i < 30; i++)
+			window.rttSample(20);
+		Assert.assertTrue(window.queued() > DelayPipelineWindow.BETA);
+		for (int i = 0; i < 100; i++)
+			window.segmentDelivered(100);
+		Assert.assertTrue(window.window() < 17);
+	}
+
+	@Test
+	public void testRttEstimate() {
+		PipelineWindow window = new PipelineWindow(4, 4);
+		Assert.assertEquals(-1, window.rtt(), 0);
+		window.rttSample(100);
+		Assert.assertEquals(100, window.rtt(), 0);
+		for (int i = 0; i < 100; i++)
+			window.rttSample(50);
+		Assert.assertEquals(50, window.rtt(), 1);
+		Assert.assertEquals(50, window.minRtt(), 0);
+	}
+}
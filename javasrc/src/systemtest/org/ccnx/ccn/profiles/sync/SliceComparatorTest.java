@@ -18,6 +18,7 @@
 package org.ccnx.ccn.profiles.sync;
 
 import java.util.ArrayList;
+import java.util.Random;
 import java.util.TreeSet;
 
 import junit.framework.Assert;
@@ -25,6 +26,7 @@ import junit.framework.Assert;
 import org.ccnx.ccn.CCNSyncHandler;
 import org.ccnx.ccn.CCNTestBase;
 import org.ccnx.ccn.CCNTestHelper;
+import org.ccnx.ccn.config.SystemConfiguration;
 import org.ccnx.ccn.impl.support.Log;
 import org.ccnx.ccn.impl.sync.NodeBuilder;
 import org.ccnx.ccn.impl.sync.SliceComparator;
@@ -89,6 +91,89 @@ public class SliceComparatorTest extends CCNTestBase implements CCNSyncHandler {
 		Log.info(Log.FAC_TEST, "Completed testUpdateWithEmbeddedSingleNode");
 	}
 	
+	/**
+	 * Many comparators share the sync threads; idle ones shouldn't run at all and
+	 * ones with something to compare should still get it done.
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void testSharedScheduler() throws Exception {
+		Log.info(Log.FAC_TEST, "Starting testSharedScheduler");
+		ContentName prefix = new ContentName(testHelper.getTestNamespace("testSharedScheduler"));
+		int threadsBefore = Thread.activeCount();
+		ArrayList<SliceComparator> comparators = new ArrayList<SliceComparator>();
+		for (int i = 0; i < 200; i++) {
+			SliceComparator sc = new SliceComparator(null, snc, this, null, null, null, getHandle);
+			sc.kickCompare();
+			comparators.add(sc);
+		}
+		for (SliceComparator sc : comparators) {
+			Assert.assertFalse(sc.comparing());
+			Assert.assertEquals(1, sc.getStats().getCounter("IdleWakeupsAvoided"));
+		}
+
+		sawContent = false;
+		for (int i = 0; i < comparators.size(); i += 10) {
+			comparators.get(i).addPending(createNode(prefix, i, 3));
+			comparators.get(i).kickCompare();
+		}
+		Assert.assertTrue("Too many threads: " + Thread.activeCount(),
+				Thread.activeCount() - threadsBefore <= SystemConfiguration.SYNC_COMPARE_THREADS);
+		for (SliceComparator sc : comparators) {
+			while (sc.comparing())
+				Thread.sleep(100);
+		}
+		Assert.assertTrue("Didn't see our names", sawContent);
+		for (int i = 0; i < comparators.size(); i++) {
+			Assert.assertEquals(i % 10 == 0 ? 1 : 0, comparators.get(i).getStats().getCounter("CompareRounds"));
+		}
+		Log.info(Log.FAC_TEST, "Completed testSharedScheduler");
+	}
+
+	/**
+	 * Comparators waiting for nodes which never arrive shouldn't hold up the shared threads
+	 * for the other comparators, and should give up on the nodes after the timeout.
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void testMissingNodeDoesntHoldThread() throws Exception {
+		Log.info(Log.FAC_TEST, "Starting testMissingNodeDoesntHoldThread");
+		ContentName prefix = new ContentName(testHelper.getTestNamespace("testMissingNodeDoesntHoldThread"));
+		ConfigSlice slice = new ConfigSlice(prefix, prefix, null);
+		Random rnd = new Random();
+		ArrayList<SliceComparator> waiting = new ArrayList<SliceComparator>();
+		for (int i = 0; i < SystemConfiguration.SYNC_COMPARE_THREADS * 2; i++) {
+			SliceComparator sc = new SliceComparator(null, snc, this, slice, null, null, getHandle);
+			byte [] hash = new byte[32];
+			rnd.nextBytes(hash);
+			sc.addPending(shc.addHash(hash, snc));
+			sc.kickCompare();
+			waiting.add(sc);
+		}
+		Thread.sleep(500);
+
+		sawContent = false;
+		SliceComparator sc = new SliceComparator(null, snc, this, null, null, null, getHandle);
+		sc.addPending(createNode(prefix, 0, 3));
+		long start = System.currentTimeMillis();
+		sc.kickCompare();
+		while (sc.comparing())
+			Thread.sleep(10);
+		Assert.assertTrue("Didn't see our names", sawContent);
+		Assert.assertTrue("Compare was held up by node fetches", System.currentTimeMillis() - start < SystemConfiguration.LONG_TIMEOUT);
+		for (SliceComparator wsc : waiting)
+			Assert.assertTrue(wsc.comparing());
+
+		for (SliceComparator wsc : waiting) {
+			while (wsc.comparing() && System.currentTimeMillis() - start < SystemConfiguration.LONG_TIMEOUT * 3)
+				Thread.sleep(100);
+			Assert.assertFalse("Node fetch didn't time out", wsc.comparing());
+		}
+		Log.info(Log.FAC_TEST, "Completed testMissingNodeDoesntHoldThread");
+	}
+
 	private SyncTreeEntry createNode(ContentName prefix, int start, int size) {
 		TreeSet<ContentName> names = new TreeSet<ContentName>();
 		for (int i = start; i < start + size; i++) {
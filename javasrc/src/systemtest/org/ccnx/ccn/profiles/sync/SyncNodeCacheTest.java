@@ -0,0 +1,136 @@
+/*
+ * A CCNx library test.
+ *
+ * Copyright (C) 2013 Palo Alto Research Center, Inc.
+ *
+ * This work is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License version 2 as published by the
+ * Free Software Foundation.
+ * This work is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License
+ * for more details. You should have received a copy of the GNU General Public
+ * License along with this program; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor,
+ * Boston, MA 02110-1301, USA.
+ */
+
+package org.ccnx.ccn.profiles.sync;
+
+import java.util.ArrayList;
+
+import org.ccnx.ccn.config.SystemConfiguration;
+import org.ccnx.ccn.impl.CCNStats;
+import org.ccnx.ccn.impl.security.crypto.CCNDigestHelper;
+import org.ccnx.ccn.impl.sync.SyncNodeCache;
+import org.ccnx.ccn.impl.sync.SyncNodeCache.Pending;
+import org.ccnx.ccn.io.content.SyncNodeComposite;
+import org.ccnx.ccn.io.content.SyncNodeComposite.SyncNodeElement;
+import org.ccnx.ccn.protocol.ContentName;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Check that the sync node cache is shared between slices and stays within its size, and that
+ * node requests which have timed out are forgotten.
+ */
+public class SyncNodeCacheTest {
+
+	static int savedBytes;
+
+	@BeforeClass
+	public static void setUpBeforeClass() {
+		savedBytes = SystemConfiguration.SYNC_NODE_CACHE_BYTES;
+		SystemConfiguration.SYNC_NODE_CACHE_BYTES = 64 * 1024;
+	}
+
+	@AfterClass
+	public static void tearDownAfterClass() {
+		SystemConfiguration.SYNC_NODE_CACHE_BYTES = savedBytes;
+	}
+
+	@Test
+	public void testSharedAcrossSlices() {
+		SyncNodeCache slice1 = new SyncNodeCache();
+		SyncNodeCache slice2 = new SyncNodeCache();
+		SyncNodeComposite node = networkNode("shared", 0, 10);
+		slice1.putNode(node);
+		Assert.assertSame(node, slice2.getNode(node.getHash()));
+	}
+
+	@Test
+	public void testBounded() {
+		SyncNodeCache snc = new SyncNodeCache();
+		CCNStats stats = snc.getStats();
+		long evictions = stats.getCounter("Evictions");
+		ArrayList<byte []> hashes = new ArrayList<byte []>();
+		for (int i = 0; i < 1000; i++) {
+			SyncNodeComposite node = networkNode("bounded", i, 20);
+			hashes.add(node.getHash());
+			snc.putNode(node);
+			Assert.assertTrue(stats.getCounter("ResidentBytes") <= SystemConfiguration.SYNC_NODE_CACHE_BYTES);
+		}
+		Assert.assertTrue(stats.getCounter("Evictions") > evictions);
+
+		// The most recent nodes are held even though we don't hold them
+		System.gc();
+		long hits = stats.getCounter("Hits");
+		Assert.assertNotNull(snc.getNode(hashes.get(hashes.size() - 1)));
+		Assert.assertEquals(hits + 1, stats.getCounter("Hits"));
+
+		// Nodes nobody holds are eventually forgotten
+		long misses = stats.getCounter("Misses");
+		for (int i = 0; i < 10 && null != snc.getNode(hashes.get(0)); i++) {
+			System.gc();
+			snc.putNode(networkNode("purge", i, 1));
+		}
+		Assert.assertNull(snc.getNode(hashes.get(0)));
+		Assert.assertTrue(stats.getCounter("Misses") > misses);
+	}
+
+	@Test
+	public void testPendingExpiry() {
+		SyncNodeCache snc = new SyncNodeCache();
+		CCNStats stats = snc.getStats();
+		long expired = stats.getCounter("PendingExpired");
+		byte [] hash = CCNDigestHelper.digest("pending".getBytes());
+		Pending lock = snc.pending(hash);
+		lock.requested(0);
+		Assert.assertSame(lock, snc.pending(hash));
+
+		// A timed out fetch is forgotten so that the node can be requested again
+		snc.expirePending(hash, lock);
+		Pending again = snc.pending(hash);
+		Assert.assertNotSame(lock, again);
+		Assert.assertFalse(again.getPending());
+		Assert.assertEquals(expired + 1, stats.getCounter("PendingExpired"));
+
+		// Fetches nobody waits for are swept out as more are requested
+		again.requested(0);
+		ArrayList<Pending> locks = new ArrayList<Pending>();
+		for (int i = 0; i < SyncNodeCache.PENDING_SWEEP_SIZE * 4; i++) {
+			Pending pending = snc.pending(CCNDigestHelper.digest(("pending" + i).getBytes()));
+			pending.requested(i % 2 == 0 ? 0 : SystemConfiguration.LONG_TIMEOUT);
+			locks.add(pending);
+		}
+		Assert.assertNotSame(again, snc.pending(hash));
+		Assert.assertNotSame(locks.get(0), snc.pending(CCNDigestHelper.digest("pending0".getBytes())));
+		Assert.assertSame(locks.get(1), snc.pending(CCNDigestHelper.digest("pending1".getBytes())));
+		Assert.assertTrue(stats.getCounter("PendingExpired") > expired + 1);
+	}
+
+	/**
+	 * A node of hashes, as if we had decoded it from the network
+	 */
+	private SyncNodeComposite networkNode(String prefix, int index, int size) {
+		ArrayList<SyncNodeElement> refs = new ArrayList<SyncNodeElement>();
+		for (int i = 0; i < size; i++)
+			refs.add(new SyncNodeElement(CCNDigestHelper.digest((prefix + index + "-" + i).getBytes())));
+		SyncNodeElement minName = new SyncNodeElement(new ContentName(prefix, "node-" + index));
+		SyncNodeComposite node = new SyncNodeComposite(refs, minName, minName, size, 2);
+		node._retrievable = true;
+		return node;
+	}
+}
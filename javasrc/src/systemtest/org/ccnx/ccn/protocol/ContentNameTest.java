@@ -23,13 +23,18 @@ import static org.ccnx.ccn.protocol.ContentName.fromNative;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.net.URISyntaxException;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
+import java.util.TreeMap;
 
 import org.ccnx.ccn.impl.support.DataUtils;
 import org.ccnx.ccn.impl.support.Log;
@@ -636,6 +641,130 @@ public class ContentNameTest {
 		Log.info(Log.FAC_TEST, "Completed testContentNamePrintPerformance");
 	}
 
+	@Test
+	public void testIntern() throws MalformedContentNameStringException {
+		Log.info(Log.FAC_TEST, "Starting testIntern");
+
+		ContentName name = ContentName.fromNative("/test/intern/a/b");
+		ContentName interned = name.intern();
+		assertEquals(name, interned);
+		assertEquals(name.hashCode(), interned.hashCode());
+		assertSame(interned, ContentName.fromNative("/test/intern/a/b").intern());
+		assertSame(interned, interned.intern());
+
+		// Prefixes are interned too and share their components with the longer name
+		ContentName parent = ContentName.fromNative("/test/intern/a").intern();
+		assertSame(parent.lastComponent(), interned.component(2));
+		assertTrue(parent.isPrefixOf(interned));
+		assertFalse(interned.isPrefixOf(parent));
+
+		// Subclasses intern to plain names
+		ContentName sub = new ContentName(name) { private static final long serialVersionUID = 1L; };
+		assertNotSame(ContentName.class, sub.getClass());
+		assertSame(interned, sub.intern());
+
+		Log.info(Log.FAC_TEST, "Completed testIntern");
+	}
+
+	@Test
+	public void testFastPathsAgreeWithBytes() throws MalformedContentNameStringException {
+		Log.info(Log.FAC_TEST, "Starting testFastPathsAgreeWithBytes");
+
+		ContentName a = ContentName.fromNative("/test/fast/a");
+		ContentName ab = new ContentName(a, "b");
+		ContentName abDecoded = ContentName.fromNative("/test/fast/a/b");
+		ContentName ac = new ContentName(a, "c");
+
+		assertEquals(ab, abDecoded);
+		assertEquals(0, ab.compareTo(abDecoded));
+		assertEquals(ab.hashCode(), abDecoded.hashCode());
+		assertEquals(Arrays.deepHashCode(new byte[][]{"test".getBytes(), "fast".getBytes(), "a".getBytes(), "b".getBytes()}), ab.hashCode());
+		assertTrue(a.compareTo(ab) < 0);
+		assertTrue(ab.compareTo(a) > 0);
+		assertTrue(ab.compareTo(ac) < 0);
+		assertTrue(ab.intern().compareTo(ac.intern()) < 0);
+		assertFalse(ab.equals(ac));
+		assertTrue(a.isPrefixOf(abDecoded));
+		assertTrue(a.isPrefixOf(ab));
+		assertFalse(ac.isPrefixOf(ab));
+		assertEquals(3, ab.matchLength(ac));
+		assertTrue(ROOT.isPrefixOf(ab));
+
+		// decoding into an existing name must forget its hash
+		ContentName reused = new ContentName();
+		int rootHash = reused.hashCode();
+		XMLEncodableTester.encodeDecodeTest("ContentName", ab, reused, new ContentName());
+		assertEquals(ab.hashCode(), reused.hashCode());
+		assertFalse(rootHash == reused.hashCode());
+
+		Log.info(Log.FAC_TEST, "Completed testFastPathsAgreeWithBytes");
+	}
+
+	/**
+	 * Not really a test, times TreeMap and HashMap operations keyed by names of 8 to 12
+	 * components, with lookups done by equal names that were decoded separately, and
+	 * with interned names.
+	 */
+	@Test
+	public void testNameMapPerformance() throws MalformedContentNameStringException {
+		Log.info(Log.FAC_TEST, "Starting testNameMapPerformance");
+
+		ArrayList<ContentName> keys = new ArrayList<ContentName>();
+		ArrayList<ContentName> lookups = new ArrayList<ContentName>();
+		for (int app = 0; app < 4; app++) {
+			for (int user = 0; user < 16; user++) {
+				for (int doc = 0; doc < 16; doc++) {
+					for (int seg = 0; seg < 1 + (doc % 5); seg++) {
+						String uri = "/parc.com/apps/app" + app + "/users/user" + user + "/documents/doc" + doc +
+									"/%FD%05%12%34%56%78" + ((seg > 0) ? "/%00%0" + seg : "");
+						keys.add(ContentName.fromURI(uri));
+						lookups.add(ContentName.fromURI(uri));
+					}
+				}
+			}
+		}
+		ArrayList<ContentName> interned = new ArrayList<ContentName>();
+		for (ContentName key : keys)
+			interned.add(key.intern());
+
+		for (int pass = 0; pass < 2; pass++) {
+			// first pass is warm up
+			timeMaps(pass > 0, "Decoded keys", keys, lookups);
+			timeMaps(pass > 0, "Interned keys", interned, interned);
+		}
+		Log.info(Log.FAC_TEST, "Completed testNameMapPerformance");
+	}
+
+	private void timeMaps(boolean print, String label, ArrayList<ContentName> keys, ArrayList<ContentName> lookups) {
+		int rounds = 50;
+		long tree = 0;
+		long hash = 0;
+		for (int r = 0; r < rounds; r++) {
+			long start = System.nanoTime();
+			TreeMap<ContentName, Integer> treeMap = new TreeMap<ContentName, Integer>();
+			for (int i = 0; i < keys.size(); i++)
+				treeMap.put(keys.get(i), i);
+			for (int i = 0; i < lookups.size(); i++)
+				assertEquals(Integer.valueOf(i), treeMap.get(lookups.get(i)));
+			for (ContentName lookup : lookups)
+				treeMap.remove(lookup);
+			assertTrue(treeMap.isEmpty());
+			tree += System.nanoTime() - start;
+
+			start = System.nanoTime();
+			HashMap<ContentName, Integer> hashMap = new HashMap<ContentName, Integer>();
+			for (int i = 0; i < keys.size(); i++)
+				hashMap.put(keys.get(i), i);
+			for (int i = 0; i < lookups.size(); i++)
+				assertEquals(Integer.valueOf(i), hashMap.get(lookups.get(i)));
+			hash += System.nanoTime() - start;
+		}
+		if (print) {
+			long ops = (long)rounds * keys.size();
+			System.out.println(label + ": TreeMap put/get/remove " + (tree / ops) + " ns/name, HashMap put/get " + (hash / ops) + " ns/name");
+		}
+	}
+
 	@Test
 	public void testPostfix() throws MalformedContentNameStringException {
 		Log.info(Log.FAC_TEST, "Starting testPostfix");
@@ -20,7 +20,9 @@ package org.ccnx.ccn.protocol;
 import static org.junit.Assert.*;
 
 import java.util.ArrayList;
+import java.util.Random;
 
+import org.ccnx.ccn.impl.support.DataUtils;
 import org.ccnx.ccn.impl.support.Log;
 import org.ccnx.ccn.io.content.ContentDecodingException;
 import org.ccnx.ccn.io.content.ContentEncodingException;
@@ -242,4 +244,90 @@ public class ExcludeTest {
 		
 		Log.info(Log.FAC_TEST, "Completed testEncodeDecode");
 	}
+
+	/**
+	 * Check the sorted matching against a plain scan, with Any filling some gaps, and
+	 * check that matchAll agrees with match.
+	 */
+	@Test
+	public void testSortedMatch() {
+		Log.info(Log.FAC_TEST, "Starting testSortedMatch");
+
+		Random rnd = new Random(1);
+		for (int round = 0; round < 50; round++) {
+			ArrayList<byte []> all = new ArrayList<byte []>();
+			for (int i = 0; i < 300; i++)
+				all.add(new byte[]{(byte)(i >> 8), (byte)i});
+			ArrayList<Exclude.Element> elements = new ArrayList<Exclude.Element>();
+			ArrayList<Boolean> anyBefore = new ArrayList<Boolean>();
+			ArrayList<byte []> excluded = new ArrayList<byte []>();
+			for (byte [] component : all) {
+				if (rnd.nextInt(4) != 0)
+					continue;
+				boolean any = rnd.nextInt(5) == 0;
+				if (any)
+					elements.add(new ExcludeAny());
+				elements.add(new ExcludeComponent(component));
+				anyBefore.add(any);
+				excluded.add(component);
+			}
+			boolean trailingAny = rnd.nextBoolean();
+			if (trailingAny)
+				elements.add(new ExcludeAny());
+			if (elements.isEmpty())
+				continue;
+			ef = new Exclude(elements);
+
+			// all is sorted, as the components were added in shortlex order
+			boolean [] bulk = ef.matchAll(all);
+			for (int i = 0; i < all.size(); i++) {
+				byte [] component = all.get(i);
+				boolean expected = false;
+				int j = 0;
+				while (j < excluded.size() && DataUtils.compare(excluded.get(j), component) < 0)
+					j++;
+				if (j < excluded.size())
+					expected = DataUtils.compare(excluded.get(j), component) == 0 || anyBefore.get(j);
+				else
+					expected = trailingAny;
+				assertEquals(expected, ef.match(component));
+				assertEquals(expected, bulk[i]);
+			}
+		}
+
+		// A filter that changes is matched with its new contents
+		ef = Exclude.uptoFactory(b1);
+		assertTrue(ef.match(b0));
+		assertFalse(ef.match(b3));
+		ef.add(new byte [][]{b3});
+		assertTrue(ef.match(b3));
+		ef.excludeUpto(b06);
+		assertTrue(ef.match("05".getBytes()));
+		assertFalse(ef.match(b000));
+
+		Log.info(Log.FAC_TEST, "Completed testSortedMatch");
+	}
+
+	/**
+	 * Filters decoded from the network are not checked, so out of order components
+	 * must still match as they did before.
+	 */
+	@Test
+	public void testUnsortedMatch() {
+		Log.info(Log.FAC_TEST, "Starting testUnsortedMatch");
+
+		ef = new Exclude();
+		ef._values.add(c3);
+		ef._values.add(c1);
+		assertTrue(ef.match(b3));
+		assertFalse(ef.match(b1));
+		ArrayList<byte []> components = new ArrayList<byte []>();
+		components.add(b1);
+		components.add(b3);
+		boolean [] bulk = ef.matchAll(components);
+		assertFalse(bulk[0]);
+		assertTrue(bulk[1]);
+
+		Log.info(Log.FAC_TEST, "Completed testUnsortedMatch");
+	}
 }
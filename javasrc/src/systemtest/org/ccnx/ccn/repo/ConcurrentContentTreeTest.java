@@ -0,0 +1,191 @@
+/*
+ * A CCNx library test.
+ *
+ * Copyright (C) 2013 Palo Alto Research Center, Inc.
+ *
+ * This work is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License version 2 as published by the
+ * Free Software Foundation.
+ * This work is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License
+ * for more details. You should have received a copy of the GNU General Public
+ * License along with this program; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor,
+ * Boston, MA 02110-1301, USA.
+ */
+
+package org.ccnx.ccn.repo;
+
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.ccnx.ccn.impl.repo.ConcurrentContentTree;
+import org.ccnx.ccn.impl.repo.ContentRef;
+import org.ccnx.ccn.impl.repo.ContentTree;
+import org.ccnx.ccn.profiles.SegmentationProfile;
+import org.ccnx.ccn.protocol.CCNTime;
+import org.ccnx.ccn.protocol.ContentName;
+import org.ccnx.ccn.protocol.ContentObject;
+import org.ccnx.ccn.protocol.Interest;
+import org.ccnx.ccn.protocol.PublisherPublicKeyDigest;
+import org.ccnx.ccn.protocol.Signature;
+import org.ccnx.ccn.protocol.SignedInfo;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Check that a ConcurrentContentTree finds the same content as a ContentTree, including while
+ * content is being inserted, and time lookups from several threads against both while one
+ * thread inserts.
+ *
+ * The content is not really signed as the tree doesn't verify it.
+ */
+public class ConcurrentContentTreeTest {
+
+	public static final int NUM_DIRECTORIES = 20;
+	public static final int NUM_OBJECTS = 10000;
+	public static final int PRELOADED = 8000;
+	public static final int READS = 200000;
+	public static final int [] READERS = new int[]{1, 2, 4};
+
+	static ArrayList<ContentObject> _objects = new ArrayList<ContentObject>();
+	static ArrayList<Interest> _interests = new ArrayList<Interest>();
+	static ContentName _prefix = new ContentName("repoTest", "concurrentTree");
+
+	static class IndexRef extends ContentRef {
+		int _index;
+		IndexRef(int index) {
+			_index = index;
+		}
+	}
+
+	static ContentTree.ContentGetter _getter = new ContentTree.ContentGetter() {
+		public ContentObject get(ContentRef ref) {
+			return _objects.get(((IndexRef)ref)._index);
+		}
+	};
+
+	@BeforeClass
+	public static void setUpBeforeClass() throws Exception {
+		Random rnd = new Random(1);
+		byte [] fakeSigBytes = new byte[128];
+		byte [] publisher = new byte[32];
+		rnd.nextBytes(fakeSigBytes);
+		rnd.nextBytes(publisher);
+		Signature signature = new Signature(fakeSigBytes);
+		SignedInfo signedInfo = new SignedInfo(new PublisherPublicKeyDigest(publisher), CCNTime.now(), SignedInfo.ContentType.DATA, null);
+		for (int i = 0; i < NUM_OBJECTS; i++) {
+			ContentName name = new ContentName(_prefix, "directory" + (i % NUM_DIRECTORIES), "object" + i);
+			_objects.add(new ContentObject(SegmentationProfile.segmentName(name, 0), signedInfo, ("object " + i).getBytes(), signature));
+			_interests.add(new Interest(name));
+		}
+	}
+
+	@Test
+	public void testSameResults() throws Exception {
+		ContentTree tree = preloaded(new ContentTree());
+		ContentTree concurrent = preloaded(new ConcurrentContentTree());
+		for (int i = PRELOADED; i < NUM_OBJECTS; i++) {
+			Assert.assertNull(concurrent.get(_interests.get(i), _getter));
+			insert(tree, i);
+			insert(concurrent, i);
+		}
+		// A duplicate isn't inserted twice
+		Assert.assertFalse(concurrent.insert(_objects.get(0), new IndexRef(0), System.currentTimeMillis(), _getter, null));
+
+		Interest latest = new Interest(new ContentName(_prefix, "directory3"));
+		latest.childSelector(Interest.CHILD_SELECTOR_RIGHT);
+		Interest earliest = new Interest(new ContentName(_prefix, "directory3"));
+		ArrayList<Interest> interests = new ArrayList<Interest>(_interests);
+		interests.add(latest);
+		interests.add(earliest);
+		for (Interest interest : interests) {
+			ContentObject expected = tree.get(interest, _getter);
+			Assert.assertNotNull(expected);
+			Assert.assertSame(expected, concurrent.get(interest, _getter));
+		}
+		ContentName fullName = _objects.get(5).fullName();
+		Assert.assertTrue(concurrent.matchContent(fullName));
+		Assert.assertTrue(concurrent.replace(fullName, lookupRef(concurrent, 5), new IndexRef(5)));
+		Assert.assertSame(_objects.get(5), concurrent.get(_interests.get(5), _getter));
+	}
+
+	/**
+	 * Not really a test, times lookups of preloaded content from several threads while
+	 * another thread inserts the rest, and checks every lookup finds its content.
+	 */
+	@Test
+	public void testMixedReadWrite() throws Exception {
+		System.out.println("==== " + READS + " lookups shared between readers while " + (NUM_OBJECTS - PRELOADED) + " objects are inserted, "
+				+ Runtime.getRuntime().availableProcessors() + " processors");
+		for (int pass = 0; pass < 2; pass++) {
+			// first pass is warm up
+			for (int readers : READERS) {
+				long locked = time(preloaded(new ContentTree()), readers);
+				long lockFree = time(preloaded(new ConcurrentContentTree()), readers);
+				if (pass > 0)
+					System.out.println(readers + " readers: ContentTree " + locked + " lookups/s, ConcurrentContentTree " + lockFree + " lookups/s");
+			}
+		}
+	}
+
+	private long time(final ContentTree tree, int readers) throws Exception {
+		final AtomicInteger failures = new AtomicInteger(0);
+		final int reads = READS / readers;
+		Thread writer = new Thread() {
+			public void run() {
+				for (int i = PRELOADED; i < NUM_OBJECTS; i++)
+					insert(tree, i);
+			}
+		};
+		Thread [] threads = new Thread[readers];
+		for (int t = 0; t < readers; t++) {
+			final Random rnd = new Random(t);
+			threads[t] = new Thread() {
+				public void run() {
+					for (int i = 0; i < reads; i++) {
+						int choice = rnd.nextInt(PRELOADED);
+						if (tree.get(_interests.get(choice), _getter) != _objects.get(choice))
+							failures.incrementAndGet();
+					}
+				}
+			};
+		}
+		long start = System.nanoTime();
+		writer.start();
+		for (Thread thread : threads)
+			thread.start();
+		for (Thread thread : threads)
+			thread.join();
+		long elapsed = System.nanoTime() - start;
+		writer.join();
+		Assert.assertEquals(0, failures.get());
+		for (int i = PRELOADED; i < NUM_OBJECTS; i++)
+			Assert.assertSame(_objects.get(i), tree.get(_interests.get(i), _getter));
+		return (long)reads * readers * 1000000000L / elapsed;
+	}
+
+	private ContentTree preloaded(ContentTree tree) {
+		for (int i = 0; i < PRELOADED; i++)
+			insert(tree, i);
+		return tree;
+	}
+
+	private static void insert(ContentTree tree, int i) {
+		Assert.assertTrue(tree.insert(_objects.get(i), new IndexRef(i), System.currentTimeMillis(), _getter, null));
+	}
+
+	private ContentRef lookupRef(ContentTree tree, final int index) {
+		final ContentRef [] found = new ContentRef[1];
+		tree.visitContent(new ContentTree.ContentVisitor() {
+			public void visit(ContentName name, ContentRef ref) {
+				if (((IndexRef)ref)._index == index)
+					found[0] = ref;
+			}
+		});
+		return found[0];
+	}
+}
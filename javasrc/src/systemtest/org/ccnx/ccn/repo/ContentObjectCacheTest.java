@@ -0,0 +1,216 @@
+/*
+ * A CCNx library test.
+ *
+ * Copyright (C) 2013 Palo Alto Research Center, Inc.
+ *
+ * This work is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License version 2 as published by the
+ * Free Software Foundation.
+ * This work is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License
+ * for more details. You should have received a copy of the GNU General Public
+ * License along with this program; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor,
+ * Boston, MA 02110-1301, USA.
+ */
+
+package org.ccnx.ccn.repo;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.ccnx.ccn.impl.CCNStats.CCNEnumStats;
+import org.ccnx.ccn.impl.repo.ContentObjectCache;
+import org.ccnx.ccn.impl.repo.ContentRef;
+import org.ccnx.ccn.impl.repo.ContentTree;
+import org.ccnx.ccn.impl.repo.RepositoryServer;
+import org.ccnx.ccn.profiles.SegmentationProfile;
+import org.ccnx.ccn.protocol.CCNTime;
+import org.ccnx.ccn.protocol.ContentName;
+import org.ccnx.ccn.protocol.ContentObject;
+import org.ccnx.ccn.protocol.Interest;
+import org.ccnx.ccn.protocol.PublisherPublicKeyDigest;
+import org.ccnx.ccn.protocol.Signature;
+import org.ccnx.ccn.protocol.SignedInfo;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Test the repository's cache of decoded objects, and time Zipf distributed reads through
+ * a ContentTree with and without it. The getter decodes each object from its encoding as
+ * a repository store does, without the disk read, so the gain on a real store is larger.
+ *
+ * The content is not really signed as nothing here verifies it.
+ */
+public class ContentObjectCacheTest {
+
+	public static final int NUM_OBJECTS = 10000;
+	public static final int CONTENT_SIZE = 1024;
+	public static final int READS = 50000;
+
+	static ContentName _prefix = new ContentName("repoTest", "objectCache");
+	static ContentTree _tree = new ContentTree();
+	static ArrayList<byte []> _encoded = new ArrayList<byte []>();
+	static ArrayList<IndexRef> _refs = new ArrayList<IndexRef>();
+	static SignedInfo _signedInfo;
+	static Signature _signature;
+
+	static class IndexRef extends ContentRef {
+		int _index;
+		IndexRef(int index) {
+			_index = index;
+		}
+	}
+
+	/**
+	 * Decode from the encoding on every miss, as LogStructRepoStore does after reading
+	 */
+	static class CachingGetter implements ContentTree.ContentGetter {
+		ContentObjectCache _cache;
+		int _reads = 0;
+
+		CachingGetter(ContentObjectCache cache) {
+			_cache = cache;
+		}
+
+		public ContentObject get(ContentRef ref) {
+			ContentObject content = _cache.get(ref);
+			if (null == content) {
+				content = new ContentObject();
+				try {
+					content.decode(_encoded.get(((IndexRef)ref)._index));
+				} catch (Exception e) {
+					return null;
+				}
+				_reads++;
+				_cache.put(ref, content);
+			}
+			return content;
+		}
+	}
+
+	@BeforeClass
+	public static void setUpBeforeClass() throws Exception {
+		Random rnd = new Random(1);
+		byte [] fakeSigBytes = new byte[128];
+		byte [] publisher = new byte[32];
+		rnd.nextBytes(fakeSigBytes);
+		rnd.nextBytes(publisher);
+		_signature = new Signature(fakeSigBytes);
+		_signedInfo = new SignedInfo(new PublisherPublicKeyDigest(publisher), CCNTime.now(), SignedInfo.ContentType.DATA, null);
+		CachingGetter getter = new CachingGetter(new ContentObjectCache(0));
+		for (int i = 0; i < NUM_OBJECTS; i++) {
+			byte [] content = new byte[CONTENT_SIZE];
+			content[0] = (byte)i;
+			content[1] = (byte)(i >> 8);
+			ContentObject co = new ContentObject(SegmentationProfile.segmentName(new ContentName(_prefix, "object" + i), 0), _signedInfo, content, _signature);
+			_encoded.add(co.encode());
+			IndexRef ref = new IndexRef(i);
+			_refs.add(ref);
+			_tree.insert(co, ref, System.currentTimeMillis(), getter, null);
+		}
+	}
+
+	@Test
+	public void testBoundedLRU() throws Exception {
+		CCNEnumStats<RepositoryServer.StatsEnum> stats = new CCNEnumStats<RepositoryServer.StatsEnum>(RepositoryServer.StatsEnum.HandleInterest);
+		ContentObject co = object(0);
+		ContentObjectCache cache = new ContentObjectCache(0);
+		cache.setStats(stats);
+		cache.put(_refs.get(0), co);
+		Assert.assertNull(cache.get(_refs.get(0)));
+
+		// Room for about 10 objects
+		cache.setMaxBytes(10 * (CONTENT_SIZE + 512));
+		for (int i = 0; i < 20; i++) {
+			cache.put(_refs.get(i), object(i));
+			Assert.assertTrue(cache.getBytes() <= 10 * (CONTENT_SIZE + 512));
+			// keep the first one in use
+			Assert.assertNotNull(cache.get(_refs.get(0)));
+		}
+		Assert.assertNull(cache.get(_refs.get(1)));
+		Assert.assertNotNull(cache.get(_refs.get(19)));
+		Assert.assertTrue(stats.getCounter("ObjectCacheEvictions") >= 10);
+		Assert.assertEquals(21, stats.getCounter("ObjectCacheHits"));
+		Assert.assertEquals(1, stats.getCounter("ObjectCacheMisses"));
+
+		// peek doesn't count as a use
+		long hits = stats.getCounter("ObjectCacheHits");
+		Assert.assertNotNull(cache.peek(_refs.get(19)));
+		Assert.assertEquals(hits, stats.getCounter("ObjectCacheHits"));
+
+		// Moved objects are found under their new reference only
+		IndexRef moved = new IndexRef(19);
+		ContentObject cached = cache.peek(_refs.get(19));
+		cache.replace(_refs.get(19), moved);
+		Assert.assertNull(cache.peek(_refs.get(19)));
+		Assert.assertSame(cached, cache.peek(moved));
+
+		// A reader which missed before the move mustn't bring the old reference back
+		cache.put(_refs.get(19), cached);
+		Assert.assertNull(cache.peek(_refs.get(19)));
+
+		long bytes = cache.getBytes();
+		cache.remove(moved);
+		Assert.assertTrue(cache.getBytes() < bytes);
+		cache.put(moved, cached);
+		Assert.assertNull(cache.peek(moved));
+		cache.setMaxBytes(0);
+		Assert.assertEquals(0, cache.getCount());
+		Assert.assertEquals(0, cache.getBytes());
+	}
+
+	/**
+	 * Not really a test, times reads of objects chosen with a Zipf distribution, as popular
+	 * segments are, and checks the right object comes back.
+	 */
+	@Test
+	public void testZipfReads() throws Exception {
+		double [] cumulative = new double[NUM_OBJECTS];
+		double total = 0;
+		for (int i = 0; i < NUM_OBJECTS; i++) {
+			total += 1.0 / (i + 1);
+			cumulative[i] = total;
+		}
+		int [] choices = new int[READS];
+		Random rnd = new Random(2);
+		for (int i = 0; i < READS; i++) {
+			int rank = Arrays.binarySearch(cumulative, rnd.nextDouble() * total);
+			choices[i] = (rank < 0) ? Math.min(-rank - 1, NUM_OBJECTS - 1) : rank;
+		}
+		Interest [] interests = new Interest[NUM_OBJECTS];
+		for (int i = 0; i < NUM_OBJECTS; i++)
+			interests[i] = new Interest(new ContentName(_prefix, "object" + i));
+
+		System.out.println("==== " + READS + " Zipf distributed reads of " + NUM_OBJECTS + " objects of " + CONTENT_SIZE + " bytes");
+		for (int pass = 0; pass < 2; pass++) {
+			// first pass is warm up
+			for (int cacheBytes : new int[]{0, 1024 * 1024, 4 * 1024 * 1024}) {
+				CCNEnumStats<RepositoryServer.StatsEnum> stats = new CCNEnumStats<RepositoryServer.StatsEnum>(RepositoryServer.StatsEnum.HandleInterest);
+				ContentObjectCache cache = new ContentObjectCache(cacheBytes);
+				cache.setStats(stats);
+				CachingGetter getter = new CachingGetter(cache);
+				long start = System.nanoTime();
+				for (int choice : choices) {
+					ContentObject co = _tree.get(interests[choice], getter);
+					Assert.assertEquals((byte)choice, co.content()[0]);
+					Assert.assertEquals((byte)(choice >> 8), co.content()[1]);
+				}
+				long elapsed = System.nanoTime() - start;
+				if (pass > 0)
+					System.out.println((cacheBytes / 1024) + "KB cache: " + (elapsed / READS) + " ns/read, " +
+							getter._reads + " decodes, hits " + stats.getCounter("ObjectCacheHits") +
+							", evictions " + stats.getCounter("ObjectCacheEvictions"));
+			}
+		}
+	}
+
+	private ContentObject object(int i) throws Exception {
+		ContentObject co = new ContentObject();
+		co.decode(_encoded.get(i));
+		return co;
+	}
+}
@@ -0,0 +1,125 @@
+/*
+ * A CCNx library test.
+ *
+ * Copyright (C) 2013 Palo Alto Research Center, Inc.
+ *
+ * This work is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License version 2 as published by the
+ * Free Software Foundation.
+ * This work is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License
+ * for more details. You should have received a copy of the GNU General Public
+ * License along with this program; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor,
+ * Boston, MA 02110-1301, USA.
+ */
+
+package org.ccnx.ccn.repo;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+import org.ccnx.ccn.impl.repo.ContentRef;
+import org.ccnx.ccn.impl.repo.ContentTree;
+import org.ccnx.ccn.profiles.SegmentationProfile;
+import org.ccnx.ccn.profiles.VersioningProfile;
+import org.ccnx.ccn.protocol.CCNTime;
+import org.ccnx.ccn.protocol.ContentName;
+import org.ccnx.ccn.protocol.ContentObject;
+import org.ccnx.ccn.protocol.Exclude;
+import org.ccnx.ccn.protocol.Interest;
+import org.ccnx.ccn.protocol.PublisherPublicKeyDigest;
+import org.ccnx.ccn.protocol.Signature;
+import org.ccnx.ccn.protocol.SignedInfo;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * This is mainly a benchmark rather than a functional test. It times ContentTree lookups
+ * for the latest and earliest version of a document with many versions, when the interest
+ * excludes hundreds of versions, as the versioning code does when it asks for versions it
+ * hasn't seen yet. It also checks the right version comes back.
+ *
+ * The content is not really signed as the tree doesn't verify it.
+ */
+public class ContentTreeExcludeTest {
+
+	public static final int NUM_VERSIONS = 1000;
+	public static final int [] EXCLUDED = new int[]{0, 100, 300, 500};
+	public static final int LOOKUPS = 2000;
+
+	static ContentTree _tree = new ContentTree();
+	static ArrayList<ContentObject> _objects = new ArrayList<ContentObject>();
+	static ArrayList<byte []> _versions = new ArrayList<byte []>();
+	static ContentName _document = new ContentName("repoTest", "excludeBenchmark", "document");
+
+	static class IndexRef extends ContentRef {
+		int _index;
+		IndexRef(int index) {
+			_index = index;
+		}
+	}
+
+	static ContentTree.ContentGetter _getter = new ContentTree.ContentGetter() {
+		public ContentObject get(ContentRef ref) {
+			return _objects.get(((IndexRef)ref)._index);
+		}
+	};
+
+	@BeforeClass
+	public static void setUpBeforeClass() throws Exception {
+		Random rnd = new Random(1);
+		byte [] fakeSigBytes = new byte[128];
+		byte [] publisher = new byte[32];
+		rnd.nextBytes(fakeSigBytes);
+		rnd.nextBytes(publisher);
+		Signature signature = new Signature(fakeSigBytes);
+		SignedInfo signedInfo = new SignedInfo(new PublisherPublicKeyDigest(publisher), CCNTime.now(), SignedInfo.ContentType.DATA, null);
+		for (int i = 0; i < NUM_VERSIONS; i++) {
+			ContentName version = VersioningProfile.addVersion(_document, 1000000L + i);
+			_versions.add(version.lastComponent());
+			ContentObject co = new ContentObject(SegmentationProfile.segmentName(version, 0), signedInfo, ("version " + i).getBytes(), signature);
+			_objects.add(co);
+			_tree.insert(co, new IndexRef(i), System.currentTimeMillis(), _getter, null);
+		}
+	}
+
+	@Test
+	public void testExcludedVersionLookups() throws Exception {
+		System.out.println("==== ContentTree lookups among " + NUM_VERSIONS + " versions");
+		for (int pass = 0; pass < 2; pass++) {
+			// first pass is warm up
+			for (int excluded : EXCLUDED) {
+				long latest = time(excluded, true);
+				long earliest = time(excluded, false);
+				if (pass > 0)
+					System.out.println(excluded + " excluded versions: latest " + latest + " ns/lookup, earliest " + earliest + " ns/lookup");
+			}
+		}
+	}
+
+	/**
+	 * Exclude the newest (or oldest) versions and look for the latest (or earliest) one left.
+	 */
+	private long time(int excluded, boolean latest) {
+		Interest interest = new Interest(_document);
+		if (excluded > 0) {
+			byte [][] omissions = new byte[excluded][];
+			for (int i = 0; i < excluded; i++)
+				omissions[i] = _versions.get(latest ? NUM_VERSIONS - 1 - i : i);
+			interest.exclude(new Exclude(omissions));
+		}
+		if (latest)
+			interest.childSelector(Interest.CHILD_SELECTOR_RIGHT);
+		int expected = latest ? NUM_VERSIONS - 1 - excluded : excluded;
+
+		long start = System.nanoTime();
+		for (int i = 0; i < LOOKUPS; i++) {
+			ContentObject result = _tree.get(interest, _getter);
+			Assert.assertSame(_objects.get(expected), result);
+		}
+		return (System.nanoTime() - start) / LOOKUPS;
+	}
+}
@@ -0,0 +1,170 @@
+/*
+ * A CCNx library test.
+ *
+ * Copyright (C) 2013 Palo Alto Research Center, Inc.
+ *
+ * This work is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License version 2 as published by the
+ * Free Software Foundation.
+ * This work is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License
+ * for more details. You should have received a copy of the GNU General Public
+ * License along with this program; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor,
+ * Boston, MA 02110-1301, USA.
+ */
+
+package org.ccnx.ccn.repo;
+
+import static org.ccnx.ccn.profiles.CommandMarker.COMMAND_MARKER_BASIC_ENUMERATION;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.util.ArrayList;
+
+import org.ccnx.ccn.impl.repo.ContentRef;
+import org.ccnx.ccn.impl.repo.ContentTree;
+import org.ccnx.ccn.impl.repo.LogStructRepoStore;
+import org.ccnx.ccn.impl.repo.RepositoryServer;
+import org.ccnx.ccn.impl.support.DataUtils;
+import org.ccnx.ccn.profiles.nameenum.BasicNameEnumeratorListener;
+import org.ccnx.ccn.profiles.nameenum.NameEnumerationResponse;
+import org.ccnx.ccn.protocol.CCNTime;
+import org.ccnx.ccn.protocol.ContentName;
+import org.ccnx.ccn.protocol.ContentObject;
+import org.ccnx.ccn.protocol.Interest;
+import org.ccnx.ccn.protocol.PublisherPublicKeyDigest;
+import org.ccnx.ccn.protocol.Signature;
+import org.ccnx.ccn.protocol.SignedInfo;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Check that the repository reuses name enumeration responses for a large directory until
+ * something is added to it, and that a response can be read a batch of names at a time.
+ * Also times building a response against reusing one, and checks that the repository sends
+ * the segments it signed for a response again rather than signing it once more.
+ */
+public class ContentTreeNameEnumerationTest {
+
+	public static final int NUM_CHILDREN = 20000;
+	public static final int BATCH_SIZE = 1000;
+
+	static ContentTree _tree = new ContentTree();
+	static ContentName _directory = new ContentName("repoTest", "nameEnumeration", "directory");
+	static ContentName _responseName = new ContentName("testRepo");
+	static long _ts;
+
+	static class TestRef extends ContentRef {}
+
+	static class BatchCounter implements BasicNameEnumeratorListener {
+		ArrayList<ContentName> _names = new ArrayList<ContentName>();
+		int _batches = 0;
+
+		public int handleNameEnumerator(ContentName prefix, ArrayList<ContentName> names) {
+			Assert.assertEquals(_directory, prefix);
+			Assert.assertTrue(names.size() <= BATCH_SIZE);
+			_names.addAll(names);
+			_batches++;
+			return 0;
+		}
+	}
+
+	@BeforeClass
+	public static void setUpBeforeClass() throws Exception {
+		_ts = System.currentTimeMillis() - 10000;
+		for (int i = 0; i < NUM_CHILDREN; i++)
+			_tree.insert(new ContentName(_directory, "child" + i, new byte[32]), new TestRef(), _ts);
+	}
+
+	@Test
+	public void testCachedResponses() throws Exception {
+		Interest interest = new Interest(new ContentName(_directory, COMMAND_MARKER_BASIC_ENUMERATION));
+		long start = System.nanoTime();
+		NameEnumerationResponse first = _tree.getNamesWithPrefix(interest, _responseName);
+		long built = System.nanoTime() - start;
+		Assert.assertEquals(NUM_CHILDREN, first.getNames().size());
+
+		start = System.nanoTime();
+		NameEnumerationResponse second = _tree.getNamesWithPrefix(interest, _responseName);
+		long reused = System.nanoTime() - start;
+		Assert.assertSame(first, second);
+		Assert.assertSame(first.getNamesForResponse(), second.getNamesForResponse());
+		System.out.println("==== Name enumeration of " + NUM_CHILDREN + " children: built in " + (built / 1000) + " us, reused in " + (reused / 1000) + " us");
+
+		// A new child makes a new version
+		_tree.insert(new ContentName(_directory, "newChild", new byte[32]), new TestRef(), _ts + 1000);
+		NameEnumerationResponse third = _tree.getNamesWithPrefix(interest, _responseName);
+		Assert.assertNotSame(first, third);
+		Assert.assertEquals(NUM_CHILDREN + 1, third.getNames().size());
+		Assert.assertTrue(third.getNames().contains(new ContentName("newChild")));
+		Assert.assertTrue(third.getTimestamp().compareTo(first.getTimestamp()) > 0);
+
+		// Content added further down doesn't change the list
+		_tree.insert(new ContentName(_directory, "child0", new byte[31]), new TestRef(), _ts + 2000);
+		Assert.assertSame(third, _tree.getNamesWithPrefix(interest, _responseName));
+	}
+
+	@Test
+	public void testReadNames() throws Exception {
+		Interest interest = new Interest(new ContentName(_directory, COMMAND_MARKER_BASIC_ENUMERATION));
+		NameEnumerationResponse response = _tree.getNamesWithPrefix(interest, _responseName);
+		byte [] encoded = response.getNamesForResponse().encode();
+
+		BatchCounter counter = new BatchCounter();
+		int count = NameEnumerationResponse.readNames(new ByteArrayInputStream(encoded), _directory, BATCH_SIZE, counter);
+		Assert.assertEquals(response.getNames().size(), count);
+		Assert.assertEquals(response.getNames(), counter._names);
+		Assert.assertEquals((count + BATCH_SIZE - 1) / BATCH_SIZE, counter._batches);
+
+		counter = new BatchCounter();
+		Assert.assertEquals(0, NameEnumerationResponse.readNames(new ByteArrayInputStream(new byte[0]), _directory, BATCH_SIZE, counter));
+		Assert.assertEquals(0, counter._batches);
+	}
+
+	@Test
+	public void testSavedSegments() throws Exception {
+		String root = System.getProperty("REPO_ROOT");
+		if (null == root)
+			root = "repotest";
+		File repoDir = new File(root + "NameEnumeration");
+		DataUtils.deleteDirectory(repoDir);
+		repoDir.mkdirs();
+		LogStructRepoStore repo = new LogStructRepoStore();
+		repo.initialize(repoDir.getPath(), null, "NERepository", "/parc.com/csl/ccn/repositories/NERepository", null, null);
+		RepositoryServer server = new RepositoryServer(repo);
+		server.start();
+		try {
+			SignedInfo signedInfo = new SignedInfo(new PublisherPublicKeyDigest(new byte[32]), CCNTime.now(), SignedInfo.ContentType.DATA, null);
+			for (int i = 0; i < 10; i++)
+				repo.saveContent(new ContentObject(new ContentName(_directory, "child" + i), signedInfo, new byte[10], new Signature(new byte[128])));
+			Interest interest = new Interest(new ContentName(_directory, COMMAND_MARKER_BASIC_ENUMERATION));
+			NameEnumerationResponse response = repo.getNamesWithPrefix(interest, server.getResponseName());
+			Assert.assertNull(response.getResponseSegments());
+
+			server.sendEnumerationResponse(response);
+			ArrayList<ContentObject> segments = response.getResponseSegments();
+			Assert.assertNotNull(segments);
+			Assert.assertFalse(segments.isEmpty());
+
+			// The same version is sent again from what we saved
+			response = repo.getNamesWithPrefix(interest, server.getResponseName());
+			server.sendEnumerationResponse(response);
+			Assert.assertSame(segments, response.getResponseSegments());
+
+			// A new child gets a new response that has to be signed again
+			Thread.sleep(10);
+			repo.saveContent(new ContentObject(new ContentName(_directory, "newChild"), signedInfo, new byte[10], new Signature(new byte[128])));
+			response = repo.getNamesWithPrefix(interest, server.getResponseName());
+			Assert.assertNull(response.getResponseSegments());
+			server.sendEnumerationResponse(response);
+			Assert.assertNotNull(response.getResponseSegments());
+			Assert.assertNotSame(segments, response.getResponseSegments());
+		} finally {
+			server.shutDown();
+			DataUtils.deleteDirectory(repoDir);
+		}
+	}
+}
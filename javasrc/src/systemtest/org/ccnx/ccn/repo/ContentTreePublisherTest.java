@@ -0,0 +1,165 @@
+/*
+ * A CCNx library test.
+ *
+ * Copyright (C) 2013 Palo Alto Research Center, Inc.
+ *
+ * This work is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License version 2 as published by the
+ * Free Software Foundation.
+ * This work is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License
+ * for more details. You should have received a copy of the GNU General Public
+ * License along with this program; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor,
+ * Boston, MA 02110-1301, USA.
+ */
+
+package org.ccnx.ccn.repo;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+import org.ccnx.ccn.impl.repo.ContentRef;
+import org.ccnx.ccn.impl.repo.ContentTree;
+import org.ccnx.ccn.profiles.SegmentationProfile;
+import org.ccnx.ccn.profiles.VersioningProfile;
+import org.ccnx.ccn.protocol.CCNTime;
+import org.ccnx.ccn.protocol.ContentName;
+import org.ccnx.ccn.protocol.ContentObject;
+import org.ccnx.ccn.protocol.Interest;
+import org.ccnx.ccn.protocol.PublisherPublicKeyDigest;
+import org.ccnx.ccn.protocol.Signature;
+import org.ccnx.ccn.protocol.SignedInfo;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Check that ContentTree matches interests naming a publisher without fetching content it
+ * knows can't match, and count the objects fetched per interest on a document with many
+ * versions from two publishers. A tree restored from a checkpoint doesn't know who published
+ * anything until it has fetched it, as was always the case before.
+ *
+ * The content is not really signed as the tree doesn't verify it.
+ */
+public class ContentTreePublisherTest {
+
+	public static final int NUM_VERSIONS = 200;
+	public static final int FIRST_B_VERSION = 50;
+
+	static ArrayList<ContentObject> _objects = new ArrayList<ContentObject>();
+	static ContentName _document = new ContentName("repoTest", "publisher", "document");
+	static PublisherPublicKeyDigest _publisherA;
+	static PublisherPublicKeyDigest _publisherB;
+
+	static class IndexRef extends ContentRef {
+		int _index;
+		IndexRef(int index) {
+			_index = index;
+		}
+	}
+
+	static class CountingGetter implements ContentTree.ContentGetter {
+		int _fetches = 0;
+
+		public ContentObject get(ContentRef ref) {
+			_fetches++;
+			return _objects.get(((IndexRef)ref)._index);
+		}
+	}
+
+	@BeforeClass
+	public static void setUpBeforeClass() throws Exception {
+		Random rnd = new Random(1);
+		byte [] fakeSigBytes = new byte[128];
+		byte [] publisher = new byte[32];
+		rnd.nextBytes(fakeSigBytes);
+		Signature signature = new Signature(fakeSigBytes);
+		rnd.nextBytes(publisher);
+		_publisherA = new PublisherPublicKeyDigest(publisher.clone());
+		rnd.nextBytes(publisher);
+		_publisherB = new PublisherPublicKeyDigest(publisher.clone());
+		SignedInfo signedInfoA = new SignedInfo(_publisherA, CCNTime.now(), SignedInfo.ContentType.DATA, null);
+		SignedInfo signedInfoB = new SignedInfo(_publisherB, CCNTime.now(), SignedInfo.ContentType.DATA, null);
+		for (int i = 0; i < NUM_VERSIONS; i++) {
+			ContentName version = VersioningProfile.addVersion(_document, 1000000L + i);
+			_objects.add(new ContentObject(SegmentationProfile.segmentName(version, 0),
+					i < FIRST_B_VERSION ? signedInfoA : signedInfoB, ("version " + i).getBytes(), signature));
+		}
+	}
+
+	@Test
+	public void testPublisherMatch() throws Exception {
+		System.out.println("==== Objects fetched per interest, " + NUM_VERSIONS + " versions, the first " + FIRST_B_VERSION + " from publisher A");
+		ContentTree inserted = new ContentTree();
+		CountingGetter getter = new CountingGetter();
+		for (int i = 0; i < NUM_VERSIONS; i++)
+			inserted.insert(_objects.get(i), new IndexRef(i), System.currentTimeMillis(), getter, null);
+
+		Interest latestA = new Interest(_document, _publisherA);
+		latestA.childSelector(Interest.CHILD_SELECTOR_RIGHT);
+		Interest earliestB = new Interest(_document, _publisherB);
+		Interest latest = new Interest(_document);
+		latest.childSelector(Interest.CHILD_SELECTOR_RIGHT);
+
+		Object [][] cases = new Object[][] {
+				{"latest from A", latestA, FIRST_B_VERSION - 1},
+				{"earliest from B", earliestB, FIRST_B_VERSION},
+				{"latest from anyone", latest, NUM_VERSIONS - 1},
+		};
+		for (Object [] c : cases) {
+			Interest interest = (Interest) c[1];
+			int expected = (Integer) c[2];
+			ContentTree restored = restoredTree();
+			int unknown = fetches(restored, interest, expected);
+			int known = fetches(restored, interest, expected);
+			Assert.assertEquals(known, fetches(inserted, interest, expected));
+			Assert.assertEquals(1, known);
+			System.out.println(c[0] + ": " + unknown + " fetched not knowing publishers, " + known + " knowing them");
+		}
+		Assert.assertEquals(NUM_VERSIONS - FIRST_B_VERSION + 1, fetches(restoredTree(), latestA, FIRST_B_VERSION - 1));
+
+		// Exact match on the full name
+		ContentName fullName = _objects.get(0).fullName();
+		Interest exact = new Interest(fullName, _publisherA);
+		exact.maxSuffixComponents(0);
+		Assert.assertEquals(1, fetches(inserted, exact, 0));
+		Interest wrongPublisher = new Interest(fullName, _publisherB);
+		wrongPublisher.maxSuffixComponents(0);
+		getter = new CountingGetter();
+		Assert.assertNull(inserted.get(wrongPublisher, getter));
+		Assert.assertEquals(0, getter._fetches);
+
+		// Moved content keeps what we know about it
+		IndexRef moved = new IndexRef(0);
+		final ContentRef [] old = new ContentRef[1];
+		inserted.visitContent(new ContentTree.ContentVisitor() {
+			public void visit(ContentName name, ContentRef ref) {
+				if (((IndexRef)ref)._index == 0)
+					old[0] = ref;
+			}
+		});
+		Assert.assertTrue(inserted.replace(fullName, old[0], moved));
+		getter = new CountingGetter();
+		Assert.assertNull(inserted.get(wrongPublisher, getter));
+		Assert.assertEquals(0, getter._fetches);
+	}
+
+	/**
+	 * A tree as restored from a checkpoint, which has names but not content
+	 */
+	private ContentTree restoredTree() {
+		ContentTree tree = new ContentTree();
+		for (int i = 0; i < NUM_VERSIONS; i++)
+			tree.insert(_objects.get(i).fullName(), new IndexRef(i), System.currentTimeMillis());
+		return tree;
+	}
+
+	private int fetches(ContentTree tree, Interest interest, int expected) {
+		CountingGetter getter = new CountingGetter();
+		ContentObject result = tree.get(interest, getter);
+		Assert.assertSame(_objects.get(expected), result);
+		return getter._fetches;
+	}
+}
@@ -0,0 +1,147 @@
+/*
+ * A CCNx library test.
+ *
+ * Copyright (C) 2013 Palo Alto Research Center, Inc.
+ *
+ * This work is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License version 2 as published by the
+ * Free Software Foundation.
+ * This work is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License
+ * for more details. You should have received a copy of the GNU General Public
+ * License along with this program; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor,
+ * Boston, MA 02110-1301, USA.
+ */
+
+package org.ccnx.ccn.repo;
+
+import java.io.File;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.ccnx.ccn.impl.repo.LogStructRepoStore;
+import org.ccnx.ccn.impl.support.DataUtils;
+import org.ccnx.ccn.protocol.CCNTime;
+import org.ccnx.ccn.protocol.ContentName;
+import org.ccnx.ccn.protocol.ContentObject;
+import org.ccnx.ccn.protocol.Interest;
+import org.ccnx.ccn.protocol.PublisherPublicKeyDigest;
+import org.ccnx.ccn.protocol.Signature;
+import org.ccnx.ccn.protocol.SignedInfo;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * This is mainly a benchmark rather than a functional test. It compares the throughput
+ * of concurrent reads from a LogStructRepoStore using the shared RandomAccessFile and
+ * using memory mapped reads, and checks that both return the right content.
+ *
+ * The content is not really signed as the store doesn't verify it. As for RFSTest,
+ * initializing the repository requires ccnd to be running.
+ */
+public class LogStructReadBenchmarkTest {
+
+	public static final int NUM_OBJECTS = 10000;
+	public static final int CONTENT_SIZE = 1024;
+	public static final int READS_PER_THREAD = 5000;
+	public static final int [] THREADS = new int[]{1, 2, 4, 8};
+
+	static File _repoDir;
+	static LogStructRepoStore _repo;
+	static ContentName _prefix = new ContentName("repoTest", "readBenchmark");
+
+	@BeforeClass
+	public static void setUpBeforeClass() throws Exception {
+		String root = System.getProperty("REPO_ROOT");
+		if (null == root)
+			root = "repotest";
+		_repoDir = new File(root + "Benchmark");
+		DataUtils.deleteDirectory(_repoDir);
+		_repoDir.mkdirs();
+		_repo = new LogStructRepoStore();
+		_repo.initialize(_repoDir.getPath(), null, "BenchmarkRepository", "/parc.com/csl/ccn/repositories/BenchmarkRepository", null, null);
+
+		Random rnd = new Random(1);
+		byte [] fakeSigBytes = new byte[128];
+		byte [] publisher = new byte[32];
+		rnd.nextBytes(fakeSigBytes);
+		rnd.nextBytes(publisher);
+		Signature signature = new Signature(fakeSigBytes);
+		SignedInfo signedInfo = new SignedInfo(new PublisherPublicKeyDigest(publisher), CCNTime.now(), SignedInfo.ContentType.DATA, null);
+		for (int i = 0; i < NUM_OBJECTS; i++) {
+			byte [] content = new byte[CONTENT_SIZE];
+			content[0] = (byte)i;
+			content[1] = (byte)(i >> 8);
+			_repo.saveContent(new ContentObject(new ContentName(_prefix, "object" + i), signedInfo, content, signature));
+		}
+	}
+
+	@AfterClass
+	public static void tearDownAfterClass() throws Exception {
+		_repo.shutDown();
+		DataUtils.deleteDirectory(_repoDir);
+	}
+
+	@Test
+	public void testConcurrentReads() throws Exception {
+		System.out.println("==== LogStructRepoStore concurrent reads of " + CONTENT_SIZE + " byte objects");
+		for (int threads : THREADS) {
+			_repo.setMappedReads(false);
+			double fileRate = run(threads);
+			_repo.setMappedReads(true);
+			double mappedRate = run(threads);
+			System.out.println(threads + " threads: RandomAccessFile " + (long)fileRate +
+					" reads/sec, mapped " + (long)mappedRate + " reads/sec");
+		}
+	}
+
+	/**
+	 * Also check that content written after the file was mapped can be read
+	 */
+	@Test
+	public void testReadAfterAppend() throws Exception {
+		_repo.setMappedReads(true);
+		Assert.assertNotNull(_repo.getContent(new Interest(new ContentName(_prefix, "object0"))));
+		ContentObject first = _repo.getContent(new Interest(new ContentName(_prefix, "object0")));
+		ContentName name = new ContentName(_prefix, "appended");
+		ContentObject co = new ContentObject(name, first.signedInfo(), "appended".getBytes(), first.signature());
+		_repo.saveContent(co);
+		ContentObject result = _repo.getContent(new Interest(name));
+		Assert.assertEquals(co, result);
+	}
+
+	private double run(int threads) throws Exception {
+		final AtomicInteger errors = new AtomicInteger(0);
+		Thread [] readers = new Thread[threads];
+		for (int t = 0; t < threads; t++) {
+			final long seed = t;
+			readers[t] = new Thread() {
+				public void run() {
+					Random rnd = new Random(seed);
+					for (int i = 0; i < READS_PER_THREAD; i++) {
+						int which = rnd.nextInt(NUM_OBJECTS);
+						try {
+							ContentObject co = _repo.getContent(new Interest(new ContentName(_prefix, "object" + which)));
+							if (null == co || co.content()[0] != (byte)which || co.content()[1] != (byte)(which >> 8))
+								errors.incrementAndGet();
+						} catch (Exception e) {
+							errors.incrementAndGet();
+						}
+					}
+				}
+			};
+		}
+		long start = System.nanoTime();
+		for (Thread reader : readers)
+			reader.start();
+		for (Thread reader : readers)
+			reader.join();
+		long elapsed = System.nanoTime() - start;
+		Assert.assertEquals(0, errors.get());
+		return (threads * READS_PER_THREAD) / (elapsed / 1000000000.0);
+	}
+}
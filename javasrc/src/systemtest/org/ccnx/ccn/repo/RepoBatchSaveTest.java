@@ -0,0 +1,171 @@
+/*
+ * A CCNx library test.
+ *
+ * Copyright (C) 2013 Palo Alto Research Center, Inc.
+ *
+ * This work is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License version 2 as published by the
+ * Free Software Foundation.
+ * This work is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License
+ * for more details. You should have received a copy of the GNU General Public
+ * License along with this program; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor,
+ * Boston, MA 02110-1301, USA.
+ */
+
+package org.ccnx.ccn.repo;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.ccnx.ccn.impl.repo.LogStructRepoStore;
+import org.ccnx.ccn.impl.repo.RepositoryDataHandler;
+import org.ccnx.ccn.impl.repo.RepositoryException;
+import org.ccnx.ccn.impl.support.DataUtils;
+import org.ccnx.ccn.profiles.nameenum.NameEnumerationResponse;
+import org.ccnx.ccn.protocol.CCNTime;
+import org.ccnx.ccn.protocol.ContentName;
+import org.ccnx.ccn.protocol.ContentObject;
+import org.ccnx.ccn.protocol.Interest;
+import org.ccnx.ccn.protocol.PublisherPublicKeyDigest;
+import org.ccnx.ccn.protocol.Signature;
+import org.ccnx.ccn.protocol.SignedInfo;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Check that content saved in batches by LogStructRepoStore can all be read back, before and
+ * after a restart, and that when a batch fails partway the objects saved individually by
+ * RepositoryDataHandler don't duplicate the ones the batch already saved.
+ */
+public class RepoBatchSaveTest {
+
+	public static final int NUM_OBJECTS = 300;
+	public static final int BATCH_SIZE = 64;
+	public static final int CONTENT_SIZE = 500;
+
+	File _repoDir;
+	ContentName _prefix = new ContentName("repoTest", "batchSave");
+	Signature _signature;
+	SignedInfo _signedInfo;
+
+	/**
+	 * Store which saves only the start of a batch and then fails
+	 */
+	static class FailingRepoStore extends LogStructRepoStore {
+		int _failAfter = -1;
+
+		@Override
+		public ArrayList<NameEnumerationResponse> saveContent(List<ContentObject> content) throws RepositoryException {
+			if (_failAfter < 0 || content.size() <= _failAfter)
+				return super.saveContent(content);
+			super.saveContent(content.subList(0, _failAfter));
+			throw new RepositoryException("Simulated failure after " + _failAfter + " objects");
+		}
+	}
+
+	@Before
+	public void setUp() throws Exception {
+		String root = System.getProperty("REPO_ROOT");
+		if (null == root)
+			root = "repotest";
+		_repoDir = new File(root + "BatchSave");
+		DataUtils.deleteDirectory(_repoDir);
+		_repoDir.mkdirs();
+
+		Random rnd = new Random(1);
+		byte [] fakeSigBytes = new byte[128];
+		byte [] publisher = new byte[32];
+		rnd.nextBytes(fakeSigBytes);
+		rnd.nextBytes(publisher);
+		_signature = new Signature(fakeSigBytes);
+		_signedInfo = new SignedInfo(new PublisherPublicKeyDigest(publisher), CCNTime.now(), SignedInfo.ContentType.DATA, null);
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		DataUtils.deleteDirectory(_repoDir);
+	}
+
+	@Test
+	public void testBatchSave() throws Exception {
+		ArrayList<ContentObject> objects = objects(0, NUM_OBJECTS);
+		LogStructRepoStore repo = open(new LogStructRepoStore());
+		for (int i = 0; i < NUM_OBJECTS; i += BATCH_SIZE) {
+			List<ContentObject> batch = objects.subList(i, Math.min(i + BATCH_SIZE, NUM_OBJECTS));
+			Assert.assertEquals(batch.size(), repo.saveContent(batch).size());
+		}
+		check(repo, objects);
+		Assert.assertEquals(encodedSize(objects), contentSize());
+		repo.shutDown();
+
+		LogStructRepoStore restarted = open(new LogStructRepoStore());
+		check(restarted, objects);
+		restarted.shutDown();
+	}
+
+	@Test
+	public void testPartialBatchFailure() throws Exception {
+		FailingRepoStore repo = (FailingRepoStore)open(new FailingRepoStore());
+		ArrayList<ContentObject> batch = objects(0, BATCH_SIZE);
+		// An object which can't be encoded fails the batch but not the objects around it
+		ContentObject bad = new ContentObject(new ContentName(_prefix, "bad"), _signedInfo, new byte[CONTENT_SIZE], (Signature)null);
+		batch.add(BATCH_SIZE / 2, bad);
+		repo._failAfter = BATCH_SIZE / 4;
+
+		List<NameEnumerationResponse> ners = RepositoryDataHandler.saveContent(repo, batch);
+		Assert.assertEquals(batch.size(), ners.size());
+		batch.remove(bad);
+		check(repo, batch);
+		Assert.assertNull(repo.getContent(new Interest(bad.name())));
+		// Each object is stored once
+		Assert.assertEquals(encodedSize(batch), contentSize());
+		repo.shutDown();
+
+		LogStructRepoStore restarted = open(new LogStructRepoStore());
+		check(restarted, batch);
+		restarted.shutDown();
+	}
+
+	private LogStructRepoStore open(LogStructRepoStore repo) throws Exception {
+		repo.initialize(_repoDir.getPath(), null, "BatchSaveRepository", "/parc.com/csl/ccn/repositories/BatchSaveRepository", null, null);
+		return repo;
+	}
+
+	private ArrayList<ContentObject> objects(int start, int count) {
+		ArrayList<ContentObject> objects = new ArrayList<ContentObject>(count);
+		for (int i = start; i < start + count; i++) {
+			byte [] content = new byte[CONTENT_SIZE];
+			new Random(i).nextBytes(content);
+			objects.add(new ContentObject(new ContentName(_prefix, "object" + i), _signedInfo, content, _signature));
+		}
+		return objects;
+	}
+
+	private void check(LogStructRepoStore repo, List<ContentObject> objects) throws Exception {
+		for (ContentObject co : objects)
+			Assert.assertEquals(co, repo.getContent(new Interest(co.name())));
+	}
+
+	private long encodedSize(List<ContentObject> objects) throws Exception {
+		long size = 0;
+		for (ContentObject co : objects)
+			size += co.encode().length;
+		return size;
+	}
+
+	private long contentSize() {
+		long size = 0;
+		for (File f : _repoDir.listFiles()) {
+			if (f.getName().startsWith(LogStructRepoStore.LogStructRepoStoreProfile.CONTENT_FILE_PREFIX))
+				size += f.length();
+		}
+		return size;
+	}
+}
@@ -0,0 +1,141 @@
+/*
+ * A CCNx library test.
+ *
+ * Copyright (C) 2013 Palo Alto Research Center, Inc.
+ *
+ * This work is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License version 2 as published by the
+ * Free Software Foundation.
+ * This work is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License
+ * for more details. You should have received a copy of the GNU General Public
+ * License along with this program; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor,
+ * Boston, MA 02110-1301, USA.
+ */
+
+package org.ccnx.ccn.repo;
+
+import java.io.File;
+import java.util.Random;
+
+import org.ccnx.ccn.impl.repo.LogStructRepoStore;
+import org.ccnx.ccn.impl.support.DataUtils;
+import org.ccnx.ccn.protocol.CCNTime;
+import org.ccnx.ccn.protocol.ContentName;
+import org.ccnx.ccn.protocol.ContentObject;
+import org.ccnx.ccn.protocol.Interest;
+import org.ccnx.ccn.protocol.PublisherPublicKeyDigest;
+import org.ccnx.ccn.protocol.Signature;
+import org.ccnx.ccn.protocol.SignedInfo;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Check that LogStructRepoStore rolls over to new files and that compacting files full of
+ * duplicates keeps all the content reachable, before and after a restart.
+ */
+public class RepoCompactionTest {
+
+	public static final int NUM_OBJECTS = 1000;
+	public static final long SEGMENT_SIZE = 100000;
+
+	File _repoDir;
+	ContentName _prefix = new ContentName("repoTest", "compaction");
+	Signature _signature;
+	SignedInfo _signedInfo;
+
+	@Before
+	public void setUp() throws Exception {
+		String root = System.getProperty("REPO_ROOT");
+		if (null == root)
+			root = "repotest";
+		_repoDir = new File(root + "Compaction");
+		DataUtils.deleteDirectory(_repoDir);
+		_repoDir.mkdirs();
+
+		Random rnd = new Random(1);
+		byte [] fakeSigBytes = new byte[128];
+		byte [] publisher = new byte[32];
+		rnd.nextBytes(fakeSigBytes);
+		rnd.nextBytes(publisher);
+		_signature = new Signature(fakeSigBytes);
+		_signedInfo = new SignedInfo(new PublisherPublicKeyDigest(publisher), CCNTime.now(), SignedInfo.ContentType.DATA, null);
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		DataUtils.deleteDirectory(_repoDir);
+	}
+
+	@Test
+	public void testNoRolloverByDefault() throws Exception {
+		LogStructRepoStore repo = new LogStructRepoStore();
+		repo.initialize(_repoDir.getPath(), null, "CompactionRepository", "/parc.com/csl/ccn/repositories/CompactionRepository", null, null);
+		save(repo);
+		Assert.assertEquals(1, contentFiles());
+		repo.shutDown();
+	}
+
+	@Test
+	public void testCompaction() throws Exception {
+		LogStructRepoStore repo = open();
+		// Everything the second time round is a duplicate
+		save(repo);
+		save(repo);
+		Assert.assertTrue(contentFiles() > 1);
+		long before = contentSize();
+		Assert.assertTrue(before > 2 * NUM_OBJECTS * 500);
+
+		// The first run picks a file, the next deletes what it replaced
+		for (int i = 0; i < 10; i++)
+			repo.compact();
+		check(repo);
+		long after = contentSize();
+		System.out.println("Compaction reduced content files from " + before + " to " + after + " bytes");
+		Assert.assertTrue(after < before);
+		repo.shutDown();
+
+		LogStructRepoStore restarted = open();
+		check(restarted);
+		restarted.shutDown();
+	}
+
+	private LogStructRepoStore open() throws Exception {
+		LogStructRepoStore repo = new LogStructRepoStore();
+		repo.setSegmentSize(SEGMENT_SIZE);
+		repo.initialize(_repoDir.getPath(), null, "CompactionRepository", "/parc.com/csl/ccn/repositories/CompactionRepository", null, null);
+		return repo;
+	}
+
+	private void save(LogStructRepoStore repo) throws Exception {
+		for (int i = 0; i < NUM_OBJECTS; i++)
+			repo.saveContent(new ContentObject(new ContentName(_prefix, "object" + i), _signedInfo, new byte[500], _signature));
+	}
+
+	private void check(LogStructRepoStore repo) throws Exception {
+		for (int i = 0; i < NUM_OBJECTS; i++)
+			Assert.assertNotNull("missing object" + i, repo.getContent(new Interest(new ContentName(_prefix, "object" + i))));
+	}
+
+	private int contentFiles() {
+		int count = 0;
+		for (File f : _repoDir.listFiles()) {
+			if (f.getName().startsWith(LogStructRepoStore.LogStructRepoStoreProfile.CONTENT_FILE_PREFIX))
+				count++;
+		}
+		return count;
+	}
+
+	private long contentSize() {
+		long size = 0;
+		for (File f : _repoDir.listFiles()) {
+			if (f.getName().startsWith(LogStructRepoStore.LogStructRepoStoreProfile.CONTENT_FILE_PREFIX))
+				size += f.length();
+		}
+		return size;
+	}
+}
@@ -0,0 +1,184 @@
+/*
+ * A CCNx library test.
+ *
+ * Copyright (C) 2013 Palo Alto Research Center, Inc.
+ *
+ * This work is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License version 2 as published by the
+ * Free Software Foundation.
+ * This work is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License
+ * for more details. You should have received a copy of the GNU General Public
+ * License along with this program; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor,
+ * Boston, MA 02110-1301, USA.
+ */
+
+package org.ccnx.ccn.repo;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import org.ccnx.ccn.impl.repo.LogStructRepoStore;
+import org.ccnx.ccn.impl.support.DataUtils;
+import org.ccnx.ccn.protocol.CCNTime;
+import org.ccnx.ccn.protocol.ContentName;
+import org.ccnx.ccn.protocol.ContentObject;
+import org.ccnx.ccn.protocol.Interest;
+import org.ccnx.ccn.protocol.PublisherPublicKeyDigest;
+import org.ccnx.ccn.protocol.Signature;
+import org.ccnx.ccn.protocol.SignedInfo;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Check that LogStructRepoStore finds all of its content when it restarts from an index
+ * checkpoint, both with content written after the checkpoint and with a damaged checkpoint,
+ * including one whose counts and lengths are out of range.
+ */
+public class RepoIndexCheckpointTest {
+
+	public static final int NUM_OBJECTS = 1000;
+
+	File _repoDir;
+	ContentName _prefix = new ContentName("repoTest", "indexCheckpoint");
+	Signature _signature;
+	SignedInfo _signedInfo;
+
+	@Before
+	public void setUp() throws Exception {
+		String root = System.getProperty("REPO_ROOT");
+		if (null == root)
+			root = "repotest";
+		_repoDir = new File(root + "Checkpoint");
+		DataUtils.deleteDirectory(_repoDir);
+		_repoDir.mkdirs();
+
+		Random rnd = new Random(1);
+		byte [] fakeSigBytes = new byte[128];
+		byte [] publisher = new byte[32];
+		rnd.nextBytes(fakeSigBytes);
+		rnd.nextBytes(publisher);
+		_signature = new Signature(fakeSigBytes);
+		_signedInfo = new SignedInfo(new PublisherPublicKeyDigest(publisher), CCNTime.now(), SignedInfo.ContentType.DATA, null);
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		DataUtils.deleteDirectory(_repoDir);
+	}
+
+	@Test
+	public void testRestartWithTail() throws Exception {
+		LogStructRepoStore repo = open();
+		save(repo, 0, NUM_OBJECTS);
+		Assert.assertTrue(repo.checkpointIndex());
+		save(repo, NUM_OBJECTS, NUM_OBJECTS * 2);
+
+		// Don't shut down - the second half is only in the log
+		LogStructRepoStore restarted = open();
+		check(restarted, NUM_OBJECTS * 2);
+		restarted.shutDown();
+		repo.shutDown();
+	}
+
+	@Test
+	public void testDamagedCheckpoint() throws Exception {
+		LogStructRepoStore repo = open();
+		save(repo, 0, NUM_OBJECTS);
+		repo.shutDown();
+
+		File checkpoint = new File(_repoDir, LogStructRepoStore.LogStructRepoStoreProfile.META_DIR + File.separator + "index");
+		Assert.assertTrue(checkpoint.exists());
+		RandomAccessFile raf = new RandomAccessFile(checkpoint, "rw");
+		long pos = raf.length() / 2;
+		raf.seek(pos);
+		int b = raf.read();
+		raf.seek(pos);
+		raf.write(b ^ 0xff);
+		raf.close();
+
+		LogStructRepoStore restarted = open();
+		check(restarted, NUM_OBJECTS);
+		restarted.shutDown();
+	}
+
+	/**
+	 * Counts and lengths in the checkpoint which are out of range, or a checkpoint which ends
+	 * early, are caught before they are used, and the store still opens.
+	 */
+	@Test
+	public void testCorruptCheckpointCounts() throws Exception {
+		LogStructRepoStore repo = open();
+		save(repo, 0, NUM_OBJECTS);
+		repo.shutDown();
+
+		File checkpoint = new File(_repoDir, LogStructRepoStore.LogStructRepoStoreProfile.META_DIR + File.separator + "index");
+		byte [] good = read(checkpoint);
+		int nfiles = ByteBuffer.wrap(good, 8, 4).getInt();
+		int firstRef = 12 + 28 * nfiles;
+		byte [][] corrupt = new byte[5][];
+		corrupt[0] = putInt(good, 8, Integer.MAX_VALUE);	// file count
+		corrupt[1] = putInt(good, 8, -1);
+		corrupt[2] = putShort(good, firstRef + 12, (short)-1);	// component count
+		corrupt[3] = putInt(good, firstRef + 14, Integer.MAX_VALUE);	// component length
+		corrupt[4] = new byte[good.length / 2];		// truncated
+		System.arraycopy(good, 0, corrupt[4], 0, corrupt[4].length);
+
+		for (byte [] bytes : corrupt) {
+			FileOutputStream fos = new FileOutputStream(checkpoint);
+			fos.write(bytes);
+			fos.close();
+			LogStructRepoStore restarted = open();
+			check(restarted, NUM_OBJECTS);
+			restarted.shutDown();
+		}
+	}
+
+	private static byte [] read(File file) throws Exception {
+		byte [] bytes = new byte[(int)file.length()];
+		DataInputStream dis = new DataInputStream(new FileInputStream(file));
+		dis.readFully(bytes);
+		dis.close();
+		return bytes;
+	}
+
+	private static byte [] putInt(byte [] bytes, int offset, int value) {
+		byte [] copy = bytes.clone();
+		ByteBuffer.wrap(copy).putInt(offset, value);
+		return copy;
+	}
+
+	private static byte [] putShort(byte [] bytes, int offset, short value) {
+		byte [] copy = bytes.clone();
+		ByteBuffer.wrap(copy).putShort(offset, value);
+		return copy;
+	}
+
+	private LogStructRepoStore open() throws Exception {
+		LogStructRepoStore repo = new LogStructRepoStore();
+		repo.initialize(_repoDir.getPath(), null, "CheckpointRepository", "/parc.com/csl/ccn/repositories/CheckpointRepository", null, null);
+		return repo;
+	}
+
+	private void save(LogStructRepoStore repo, int from, int to) throws Exception {
+		for (int i = from; i < to; i++)
+			repo.saveContent(new ContentObject(new ContentName(_prefix, "object" + i), _signedInfo, ("content" + i).getBytes(), _signature));
+	}
+
+	private void check(LogStructRepoStore repo, int count) throws Exception {
+		for (int i = 0; i < count; i++) {
+			ContentObject co = repo.getContent(new Interest(new ContentName(_prefix, "object" + i)));
+			Assert.assertNotNull("missing object" + i, co);
+			Assert.assertEquals("content" + i, new String(co.content()));
+		}
+	}
+}
@@ -0,0 +1,124 @@
+/*
+ * A CCNx library test.
+ *
+ * Copyright (C) 2013 Palo Alto Research Center, Inc.
+ *
+ * This work is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License version 2 as published by the
+ * Free Software Foundation.
+ * This work is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License
+ * for more details. You should have received a copy of the GNU General Public
+ * License along with this program; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor,
+ * Boston, MA 02110-1301, USA.
+ */
+
+package org.ccnx.ccn.security.crypto;
+
+import java.util.Random;
+
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+
+import org.ccnx.ccn.KeyManager;
+import org.ccnx.ccn.impl.security.crypto.ContentKeys;
+import org.ccnx.ccn.impl.security.crypto.KDFContentKeys;
+import org.ccnx.ccn.impl.security.crypto.KeyDerivationFunction;
+import org.ccnx.ccn.impl.security.crypto.util.CryptoInstances;
+import org.ccnx.ccn.protocol.ContentName;
+import org.ccnx.ccn.protocol.PublisherPublicKeyDigest;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Check the per thread crypto instances, and time the per segment decryption done by
+ * CCNAbstractInputStream when reading encrypted content, with the cached instances and
+ * with a provider lookup for every segment as before.
+ */
+public class CryptoInstancesTest {
+
+	static final int SEGMENT_SIZE = 4096;
+	static final int SEGMENTS = 4096;
+
+	@Test
+	public void testPerThreadInstances() throws Exception {
+		final Cipher cipher = CryptoInstances.getCipher("AES/CTR/NoPadding", KeyManager.PROVIDER);
+		Assert.assertSame(cipher, CryptoInstances.getCipher("AES/CTR/NoPadding", KeyManager.PROVIDER));
+		Assert.assertNotSame(cipher, CryptoInstances.getCipher("AES/CBC/PKCS5Padding", KeyManager.PROVIDER));
+		Mac mac = CryptoInstances.getMac("HmacSHA256", null);
+		Assert.assertSame(mac, CryptoInstances.getMac("HmacSHA256", null));
+
+		final Cipher [] other = new Cipher[1];
+		Thread t = new Thread() {
+			public void run() {
+				try {
+					other[0] = CryptoInstances.getCipher("AES/CTR/NoPadding", KeyManager.PROVIDER);
+				} catch (Exception e) {
+				}
+			}
+		};
+		t.start();
+		t.join();
+		Assert.assertNotNull(other[0]);
+		Assert.assertNotSame(cipher, other[0]);
+
+		CryptoInstances.clear();
+		Assert.assertNotSame(cipher, CryptoInstances.getCipher("AES/CTR/NoPadding", KeyManager.PROVIDER));
+	}
+
+	/**
+	 * Not really a test, compares decrypting a stream's segments with and without
+	 * reusing the cipher. Also checks each segment decrypts correctly.
+	 */
+	@Test
+	public void testSegmentDecryptionThroughput() throws Exception {
+		byte [] master = new byte[ContentKeys.DEFAULT_KEY_LENGTH];
+		new Random(2).nextBytes(master);
+		ContentKeys keys = new KDFContentKeys(master, "CryptoInstancesTest");
+		ContentName name = new ContentName("test", "crypto", "instances");
+		PublisherPublicKeyDigest publisher = new PublisherPublicKeyDigest(new byte[32]);
+
+		byte [] plaintext = new byte[SEGMENT_SIZE];
+		new Random(1).nextBytes(plaintext);
+		byte [][] segments = new byte[SEGMENTS][];
+		for (int i = 0; i < SEGMENTS; i++)
+			segments[i] = keys.getSegmentEncryptionCipher(name, publisher, i).doFinal(plaintext);
+
+		// warm up both ways
+		decryptAll(keys, name, publisher, segments, plaintext, true);
+		decryptAll(keys, name, publisher, segments, plaintext, false);
+
+		System.out.println("==== Decrypting " + SEGMENTS + " segments of " + SEGMENT_SIZE + " bytes");
+		System.out.println("New cipher per segment: " + String.format("%.1f", decryptAll(keys, name, publisher, segments, plaintext, true)) + " MB/s");
+		System.out.println("Cached cipher: " + String.format("%.1f", decryptAll(keys, name, publisher, segments, plaintext, false)) + " MB/s");
+
+		for (boolean lookup : new boolean[]{true, false}) {
+			long start = System.nanoTime();
+			for (int i = 0; i < SEGMENTS; i++) {
+				if (lookup)
+					CryptoInstances.clear();
+				KeyDerivationFunction.DeriveKey(master, 128, "CryptoInstancesTest", null);
+			}
+			System.out.println((lookup ? "New Mac per derivation: " : "Cached Mac: ") +
+					((System.nanoTime() - start) / SEGMENTS) + " ns/key");
+		}
+	}
+
+	private double decryptAll(ContentKeys keys, ContentName name, PublisherPublicKeyDigest publisher,
+			byte [][] segments, byte [] plaintext, boolean lookup) throws Exception {
+		long start = System.nanoTime();
+		for (int i = 0; i < segments.length; i++) {
+			if (lookup)
+				CryptoInstances.clear();
+			Cipher cipher = keys.getSegmentDecryptionCipher(name, publisher, i);
+			byte [] body = cipher.update(segments[i]);
+			byte [] tail = cipher.doFinal();
+			Assert.assertEquals(plaintext.length, body.length + ((null == tail) ? 0 : tail.length));
+			Assert.assertEquals(plaintext[0], body[0]);
+		}
+		double seconds = (System.nanoTime() - start) / 1e9;
+		return segments.length * (double)SEGMENT_SIZE / (1024 * 1024) / seconds;
+	}
+}
@@ -0,0 +1,169 @@
+/*
+ * A CCNx library test.
+ *
+ * Copyright (C) 2013 Palo Alto Research Center, Inc.
+ *
+ * This work is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License version 2 as published by the
+ * Free Software Foundation.
+ * This work is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License
+ * for more details. You should have received a copy of the GNU General Public
+ * License along with this program; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor,
+ * Boston, MA 02110-1301, USA.
+ */
+
+package org.ccnx.ccn.security.crypto;
+
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.util.ArrayList;
+import java.util.Random;
+
+import org.ccnx.ccn.ContentVerifier;
+import org.ccnx.ccn.impl.CCNSegmenter;
+import org.ccnx.ccn.impl.security.crypto.CCNMerkleTree;
+import org.ccnx.ccn.impl.security.crypto.MerkleRootVerifier;
+import org.ccnx.ccn.profiles.SegmentationProfile;
+import org.ccnx.ccn.protocol.CCNTime;
+import org.ccnx.ccn.protocol.ContentName;
+import org.ccnx.ccn.protocol.ContentObject;
+import org.ccnx.ccn.protocol.PublisherPublicKeyDigest;
+import org.ccnx.ccn.protocol.Signature;
+import org.ccnx.ccn.protocol.SignedInfo;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Check that MerkleRootVerifier verifies each root signature once per batch and
+ * still rejects segments that don't aggregate to a verified root. The last test is
+ * a benchmark of verified reads of a large file, with and without amortization.
+ */
+public class MerkleRootVerifierTest {
+
+	static final int SEGMENT_SIZE = 4096;
+	static final int FILE_SIZE = 4 * 1024 * 1024;
+
+	static KeyPair pair = null;
+	static PublisherPublicKeyDigest publisher = null;
+	static ContentName baseName = new ContentName("test","data","merkleRootVerifier");
+
+	/**
+	 * Verifies every object's signature with our key, and counts how often it was asked.
+	 */
+	static class KeyVerifier implements ContentVerifier {
+		int calls = 0;
+
+		public boolean verify(ContentObject content) {
+			calls++;
+			try {
+				return ContentObject.verify(content, pair.getPublic());
+			} catch (Exception e) {
+				return false;
+			}
+		}
+	}
+
+	@BeforeClass
+	public static void setUpBeforeClass() throws Exception {
+		KeyPairGenerator kpg = KeyPairGenerator.getInstance("RSA");
+		kpg.initialize(1024);
+		pair = kpg.generateKeyPair();
+		publisher = new PublisherPublicKeyDigest(pair.getPublic());
+	}
+
+	@Test
+	public void testOneVerificationPerBatch() throws Exception {
+		ArrayList<ContentObject> segments = makeSegments(48, 16, 100);
+		KeyVerifier keys = new KeyVerifier();
+		MerkleRootVerifier verifier = new MerkleRootVerifier(keys);
+		for (ContentObject segment : segments)
+			Assert.assertTrue(verifier.verify(segment));
+		Assert.assertEquals(3, keys.calls);
+		Assert.assertEquals(45, verifier.getStats().getCounter(MerkleRootVerifier.StatsEnum.RootHits.toString()));
+
+		// Segments from earlier batches arriving late are still covered
+		keys.calls = 0;
+		Assert.assertTrue(verifier.verify(segments.get(0)));
+		Assert.assertTrue(verifier.verify(segments.get(20)));
+		Assert.assertEquals(0, keys.calls);
+
+		// Once forgotten we have to verify again
+		verifier.clear();
+		Assert.assertTrue(verifier.verify(segments.get(1)));
+		Assert.assertEquals(1, keys.calls);
+	}
+
+	@Test
+	public void testTamperedSegments() throws Exception {
+		ArrayList<ContentObject> segments = makeSegments(8, 8, 100);
+		KeyVerifier keys = new KeyVerifier();
+		MerkleRootVerifier verifier = new MerkleRootVerifier(keys);
+		Assert.assertTrue(verifier.verify(segments.get(0)));
+
+		// Different content with a copied signature and witness doesn't reach the verified root
+		ContentObject good = segments.get(1);
+		byte [] content = good.content().clone();
+		content[0]++;
+		ContentObject tampered = new ContentObject(good.name(), good.signedInfo(), content, good.signature());
+		Assert.assertFalse(verifier.verify(tampered));
+		Assert.assertEquals(2, keys.calls);
+		Assert.assertTrue(verifier.verify(good));
+		Assert.assertEquals(2, keys.calls);
+	}
+
+	/**
+	 * Not really a test, compares verified read throughput for a file segmented the way
+	 * CCNSegmenter does it, verifying every segment's root signature or once per batch.
+	 */
+	@Test
+	public void testVerifiedReadThroughput() throws Exception {
+		ArrayList<ContentObject> segments = makeSegments(FILE_SIZE / SEGMENT_SIZE, CCNSegmenter.HOLD_COUNT, SEGMENT_SIZE);
+		KeyVerifier warmup = new KeyVerifier();
+		for (ContentObject segment : segments)
+			Assert.assertTrue(warmup.verify(segment));
+
+		System.out.println("==== Verifying " + segments.size() + " segments of " + SEGMENT_SIZE + " bytes");
+		KeyVerifier keys = new KeyVerifier();
+		long start = System.nanoTime();
+		for (ContentObject segment : segments)
+			Assert.assertTrue(keys.verify(segment));
+		report("per segment", System.nanoTime() - start, keys.calls);
+
+		keys = new KeyVerifier();
+		MerkleRootVerifier verifier = new MerkleRootVerifier(keys);
+		start = System.nanoTime();
+		for (ContentObject segment : segments)
+			Assert.assertTrue(verifier.verify(segment));
+		report("per batch", System.nanoTime() - start, keys.calls);
+		Assert.assertEquals((segments.size() + CCNSegmenter.HOLD_COUNT - 1) / CCNSegmenter.HOLD_COUNT, keys.calls);
+	}
+
+	private void report(String label, long elapsed, int signatureChecks) {
+		double seconds = elapsed / 1e9;
+		System.out.println(label + ": " + signatureChecks + " signature verifications, " +
+				String.format("%.1f", FILE_SIZE / (1024.0 * 1024.0) / seconds) + " MB/s");
+	}
+
+	private ArrayList<ContentObject> makeSegments(int count, int batchSize, int segmentSize) throws Exception {
+		Random rand = new Random(count);
+		ArrayList<ContentObject> segments = new ArrayList<ContentObject>(count);
+		for (int first = 0; first < count; first += batchSize) {
+			int n = Math.min(batchSize, count - first);
+			ContentObject [] batch = new ContentObject[n];
+			for (int i = 0; i < n; i++) {
+				byte [] content = new byte[segmentSize];
+				rand.nextBytes(content);
+				SignedInfo signedInfo = new SignedInfo(publisher, CCNTime.now(), SignedInfo.ContentType.DATA, null);
+				batch[i] = new ContentObject(SegmentationProfile.segmentName(baseName, first + i), signedInfo, content, (Signature)null);
+			}
+			new CCNMerkleTree(batch, pair.getPrivate());
+			for (ContentObject segment : batch)
+				segments.add(segment);
+		}
+		return segments;
+	}
+}
@@ -0,0 +1,140 @@
+/*
+ * A CCNx library test.
+ *
+ * Copyright (C) 2013 Palo Alto Research Center, Inc.
+ *
+ * This work is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License version 2 as published by the
+ * Free Software Foundation.
+ * This work is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License
+ * for more details. You should have received a copy of the GNU General Public
+ * License along with this program; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor,
+ * Boston, MA 02110-1301, USA.
+ */
+
+package org.ccnx.ccn.security.crypto;
+
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.util.Random;
+
+import org.ccnx.ccn.config.SystemConfiguration;
+import org.ccnx.ccn.impl.CCNSegmenter;
+import org.ccnx.ccn.impl.security.crypto.CCNMerkleTree;
+import org.ccnx.ccn.impl.security.crypto.MerkleTree;
+import org.ccnx.ccn.profiles.SegmentationProfile;
+import org.ccnx.ccn.protocol.CCNTime;
+import org.ccnx.ccn.protocol.ContentName;
+import org.ccnx.ccn.protocol.ContentObject;
+import org.ccnx.ccn.protocol.PublisherPublicKeyDigest;
+import org.ccnx.ccn.protocol.Signature;
+import org.ccnx.ccn.protocol.SignedInfo;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Check that Merkle trees built with SystemConfiguration.SEGMENTER_THREADS above 1
+ * produce exactly the same segments as the sequential build, and time both.
+ */
+public class ParallelMerkleTreeTest {
+
+	static final int PARALLEL_THREADS = Math.max(8, Runtime.getRuntime().availableProcessors());
+	static final int SEGMENT_SIZE = 4096;
+	static final int BENCHMARK_BATCHES = 32;
+
+	static KeyPair pair = null;
+	static PublisherPublicKeyDigest publisher = null;
+	static CCNTime timestamp = CCNTime.now();
+	static ContentName baseName = new ContentName("test","data","parallelMerkleTree");
+	static int savedThreads;
+
+	@BeforeClass
+	public static void setUpBeforeClass() throws Exception {
+		savedThreads = SystemConfiguration.SEGMENTER_THREADS;
+		KeyPairGenerator kpg = KeyPairGenerator.getInstance("RSA");
+		kpg.initialize(1024);
+		pair = kpg.generateKeyPair();
+		publisher = new PublisherPublicKeyDigest(pair.getPublic());
+	}
+
+	@AfterClass
+	public static void tearDownAfterClass() {
+		SystemConfiguration.SEGMENTER_THREADS = savedThreads;
+	}
+
+	@Test
+	public void testIdenticalTrees() throws Exception {
+		Random rand = new Random(42);
+		for (int leaves = 2; leaves < 300; leaves += 7) {
+			byte [] content = new byte[leaves * 100 - 13];
+			rand.nextBytes(content);
+
+			SystemConfiguration.SEGMENTER_THREADS = 1;
+			MerkleTree sequential = new MerkleTree(content, 0, content.length, 100);
+			SystemConfiguration.SEGMENTER_THREADS = PARALLEL_THREADS;
+			MerkleTree parallel = new MerkleTree(content, 0, content.length, 100);
+
+			Assert.assertEquals(sequential.size(), parallel.size());
+			for (int i = 1; i <= sequential.size(); i++)
+				Assert.assertArrayEquals(sequential.get(i), parallel.get(i));
+		}
+	}
+
+	@Test
+	public void testIdenticalSegments() throws Exception {
+		for (int count : new int[]{2, 9, 33, CCNSegmenter.HOLD_COUNT}) {
+			SystemConfiguration.SEGMENTER_THREADS = 1;
+			ContentObject [] sequential = makeBatch(count, 500);
+			new CCNMerkleTree(sequential, pair.getPrivate());
+			SystemConfiguration.SEGMENTER_THREADS = PARALLEL_THREADS;
+			ContentObject [] parallel = makeBatch(count, 500);
+			new CCNMerkleTree(parallel, pair.getPrivate());
+
+			for (int i = 0; i < count; i++) {
+				Assert.assertArrayEquals(sequential[i].encode(), parallel[i].encode());
+				Assert.assertTrue(parallel[i].verify(pair.getPublic()));
+			}
+		}
+	}
+
+	/**
+	 * Not really a test, times signing batches of CCNSegmenter.HOLD_COUNT segments.
+	 * Only shows a speedup on machines with several cores.
+	 */
+	@Test
+	public void testSigningThroughput() throws Exception {
+		for (int threads : new int[]{1, PARALLEL_THREADS}) {
+			SystemConfiguration.SEGMENTER_THREADS = threads;
+			ContentObject [][] batches = new ContentObject[BENCHMARK_BATCHES][];
+			for (int i = 0; i < batches.length; i++)
+				batches[i] = makeBatch(CCNSegmenter.HOLD_COUNT, SEGMENT_SIZE);
+			// warm up
+			new CCNMerkleTree(makeBatch(CCNSegmenter.HOLD_COUNT, SEGMENT_SIZE), pair.getPrivate());
+
+			long start = System.nanoTime();
+			for (ContentObject [] batch : batches)
+				new CCNMerkleTree(batch, pair.getPrivate());
+			double seconds = (System.nanoTime() - start) / 1e9;
+			double mb = BENCHMARK_BATCHES * CCNSegmenter.HOLD_COUNT * (double)SEGMENT_SIZE / (1024 * 1024);
+			System.out.println("Signing with " + threads + " threads (" + Runtime.getRuntime().availableProcessors() +
+					" processors): " + String.format("%.1f", mb / seconds) + " MB/s");
+		}
+	}
+
+	private ContentObject [] makeBatch(int count, int segmentSize) {
+		Random rand = new Random(count);
+		ContentObject [] batch = new ContentObject[count];
+		for (int i = 0; i < count; i++) {
+			byte [] content = new byte[segmentSize];
+			rand.nextBytes(content);
+			SignedInfo signedInfo = new SignedInfo(publisher, timestamp, SignedInfo.ContentType.DATA, null);
+			batch[i] = new ContentObject(SegmentationProfile.segmentName(baseName, i), signedInfo, content, (Signature)null);
+		}
+		return batch;
+	}
+}